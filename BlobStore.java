@@ -0,0 +1,282 @@
+package assignment;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class Description: The server's store of images that have been sent, keyed
+ * by the SHA-256 hash of the image file's bytes, so the same image is only
+ * ever uploaded once (while it is still stored) however many times it is
+ * shared.
+ *
+ * Each image is kept as its encoded ImageMessage frame, ready to be sent to
+ * any client. The frames are kept in memory in least recently used order, up
+ * to a total number of bytes; when that is exceeded the least recently used
+ * frames are evicted. If a spill directory is set, evicted frames are written
+ * to it (one file per hash) and read back in the next time they are needed.
+ *
+ * The size limit and spill directory are set with the chat.blobs.maxBytes
+ * and chat.blobs.dir system properties (no spill directory by default).
+ *
+ * The store also counts how often an offered image was already stored (its
+ * hit ratio) and how many image bytes didn't have to be sent because of it.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class BlobStore
+{
+    //bytes of images kept in memory:
+    public static final long MAX_BYTES =
+        Long.getLong("chat.blobs.maxBytes", 64L * 1024 * 1024);
+    //directory evicted images are written to (null if they're just dropped):
+    public static final String SPILL_DIR = System.getProperty("chat.blobs.dir");
+
+    private final long maxBytes;
+    private final Path spillDir;
+    private final ReentrantLock lock = new ReentrantLock();
+    //image frames by hash, least recently used first:
+    private final LinkedHashMap<String, Frame> frames =
+        new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;     //bytes currently in memory
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    /**
+     * Constructor for this class
+     *
+     * @param maxBytes bytes of images to keep in memory
+     * @param spillDir directory to write evicted images to, or null to just
+     * drop them (it is created when first needed)
+     */
+    public BlobStore(long maxBytes, String spillDir)
+    {
+        this.maxBytes = maxBytes;
+        this.spillDir = spillDir == null ? null : Paths.get(spillDir);
+    }
+
+    /**
+     * Stores an image's frame, evicting the least recently used images if
+     * the store is now too big.
+     *
+     * @param key the image's hash (see key)
+     * @param frame the image's encoded ImageMessage
+     */
+    public void put(String key, Frame frame)
+    {
+        List<Map.Entry<String, Frame>> evicted = new ArrayList<>();
+
+        lock.lock();
+        try
+        {
+            Frame old = frames.put(key, frame);
+            bytes += frame.length() - (old == null ? 0 : old.length());
+
+            Iterator<Map.Entry<String, Frame>> it = frames.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext())
+            {
+                Map.Entry<String, Frame> eldest = it.next();
+                if (eldest.getKey().equals(key))  //never evict the newest
+                    continue;
+                it.remove();
+                bytes -= eldest.getValue().length();
+                evicted.add(eldest);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        //write evicted images to disk without holding up other clients:
+        for (Map.Entry<String, Frame> e : evicted)
+            spill(e.getKey(), e.getValue());
+    }
+
+    /**
+     * Finds a stored image, reading it back from the spill directory if it
+     * has been evicted from memory.
+     *
+     * @param key the image's hash (see key)
+     * @return the image's frame, or null if it isn't stored
+     */
+    public Frame get(String key)
+    {
+        lock.lock();
+        try
+        {
+            Frame frame = frames.get(key);
+            if (frame != null || spillDir == null)
+                return frame;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        Frame frame = unspill(key);
+        if (frame != null)
+            put(key, frame);
+        return frame;
+    }
+
+    /**
+     * Finds a stored image that a client has offered, counting whether it
+     * was already stored towards the hit ratio.
+     *
+     * @param key the image's hash (see key)
+     * @return the image's frame, or null if the client needs to upload it
+     */
+    public Frame lookup(String key)
+    {
+        Frame frame = get(key);
+        lookups.increment();
+        if (frame != null)
+            hits.increment();
+        return frame;
+    }
+
+    /**
+     * Counts image bytes that didn't need to be sent.
+     *
+     * @param saved the number of bytes
+     */
+    public void saved(long saved)
+    {
+        bytesSaved.add(saved);
+    }
+
+    /**
+     * @return the fraction of offered images that were already stored (0 if
+     * none have been offered)
+     */
+    public double getHitRatio()
+    {
+        long total = lookups.sum();
+        return total == 0 ? 0 : (double) hits.sum() / total;
+    }
+
+    /**
+     * @return the number of image bytes that didn't need to be sent
+     */
+    public long getBytesSaved()
+    {
+        return bytesSaved.sum();
+    }
+
+    /**
+     * @return the number of image bytes in memory
+     */
+    public long getBytes()
+    {
+        lock.lock();
+        try
+        {
+            return bytes;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the hit ratio and bytes saved, for the server's console
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("Image store: %d/%d offers hit (%.1f%%), "
+            + "%d bytes saved", hits.sum(), lookups.sum(),
+            getHitRatio() * 100, getBytesSaved());
+    }
+
+    /**
+     * Turns an image's SHA-256 hash into the key it is stored under.
+     *
+     * @param hash the hash
+     * @return the hash as lowercase hex
+     */
+    public static String key(byte[] hash)
+    {
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash)
+        {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Helper method which writes an evicted image to the spill directory (if
+     * there is one, and it isn't already there).
+     *
+     * @param key the image's hash
+     * @param frame the image's frame
+     */
+    private void spill(String key, Frame frame)
+    {
+        if (spillDir == null)
+            return;
+
+        Path file = spillDir.resolve(key);
+        if (Files.exists(file))
+            return;
+
+        //write to a temporary file first, so a half written image is
+        //never read back:
+        Path tmp = spillDir.resolve(key + ".tmp");
+        try
+        {
+            Files.createDirectories(spillDir);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp)))
+            {
+                frame.writeTo(out);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e);
+        }
+    }
+
+    /**
+     * Helper method which reads an image back from the spill directory,
+     * checking that it is still the image it was stored as.
+     *
+     * @param key the image's hash
+     * @return the image's frame, or null if it isn't there (or is damaged)
+     */
+    private Frame unspill(String key)
+    {
+        Path file = spillDir.resolve(key);
+        if (!Files.exists(file))
+            return null;
+
+        try
+        {
+            byte[] bytes = Files.readAllBytes(file);
+            int length = MessageCodec.peekLength(ByteBuffer.wrap(bytes));
+            if (length < 0 || MessageCodec.varintSize(length) + length != bytes.length)
+                return null;
+            Message m = MessageCodec.decode(bytes, bytes.length - length, length);
+
+            if (m instanceof ImageMessage
+                && key.equals(key(((ImageMessage) m).getHash())))
+                return new Frame(bytes);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e);
+        }
+        return null;
+    }
+}
\ No newline at end of file
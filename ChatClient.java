@@ -0,0 +1,972 @@
+package assignment;
+
+import java.io.*;
+import java.net.Socket;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class Description: The client's side of the chat protocol, without any
+ * user interface, so the same code can run behind a window (ClientGUI) or
+ * thousands of times over in one process (LoadGenerator).
+ *
+ * A ChatClient says hello, agrees on features with the server, keeps the
+ * list of members of its room up to date (asking for a new snapshot if it
+ * misses a version), keeps a cache of images by hash, acks images streamed
+ * to it and streams big images itself. Everything the server sends is
+ * passed to a Listener once it has been dealt with.
+ *
+ * If the server agrees to tracing, one in chat.trace.sample (default 16) of
+ * the text messages sent carry a trace, chosen at random, and every traced
+ * message received is reported back once the listener has shown it (see
+ * Traces).
+ *
+ * Bytes can go either way over a blocking Socket (connect, then run reads
+ * until the connection closes) or over any other Transport (start, then
+ * pass each message received to receive, and call closed at the end).
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class ChatClient implements Runnable
+{
+    /**
+     * Interface for what a ChatClient tells its user about. Every method
+     * does nothing unless overridden, and is called from whichever thread
+     * receives messages.
+     */
+    public interface Listener
+    {
+        /**
+         * The server has given this client its username.
+         *
+         * @param username the username
+         */
+        default void joined(String username)
+        {
+
+        }
+
+        /**
+         * A text message has arrived.
+         *
+         * @param sender the user who sent it, or null for the server's own
+         * @param text the message
+         */
+        default void message(String sender, String text)
+        {
+
+        }
+
+        /**
+         * A traced text message has arrived (see TraceContext). Unless
+         * overridden, it is passed to message and counts as shown once that
+         * has returned.
+         *
+         * @param sender the user who sent it
+         * @param text the message
+         * @param shown to be run (from any thread) once the message has been
+         * shown
+         */
+        default void message(String sender, String text, Runnable shown)
+        {
+            message(sender, text);
+            shown.run();
+        }
+
+        /**
+         * The list of members of this client's room has changed.
+         *
+         * @param members the members (can't be changed)
+         */
+        default void rosterChanged(List<String> members)
+        {
+
+        }
+
+        /**
+         * The server has moved this client to another room.
+         *
+         * @param room the room's name
+         */
+        default void roomChanged(String room)
+        {
+
+        }
+
+        /**
+         * An image has arrived (or been found in the cache).
+         *
+         * @param image the image
+         */
+        default void image(ImageMessage image)
+        {
+
+        }
+
+        /**
+         * An image streamed from the server has been saved to a file.
+         *
+         * @param file the temporary file
+         */
+        default void imageFile(File file)
+        {
+
+        }
+
+        /**
+         * A page of search results has arrived.
+         *
+         * @param results the results
+         */
+        default void results(SearchMessage results)
+        {
+
+        }
+
+        /**
+         * The server doesn't speak any of this client's protocol versions.
+         */
+        default void rejected()
+        {
+
+        }
+
+        /**
+         * The connection has closed.
+         */
+        default void disconnected()
+        {
+
+        }
+    }
+
+    /**
+     * Interface for whatever carries a ChatClient's frames to the server.
+     */
+    public interface Transport
+    {
+        /**
+         * Sends a complete frame (see MessageCodec).
+         *
+         * @param frame the frame
+         * @throws IOException if the connection is closed
+         */
+        void send(byte[] frame) throws IOException;
+
+        /**
+         * Closes the connection.
+         */
+        void close();
+    }
+
+    //one in this many text messages sent is traced, if the server agreed to
+    //it (0 for none):
+    public static final int TRACE_SAMPLE = Integer.getInteger("chat.trace.sample", 16);
+    //traced messages shown are reported this many at a time, or sooner with
+    //the next one shown once the first has waited this long (microseconds):
+    private static final int TRACE_BATCH = 32;
+    private static final long TRACE_DELAY = 2000000;
+    //picks each client's resume key:
+    private static final SecureRandom KEYS = new SecureRandom();
+
+    private final Listener listener;
+    private final int features;     //features asked for in the hello
+    private Transport transport;
+    private DataInputStream in;     //input stream from server (connect only)
+
+    private volatile String username;   //the client's unique name
+    private volatile String room = Rooms.LOBBY;    //room this client is in
+    //features the server has agreed to (0 until its hello arrives):
+    private volatile int agreed = 0;
+    //members of the room (only used by the thread receiving messages), and
+    //a copy for anyone else:
+    private final List<String> members = new ArrayList<>();
+    private volatile List<String> roster = Collections.emptyList();
+    private int rosterVersion = -1; //last roster version applied (-1 if none)
+    private boolean resyncing = false;  //asked for a snapshot, not had it yet
+    //last search, and the cursor for its next page (0 if there isn't one):
+    private volatile String lastQuery;
+    private volatile int nextCursor = 0;
+    //images being streamed to the server, by transfer id:
+    private final Map<Integer, Upload> uploads = new ConcurrentHashMap<>();
+    private final AtomicInteger lastTransferId = new AtomicInteger();
+    //sent with every upload, so only this client can resume one the server
+    //has paused (see TransferMessage):
+    private final byte[] resumeKey = new byte[MessageCodec.RESUME_KEY_LENGTH];
+    //images being streamed from the server, by transfer id (only used by
+    //the thread receiving messages):
+    private final Map<Integer, Download> downloads = new HashMap<>();
+    //traced messages shown but not yet reported (locked on itself):
+    private final List<TraceMessage.Span> spans = new ArrayList<>();
+    //images sent or received, by hash, least recently used first (the
+    //server keeps track of the same images, in the same order):
+    private final LinkedHashMap<String, ImageMessage> images =
+        new LinkedHashMap<String, ImageMessage>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ImageMessage> e)
+        {
+            return size() > MessageCodec.CACHED_IMAGES;
+        }
+    };
+
+    /**
+     * Constructor for a client asking for every feature it supports.
+     *
+     * @param listener told about everything the server sends
+     */
+    public ChatClient(Listener listener)
+    {
+        this(listener, MessageCodec.SUPPORTED_FEATURES);
+    }
+
+    /**
+     * Constructor for a client asking for some features only (i.e. one that
+     * can't spare the memory to cache images).
+     *
+     * @param listener told about everything the server sends
+     * @param features the features to ask for (MessageCodec.FEATURE bits)
+     */
+    public ChatClient(Listener listener, int features)
+    {
+        this.listener = listener;
+        this.features = features & MessageCodec.SUPPORTED_FEATURES;
+        KEYS.nextBytes(resumeKey);
+    }
+
+    /**
+     * Connects to a server over a Socket and says hello. Call run next, to
+     * receive messages.
+     *
+     * @param host the server's host name
+     * @param port the server's port
+     * @throws IOException if the server can't be reached
+     */
+    public void connect(String host, int port) throws IOException
+    {
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+        start(new Transport()
+        {
+            @Override
+            public void send(byte[] frame) throws IOException
+            {
+                out.write(frame);
+                out.flush();
+            }
+
+            @Override
+            public void close()
+            {
+                try
+                {
+                    socket.close();
+                }
+                catch (IOException e)
+                {}
+            }
+        });
+    }
+
+    /**
+     * Starts talking to the server over a transport that is already open, by
+     * saying hello with the protocol versions this client speaks (the server
+     * replies with the one it has chosen).
+     *
+     * @param transport the transport
+     * @throws IOException if the hello can't be sent
+     */
+    public void start(Transport transport) throws IOException
+    {
+        this.transport = transport;
+        send(new HelloMessage(MessageCodec.PROTOCOL_VERSION,
+            MessageCodec.MIN_PROTOCOL_VERSION, features));
+    }
+
+    /**
+     * Receives messages from a server connected to with connect, until the
+     * connection closes.
+     */
+    @Override
+    public void run()
+    {
+        try
+        {
+            Message m;
+            while ((m = MessageCodec.read(in)) != null)
+            {
+                if (!receive(m))
+                    break;
+            }
+        }
+        catch (IOException e)
+        {}
+        finally
+        {
+            close();
+            closed();
+        }
+    }
+
+    /**
+     * Deals with a message from the server, then tells the listener about
+     * it.
+     *
+     * @param m the message
+     * @return false if the server has turned this client away
+     * @throws IOException if a reply can't be sent
+     */
+    public boolean receive(Message m) throws IOException
+    {
+        if (m instanceof HelloMessage)   //server's chosen version
+        {
+            //stop if the server doesn't speak any of our versions:
+            if (((HelloMessage) m).getVersion() == 0)
+            {
+                listener.rejected();
+                return false;
+            }
+            agreed = ((HelloMessage) m).getFeatures();
+        }
+        else if (m instanceof ListMessage)
+        {
+            if (updateList((ListMessage) m))
+            {
+                roster = Collections.unmodifiableList(new ArrayList<>(members));
+                listener.rosterChanged(roster);
+            }
+        }
+        else if (m instanceof ImageMessage)
+        {
+            ImageMessage im = receiveImage((ImageMessage) m);
+            if (im != null)
+                listener.image(im);
+        }
+        else if (m instanceof TransferMessage)
+            receiveTransfer((TransferMessage) m);
+        //server is checking this client is still there:
+        else if (m instanceof PingMessage)
+        {
+            if (((PingMessage) m).getKind() == PingMessage.Kind.PING)
+                send(new PingMessage(PingMessage.Kind.PONG,
+                    ((PingMessage) m).getValue()));
+        }
+        else if (m instanceof SearchMessage)
+        {
+            if (((SearchMessage) m).getKind() == SearchMessage.Kind.RESULTS)
+            {
+                nextCursor = ((SearchMessage) m).getCursor();
+                listener.results((SearchMessage) m);
+            }
+        }
+        //server has moved this client to another room (its list of members
+        //follows):
+        else if (m instanceof RoomMessage)
+        {
+            room = ((RoomMessage) m).getRoom();
+            listener.roomChanged(room);
+        }
+        else if (m instanceof StringMessage)
+        {
+            //the first message is this client's username:
+            if (username == null)
+            {
+                username = ((StringMessage) m).getMessage();
+                listener.joined(username);
+            }
+            else
+            {
+                StringMessage sm = (StringMessage) m;
+                if (sm.getTrace() != null && sm.getSender() != null)
+                {
+                    long id = sm.getTrace().getId();
+                    long received = TraceContext.now();
+                    listener.message(sm.getSender(), sm.getMessage(),
+                        () -> shown(id, received));
+                }
+                else
+                    listener.message(sm.getSender(), sm.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops any images being streamed either way, once the connection has
+     * closed, and tells the listener.
+     */
+    public void closed()
+    {
+        for (Upload upload : uploads.values())
+            upload.cancel();
+        for (Download download : downloads.values())
+            download.close();
+        downloads.clear();
+        listener.disconnected();
+    }
+
+    /**
+     * Closes the connection to the server.
+     */
+    public void close()
+    {
+        if (transport != null)
+            transport.close();
+    }
+
+    /**
+     * Sends a text message to everyone in this client's room (or, if it
+     * mentions anyone by name, to them only).
+     *
+     * @param text the message
+     * @throws IOException if the server can't be written to
+     */
+    public void sendText(String text) throws IOException
+    {
+        TraceContext trace = null;
+        if (TRACE_SAMPLE > 0 && supports(MessageCodec.FEATURE_TRACING)
+            && ThreadLocalRandom.current().nextInt(TRACE_SAMPLE) == 0)
+            trace = new TraceContext(0, TraceContext.now(), 0, 0);
+        send(new StringMessage(null, text, trace));
+    }
+
+    /**
+     * Searches the chat history of this client's room, newest first (the
+     * results go to the listener).
+     *
+     * @param query the words to search for (see SearchIndex)
+     * @param limit the most results to send at once
+     * @throws IOException if the server can't be written to
+     */
+    public void search(String query, int limit) throws IOException
+    {
+        lastQuery = query;
+        send(SearchMessage.query(query, limit, 0));
+    }
+
+    /**
+     * Asks for the next page of results of the last search.
+     *
+     * @param limit the most results to send at once
+     * @return false if there are no more results
+     * @throws IOException if the server can't be written to
+     */
+    public boolean moreResults(int limit) throws IOException
+    {
+        int cursor = nextCursor;
+        if (cursor == 0)
+            return false;
+
+        send(SearchMessage.query(lastQuery, limit, cursor));
+        return true;
+    }
+
+    /**
+     * Moves this client to another room.
+     *
+     * @param name the room's name (see Rooms.isValidName)
+     * @throws IOException if the server can't be written to
+     */
+    public void joinRoom(String name) throws IOException
+    {
+        send(new RoomMessage(RoomMessage.Kind.JOIN, name));
+    }
+
+    /**
+     * Moves this client back to the lobby.
+     *
+     * @throws IOException if the server can't be written to
+     */
+    public void leaveRoom() throws IOException
+    {
+        send(new RoomMessage(RoomMessage.Kind.LEAVE, ""));
+    }
+
+    /**
+     * Sends an image to everyone in this client's room. If the server caches
+     * images, it is only offered by hash (the server asks for the whole
+     * image if it doesn't have it already).
+     *
+     * @param image the image
+     * @throws IOException if the server can't be written to
+     */
+    public void sendImage(ImageMessage image) throws IOException
+    {
+        if (supports(MessageCodec.FEATURE_IMAGE_CACHE))
+        {
+            synchronized (images)
+            {
+                images.put(BlobStore.key(image.getHash()), image);
+            }
+            send(new ImageMessage(ImageMessage.Kind.OFFER, image.getHash()));
+        }
+        else
+            send(image);
+    }
+
+    /**
+     * Streams a big image to the server in chunks, reading each chunk from
+     * the file as the server gives credit for it (if the server supports
+     * transfers). Blocks until the server has the whole image.
+     *
+     * @param file the image file
+     * @param mediaType its media type
+     * @param width its width
+     * @param height its height
+     * @return whether the server got the whole image
+     * @throws IOException if the file can't be read or the server can't be
+     * written to
+     */
+    public boolean streamImage(File file, String mediaType, int width,
+        int height) throws IOException
+    {
+        if (file.length() > Integer.MAX_VALUE)
+            throw new IOException("That image is too big to send");
+
+        Upload upload = new Upload(lastTransferId.incrementAndGet(), file);
+        uploads.put(upload.id, upload);
+        try
+        {
+            send(TransferMessage.start(upload.id, upload.length, hash(file),
+                mediaType, width, height, resumeKey));
+            return upload.run();
+        }
+        finally
+        {
+            uploads.remove(upload.id);
+        }
+    }
+
+    /**
+     * @return the username, or null until the server has given it
+     */
+    public String getUsername()
+    {
+        return username;
+    }
+
+    /**
+     * @return the room this client is in
+     */
+    public String getRoom()
+    {
+        return room;
+    }
+
+    /**
+     * @return the members of this client's room (can't be changed)
+     */
+    public List<String> getRoster()
+    {
+        return roster;
+    }
+
+    /**
+     * @return the last search
+     */
+    public String getLastQuery()
+    {
+        return lastQuery;
+    }
+
+    /**
+     * @param feature a feature (one of MessageCodec's FEATURE bits)
+     * @return whether the server has agreed to it
+     */
+    public boolean supports(int feature)
+    {
+        return (agreed & feature) != 0;
+    }
+
+    /**
+     * Sends a message to the server as one frame (compressed, if the server
+     * agreed to it and it is worth it). Synchronized so that different
+     * threads can't write over each other's frames.
+     *
+     * @param m the message to send
+     * @throws IOException if the server can't be written to
+     */
+    public synchronized void send(Message m) throws IOException
+    {
+        byte[] frame = MessageCodec.encode(m);
+        byte[] compressed = supports(MessageCodec.FEATURE_COMPRESSION)
+            ? MessageCodec.compress(frame) : null;
+        transport.send(compressed != null ? compressed : frame);
+    }
+
+    /**
+     * Notes that a traced message has been shown, and reports it along with
+     * any others shown before it once there is a batch of them.
+     *
+     * @param id the message's trace id
+     * @param received when the message arrived
+     */
+    private void shown(long id, long received)
+    {
+        long now = TraceContext.now();
+        List<TraceMessage.Span> batch = null;
+        synchronized (spans)
+        {
+            spans.add(new TraceMessage.Span(id, received, now));
+            if (spans.size() >= TRACE_BATCH
+                || now - spans.get(0).getShown() >= TRACE_DELAY)
+            {
+                batch = new ArrayList<>(spans);
+                spans.clear();
+            }
+        }
+
+        if (batch != null)
+        {
+            try
+            {
+                send(new TraceMessage(batch));
+            }
+            //(the connection has closed, which the receiving thread will
+            //find out):
+            catch (IOException e)
+            {}
+        }
+    }
+
+    /**
+     * Applies a roster update from the server to the list of members. A
+     * snapshot replaces the whole list; an added/removed user is only
+     * applied if its version follows on from the last one applied, and if a
+     * version has been missed the client asks the server for a new snapshot
+     * (only once, however many more updates arrive before it does).
+     *
+     * @param lm the roster update
+     * @return whether the list has changed
+     * @throws IOException if the resync request can't be sent
+     */
+    private boolean updateList(ListMessage lm) throws IOException
+    {
+        if (lm.getKind() == ListMessage.Kind.SNAPSHOT)
+        {
+            members.clear();
+            members.addAll(lm.getMembers());
+            rosterVersion = lm.getVersion();
+            resyncing = false;
+            return true;
+        }
+        //ignore updates from before the first snapshot, or already included
+        //in the last one:
+        else if (rosterVersion < 0 || lm.getVersion() <= rosterVersion)
+            return false;
+        else if (lm.getVersion() != rosterVersion + 1)  //missed a version
+        {
+            if (!resyncing)
+                send(new ListMessage(rosterVersion));
+            resyncing = true;
+            return false;
+        }
+
+        //check if the user is being added or removed:
+        if (lm.isAdded())
+        {
+            //only add the user if they haven't been added already:
+            if (!members.contains(lm.getMember()))
+                members.add(lm.getMember());
+        }
+        else    //remove the disconnected user from the list
+            members.remove(lm.getMember());
+        rosterVersion = lm.getVersion();
+        return true;
+    }
+
+    /**
+     * Handles an image (or a reference to, or request for, one) from the
+     * server, keeping every image in the client's cache.
+     *
+     * 1) FULL - the image is cached and shown
+     * 2) REFERENCE - the cached image is shown, or if it's no longer cached
+     * the server is asked for it
+     * 3) REQUEST - the server doesn't have an image this client offered, so
+     * the whole image is sent
+     *
+     * @param im the image message
+     * @return the image to show, or null if there isn't one to show yet
+     * @throws IOException if a request or image can't be sent
+     */
+    private ImageMessage receiveImage(ImageMessage im) throws IOException
+    {
+        ImageMessage cached;
+        synchronized (images)
+        {
+            if (im.getKind() == ImageMessage.Kind.FULL)
+            {
+                //(only kept if the server sends references to it later):
+                if (supports(MessageCodec.FEATURE_IMAGE_CACHE))
+                    images.put(BlobStore.key(im.getHash()), im);
+                return im;
+            }
+            cached = images.get(BlobStore.key(im.getHash()));
+        }
+
+        if (im.getKind() == ImageMessage.Kind.REFERENCE)
+        {
+            if (cached == null)
+                send(new ImageMessage(ImageMessage.Kind.REQUEST, im.getHash()));
+            return cached;
+        }
+        if (im.getKind() == ImageMessage.Kind.REQUEST && cached != null)
+            send(cached);
+        return null;
+    }
+
+    /**
+     * Handles a message about an image being streamed: the START of, or a
+     * CHUNK of, one being sent to this client (each chunk is acked, which
+     * lets the server send more), an ACK for one this client is sending, or
+     * a CANCEL from the server.
+     *
+     * @param tm the transfer message
+     * @throws IOException if an ack can't be sent
+     */
+    private void receiveTransfer(TransferMessage tm) throws IOException
+    {
+        Download download;
+
+        switch (tm.getKind())
+        {
+            case START:
+                downloads.put(tm.getId(), new Download(tm));
+                break;
+            case CHUNK:
+                download = downloads.get(tm.getId());
+                if (download == null)
+                {
+                    send(TransferMessage.cancel(tm.getId()));
+                    return;
+                }
+
+                boolean finished;
+                try
+                {
+                    finished = download.chunk(tm);
+                }
+                catch (IOException e)   //missed a chunk, or can't save it
+                {
+                    downloads.remove(tm.getId());
+                    download.close();
+                    send(TransferMessage.cancel(tm.getId()));
+                    return;
+                }
+                send(TransferMessage.ack(tm.getId(), download.received,
+                    MessageCodec.TRANSFER_WINDOW));
+
+                if (finished)
+                {
+                    downloads.remove(tm.getId());
+                    download.close();
+                    listener.imageFile(download.file);
+                }
+                break;
+            case ACK:
+                Upload upload = uploads.get(tm.getId());
+                if (upload != null)
+                    upload.ack(tm.getOffset(), tm.getCredit());
+                break;
+            case CANCEL:
+                download = downloads.remove(tm.getId());
+                if (download != null)
+                    download.close();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Helper method which works out a file's SHA-256 hash, reading it a bit
+     * at a time.
+     *
+     * @param file the file
+     * @return the hash
+     * @throws IOException if the file can't be read
+     */
+    private static byte[] hash(File file) throws IOException
+    {
+        try (InputStream is = new DigestInputStream(new FileInputStream(file),
+            MessageDigest.getInstance("SHA-256")))
+        {
+            byte[] buffer = new byte[8192];
+            while (is.read(buffer) >= 0)
+            {}
+            return ((DigestInputStream) is).getMessageDigest().digest();
+        }
+        catch (NoSuchAlgorithmException e)  //every JVM has SHA-256
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Inner class for an image being streamed to the server. The thread
+     * sending the image only reads and sends a chunk once the server has
+     * given credit for it (by acking earlier chunks); the first ack also says
+     * where to start, which is part way through the file if the server
+     * already has the start of it from an interrupted transfer.
+     */
+    private class Upload
+    {
+        private final int id;   //transfer id
+        private final File file;
+        private final int length;
+        private int next = 0;   //offset of the next chunk to send
+        private int limit = 0;  //offset the server has given credit up to
+        private boolean started = false;    //whether the first ack has come
+        private boolean done = false;
+        private boolean finished = false;   //whether the server has it all
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param id the transfer id
+         * @param file the image file
+         */
+        public Upload(int id, File file)
+        {
+            this.id = id;
+            this.file = file;
+            this.length = (int) file.length();
+        }
+
+        /**
+         * Sends chunks as credit comes in, until the server has the whole
+         * image or the transfer is cancelled.
+         *
+         * @return whether the server got the whole image
+         * @throws IOException if the file can't be read or the server can't
+         * be written to
+         */
+        public boolean run() throws IOException
+        {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+            {
+                while (true)
+                {
+                    int offset;
+                    int size;
+                    synchronized (this)
+                    {
+                        while (!done && (!started || next >= limit))
+                            wait();
+                        if (done)
+                            return finished;
+
+                        offset = next;
+                        size = Math.min(MessageCodec.CHUNK_SIZE, limit - next);
+                        next += size;
+                    }
+
+                    byte[] data = new byte[size];
+                    raf.seek(offset);
+                    raf.readFully(data);
+                    send(TransferMessage.chunk(id, offset, data));
+                }
+            }
+            catch (InterruptedException e)
+            {
+                return false;
+            }
+        }
+
+        /**
+         * Records an ack from the server.
+         *
+         * @param offset the number of bytes the server has received
+         * @param credit the number of bytes past that which may be sent
+         */
+        public synchronized void ack(int offset, int credit)
+        {
+            if (!started)   //carry on from wherever the server got up to
+            {
+                next = offset;
+                started = true;
+            }
+            limit = Math.min(length, Math.max(limit, offset + credit));
+            if (offset == length)
+            {
+                finished = true;
+                done = true;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Stops the upload (i.e. when the connection is closed).
+         */
+        public synchronized void cancel()
+        {
+            done = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Inner class for an image being streamed from the server, which is
+     * written to a temporary file as its chunks arrive (so the whole image is
+     * never held in memory as bytes) and shown once complete.
+     */
+    private class Download
+    {
+        private final TransferMessage start;
+        private final File file;    //temporary file the image is written to
+        private final OutputStream out;
+        private int received = 0;   //bytes received so far
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param start the server's START message
+         * @throws IOException if the temporary file can't be created
+         */
+        public Download(TransferMessage start) throws IOException
+        {
+            this.start = start;
+            this.file = File.createTempFile("chat-image-", null);
+            this.file.deleteOnExit();
+            this.out = new BufferedOutputStream(new FileOutputStream(file));
+        }
+
+        /**
+         * Writes a chunk to the file.
+         *
+         * @param chunk the chunk
+         * @return whether the whole image has now been received
+         * @throws IOException if a chunk has been missed, or the chunk can't
+         * be written
+         */
+        public boolean chunk(TransferMessage chunk) throws IOException
+        {
+            if (chunk.getOffset() != received
+                || received + chunk.getData().length > start.getLength())
+                throw new IOException("Unexpected chunk");
+
+            out.write(chunk.getData());
+            received += chunk.getData().length;
+            return received == start.getLength();
+        }
+
+        /**
+         * Closes the file.
+         */
+        public void close()
+        {
+            try
+            {
+                out.close();
+            }
+            catch (IOException e)
+            {}
+        }
+    }
+}
\ No newline at end of file
@@ -2,9 +2,12 @@ package assignment;
 
 import java.awt.event.*;
 import java.io.*;
-import java.net.Socket;
+import java.nio.file.Files;
 import java.awt.*;
 import java.util.*;
+import java.util.List;
+import javax.imageio.*;
+import javax.imageio.stream.ImageInputStream;
 import javax.swing.*;
 import javax.swing.text.*;
 
@@ -16,7 +19,8 @@ import javax.swing.text.*;
  * of them) or an image to all chosen clients via the server. It also displays 
  * the messages received from other clients. The list updates the GUI 
  * whenever a new client (including itself) connects to or disconnects 
- * from the server.
+ * from the server. The protocol itself is handled by a ChatClient, which 
+ * tells this class what to show.
  * 
  * Threads:
  * 1) ClientGUI class EDT - checks for user input (ie action listener method)
@@ -26,18 +30,26 @@ import javax.swing.text.*;
  * 
  * @author Ryan Herkt (ID: 18022861)
  */
-public class ClientGUI extends JPanel implements ActionListener, Runnable
+public class ClientGUI extends JPanel implements ActionListener, Runnable, 
+    ChatClient.Listener
 {
-    private final int HOST_PORT = 2207;  //host port number
-    private final String HOST_NAME = "localhost";    //host name
+    private final int HOST_PORT = Integer.getInteger("chat.port", 2207);  //host port number
+    private final String HOST_NAME = System.getProperty("chat.host", "localhost");    //host name
+    
+    //typed in the message box to search the chat history, and to see the 
+    //next page of results:
+    private static final String SEARCH_COMMAND = "/search ";
+    private static final String MORE_COMMAND = "/more";
+    private static final int SEARCH_PAGE = 20;  //results per page
+    //typed to move to another room, and back to the lobby:
+    private static final String JOIN_COMMAND = "/join ";
+    private static final String LEAVE_COMMAND = "/leave";
     
     //attributes & component to keep track of connected clients:
     private JTextField connectedClients = new JTextField();
-    private ArrayList<String> activeClients = new ArrayList<>();
-    private String myName;  //the client's unique name
+    private List<String> activeClients = new ArrayList<>();
     
-    private ObjectOutputStream oos;    //output stream to server
-    private ObjectInputStream ois; //input stream from server
+    private final ChatClient client = new ChatClient(this);
     
     private JFrame frame = new JFrame();  //frame for GUI
     
@@ -79,6 +91,28 @@ public class ClientGUI extends JPanel implements ActionListener, Runnable
         frame.getContentPane().add(sendMessagePanel, BorderLayout.SOUTH);
         frame.getContentPane().add(new JScrollPane(sentMessages));
     }
+    
+    /**
+     * Helper method which appends a line to the message area, on the Swing 
+     * thread (in the order lines and images arrive).
+     * 
+     * @param line the line (without its newline)
+     */
+    private void showLine(String line)
+    {
+        SwingUtilities.invokeLater(() ->
+        {
+            StyledDocument sd = sentMessages.getStyledDocument();
+            try
+            {
+                //sd.getLength() is used to insert the line below the previous 
+                //ones:
+                sd.insertString(sd.getLength(), line + "\n", new SimpleAttributeSet());
+            }
+            catch (BadLocationException e)
+            {}
+        });
+    }
 
     /**
      * Thread #2 - responsible for listening for any messages from the server 
@@ -93,87 +127,21 @@ public class ClientGUI extends JPanel implements ActionListener, Runnable
     @Override
     public void run() 
     {
-        //create StyledDocument for the JTextPane and a 
-        //SimpleAttributeSet for the StyledDocument's insertString 
-        //method:
-        StyledDocument sd = sentMessages.getStyledDocument();
-        SimpleAttributeSet sas = new SimpleAttributeSet();
-        
-        Socket socket = null;
-        
         try 
         {
-            socket = new Socket(HOST_NAME, HOST_PORT);  //set up the socket
-            
-            //create an autoflush output stream for the socket, to the 
-            //server:
-            oos = new ObjectOutputStream(socket.getOutputStream());
-            //create a buffered input stream for this socket, from the server:
-            ois = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
-            
-            //listen for messages from the server until client quits server 
-            //(at which point the server disconnects the client):
-            Object obj;
-            while ((obj=ois.readObject()) != null) 
-            {
-                if (obj instanceof ListMessage) //update the list
-                {
-                    //check if the user is being added or removed:
-                    if (((ListMessage) obj).isAdded())
-                    {
-                        //only add the user if they are active and if they 
-                        //haven't been added already:
-                        if (!activeClients.contains(((ListMessage) obj).getMember()))
-                            activeClients.add(((ListMessage) obj).getMember());
-                    }
-                    else    //remove the disconnected user from the list
-                        activeClients.remove(((ListMessage) obj).getMember());
-                    connectedClients.setText("Active Clients: " + activeClients);
-                }
-                else if (obj instanceof ImageMessage)
-                {
-                    //make label to put image on:
-                    JLabel label = new JLabel(((ImageMessage) obj).getImage());
-
-                    //set some attributes:
-                    StyleContext context = new StyleContext();
-                    Style labelStyle = context.getStyle(StyleContext.DEFAULT_STYLE);
-                    StyleConstants.setComponent(labelStyle, label);
-
-                    try
-                    {
-                        //display image to users:
-                        sd.insertString(sd.getLength(), "\n", labelStyle);
-                    }
-                    catch (BadLocationException e)
-                    {}
-                }
-                else if (obj instanceof StringMessage)
-                {
-                    String line = ((StringMessage) obj).getMessage();
-                    
-                    //get username from server, set myName as username and set 
-                    //frame title accordingly:
-                    if (myName == null)
-                    {
-                        myName = line;
-                        this.frame.setTitle("Chat Service - " + myName);
-                        messageBox.setEditable(true);
-                    }
-                    //update the message area by appending new messages to it. 
-                    //sd.getLength() is used to insert the messages below 
-                    //the previous ones:
-                    else
-                        sd.insertString(sd.getLength(), line + "\n", sas);
-                }
-            }
+            //connect and say hello, then listen for messages from the server 
+            //until client quits server (at which point the server 
+            //disconnects the client):
+            client.connect(HOST_NAME, HOST_PORT);
+            client.run();
         } 
-        catch (Exception e) //catch-all
+        catch (IOException e)   //server can't be reached
         {}
         finally
         {
             //remove self from active clients, update list when done:
-            activeClients.remove(myName);
+            activeClients = new ArrayList<>(activeClients);
+            activeClients.remove(client.getUsername());
             connectedClients.setText("Active Clients: " + activeClients);
             
             //disable the send message and send image buttons, and 'hide' 
@@ -182,18 +150,6 @@ public class ClientGUI extends JPanel implements ActionListener, Runnable
             sendMsgButton.setEnabled(false);
             sendImgButton.setEnabled(false);
             
-            try
-            {
-                //close the input and output streams, and the socket:
-                ois.close();
-                oos.close();
-                
-                if (socket != null)
-                    socket.close();
-            }
-            catch (IOException e) //catch-all
-            {}
-            
             //allow user to process info before auto-closing window:
             try
             {
@@ -205,6 +161,127 @@ public class ClientGUI extends JPanel implements ActionListener, Runnable
         }
     }
     
+    /**
+     * Sets the frame's title to this client's username, and lets them type.
+     * 
+     * @param username the username given by the server
+     */
+    @Override
+    public void joined(String username)
+    {
+        this.frame.setTitle("Chat Service - " + username);
+        messageBox.setEditable(true);
+    }
+    
+    /**
+     * Shows a message, and who sent it if it's from a user.
+     * 
+     * @param sender the user who sent it, or null for the server's own
+     * @param text the message
+     */
+    @Override
+    public void message(String sender, String text)
+    {
+        if (sender != null)
+            text = (sender.equals(client.getUsername()) ? "You" : sender) + ": " 
+                + text;
+        showLine(text);
+    }
+    
+    /**
+     * Shows a traced message, and only counts it as shown once the Swing 
+     * thread has added it and then got through the repaint that adding it 
+     * queued, so its trace includes any wait behind other events and the 
+     * time taken to draw it.
+     * 
+     * @param sender the user who sent it
+     * @param text the message
+     * @param shown run once the message has been drawn
+     */
+    @Override
+    public void message(String sender, String text, Runnable shown)
+    {
+        message(sender, text);
+        SwingUtilities.invokeLater(() -> SwingUtilities.invokeLater(shown));
+    }
+    
+    /**
+     * Shows the new list of active clients.
+     * 
+     * @param members the members of this client's room
+     */
+    @Override
+    public void rosterChanged(List<String> members)
+    {
+        activeClients = members;
+        connectedClients.setText("Active Clients: " + activeClients);
+    }
+    
+    /**
+     * Shows the room this client has been moved to.
+     * 
+     * @param room the room's name
+     */
+    @Override
+    public void roomChanged(String room)
+    {
+        this.frame.setTitle("Chat Service - " + client.getUsername() + " #" + room);
+        showLine("You are now in #" + room);
+    }
+    
+    /**
+     * Shows an image sent to this client's room.
+     * 
+     * @param image the image
+     */
+    @Override
+    public void image(ImageMessage image)
+    {
+        showImage(image.getImage());
+    }
+    
+    /**
+     * Shows an image streamed from the server.
+     * 
+     * @param file the file it was saved to
+     */
+    @Override
+    public void imageFile(File file)
+    {
+        showImage(new ImageIcon(file.getPath()));
+    }
+    
+    /**
+     * Shows a page of search results in the message area, newest first.
+     * 
+     * @param results the results
+     */
+    @Override
+    public void results(SearchMessage results)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Search results for \"").append(client.getLastQuery()).append("\":\n");
+        for (SearchMessage.Hit hit : results.getHits())
+        {
+            sb.append(String.format("  [%tF %<tR] %s: %s%n", hit.getTime(), 
+                hit.getSender(), hit.getText()));
+        }
+        if (results.getHits().isEmpty())
+            sb.append("  No messages found\n");
+        if (results.getCursor() != 0)
+            sb.append("  (type /more for more)\n");
+        showLine(sb.toString().substring(0, sb.length() - 1));
+    }
+    
+    /**
+     * Tells the user the server doesn't speak this client's protocol.
+     */
+    @Override
+    public void rejected()
+    {
+        showLine("The server doesn't support this version of the chat client.");
+    }
+    
     /**
      * Main method which runs a GUI that connects to the server (chat service).
      * 
@@ -315,6 +392,35 @@ public class ClientGUI extends JPanel implements ActionListener, Runnable
             JOptionPane.ERROR_MESSAGE);
     }
     
+    /**
+     * Shows an image in the message area, on the Swing thread.
+     * 
+     * @param icon the image
+     */
+    private void showImage(Icon icon)
+    {
+        SwingUtilities.invokeLater(() ->
+        {
+            StyledDocument sd = sentMessages.getStyledDocument();
+
+            //make label to put image on:
+            JLabel label = new JLabel(icon);
+
+            //set some attributes:
+            StyleContext context = new StyleContext();
+            Style labelStyle = context.getStyle(StyleContext.DEFAULT_STYLE);
+            StyleConstants.setComponent(labelStyle, label);
+
+            try
+            {
+                //display image to users:
+                sd.insertString(sd.getLength(), "\n", labelStyle);
+            }
+            catch (BadLocationException e)
+            {}
+        });
+    }
+    
     /**
      * Inner class which contains the code for sending a message through the 
      * client's output stream, via its run method (third thread):
@@ -343,9 +449,23 @@ public class ClientGUI extends JPanel implements ActionListener, Runnable
         {
             try
             {
-                Message m = new StringMessage(message);
-                oos.writeObject(m);
-                oos.flush();    //flush the stream
+                boolean searching = client.supports(MessageCodec.FEATURE_SEARCH);
+                boolean rooms = client.supports(MessageCodec.FEATURE_ROOMS);
+                
+                //search the chat history, or get the next page of results:
+                if (message.startsWith(SEARCH_COMMAND) && searching)
+                    client.search(message.substring(SEARCH_COMMAND.length()).trim(), 
+                        SEARCH_PAGE);
+                else if (message.equals(MORE_COMMAND) && searching)
+                    client.moreResults(SEARCH_PAGE);
+                //move to another room, or back to the lobby:
+                else if (message.startsWith(JOIN_COMMAND) && rooms)
+                    client.joinRoom(message.substring(JOIN_COMMAND.length())
+                        .trim().toLowerCase(Locale.ROOT));
+                else if (message.equals(LEAVE_COMMAND) && rooms)
+                    client.leaveRoom();
+                else
+                    client.sendText(message);
             }
             catch (IOException e)
             {
@@ -360,18 +480,16 @@ public class ClientGUI extends JPanel implements ActionListener, Runnable
      */
     private class ClientImages implements Runnable
     {
-        private ImageIcon image; //ImageIcon to send to server
+        private File image; //image file to send to server
         
         /**
          * A constructor for the inner class, containing the image to be sent. 
-         * Is declared as a new ImageIcon with its filename as the chosen 
-         * File's toString.
          * 
-         * @param send the ImageIcon's filename (as File's toString)
+         * @param send the image's filename (as File's toString)
          */
         public ClientImages(String send)
         {
-            this.image = new ImageIcon(send);
+            this.image = new File(send);
         }
         
         /**
@@ -393,11 +511,26 @@ public class ClientGUI extends JPanel implements ActionListener, Runnable
             {
                 //if the file's an image, send it as an ImageMessage object 
                 //across the socket:
-                if (validFileType)
+                //stream big images in chunks (if the server supports it), 
+                //rather than reading the whole file in:
+                if (validFileType && client.supports(MessageCodec.FEATURE_TRANSFER)
+                    && image.length() > MessageCodec.STREAM_THRESHOLD)
+                    streamImage();
+                else if (validFileType)
                 {
-                    Message m = new ImageMessage(image);
-                    oos.writeObject(m);
-                    oos.flush();    //flush the stream
+                    //send the file's bytes as they are, rather than the 
+                    //decoded image:
+                    byte[] data = Files.readAllBytes(image.toPath());
+                    String mediaType = ImageMessage.detectMediaType(data);
+                    Dimension size = imageSize(new ByteArrayInputStream(data));
+                    
+                    if (mediaType == null || size == null)
+                        showErrorMessage("That file isn't a valid image");
+                    //(if the server caches images, only the image's hash is 
+                    //offered):
+                    else
+                        client.sendImage(new ImageMessage(data, mediaType, 
+                            size.width, size.height));
                 }
                 //if not, tell the user to choose a file with the correct 
                 //file type:
@@ -409,5 +542,71 @@ public class ClientGUI extends JPanel implements ActionListener, Runnable
                 System.out.println("Writing error: " + ex);
             }
         }
+        
+        /**
+         * Streams the image to the server in chunks, reading each chunk from 
+         * the file as the server gives credit for it. Once the server has the 
+         * whole image, it is shown to this user too.
+         * 
+         * @throws IOException if the file can't be read or the server can't 
+         * be written to
+         */
+        private void streamImage() throws IOException
+        {
+            //work out the media type from the first few bytes:
+            byte[] header = new byte[16];
+            int n;
+            try (InputStream is = new FileInputStream(image))
+            {
+                n = Math.max(0, is.read(header));
+            }
+            String mediaType = ImageMessage.detectMediaType(Arrays.copyOf(header, n));
+            Dimension size = imageSize(image);
+            
+            if (mediaType == null || size == null)
+            {
+                showErrorMessage("That file isn't a valid image");
+                return;
+            }
+            if (image.length() > Integer.MAX_VALUE)
+            {
+                showErrorMessage("That image is too big to send");
+                return;
+            }
+            
+            if (client.streamImage(image, mediaType, size.width, size.height))
+                showImage(new ImageIcon(image.getPath()));
+        }
+        
+        /**
+         * Helper method which reads an image's width and height from its 
+         * header, without decoding the whole image.
+         * 
+         * @param input the image file, or an InputStream of its bytes
+         * @return the image's size, or null if it can't be read
+         */
+        private Dimension imageSize(Object input) throws IOException
+        {
+            try (ImageInputStream iis = ImageIO.createImageInputStream(input))
+            {
+                if (iis == null)
+                    return null;
+                
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+                if (!readers.hasNext())
+                    return null;
+                
+                ImageReader reader = readers.next();
+                try
+                {
+                    reader.setInput(iis);
+                    return new Dimension(reader.getWidth(0), reader.getHeight(0));
+                }
+                finally
+                {
+                    reader.dispose();
+                }
+            }
+        }
     }
 }
\ No newline at end of file
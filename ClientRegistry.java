@@ -0,0 +1,233 @@
+package assignment;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class Description: The server's list of connected clients, which is safe to
+ * use from every client's thread at once.
+ *
+ * 1) Broadcasts iterate over a snapshot (an array which is replaced, never
+ * changed, whenever a client joins or leaves), so iterating needs no lock and
+ * can't throw a ConcurrentModificationException.
+ * 2) Clients can be looked up by username in O(1), for directed messages.
+ * 3) Client numbers are handed out atomically, so two clients connecting at
+ * the same time can't get the same username. In a cluster of n servers,
+ * server i only hands out i + 1, i + 1 + n, i + 1 + 2n, ..., so no two
+ * servers can give out the same username either (see Cluster). With a
+ * history (see MessageLog), numbers are reserved ID_BLOCK at a time in a
+ * mark saved with it, and a restarted server carries on after the mark, so
+ * a new client never gets the name of a user whose messages are replayed.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class ClientRegistry implements Iterable<Server.ChatServer>
+{
+    private static final Server.ChatServer[] EMPTY = new Server.ChatServer[0];
+    //client numbers reserved in the history's mark at a time:
+    public static final int ID_BLOCK = 1024;
+
+    //current clients, replaced as a whole on every join/leave:
+    private volatile Server.ChatServer[] snapshot = EMPTY;
+    private final Map<String, Server.ChatServer> byName = new ConcurrentHashMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicInteger handedOut = new AtomicInteger();
+    private final int first;    //first client number
+    private final int stride;   //gap between client numbers
+    private final MessageLog log;   //where the mark is saved (may be null)
+    //numbers (counted from 0) below this may be handed out:
+    private volatile int reserved = Integer.MAX_VALUE;
+
+    /**
+     * Constructor for this class, for client numbers 1, 2, 3, ...
+     */
+    public ClientRegistry()
+    {
+        this(1, 1);
+    }
+
+    /**
+     * Constructor for this class, for client numbers first, first + stride, 
+     * first + 2 * stride, ...
+     *
+     * @param first the first client number
+     * @param stride the gap between client numbers
+     */
+    public ClientRegistry(int first, int stride)
+    {
+        this(first, stride, null);
+    }
+
+    /**
+     * Constructor for this class, for client numbers first, first + stride, 
+     * first + 2 * stride, ..., carrying on after the ones reserved in a 
+     * history's mark.
+     *
+     * @param first the first client number
+     * @param stride the gap between client numbers
+     * @param log the history the mark is saved with (null for none)
+     */
+    public ClientRegistry(int first, int stride, MessageLog log)
+    {
+        this.first = first;
+        this.stride = stride;
+        this.log = log;
+        if (log != null)
+        {
+            int mark = log.getIdMark();
+            handedOut.set(mark);
+            reserved = mark;
+        }
+    }
+
+    /**
+     * @return a new, unique client number
+     */
+    public int nextId()
+    {
+        int index = handedOut.getAndIncrement();
+        if (index >= reserved)
+            reserve(index);
+        return first + index * stride;
+    }
+
+    /**
+     * Helper method which saves a new mark, so that the block of numbers 
+     * from the one being handed out is never handed out again.
+     *
+     * @param index the number being handed out (counted from 0)
+     */
+    private void reserve(int index)
+    {
+        synchronized (handedOut)
+        {
+            if (index < reserved)
+                return;
+
+            int mark = index + ID_BLOCK;
+            try
+            {
+                log.saveIdMark(mark);
+            }
+            catch (IOException e)
+            {
+                System.out.println("Couldn't save client numbers: " + e);
+            }
+            reserved = mark;
+        }
+    }
+
+    /**
+     * Adds a client to the registry.
+     *
+     * @param client the client to add
+     * @return false if a client with the same username is already registered
+     */
+    public boolean add(Server.ChatServer client)
+    {
+        writeLock.lock();
+        try
+        {
+            if (byName.putIfAbsent(client.getUsername(), client) != null)
+                return false;
+
+            Server.ChatServer[] current = snapshot;
+            Server.ChatServer[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = client;
+            snapshot = next;
+            return true;
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a client from the registry.
+     *
+     * @param client the client to remove
+     * @return whether the client was registered
+     */
+    public boolean remove(Server.ChatServer client)
+    {
+        writeLock.lock();
+        try
+        {
+            if (!byName.remove(client.getUsername(), client))
+                return false;
+
+            Server.ChatServer[] current = snapshot;
+            Server.ChatServer[] next = new Server.ChatServer[current.length - 1];
+            int i = 0;
+            for (Server.ChatServer cs : current)
+            {
+                if (cs != client)
+                    next[i++] = cs;
+            }
+            snapshot = next;
+            return true;
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Finds a connected client by their username.
+     *
+     * @param username the client's username
+     * @return the client, or null if nobody by that name is connected
+     */
+    public Server.ChatServer get(String username)
+    {
+        return byName.get(username);
+    }
+
+    /**
+     * @return every client connected right now; the list doesn't change if
+     * clients join or leave afterwards
+     */
+    public List<Server.ChatServer> snapshot()
+    {
+        return Collections.unmodifiableList(Arrays.asList(snapshot));
+    }
+
+    /**
+     * @return every client connected right now, as the registry's own array
+     * (which must not be changed), for broadcasts that can't afford a copy
+     */
+    Server.ChatServer[] array()
+    {
+        return snapshot;
+    }
+
+    /**
+     * @return an iterator over a snapshot of the connected clients
+     */
+    @Override
+    public Iterator<Server.ChatServer> iterator()
+    {
+        return snapshot().iterator();
+    }
+
+    /**
+     * @return the number of connected clients
+     */
+    public int size()
+    {
+        return snapshot.length;
+    }
+
+    /**
+     * @return whether there are no connected clients
+     */
+    public boolean isEmpty()
+    {
+        return snapshot.length == 0;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,731 @@
+package assignment;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Class Description: Links several Server processes (nodes) into one chat
+ * service, so users connected to different nodes can be in the same rooms.
+ *
+ * Every node is given the same list of nodes (chat.cluster.peers, e.g.
+ * "localhost:3207,localhost:3208,localhost:3209") and its own place in it
+ * (chat.cluster.node, from 0). Each pair of nodes keeps one link open: the
+ * node that comes first in the list connects to the other, and reconnects
+ * every RETRY_MS while it can't.
+ *
+ * Every node is also given the same secret (chat.cluster.secret), which is
+ * never sent. Instead, each end of a new link sends a random nonce in its
+ * HELLO, and the other end answers with a PROOF: the HMAC-SHA256 of the
+ * nonce and its own node number, keyed with the secret. The node accepting
+ * the link answers first, and the connecting node only answers once that
+ * PROOF is right (so it never proves anything to a host that doesn't know
+ * the secret). A link whose PROOF is wrong, or doesn't come within
+ * HANDSHAKE_MS, is closed.
+ *
+ * Each node is the only one that changes its own users, so membership needs
+ * no voting: a node tells the others (with PeerMessages, in order on each
+ * link) whenever one of its users joins a room or leaves the server, and
+ * sends every one of them again when a link opens. Usernames can't clash, as
+ * node i only hands out client numbers i + 1, i + 1 + n, i + 1 + 2n, ... (see
+ * ClientRegistry).
+ *
+ * Knowing which room every remote user is in, a node only passes a room's
+ * messages on to the nodes with someone in that room, and a mention to the
+ * node of the user mentioned, so rooms that are only on one node cost the
+ * other nodes nothing.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class Cluster
+{
+    //every node's address for links (null if not clustered), and this one's
+    //place in the list:
+    public static final String PEERS = System.getProperty("chat.cluster.peers");
+    public static final int NODE = Integer.getInteger("chat.cluster.node", 0);
+    //secret every node must know to be linked to:
+    public static final String SECRET = System.getProperty("chat.cluster.secret");
+    private static final int RETRY_MS = 1000;
+    private static final int HANDSHAKE_MS = 10000;
+    //bytes in a HELLO's nonce, and in a PROOF (an HMAC-SHA256):
+    private static final int NONCE_LENGTH = 32;
+    private static final int PROOF_LENGTH = 32;
+    private static final SecureRandom NONCES = new SecureRandom();
+
+    private final Server server;
+    private final int node;
+    private final InetSocketAddress[] nodes;
+    private final SecretKeySpec secret;    //the secret, as an HMAC key
+    //changes to membership, and links opening and closing, happen one at a
+    //time, so every link sees changes in the order they were made:
+    private final ReentrantLock lock = new ReentrantLock();
+    //open link to each node (null if it isn't open), replaced (never 
+    //changed) while the lock is held:
+    private volatile Connection[] links;
+    //every remote user, and the node and room they are in:
+    private final Map<String, Member> members = new ConcurrentHashMap<>();
+    //for each room, the number of users in it on each node. Replaced (never
+    //changed) when membership changes, so sending needs no lock:
+    private volatile Map<String, int[]> interest = Collections.emptyMap();
+    private final Executor daemons = r ->
+    {
+        Thread t = new Thread(r);
+        t.setDaemon(true);
+        t.start();
+    };
+
+    /**
+     * Constructor for this class
+     *
+     * @param server the server on this node
+     * @param node this node's place in the list
+     * @param nodes every node's address for links
+     * @param secret the secret every node must know
+     */
+    public Cluster(Server server, int node, InetSocketAddress[] nodes,
+        byte[] secret)
+    {
+        this.server = server;
+        this.node = node;
+        this.nodes = nodes;
+        this.secret = new SecretKeySpec(secret, "HmacSHA256");
+        this.links = new Connection[nodes.length];
+    }
+
+    /**
+     * Sets up clustering from the chat.cluster.peers, chat.cluster.node and
+     * chat.cluster.secret system properties.
+     *
+     * @param server the server on this node
+     * @return the cluster, or null if the server isn't clustered
+     */
+    public static Cluster open(Server server)
+    {
+        if (PEERS == null || PEERS.isEmpty())
+            return null;
+
+        String[] peers = PEERS.split(",");
+        InetSocketAddress[] nodes = new InetSocketAddress[peers.length];
+        for (int i = 0; i < peers.length; i++)
+        {
+            String peer = peers[i].trim();
+            int colon = peer.lastIndexOf(':');
+            nodes[i] = new InetSocketAddress(peer.substring(0, colon),
+                Integer.parseInt(peer.substring(colon + 1)));
+        }
+        if (NODE < 0 || NODE >= nodes.length)
+            throw new IllegalArgumentException("chat.cluster.node must be 0 to "
+                + (nodes.length - 1));
+        if (SECRET == null || SECRET.isEmpty())
+            throw new IllegalArgumentException("chat.cluster.secret must be set");
+        return new Cluster(server, NODE, nodes,
+            SECRET.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Starts accepting links from the nodes before this one, and connecting
+     * to the nodes after it.
+     *
+     * @throws IOException if the link port can't be opened
+     */
+    public void start() throws IOException
+    {
+        ServerSocket ss = new ServerSocket();
+        ss.bind(new InetSocketAddress(nodes[node].getPort()));
+        System.out.println("Cluster node " + node + " of " + nodes.length
+            + " accepting links on port " + nodes[node].getPort());
+
+        daemons.execute(() ->
+        {
+            while (true)
+            {
+                try
+                {
+                    Socket socket = ss.accept();
+                    daemons.execute(() -> accept(socket));
+                }
+                catch (IOException e)
+                {
+                    System.out.println("Cluster error: " + e);
+                    return;
+                }
+            }
+        });
+
+        for (int i = node + 1; i < nodes.length; i++)
+        {
+            int peer = i;
+            daemons.execute(() -> connect(peer));
+        }
+    }
+
+    /**
+     * @return this node's place in the list
+     */
+    public int getNode()
+    {
+        return node;
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public int size()
+    {
+        return nodes.length;
+    }
+
+    /**
+     * @param room a room's name
+     * @return whether anyone is in the room on another node
+     */
+    public boolean isShared(String room)
+    {
+        return interest.containsKey(room);
+    }
+
+    /**
+     * Tells the other nodes that a user on this node is now in a room.
+     *
+     * @param user the username
+     * @param room the room's name
+     */
+    public void enter(String user, String room)
+    {
+        broadcast(new PeerMessage(PeerMessage.Kind.ENTER, node, user, room, null));
+    }
+
+    /**
+     * Tells the other nodes that a user on this node has left the server.
+     *
+     * @param user the username
+     */
+    public void exit(String user)
+    {
+        broadcast(new PeerMessage(PeerMessage.Kind.EXIT, node, user, null, null));
+    }
+
+    /**
+     * Passes a room's message on to every other node with someone in the
+     * room.
+     *
+     * @param room the room's name
+     * @param frame the message's frame
+     */
+    public void forwardRoom(String room, Frame frame)
+    {
+        forward(room, PeerMessage.Kind.ROOM, frame);
+    }
+
+    /**
+     * Passes an image sent to a room on to every other node with someone in
+     * the room.
+     *
+     * @param room the room's name
+     * @param frame the image's frame
+     */
+    public void forwardImage(String room, Frame frame)
+    {
+        forward(room, PeerMessage.Kind.IMAGE, frame);
+    }
+
+    /**
+     * Passes a message for one user on to the node they're on.
+     *
+     * @param user the username
+     * @param frame the message's frame
+     * @return false if nobody by that name is on another node
+     */
+    public boolean forwardUser(String user, Frame frame)
+    {
+        Member member = members.get(user);
+        if (member == null)
+            return false;
+
+        send(links[member.node], encode(new PeerMessage(PeerMessage.Kind.USER,
+            node, user, null, bytes(frame))));
+        return true;
+    }
+
+    /**
+     * Helper method which passes a frame on to the nodes with someone in a
+     * room.
+     *
+     * @param room the room's name
+     * @param kind ROOM or IMAGE
+     * @param frame the frame
+     */
+    private void forward(String room, PeerMessage.Kind kind, Frame frame)
+    {
+        int[] counts = interest.get(room);
+        if (counts == null)
+            return;
+
+        //encoded once, for however many nodes it goes to:
+        Connection[] links = this.links;
+        Frame pm = null;
+        for (int i = 0; i < counts.length; i++)
+        {
+            if (counts[i] > 0 && links[i] != null)
+            {
+                if (pm == null)
+                    pm = encode(new PeerMessage(kind, node, null, room, bytes(frame)));
+                send(links[i], pm);
+            }
+        }
+    }
+
+    /**
+     * Helper method which sends a membership change to every open link.
+     *
+     * @param pm the change
+     */
+    private void broadcast(PeerMessage pm)
+    {
+        Frame frame = encode(pm);
+        lock.lock();
+        try
+        {
+            for (Connection link : links)
+                send(link, frame);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Helper method which keeps trying to link to a node, and links again
+     * whenever the link closes.
+     *
+     * @param peer the node's place in the list
+     */
+    private void connect(int peer)
+    {
+        while (true)
+        {
+            Socket socket = new Socket();
+            try
+            {
+                socket.connect(nodes[peer]);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(HANDSHAKE_MS);
+                Connection link = new SocketConnection(socket, daemons);
+                byte[] nonce = nonce();
+                link.send(Frame.of(new PeerMessage(PeerMessage.Kind.HELLO,
+                    node, null, null, nonce)));
+
+                //(only answer a node that has shown it knows the secret):
+                DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    socket.getInputStream()));
+                PeerMessage hello = expect(in, PeerMessage.Kind.HELLO, NONCE_LENGTH);
+                PeerMessage proof = expect(in, PeerMessage.Kind.PROOF, PROOF_LENGTH);
+                if (hello.getNode() != peer || proof.getNode() != peer
+                    || !MessageDigest.isEqual(proof.getFrame(), proof(nonce, peer)))
+                    throw new IOException("Node " + peer + " failed to prove it "
+                        + "knows the secret");
+                link.send(Frame.of(new PeerMessage(PeerMessage.Kind.PROOF, node,
+                    null, null, proof(hello.getFrame(), node))));
+
+                socket.setSoTimeout(0);
+                run(peer, link, in);
+            }
+            catch (IOException e)
+            {
+                close(socket);
+            }
+
+            try
+            {
+                Thread.sleep(RETRY_MS);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Helper method which runs a link a node has opened to this one, once
+     * it has said which node it is and shown it knows the secret.
+     *
+     * @param socket the link's socket
+     */
+    private void accept(Socket socket)
+    {
+        try
+        {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HANDSHAKE_MS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                socket.getInputStream()));
+            PeerMessage hello = expect(in, PeerMessage.Kind.HELLO, NONCE_LENGTH);
+            int peer = hello.getNode();
+            if (peer < 0 || peer >= node)
+                throw new IOException("Unexpected link from node " + peer);
+
+            //prove this node knows the secret, then have the other do so:
+            Connection link = new SocketConnection(socket, daemons);
+            byte[] nonce = nonce();
+            link.send(Frame.of(new PeerMessage(PeerMessage.Kind.HELLO, node,
+                null, null, nonce)));
+            link.send(Frame.of(new PeerMessage(PeerMessage.Kind.PROOF, node,
+                null, null, proof(hello.getFrame(), node))));
+            PeerMessage proof = expect(in, PeerMessage.Kind.PROOF, PROOF_LENGTH);
+            if (proof.getNode() != peer
+                || !MessageDigest.isEqual(proof.getFrame(), proof(nonce, peer)))
+                throw new IOException("Node " + peer + " failed to prove it "
+                    + "knows the secret");
+
+            socket.setSoTimeout(0);
+            run(peer, link, in);
+        }
+        catch (IOException e)
+        {
+            close(socket);
+        }
+    }
+
+    /**
+     * Helper method which reads the next message of a link's handshake.
+     *
+     * @param in the link's input stream
+     * @param kind the kind of message expected (HELLO or PROOF)
+     * @param length the length its nonce or proof must be
+     * @return the message
+     * @throws IOException if the link closes, or sends anything else
+     */
+    private static PeerMessage expect(DataInputStream in, PeerMessage.Kind kind,
+        int length) throws IOException
+    {
+        Message m = MessageCodec.read(in);
+        if (!(m instanceof PeerMessage) || ((PeerMessage) m).getKind() != kind
+            || ((PeerMessage) m).getFrame() == null
+            || ((PeerMessage) m).getFrame().length != length)
+            throw new IOException("Expected a " + kind + " on a new link");
+        return (PeerMessage) m;
+    }
+
+    /**
+     * Helper method which works out the proof that a node knows the secret,
+     * for a nonce (compared with MessageDigest.isEqual, in constant time, so
+     * it can't be guessed a byte at a time). The node's number is part of
+     * it, so a node's own proofs can't be sent back to it.
+     *
+     * @param nonce the nonce
+     * @param from the node proving it knows the secret
+     * @return the HMAC-SHA256 of the nonce and node number
+     */
+    private byte[] proof(byte[] nonce, int from)
+    {
+        try
+        {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(secret);
+            mac.update(nonce);
+            return mac.doFinal(ByteBuffer.allocate(4).putInt(from).array());
+        }
+        catch (GeneralSecurityException e)  //every JVM has HmacSHA256
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return a new random nonce
+     */
+    private static byte[] nonce()
+    {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        NONCES.nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * Helper method which closes a link's socket, ignoring errors.
+     *
+     * @param socket the socket
+     */
+    private static void close(Socket socket)
+    {
+        try
+        {
+            socket.close();
+        }
+        catch (IOException e)
+        {}
+    }
+
+    /**
+     * Helper method which makes a link the one to a node, sends it every
+     * user on this node, then handles what the node sends until the link
+     * closes.
+     *
+     * @param peer the node's place in the list
+     * @param link the link
+     * @param in the link's input stream
+     * @throws IOException if the link closes, or a message from the node
+     * can't be handled
+     */
+    private void run(int peer, Connection link, DataInputStream in)
+        throws IOException
+    {
+        lock.lock();
+        try
+        {
+            if (links[peer] != null)
+                links[peer].close();
+            forget(peer);
+            setLink(peer, link);
+
+            for (String[] member : server.localMembers())
+                send(link, encode(new PeerMessage(PeerMessage.Kind.ENTER, node,
+                    member[0], member[1], null)));
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        System.out.println("Cluster link to node " + peer + " is up");
+
+        try
+        {
+            Message m;
+            while ((m = MessageCodec.read(in)) != null)
+            {
+                if (!(m instanceof PeerMessage))
+                    continue;
+
+                //(a message that can't be handled drops the link like an
+                //error reading it would, so it is opened again and
+                //everything sent again, rather than ending this thread):
+                try
+                {
+                    receive(peer, (PeerMessage) m);
+                }
+                catch (RuntimeException e)
+                {
+                    System.out.println("Cluster error: " + e);
+                    throw new IOException("Couldn't handle a message from node "
+                        + peer, e);
+                }
+            }
+        }
+        finally
+        {
+            lock.lock();
+            try
+            {
+                if (links[peer] == link)
+                {
+                    setLink(peer, null);
+                    forget(peer);
+                    System.out.println("Cluster link to node " + peer + " is down");
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            link.close();
+        }
+    }
+
+    /**
+     * Helper method which handles a message from another node.
+     *
+     * @param peer the node's place in the list
+     * @param pm the message
+     */
+    private void receive(int peer, PeerMessage pm)
+    {
+        switch (pm.getKind())
+        {
+            case ENTER:
+            case EXIT:
+                lock.lock();
+                try
+                {
+                    Member old = members.get(pm.getUser());
+                    if (old != null && old.node != peer)
+                        return;     //not that node's user
+                    String from = old == null ? null : old.room;
+
+                    if (pm.getKind() == PeerMessage.Kind.ENTER)
+                    {
+                        if (pm.getRoom().equals(from))
+                            return;
+                        members.put(pm.getUser(), new Member(peer, pm.getRoom()));
+                        count(from, peer, -1);
+                        count(pm.getRoom(), peer, 1);
+                        server.remoteEnter(pm.getUser(), pm.getRoom(), from);
+                    }
+                    else if (old != null)
+                    {
+                        members.remove(pm.getUser());
+                        count(from, peer, -1);
+                        server.remoteExit(pm.getUser(), from);
+                    }
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+                break;
+            case ROOM:
+                server.remoteRoom(pm.getRoom(), new Frame(pm.getFrame()));
+                break;
+            case IMAGE:
+                server.remoteImage(pm.getRoom(), new Frame(pm.getFrame()));
+                break;
+            case USER:
+                server.remoteUser(pm.getUser(), new Frame(pm.getFrame()));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Helper method which forgets every user on a node, i.e. because its
+     * link has closed (lock must be held).
+     *
+     * @param peer the node's place in the list
+     */
+    private void forget(int peer)
+    {
+        Iterator<Map.Entry<String, Member>> it = members.entrySet().iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<String, Member> e = it.next();
+            if (e.getValue().node == peer)
+            {
+                it.remove();
+                count(e.getValue().room, peer, -1);
+                server.remoteExit(e.getKey(), e.getValue().room);
+            }
+        }
+    }
+
+    /**
+     * Helper method which changes the number of users in a room on a node,
+     * replacing the interest map (lock must be held).
+     *
+     * @param room the room's name (nothing is changed if null)
+     * @param peer the node's place in the list
+     * @param delta the change
+     */
+    private void count(String room, int peer, int delta)
+    {
+        if (room == null)
+            return;
+
+        Map<String, int[]> next = new HashMap<>(interest);
+        int[] counts = next.get(room);
+        counts = counts == null ? new int[nodes.length] : counts.clone();
+        counts[peer] += delta;
+
+        boolean anyone = false;
+        for (int c : counts)
+            anyone |= c > 0;
+        if (anyone)
+            next.put(room, counts);
+        else
+            next.remove(room);
+        interest = next;
+    }
+
+    /**
+     * Helper method which replaces the link to a node (lock must be held).
+     *
+     * @param peer the node's place in the list
+     * @param link the link, or null if there isn't one
+     */
+    private void setLink(int peer, Connection link)
+    {
+        Connection[] next = links.clone();
+        next[peer] = link;
+        links = next;
+    }
+
+    /**
+     * Helper method which sends a frame on a link, ignoring links that
+     * aren't open (they'll be sent everything again when they reopen).
+     *
+     * @param link the link, or null
+     * @param frame the frame, or null
+     */
+    private static void send(Connection link, Frame frame)
+    {
+        if (link == null || frame == null)
+            return;
+
+        try
+        {
+            link.send(frame);
+        }
+        catch (IOException e)
+        {}
+    }
+
+    /**
+     * @param pm a message for another node
+     * @return the message's frame, or null if it can't be encoded
+     */
+    private static Frame encode(PeerMessage pm)
+    {
+        try
+        {
+            return Frame.of(pm);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Cluster error: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * @param frame a frame
+     * @return a copy of its bytes
+     */
+    private static byte[] bytes(Frame frame)
+    {
+        byte[] bytes = new byte[frame.length()];
+        frame.buffer().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Inner class for where a remote user is.
+     */
+    private static class Member
+    {
+        private final int node;
+        private final String room;
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param node the user's node
+         * @param room the room they're in
+         */
+        public Member(int node, String room)
+        {
+            this.node = node;
+            this.room = room;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,239 @@
+package assignment;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class Description: Measures how the number of messages a cluster (see
+ * Cluster) delivers per second grows with the number of nodes. For each
+ * cluster size from 1 to bench.nodes, it starts that many Server processes
+ * on loopback (NIO mode, no history log), connects bench.clients clients to
+ * each node, and has them send bench.messages messages each as fast as
+ * they can, then prints one line per size:
+ *
+ *     nodes=2 clients=16 delivered=... seconds=... msgs/s=...
+ *
+ * By default every node's clients are in a room of their own, the way a
+ * cluster is meant to be used (users of a room are mostly on one node), so
+ * nodes only share membership. With -Dbench.shared=true everyone is in one
+ * room, which instead measures the cost of passing every message on to
+ * every node.
+ *
+ * Every node is a separate process, so the rate can only grow with the
+ * number of nodes if the machine has spare processors for them.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class ClusterBenchmark
+{
+    private static final int NODES = Integer.getInteger("bench.nodes", 3);
+    private static final int CLIENTS = Integer.getInteger("bench.clients", 8);
+    private static final int MESSAGES = Integer.getInteger("bench.messages", 2000);
+    private static final boolean SHARED = Boolean.getBoolean("bench.shared");
+    private static final int CLIENT_PORT = 4207;    //node i uses 4207 + i
+    private static final int LINK_PORT = 5207;      //and 5207 + i for links
+    private static final long TIMEOUT_MS = 120000;
+
+    /**
+     * Driver main method
+     *
+     * @param args unused
+     * @throws Exception if a node can't be started
+     */
+    public static void main(String[] args) throws Exception
+    {
+        for (int nodes = 1; nodes <= NODES; nodes++)
+        {
+            List<Process> servers = start(nodes);
+            try
+            {
+                run(nodes);
+            }
+            finally
+            {
+                for (Process p : servers)
+                    p.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    /**
+     * Helper method which starts a cluster and waits until its nodes accept
+     * clients.
+     *
+     * @param nodes the number of nodes
+     * @return the nodes' processes
+     * @throws Exception if a node doesn't start
+     */
+    private static List<Process> start(int nodes) throws Exception
+    {
+        StringBuilder peers = new StringBuilder();
+        for (int i = 0; i < nodes; i++)
+            peers.append(i == 0 ? "" : ",").append("localhost:").append(LINK_PORT + i);
+
+        String java = System.getProperty("java.home") + File.separator + "bin"
+            + File.separator + "java";
+        List<Process> servers = new ArrayList<>();
+        for (int i = 0; i < nodes; i++)
+        {
+            ProcessBuilder pb = new ProcessBuilder(java,
+                "-cp", System.getProperty("java.class.path"),
+                "-Dchat.port=" + (CLIENT_PORT + i),
+                "-Dchat.log.dir=",
+                "-Dchat.cluster.node=" + i,
+                "-Dchat.cluster.peers=" + peers,
+                "-Dchat.cluster.secret=bench",
+                "assignment.Server", "nio");
+            pb.redirectErrorStream(true);
+            pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            servers.add(pb.start());
+        }
+
+        for (int i = 0; i < nodes; i++)
+        {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (true)
+            {
+                Socket probe = null;
+                try
+                {
+                    probe = new Socket("localhost", CLIENT_PORT + i);
+                    break;
+                }
+                catch (IOException e)
+                {
+                    if (System.currentTimeMillis() > deadline)
+                        throw e;
+                    Thread.sleep(100);
+                }
+                finally
+                {
+                    if (probe != null)
+                        probe.close();
+                }
+            }
+        }
+        //(the probes joined and left, and the links need a moment to open):
+        Thread.sleep(1500);
+        return servers;
+    }
+
+    /**
+     * Helper method which runs one measurement against a started cluster.
+     *
+     * @param nodes the number of nodes
+     * @throws Exception if a client can't connect
+     */
+    private static void run(int nodes) throws Exception
+    {
+        int total = nodes * CLIENTS;
+        int roomSize = SHARED ? total : CLIENTS;
+        long expected = (long) total * MESSAGES * roomSize;
+
+        AtomicLong delivered = new AtomicLong();
+        CountDownLatch joined = new CountDownLatch(total);
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(total);
+        List<Socket> sockets = new ArrayList<>();
+
+        for (int i = 0; i < total; i++)
+        {
+            int node = i / CLIENTS;
+            Socket socket = new Socket("localhost", CLIENT_PORT + node);
+            socket.setTcpNoDelay(true);
+            sockets.add(socket);
+            String room = SHARED ? "bench" : "bench-" + node;
+            new Thread(() -> client(socket, room, (long) MESSAGES * roomSize,
+                delivered, joined, go, done)).start();
+        }
+
+        //wait for everyone's membership to reach every node:
+        joined.await();
+        Thread.sleep(1000);
+
+        long start = System.nanoTime();
+        go.countDown();
+        boolean finished = done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("nodes=%d clients=%d delivered=%d%s seconds=%.3f "
+            + "msgs/s=%.0f%n", nodes, total, delivered.get(),
+            finished ? "" : "/" + expected, seconds, delivered.get() / seconds);
+
+        for (Socket s : sockets)
+            s.close();
+    }
+
+    /**
+     * Helper method which runs one client: it joins a room, then sends its
+     * messages while counting the ones it is sent, until it has had as many
+     * as it expects.
+     *
+     * @param socket the client's socket
+     * @param room the room to join
+     * @param expected the number of messages it expects
+     * @param delivered the count of every client's messages
+     * @param joined counted down once it is in the room
+     * @param go waited for before sending
+     * @param done counted down once it has had every message
+     */
+    private static void client(Socket socket, String room, long expected,
+        AtomicLong delivered, CountDownLatch joined, CountDownLatch go,
+        CountDownLatch done)
+    {
+        try
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                socket.getInputStream()));
+            MessageCodec.write(out, new HelloMessage(MessageCodec.PROTOCOL_VERSION,
+                MessageCodec.MIN_PROTOCOL_VERSION, MessageCodec.SUPPORTED_FEATURES));
+            MessageCodec.write(out, new RoomMessage(RoomMessage.Kind.JOIN, room));
+            out.flush();
+
+            //skip everything until the server says we're in the room:
+            Message m;
+            do
+            {
+                m = MessageCodec.read(in);
+            }
+            while (m != null && !(m instanceof RoomMessage));
+            joined.countDown();
+
+            Thread sender = new Thread(() ->
+            {
+                try
+                {
+                    go.await();
+                    for (int i = 0; i < MESSAGES; i++)
+                        MessageCodec.write(out, new StringMessage("bench " + i));
+                    out.flush();
+                }
+                catch (IOException | InterruptedException e)
+                {}
+            });
+            sender.start();
+
+            //count other users' messages (not the server's notices):
+            long received = 0;
+            while (received < expected && (m = MessageCodec.read(in)) != null)
+            {
+                if (m instanceof StringMessage
+                    && ((StringMessage) m).getSender() != null)
+                {
+                    received++;
+                    delivered.incrementAndGet();
+                }
+            }
+            done.countDown();
+        }
+        catch (IOException e)
+        {
+            joined.countDown();
+        }
+    }
+}
\ No newline at end of file
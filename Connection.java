@@ -0,0 +1,64 @@
+package assignment;
+
+import java.io.IOException;
+
+/**
+ * An interface for the server's side of a client connection, so that a
+ * ChatServer can send frames to its client without knowing if the connection
+ * is a blocking Socket (one thread per client) or a non-blocking
+ * SocketChannel handled by one of the NIO event loops.
+ *
+ * Implementations:
+ * 1) SocketConnection - queues frames for its own writer thread
+ * 2) NioServer.NioConnection - queues frames for an event loop to write
+ *
+ * Either way, frames wait in a bounded OutboundQueue, so sending never blocks
+ * on a slow client.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public interface Connection
+{
+    /**
+     * Sends an encoded frame to the client. The same frame may be sent to
+     * many connections at once.
+     *
+     * @param frame the frame to send
+     * @throws IOException if the connection has been closed
+     */
+    void send(Frame frame) throws IOException;
+
+    /**
+     * Turns on compression of the frames sent from now on, once the client
+     * has agreed to it (see MessageCodec.FEATURE_COMPRESSION).
+     *
+     * @param compressing whether to compress
+     */
+    void setCompressing(boolean compressing);
+
+    /**
+     * Turns on sending traced messages with their traces (rather than
+     * without), once the client has agreed to it (see
+     * MessageCodec.FEATURE_TRACING).
+     *
+     * @param tracing whether to send traces
+     */
+    void setTracing(boolean tracing);
+
+    /**
+     * Closes the connection once everything already sent has been written.
+     */
+    void close();
+
+    /**
+     * Closes the connection straight away, throwing away any frames still
+     * waiting to be written (for a client that has stopped responding, see
+     * Server.ChatServer.check).
+     */
+    void abort();
+
+    /**
+     * @return the queue of frames waiting to be written to the client
+     */
+    OutboundQueue getQueue();
+}
\ No newline at end of file
@@ -0,0 +1,291 @@
+package assignment;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class Description: One of the server's shards (see Rooms): a ring buffer
+ * that any number of threads publish fan-outs and other tasks into, and one
+ * thread that takes them out in order and runs them. It replaces a single
+ * thread executor, whose queue takes a lock and allocates a node (and the
+ * caller a lambda) for every message.
+ *
+ * Publishing a message costs no allocation and takes no lock:
+ * 1) claim - the publisher takes the next sequence number with one atomic
+ *    increment. Every event on the shard gets its own, one more than the
+ *    last, which is the order the shard runs them in (the same order for
+ *    every recipient)
+ * 2) wait - if the ring is full (the shard is RING_SIZE events behind), the
+ *    publisher waits for the shard to free its slot, which holds a flood of
+ *    messages back at the clients sending them
+ * 3) fill - the publisher fills in the preallocated slot for its sequence
+ *    number (slot = sequence mod RING_SIZE)
+ * 4) publish - the publisher marks the slot as holding that sequence number,
+ *    and wakes the shard if it has gone to sleep
+ *
+ * The shard's thread runs every event that is ready, in sequence order, as
+ * one batch, and only then tells publishers that the slots are free. When
+ * there is nothing to do it spins for a little, then yields, then sleeps
+ * until a publisher wakes it.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class Dispatcher implements Executor
+{
+    //events each shard can hold (rounded up to a power of two):
+    public static final int RING_SIZE = Integer.highestOneBit(Math.max(2,
+        Integer.getInteger("chat.dispatch.ring", 16384) * 2 - 1));
+    //checks for new events before yielding, and yields before sleeping
+    //(only worth it if the publishers have processors of their own; with
+    //one processor, the shard sleeps straight away so a publisher's wake up
+    //gets it running again):
+    private static final boolean MULTI_CORE = 
+        Runtime.getRuntime().availableProcessors() > 1;
+    private static final int SPINS = MULTI_CORE ? 100 : 0;
+    private static final int YIELDS = MULTI_CORE ? 10 : 0;
+
+    private final Slot[] slots = new Slot[RING_SIZE];
+    //sequence number each slot holds (-1 until it is first published):
+    private final AtomicLongArray published = new AtomicLongArray(RING_SIZE);
+    private final int mask = RING_SIZE - 1;
+    private final AtomicLong next = new AtomicLong();   //next one to claim
+    //every event before this one has been run (written by the shard only):
+    private volatile long consumed = 0;
+    private volatile long batches = 0;
+    private volatile boolean sleeping = false;
+    private final Thread thread;
+    //events published by the shard's own thread, which can't wait for a slot
+    //(only used by the shard's thread):
+    private final ArrayDeque<Runnable> own = new ArrayDeque<>();
+
+    /**
+     * Constructor for this class, which starts the shard's thread.
+     *
+     * @param name the thread's name
+     */
+    public Dispatcher(String name)
+    {
+        for (int i = 0; i < RING_SIZE; i++)
+        {
+            slots[i] = new Slot();
+            published.set(i, -1);
+        }
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs a task on the shard, after everything published before it.
+     *
+     * @param task the task
+     */
+    @Override
+    public void execute(Runnable task)
+    {
+        if (Thread.currentThread() == thread)
+            own.addLast(task);
+        else
+            publish(task, null, null, null, null, 0);
+    }
+
+    /**
+     * Sends a frame to every member of a room, on the shard (see
+     * Room.fanOut), without allocating anything.
+     *
+     * @param room the room
+     * @param frame the frame
+     * @param sender the member sending it
+     * @param ownFrame the frame the sender gets instead
+     * @param since when the message was received (see ServerMetrics.now)
+     */
+    public void broadcast(Room room, Frame frame, Server.ChatServer sender,
+        Frame ownFrame, long since)
+    {
+        if (Thread.currentThread() == thread)
+            own.addLast(() -> room.fanOut(frame, sender, ownFrame, since));
+        else
+            publish(null, room, frame, sender, ownFrame, since);
+    }
+
+    /**
+     * @return the number of events published but not yet run
+     */
+    public long getBacklog()
+    {
+        return Math.max(0, next.get() - consumed);
+    }
+
+    /**
+     * @return the number of events run so far
+     */
+    public long getDispatched()
+    {
+        return consumed;
+    }
+
+    /**
+     * @return the number of batches the events were run in
+     */
+    public long getBatches()
+    {
+        return batches;
+    }
+
+    /**
+     * Helper method which claims the next slot, waiting for it to be free,
+     * then fills it in and publishes it.
+     */
+    private void publish(Runnable task, Room room, Frame frame,
+        Server.ChatServer sender, Frame ownFrame, long since)
+    {
+        long sequence = next.getAndIncrement();
+        for (int tries = 0; sequence - RING_SIZE >= consumed; tries++)
+        {
+            wake();
+            if (tries < SPINS)
+                Thread.onSpinWait();
+            else
+                Thread.yield();
+        }
+
+        int index = (int) sequence & mask;
+        Slot slot = slots[index];
+        slot.task = task;
+        slot.room = room;
+        slot.frame = frame;
+        slot.sender = sender;
+        slot.ownFrame = ownFrame;
+        slot.since = since;
+        published.set(index, sequence);
+        if (sleeping)
+            wake();
+    }
+
+    /**
+     * Helper method which wakes the shard's thread if it is sleeping.
+     */
+    private void wake()
+    {
+        if (sleeping)
+        {
+            sleeping = false;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * The shard's thread: runs events in sequence order, a batch at a time.
+     */
+    private void run()
+    {
+        long sequence = 0;  //next one to run
+        int idle = 0;
+        while (true)
+        {
+            long end = sequence;
+            while (published.get((int) end & mask) == end)
+            {
+                runSlot(slots[(int) end & mask]);
+                end++;
+            }
+
+            if (end != sequence)
+            {
+                sequence = end;
+                consumed = end;
+                batches++;
+                idle = 0;
+            }
+            else if (++idle <= SPINS)
+                Thread.onSpinWait();
+            else if (idle <= SPINS + YIELDS)
+                Thread.yield();
+            else
+            {
+                //(checked again once sleeping is set, so a publisher either
+                //sees it set or is seen here):
+                sleeping = true;
+                if (published.get((int) sequence & mask) != sequence)
+                    LockSupport.park(this);
+                sleeping = false;
+            }
+        }
+    }
+
+    /**
+     * Helper method which runs one event (and anything it published to this
+     * shard), then empties its slot so the slot holds nothing alive. Nothing
+     * an event throws (not even an Error) stops the shard's thread, as every
+     * publisher would then wait for it forever.
+     *
+     * @param slot the slot
+     */
+    private void runSlot(Slot slot)
+    {
+        try
+        {
+            if (slot.task != null)
+                slot.task.run();
+            else
+                slot.room.fanOut(slot.frame, slot.sender, slot.ownFrame,
+                    slot.since);
+        }
+        catch (Throwable e)
+        {
+            failed(e);
+        }
+        finally
+        {
+            slot.task = null;
+            slot.room = null;
+            slot.frame = null;
+            slot.sender = null;
+            slot.ownFrame = null;
+        }
+
+        Runnable task;
+        while ((task = own.pollFirst()) != null)
+        {
+            try
+            {
+                task.run();
+            }
+            catch (Throwable e)
+            {
+                failed(e);
+            }
+        }
+    }
+
+    /**
+     * Helper method which reports an event that failed (with its stack 
+     * trace, if it was an Error rather than an exception).
+     *
+     * @param e what it threw
+     */
+    private void failed(Throwable e)
+    {
+        System.out.println("Error: " + e);
+        if (e instanceof Error)
+            e.printStackTrace(System.out);
+    }
+
+    /**
+     * Inner class for one of the ring's preallocated events: either a task,
+     * or a fan-out of a frame to a room. Its fields are written before its
+     * sequence number is published, and read after it has been seen.
+     */
+    private static class Slot
+    {
+        private Runnable task;
+        private Room room;
+        private Frame frame;
+        private Server.ChatServer sender;
+        private Frame ownFrame;
+        private long since;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,146 @@
+package assignment;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class Description: Spreads a big room's broadcasts over several
+ * processors. Every joined client is given to one of a fixed number of
+ * parts (chat.fanout.threads, by default one per processor), each with its
+ * own thread (see Dispatcher), and a broadcast to a room with at least
+ * chat.fanout.splitAt members (default 1024) hands the same encoded frame
+ * to every part, whose thread queues it for that part's members while the
+ * other parts do the same for theirs.
+ *
+ * The room's shard waits for every part to finish before it moves on, so
+ * the room's messages still reach each member in order, and a broadcast
+ * finishes in about 1/parts of the time it would take on one thread. Rooms
+ * smaller than that are still sent from their shard alone, as handing a
+ * frame to another thread costs more than sending it to a few clients.
+ *
+ * New clients go to the part with the fewest clients, and of those, the
+ * one that has been handed the fewest bytes to send, so parts end up with
+ * about as much work as each other.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class FanOut
+{
+    public static final int THREADS = Math.max(1, Integer.getInteger(
+        "chat.fanout.threads", Runtime.getRuntime().availableProcessors()));
+    public static final int SPLIT_AT = Integer.getInteger("chat.fanout.splitAt", 1024);
+
+    private final Dispatcher[] threads = new Dispatcher[THREADS];
+    private final AtomicIntegerArray clients = new AtomicIntegerArray(THREADS);
+    //bytes each part has been handed to send:
+    private final LongAdder[] bytes = new LongAdder[THREADS];
+
+    /**
+     * Constructor for this class, which starts the parts' threads (if there
+     * is more than one part).
+     */
+    public FanOut()
+    {
+        for (int i = 0; i < THREADS; i++)
+        {
+            bytes[i] = new LongAdder();
+            if (THREADS > 1)
+                threads[i] = new Dispatcher("chat-fanout-" + i);
+        }
+    }
+
+    /**
+     * Gives a client that is joining to the part with the least work.
+     *
+     * @return the client's part
+     */
+    public int assign()
+    {
+        int part = 0;
+        for (int i = 1; i < THREADS; i++)
+        {
+            if (clients.get(i) < clients.get(part) || (clients.get(i)
+                == clients.get(part) && bytes[i].sum() < bytes[part].sum()))
+                part = i;
+        }
+        clients.incrementAndGet(part);
+        return part;
+    }
+
+    /**
+     * Takes a client that is leaving off its part.
+     *
+     * @param part the client's part (see assign)
+     */
+    public void release(int part)
+    {
+        clients.decrementAndGet(part);
+    }
+
+    /**
+     * @return the number of parts
+     */
+    public int getParts()
+    {
+        return THREADS;
+    }
+
+    /**
+     * @param members the number of members of a room
+     * @return whether its broadcasts should be split between the parts
+     */
+    public boolean splits(int members)
+    {
+        return THREADS > 1 && members >= SPLIT_AT;
+    }
+
+    /**
+     * Sends a frame to the members of a room, each part's members from that
+     * part's thread, and waits until they all have been.
+     *
+     * @param parts each part's members (see Room.fanOut)
+     * @param frame the frame
+     * @param sender the member sending it
+     * @param ownFrame the frame the sender gets instead
+     */
+    public void send(Server.ChatServer[][] parts, Frame frame,
+        Server.ChatServer sender, Frame ownFrame)
+    {
+        CountDownLatch done = new CountDownLatch(parts.length);
+        for (int i = 0; i < parts.length; i++)
+        {
+            Server.ChatServer[] part = parts[i];
+            LongAdder handed = bytes[i];
+            threads[i].execute(() ->
+            {
+                try
+                {
+                    for (Server.ChatServer cs : part)
+                        Room.send(cs, cs == sender ? ownFrame : frame);
+                    handed.add((long) frame.length() * part.length);
+                }
+                finally
+                {
+                    done.countDown();
+                }
+            });
+        }
+
+        boolean interrupted = false;
+        while (true)
+        {
+            try
+            {
+                done.await();
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,151 @@
+package assignment;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Class Description: A message that has already been encoded (see
+ * MessageCodec) and can't be changed, so the same Frame can be handed to any
+ * number of connections. This lets a broadcast encode its message once and
+ * write the same bytes to every recipient, rather than encoding it again for
+ * each one. The same goes for compression: a frame is compressed the first
+ * time it is sent to a client that agreed to it, and every other such client
+ * is sent the same compressed bytes. A traced text message (see
+ * TraceContext) keeps a copy of itself without the trace, for clients that
+ * didn't agree to tracing.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public final class Frame
+{
+    private final byte[] bytes; //length prefix and payload
+    private final byte tag;     //the payload's type tag
+    //this frame compressed (itself if it isn't worth compressing), once it
+    //has been needed:
+    private volatile Frame compressed;
+    //this frame without its trace (itself if it isn't traced):
+    private Frame untraced = this;
+
+    /**
+     * Constructor for this class
+     *
+     * @param bytes a complete frame, which must not be changed afterwards
+     */
+    public Frame(byte[] bytes)
+    {
+        this.bytes = bytes;
+
+        //the tag comes straight after the varint length prefix:
+        int pos = 0;
+        while ((bytes[pos] & 0x80) != 0)
+            pos++;
+        this.tag = bytes[pos + 1];
+    }
+
+    /**
+     * Constructor for a compressed frame, which keeps the tag of the frame
+     * it was compressed from (so it waits in the same OutboundQueue lane).
+     *
+     * @param bytes the compressed frame
+     * @param tag the original frame's type tag
+     */
+    private Frame(byte[] bytes, byte tag)
+    {
+        this.bytes = bytes;
+        this.tag = tag;
+        this.compressed = this;
+    }
+
+    /**
+     * Encodes a message into a frame.
+     *
+     * @param m the message to encode
+     * @return the message's frame
+     * @throws IOException if the message can't be encoded
+     */
+    public static Frame of(Message m) throws IOException
+    {
+        return new Frame(MessageCodec.encode(m));
+    }
+
+    /**
+     * Encodes a traced text message into a frame, along with a copy without
+     * the trace (see untraced).
+     *
+     * @param m the message to encode
+     * @return the message's frame
+     * @throws IOException if the message can't be encoded
+     */
+    public static Frame traced(StringMessage m) throws IOException
+    {
+        Frame frame = of(m);
+        if (m.getTrace() != null)
+            frame.untraced = of(new StringMessage(m.getSender(), m.getMessage()));
+        return frame;
+    }
+
+    /**
+     * @return this frame without its trace, for clients that didn't agree to
+     * tracing, or for the history and the rest of the cluster (this frame if
+     * it isn't traced)
+     */
+    public Frame untraced()
+    {
+        return untraced;
+    }
+
+    /**
+     * Compresses the frame (see MessageCodec.compress), the first time it is
+     * called. Two threads may both compress it, which is harmless.
+     *
+     * @return the compressed frame, or this frame if it isn't worth 
+     * compressing
+     */
+    public Frame compressed()
+    {
+        Frame c = compressed;
+        if (c == null)
+        {
+            byte[] deflated = MessageCodec.compress(bytes);
+            c = deflated == null ? this : new Frame(deflated, tag);
+            compressed = c;
+        }
+        return c;
+    }
+
+    /**
+     * @return the frame's type tag (one of MessageCodec's TAG constants). For
+     * a compressed frame, this is the tag of the frame it was compressed from
+     */
+    public byte getTag()
+    {
+        return tag;
+    }
+
+    /**
+     * @return the number of bytes in the frame
+     */
+    public int length()
+    {
+        return bytes.length;
+    }
+
+    /**
+     * @return a read-only buffer over the frame, with its own position
+     */
+    public ByteBuffer buffer()
+    {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the whole frame to an output stream (without flushing it).
+     *
+     * @param out the stream to write to
+     * @throws IOException if the stream can't be written to
+     */
+    public void writeTo(OutputStream out) throws IOException
+    {
+        out.write(bytes);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,66 @@
+package assignment;
+
+import java.io.Serializable;
+
+/**
+ * A class which extends Message, and is the first message sent each way on a
+ * new connection. The client sends the newest and oldest protocol versions it
+ * can speak; the server replies with the version it has chosen (or 0 if
+ * there isn't one they both speak, before closing the connection).
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class HelloMessage extends Message implements Serializable
+{
+    private int version;    //newest version the sender speaks / chosen version
+    private int minVersion; //oldest version the sender speaks
+    private int features;   //bit flags for optional features
+
+    /**
+     * Constructor for this class
+     *
+     * @param version the newest (or chosen) protocol version
+     * @param minVersion the oldest protocol version
+     * @param features bit flags for optional features
+     */
+    public HelloMessage(int version, int minVersion, int features)
+    {
+        super();
+        this.version = version;
+        this.minVersion = minVersion;
+        this.features = features;
+    }
+
+    /**
+     * Set the toSend object as the protocol version.
+     */
+    @Override
+    public void messageType()
+    {
+        toSend = getVersion();
+    }
+
+    /**
+     * @return the version
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @return the minVersion
+     */
+    public int getMinVersion()
+    {
+        return minVersion;
+    }
+
+    /**
+     * @return the features
+     */
+    public int getFeatures()
+    {
+        return features;
+    }
+}
\ No newline at end of file
@@ -1,27 +1,80 @@
 package assignment;
 
 import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import javax.swing.ImageIcon;
 
 /**
- * A class which extends Message, and sends an ImageIcon to the client, who 
- * unpacks it for display (inside a JLabel) on their end.
+ * A class which extends Message, and sends an image to the client, who 
+ * unpacks it for display (inside a JLabel) on their end. The image is kept as 
+ * its original file bytes (PNG, JPEG or GIF) along with its media type and 
+ * size, so it goes over the wire compressed and the server can pass it on 
+ * without ever decoding it. It is only decoded into an ImageIcon when a 
+ * client asks for it.
+ * 
+ * Images are identified by the SHA-256 hash of their bytes, so that clients 
+ * which have agreed to cache images (see MessageCodec.FEATURE_IMAGE_CACHE) 
+ * don't need to send or receive the same image twice:
+ * 1) FULL - the image itself
+ * 2) OFFER - a client asking to send an image; the server only asks for the 
+ * whole image (with a REQUEST) if it hasn't already stored it
+ * 3) REQUEST - asks for the whole image with this hash, either from the 
+ * client that offered it or (for a client that no longer has an image it was 
+ * referred to) from the server
+ * 4) REFERENCE - tells a client to show an image it already has
  * 
  * @author Ryan Herkt (ID: 18022861)
  */
 public class ImageMessage extends Message implements Serializable
 {
-    private ImageIcon image;
+    /**
+     * Whether this message carries the image, or just its hash.
+     */
+    public enum Kind
+    {
+        FULL, OFFER, REQUEST, REFERENCE
+    }
+    
+    private Kind kind;
+    private byte[] hash;    //SHA-256 of the image file's bytes
+    private byte[] data;    //the image file's bytes
+    private String mediaType;   //e.g. image/png
+    private int width;
+    private int height;
+    private transient ImageIcon image;  //decoded image (once asked for)
 
     /**
      * Constructor for this class
      * 
-     * @param image the image to send
+     * @param data the image file's bytes
+     * @param mediaType the image's media type (image/png, image/jpeg or 
+     * image/gif)
+     * @param width the image's width in pixels
+     * @param height the image's height in pixels
+     */
+    public ImageMessage(byte[] data, String mediaType, int width, int height)
+    {
+        super();
+        this.kind = Kind.FULL;
+        this.data = data;
+        this.mediaType = mediaType;
+        this.width = width;
+        this.height = height;
+    }
+    
+    /**
+     * Constructor for an offer, request or reference, which only carries the 
+     * image's hash
+     * 
+     * @param kind OFFER, REQUEST or REFERENCE
+     * @param hash the SHA-256 hash of the image file's bytes
      */
-    public ImageMessage(ImageIcon image)
+    public ImageMessage(Kind kind, byte[] hash)
     {
         super();
-        this.image = image;
+        this.kind = kind;
+        this.hash = hash;
     }
 
     /**
@@ -34,10 +87,106 @@ public class ImageMessage extends Message implements Serializable
     }
 
     /**
-     * @return the message
+     * Decodes the image the first time it is asked for.
+     * 
+     * @return the image (null if this message only carries a hash)
      */
     public ImageIcon getImage() 
     {
+        if (image == null && data != null)
+            image = new ImageIcon(data);
         return image;
     }
+    
+    /**
+     * @return the kind
+     */
+    public Kind getKind() 
+    {
+        return kind;
+    }
+    
+    /**
+     * Works out the image's hash from its bytes the first time it is asked 
+     * for (for a FULL image).
+     * 
+     * @return the SHA-256 hash of the image file's bytes
+     */
+    public byte[] getHash() 
+    {
+        if (hash == null)
+            hash = hash(data);
+        return hash;
+    }
+    
+    /**
+     * @return the image file's bytes (null unless this is a FULL image)
+     */
+    public byte[] getData() 
+    {
+        return data;
+    }
+    
+    /**
+     * @return the mediaType
+     */
+    public String getMediaType() 
+    {
+        return mediaType;
+    }
+    
+    /**
+     * @return the width
+     */
+    public int getWidth() 
+    {
+        return width;
+    }
+    
+    /**
+     * @return the height
+     */
+    public int getHeight() 
+    {
+        return height;
+    }
+    
+    /**
+     * Works out the SHA-256 hash of an image file's bytes.
+     * 
+     * @param data the image file's bytes
+     * @return the hash
+     */
+    public static byte[] hash(byte[] data)
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        }
+        catch (NoSuchAlgorithmException e) //every JVM has SHA-256
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Works out an image file's media type from its first few bytes.
+     * 
+     * @param data the image file's bytes
+     * @return image/png, image/jpeg or image/gif, or null if the bytes aren't 
+     * one of those
+     */
+    public static String detectMediaType(byte[] data)
+    {
+        if (data.length >= 8 && (data[0] & 0xFF) == 0x89 && data[1] == 'P' 
+            && data[2] == 'N' && data[3] == 'G')
+            return "image/png";
+        if (data.length >= 3 && (data[0] & 0xFF) == 0xFF 
+            && (data[1] & 0xFF) == 0xD8 && (data[2] & 0xFF) == 0xFF)
+            return "image/jpeg";
+        if (data.length >= 6 && data[0] == 'G' && data[1] == 'I' 
+            && data[2] == 'F' && data[3] == '8')
+            return "image/gif";
+        return null;
+    }
 }
\ No newline at end of file
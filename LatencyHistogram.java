@@ -0,0 +1,120 @@
+package assignment;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class Description: A histogram of latencies (in whatever unit they are
+ * recorded in) that any number of threads can add to without locking. Like
+ * an HDR histogram, values are counted in buckets that are 1/32 of a power of
+ * two wide, so every percentile is within about 3% of the true value however
+ * big the values get, in a fixed 1,900 or so buckets.
+ *
+ * Recording a value is one increment of one bucket. Percentiles are worked
+ * out from a copy of the counts (see snapshot and take), so reading never
+ * holds up recording.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    public static final int BUCKETS = SUB + (64 - SUB_BITS) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Counts a value (negative values count as 0).
+     *
+     * @param value the value
+     */
+    public void record(long value)
+    {
+        counts.incrementAndGet(bucket(Math.max(0, value)));
+    }
+
+    /**
+     * @return the count in each bucket (the histogram is left as it is)
+     */
+    public long[] snapshot()
+    {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            copy[i] = counts.get(i);
+        return copy;
+    }
+
+    /**
+     * Takes the counts recorded since the last time, leaving the histogram
+     * empty.
+     *
+     * @return the count in each bucket
+     */
+    public long[] take()
+    {
+        long[] taken = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            taken[i] = counts.getAndSet(i, 0);
+        return taken;
+    }
+
+    /**
+     * @param counts the count in each bucket
+     * @return the number of values counted
+     */
+    public static long count(long[] counts)
+    {
+        long total = 0;
+        for (long c : counts)
+            total += c;
+        return total;
+    }
+
+    /**
+     * @param counts the count in each bucket
+     * @param fraction a fraction from 0 to 1 (1 for the highest)
+     * @return the value that fraction of the counts are at or below (the
+     * start of its bucket), or 0 if there are none
+     */
+    public static long percentile(long[] counts, double fraction)
+    {
+        long total = count(counts);
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * fraction));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+                return value(i);
+        }
+        return value(counts.length - 1);
+    }
+
+    /**
+     * @param v a value
+     * @return its bucket: the value itself below SUB, then SUB buckets for
+     * each power of two
+     */
+    private static int bucket(long v)
+    {
+        if (v < SUB)
+            return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        return SUB + (exp - SUB_BITS) * SUB + (int) ((v >>> (exp - SUB_BITS)) & (SUB - 1));
+    }
+
+    /**
+     * @param bucket a bucket
+     * @return the lowest value in it
+     */
+    private static long value(int bucket)
+    {
+        if (bucket < SUB)
+            return bucket;
+        int exp = (bucket - SUB) / SUB + SUB_BITS;
+        return (long) (SUB + (bucket - SUB) % SUB) << (exp - SUB_BITS);
+    }
+}
\ No newline at end of file
@@ -1,6 +1,7 @@
 package assignment;
 
 import java.io.Serializable;
+import java.util.*;
 
 /**
  * A class which extends Message, and sends a primitive String of the client's 
@@ -8,33 +9,100 @@ import java.io.Serializable;
  * determines whether to add or remove the client from the list (or do nothing 
  * at all if the client has already been added).
  * 
+ * Every change to the server's roster has a version number, one higher than 
+ * the change before it:
+ * 1) SNAPSHOT - the whole list of members, sent to a client when it joins 
+ * (or asks to resync)
+ * 2) ADDED / REMOVED - a single member joining or leaving, sent to everyone 
+ * else, which the client only applies if its version follows on from the 
+ * last one it has seen
+ * 3) RESYNC - sent by a client which has missed a version, asking for a new 
+ * snapshot
+ * 
  * @author Ryan Herkt (ID: 18022861)
  */
 public class ListMessage extends Message implements Serializable
 {
-    private String member;
-    private boolean added;  //whether to add the client or remove it from list
+    /**
+     * What this message does to the client's list.
+     */
+    public enum Kind
+    {
+        REMOVED, ADDED, SNAPSHOT, RESYNC
+    }
+    
+    private Kind kind;
+    private int version;    //roster version after this change
+    private String member;  //member added/removed (deltas only)
+    private List<String> members;   //every member (snapshots only)
 
     /**
      * Constructor for this class
      * 
      * @param client the client to add/remove
      * @param added whether the client is to be added/removed from list
+     * @param version the roster version after this change
      */
-    public ListMessage(String client, boolean added)
+    public ListMessage(String client, boolean added, int version)
     {
         super();
+        this.kind = added ? Kind.ADDED : Kind.REMOVED;
         this.member = client;
-        this.added = added;
+        this.version = version;
+        this.members = Collections.emptyList();
+    }
+    
+    /**
+     * Constructor for a snapshot of the whole list
+     * 
+     * @param members every member of the roster
+     * @param version the roster's version
+     */
+    public ListMessage(List<String> members, int version)
+    {
+        super();
+        this.kind = Kind.SNAPSHOT;
+        this.members = members;
+        this.version = version;
+    }
+    
+    /**
+     * Constructor for a client asking for a new snapshot
+     * 
+     * @param version the last version the client applied
+     */
+    public ListMessage(int version)
+    {
+        super();
+        this.kind = Kind.RESYNC;
+        this.version = version;
+        this.members = Collections.emptyList();
     }
 
     /**
-     * Set the toSend object as the member to add/remove from the list.
+     * Set the toSend object as the member to add/remove from the list (or 
+     * every member, for a snapshot).
      */
     @Override
     public void messageType() 
     {
-        toSend = getMember();
+        toSend = kind == Kind.SNAPSHOT ? getMembers() : getMember();
+    }
+    
+    /**
+     * @return the kind
+     */
+    public Kind getKind() 
+    {
+        return kind;
+    }
+    
+    /**
+     * @return the version
+     */
+    public int getVersion() 
+    {
+        return version;
     }
 
     /**
@@ -50,6 +118,14 @@ public class ListMessage extends Message implements Serializable
      */
     public boolean isAdded() 
     {
-        return added;
+        return kind == Kind.ADDED;
+    }
+    
+    /**
+     * @return the members
+     */
+    public List<String> getMembers() 
+    {
+        return members;
     }
 }
\ No newline at end of file
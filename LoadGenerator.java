@@ -0,0 +1,645 @@
+package assignment;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Class Description: Simulates thousands of users of a running server from
+ * one process. Each user is a ChatClient, and the users are shared between a
+ * few NIO event loops (load.loops, by default one per processor), so no user
+ * needs a thread of its own.
+ *
+ * Users connect gradually over load.rampUp seconds, and are put in rooms of
+ * load.roomSize users each ("load-0", "load-1", ...; 0 keeps everyone in the
+ * lobby). Once in its room, each user sends load.rate messages a second on
+ * average: a load.mentions fraction of them mention another member of the
+ * room, and a load.images fraction are load.imageBytes images (random bytes
+ * after a PNG signature). load.churn users a second are disconnected and
+ * replaced by new ones, which join the same rooms.
+ *
+ * Every message and image carries the time it was sent, so each user that
+ * receives it records how long it took. Once a second a line is printed with
+ * what was sent and delivered in that second and its latency percentiles,
+ * and at the end a summary of the load.duration seconds after the ramp-up:
+ *
+ *     users=10000 seconds=30.0 sent=... delivered=... delivered/s=...
+ *     p50_us=... p99_us=... p999_us=... max_us=...
+ *
+ * A user doesn't send while the server is still reading its last message
+ * (the number of sends skipped is printed as "stalled"), so a server that
+ * can't keep up shows as lower throughput and higher latency rather than as
+ * the generator running out of memory. The generator and server share the
+ * machine's processors when run on one host.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class LoadGenerator
+{
+    private static final String HOST = System.getProperty("load.host", "localhost");
+    private static final int PORT = Integer.getInteger("load.port", 2207);
+    private static final int USERS = Integer.getInteger("load.users", 1000);
+    private static final int LOOPS = Integer.getInteger("load.loops",
+        Runtime.getRuntime().availableProcessors());
+    //messages per user per second, and fractions of them that are mentions
+    //and images:
+    private static final double RATE = Double.parseDouble(System.getProperty("load.rate", "1"));
+    private static final double MENTIONS = Double.parseDouble(
+        System.getProperty("load.mentions", "0.1"));
+    private static final double IMAGES = Double.parseDouble(
+        System.getProperty("load.images", "0.01"));
+    private static final int IMAGE_BYTES = Math.max(16,
+        Integer.getInteger("load.imageBytes", 4096));
+    //users replaced per second:
+    private static final double CHURN = Double.parseDouble(System.getProperty("load.churn", "0"));
+    private static final int ROOM_SIZE = Integer.getInteger("load.roomSize", 50);
+    private static final int DURATION = Integer.getInteger("load.duration", 30);
+    private static final int RAMP_UP = Integer.getInteger("load.rampUp", 10);
+    private static final long TICK_NANOS = 5000000;     //5 ms between sends
+    //marks the send time in a message's text:
+    private static final String STAMP = "load@";
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    //features asked for: everything except the image cache, which would
+    //keep 64 images per user:
+    private static final int FEATURES = MessageCodec.SUPPORTED_FEATURES
+        & ~MessageCodec.FEATURE_IMAGE_CACHE;
+
+    //counts since the last report, taken (and reset) by the reporting thread:
+    private static final AtomicLong SENT = new AtomicLong();
+    private static final AtomicLong DELIVERED = new AtomicLong();
+    private static final AtomicLong IMAGES_DELIVERED = new AtomicLong();
+    private static final AtomicLong STALLED = new AtomicLong();
+    private static final AtomicLong DROPPED = new AtomicLong();  //lost connections
+    private static final AtomicInteger READY = new AtomicInteger(); //users in their rooms
+    private static final LatencyHistogram LATENCY = new LatencyHistogram();
+
+    private static volatile boolean stopping = false;
+
+    /**
+     * Driver main method
+     *
+     * @param args unused
+     * @throws Exception if a selector can't be opened
+     */
+    public static void main(String[] args) throws Exception
+    {
+        System.out.printf("users=%d loops=%d rate=%s mentions=%s images=%s "
+            + "imageBytes=%d churn=%s roomSize=%d rampUp=%d duration=%d%n",
+            USERS, LOOPS, RATE, MENTIONS, IMAGES, IMAGE_BYTES, CHURN, ROOM_SIZE,
+            RAMP_UP, DURATION);
+
+        Loop[] loops = new Loop[LOOPS];
+        for (int i = 0; i < LOOPS; i++)
+        {
+            //give each loop every LOOPS'th user slot:
+            List<Integer> slots = new ArrayList<>();
+            for (int slot = i; slot < USERS; slot += LOOPS)
+                slots.add(slot);
+            loops[i] = new Loop(i, slots);
+            loops[i].start();
+        }
+
+        long start = System.nanoTime();
+        long[] total = new long[LatencyHistogram.BUCKETS];
+        long sent = 0;
+        long delivered = 0;
+        long images = 0;
+        long stalled = 0;
+        for (int second = 1; second <= RAMP_UP + DURATION; second++)
+        {
+            long next = start + second * 1000000000L;
+            long wait;
+            while ((wait = next - System.nanoTime()) > 0)
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+
+            long[] counts = LATENCY.take();
+            long s = SENT.getAndSet(0);
+            long d = DELIVERED.getAndSet(0);
+            long im = IMAGES_DELIVERED.getAndSet(0);
+            long st = STALLED.getAndSet(0);
+            System.out.printf("t=%ds ready=%d sent=%d delivered=%d images=%d "
+                + "stalled=%d p50_us=%d p99_us=%d p999_us=%d%n", second,
+                READY.get(), s, d, im, st, LatencyHistogram.percentile(counts, 0.5),
+                LatencyHistogram.percentile(counts, 0.99),
+                LatencyHistogram.percentile(counts, 0.999));
+
+            //only the seconds after the ramp-up count towards the summary:
+            if (second > RAMP_UP)
+            {
+                for (int i = 0; i < counts.length; i++)
+                    total[i] += counts[i];
+                sent += s;
+                delivered += d;
+                images += im;
+                stalled += st;
+            }
+        }
+
+        stopping = true;
+        for (Loop loop : loops)
+        {
+            loop.selector.wakeup();
+            loop.join();
+        }
+
+        System.out.printf("users=%d seconds=%d.0 sent=%d delivered=%d images=%d "
+            + "delivered/s=%.0f stalled=%d dropped=%d p50_us=%d p99_us=%d "
+            + "p999_us=%d max_us=%d%n", USERS, DURATION, sent, delivered, images,
+            (double) delivered / DURATION, stalled, DROPPED.get(),
+            LatencyHistogram.percentile(total, 0.5),
+            LatencyHistogram.percentile(total, 0.99),
+            LatencyHistogram.percentile(total, 0.999),
+            LatencyHistogram.percentile(total, 1.0));
+    }
+
+    /**
+     * Helper method which records how long ago a message was sent, if it
+     * carries its send time.
+     *
+     * @param text the message
+     */
+    private static void recordText(String text)
+    {
+        int at = text.indexOf(STAMP);
+        if (at < 0)
+            return;
+
+        long sent = 0;
+        for (int i = at + STAMP.length(); i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9')
+                break;
+            sent = sent * 10 + (c - '0');
+        }
+        LATENCY.record((System.nanoTime() - sent) / 1000);
+        DELIVERED.incrementAndGet();
+    }
+
+    /**
+     * Helper method which records how long ago an image was sent (the send
+     * time follows the PNG signature).
+     *
+     * @param image the image
+     */
+    private static void recordImage(ImageMessage image)
+    {
+        byte[] data = image.getData();
+        if (data == null || data.length < 16)
+            return;
+
+        LATENCY.record((System.nanoTime() - ByteBuffer.wrap(data, 8, 8).getLong()) / 1000);
+        DELIVERED.incrementAndGet();
+        IMAGES_DELIVERED.incrementAndGet();
+    }
+
+    /**
+     * Inner class for one event loop, which opens its users' connections,
+     * reads and writes for them, and decides when each of them sends.
+     */
+    private static class Loop extends Thread
+    {
+        private final Selector selector;
+        private final List<Integer> slots;  //user slots still to connect
+        private final List<User> ready = new ArrayList<>();  //users in their rooms
+        private final List<User> all = new ArrayList<>();
+        private final byte[] filler;        //random image bytes
+        private double owedConnects = 0;    //fractions carried between ticks
+        private double owedSends = 0;
+        private double owedChurn = 0;
+        private int nextSender = 0;
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param id the loop's number
+         * @param slots the user slots it connects
+         * @throws IOException if the selector can't be opened
+         */
+        public Loop(int id, List<Integer> slots) throws IOException
+        {
+            super("load-loop-" + id);
+            this.selector = Selector.open();
+            this.slots = new ArrayList<>(slots);
+            this.filler = new byte[IMAGE_BYTES];
+            ThreadLocalRandom.current().nextBytes(filler);
+            System.arraycopy(PNG_SIGNATURE, 0, filler, 0, PNG_SIGNATURE.length);
+        }
+
+        /**
+         * Selects and ticks until the generator stops, then closes every
+         * connection.
+         */
+        @Override
+        public void run()
+        {
+            int users = slots.size();
+            long last = System.nanoTime();
+            while (!stopping)
+            {
+                try
+                {
+                    selector.select(Math.max(1, TICK_NANOS / 1000000));
+                    for (SelectionKey key : selector.selectedKeys())
+                        ((User) key.attachment()).ready(key);
+                    selector.selectedKeys().clear();
+                }
+                catch (IOException e)
+                {
+                    System.out.println("Select error: " + e);
+                    break;
+                }
+
+                long now = System.nanoTime();
+                if (now - last >= TICK_NANOS)
+                {
+                    tick((now - last) / 1e9, users);
+                    last = now;
+                }
+            }
+
+            for (User user : new ArrayList<>(all))
+                user.close();
+            try
+            {
+                selector.close();
+            }
+            catch (IOException e)
+            {}
+        }
+
+        /**
+         * Connects, sends and churns however many users are due in the time
+         * since the last tick.
+         *
+         * @param seconds the time since the last tick
+         * @param users the number of users this loop runs
+         */
+        private void tick(double seconds, int users)
+        {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            //connect users at an even rate over the ramp-up:
+            owedConnects += RAMP_UP > 0 ? users * seconds / RAMP_UP : users;
+            while (owedConnects >= 1 && !slots.isEmpty())
+            {
+                owedConnects--;
+                connect(slots.remove(slots.size() - 1));
+            }
+
+            //send from users in turn (a user whose last message is still
+            //being written is skipped), never catching up on more than one
+            //message each:
+            owedSends = Math.min(owedSends + ready.size() * RATE * seconds, ready.size());
+            while (owedSends >= 1)
+            {
+                owedSends--;
+                User user = ready.get(nextSender++ % ready.size());
+                if (!user.out.isEmpty())
+                {
+                    STALLED.incrementAndGet();
+                    continue;
+                }
+                double r = random.nextDouble();
+                if (r < IMAGES)
+                    user.sendImage();
+                else
+                    user.sendText(r < IMAGES + MENTIONS);
+            }
+
+            //replace users with new ones in the same slots:
+            owedChurn += CHURN * seconds / LOOPS;
+            while (owedChurn >= 1 && !ready.isEmpty())
+            {
+                owedChurn--;
+                User user = ready.get(random.nextInt(ready.size()));
+                user.close();
+                connect(user.slot);
+            }
+        }
+
+        /**
+         * Helper method which starts connecting a user.
+         *
+         * @param slot the user's slot (which decides its room)
+         */
+        private void connect(int slot)
+        {
+            try
+            {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+                User user = new User(this, slot, channel);
+                all.add(user);
+                if (channel.connect(new InetSocketAddress(HOST, PORT)))
+                    user.connected();
+                else
+                    user.key = channel.register(selector, SelectionKey.OP_CONNECT, user);
+            }
+            catch (IOException e)
+            {
+                DROPPED.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Inner class for one simulated user: a ChatClient, and a non-blocking
+     * connection to carry its frames.
+     */
+    private static class User implements ChatClient.Listener, ChatClient.Transport
+    {
+        private final Loop loop;
+        private final int slot;
+        private final SocketChannel channel;
+        private final ChatClient client = new ChatClient(this, FEATURES);
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(4096);
+        private boolean isReady = false;
+        private boolean closed = false;
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param loop the loop it belongs to
+         * @param slot its slot
+         * @param channel its connection (still connecting)
+         */
+        public User(Loop loop, int slot, SocketChannel channel)
+        {
+            this.loop = loop;
+            this.slot = slot;
+            this.channel = channel;
+        }
+
+        /**
+         * Says hello once connected.
+         *
+         * @throws IOException if the hello can't be sent
+         */
+        public void connected() throws IOException
+        {
+            if (key == null)
+                key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+            else
+                key.interestOps(SelectionKey.OP_READ);
+            client.start(this);
+        }
+
+        /**
+         * Finishes connecting, reads or writes, whichever the selector says
+         * is ready.
+         *
+         * @param key this user's key
+         */
+        public void ready(SelectionKey key)
+        {
+            try
+            {
+                if (key.isConnectable())
+                {
+                    channel.finishConnect();
+                    connected();
+                    return;
+                }
+                if (key.isWritable())
+                    flush();
+                if (key.isReadable())
+                    read();
+            }
+            catch (IOException | CancelledKeyException e)
+            {
+                if (!closed && !stopping)
+                    DROPPED.incrementAndGet();
+                close();
+            }
+        }
+
+        /**
+         * Reads whatever has arrived, and passes every whole frame to the
+         * client.
+         *
+         * @throws IOException if the connection has closed
+         */
+        private void read() throws IOException
+        {
+            if (channel.read(in) < 0)
+                throw new IOException("Closed by the server");
+
+            in.flip();
+            int length;
+            while (!closed && (length = MessageCodec.peekLength(in)) >= 0)
+            {
+                int headerLength = MessageCodec.varintSize(length);
+                int frameLength = headerLength + length;
+
+                if (in.remaining() < frameLength)  //wait for the rest
+                {
+                    //grow the buffer if the frame won't fit in it:
+                    if (frameLength > in.capacity())
+                    {
+                        ByteBuffer bigger = ByteBuffer.allocate(frameLength);
+                        bigger.put(in);
+                        in = bigger;
+                        return;
+                    }
+                    break;
+                }
+
+                Message m = MessageCodec.decode(in.array(),
+                    in.position() + headerLength, length);
+                in.position(in.position() + frameLength);
+                if (!client.receive(m))
+                    throw new IOException("Turned away by the server");
+            }
+            in.compact();
+        }
+
+        /**
+         * Sends a frame, straight away if nothing is waiting to be written,
+         * or once the socket has room for it.
+         *
+         * @param frame the frame
+         * @throws IOException if the connection has closed
+         */
+        @Override
+        public void send(byte[] frame) throws IOException
+        {
+            out.add(ByteBuffer.wrap(frame));
+            if (out.size() == 1)
+                flush();
+        }
+
+        /**
+         * Writes as much as the socket will take, and asks to be told when
+         * it can take the rest.
+         *
+         * @throws IOException if the connection has closed
+         */
+        private void flush() throws IOException
+        {
+            while (!out.isEmpty())
+            {
+                ByteBuffer buffer = out.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining())
+                {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                out.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        /**
+         * Closes the connection (from the loop's thread only).
+         */
+        @Override
+        public void close()
+        {
+            if (closed)
+                return;
+
+            closed = true;
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {}
+            loop.all.remove(this);
+            client.closed();
+        }
+
+        /**
+         * Sends a message carrying the time, mentioning another member of the
+         * room if asked to (and there is one).
+         *
+         * @param mention whether to mention someone
+         */
+        private void sendText(boolean mention)
+        {
+            String text = STAMP + System.nanoTime() + " the quick brown fox";
+            if (mention)
+            {
+                List<String> roster = client.getRoster();
+                String name = roster.isEmpty() ? null
+                    : roster.get(ThreadLocalRandom.current().nextInt(roster.size()));
+                if (name != null && !name.equals(client.getUsername()))
+                    text = name + " " + text;
+            }
+
+            try
+            {
+                client.sendText(text);
+                SENT.incrementAndGet();
+            }
+            catch (IOException e)
+            {
+                close();
+            }
+        }
+
+        /**
+         * Sends an image carrying the time after its PNG signature.
+         */
+        private void sendImage()
+        {
+            byte[] data = loop.filler.clone();
+            ByteBuffer.wrap(data, 8, 8).putLong(System.nanoTime());
+            try
+            {
+                client.sendImage(new ImageMessage(data, "image/png", 1, 1));
+                SENT.incrementAndGet();
+            }
+            catch (IOException e)
+            {
+                close();
+            }
+        }
+
+        /**
+         * Moves to this user's room once the server has given it a name.
+         *
+         * @param username the username
+         */
+        @Override
+        public void joined(String username)
+        {
+            try
+            {
+                if (ROOM_SIZE > 0)
+                    client.joinRoom("load-" + slot / ROOM_SIZE);
+                else
+                    roomChanged(Rooms.LOBBY);
+            }
+            catch (IOException e)
+            {
+                close();
+            }
+        }
+
+        /**
+         * Starts sending once in the room.
+         *
+         * @param room the room's name
+         */
+        @Override
+        public void roomChanged(String room)
+        {
+            if (!isReady && !closed)
+            {
+                isReady = true;
+                loop.ready.add(this);
+                READY.incrementAndGet();
+            }
+        }
+
+        /**
+         * Records the latency of a user's message (the server's own notices
+         * aren't counted).
+         *
+         * @param sender the user who sent it, or null for the server
+         * @param text the message
+         */
+        @Override
+        public void message(String sender, String text)
+        {
+            if (sender != null)
+                recordText(text);
+        }
+
+        /**
+         * Records the latency of an image.
+         *
+         * @param image the image
+         */
+        @Override
+        public void image(ImageMessage image)
+        {
+            recordImage(image);
+        }
+
+        /**
+         * Stops sending once the connection has closed.
+         */
+        @Override
+        public void disconnected()
+        {
+            if (isReady)
+            {
+                isReady = false;
+                loop.ready.remove(this);
+                READY.decrementAndGet();
+            }
+        }
+    }
+}
\ No newline at end of file
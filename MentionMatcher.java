@@ -0,0 +1,348 @@
+package assignment;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Class Description: Finds which connected users are mentioned in a message,
+ * using an Aho-Corasick automaton over the usernames. The message is scanned
+ * once, however many users are connected, rather than once per user.
+ *
+ * Only whole names count as mentions: the characters either side of a match
+ * must not be letters or digits, so "CLIENT1" isn't found in "CLIENT12".
+ *
+ * Names are added to (and removed from) the trie as users join and leave,
+ * and only the failure links (which let the scan carry on from a partial
+ * match without going back over the message) that the change affects are
+ * updated, so matching never waits for the automaton to be rebuilt. Each
+ * node keeps the nodes whose failure link points at it, by their last
+ * character:
+ * 1) a new node's link is found from its parent's, and the nodes that now
+ *    end with the new node's string are found among the ones linked to
+ *    the same node as it (ending with the same character)
+ * 2) a pruned node's nodes are linked to the next node along its own
+ *    failure links instead
+ * and the output links (to the next node along the failure links that ends
+ * a name) are updated for the nodes linked through a changed node.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class MentionMatcher
+{
+    private final Node root = new Node(null, '\0', 0);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Adds a username that can be mentioned (adding one already there does
+     * nothing).
+     *
+     * @param name the username
+     */
+    public void add(String name)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            Node end = find(name);
+            if (end != null && name.equals(end.output))
+                return;
+
+            //walk (and grow) the name's path, noting the new nodes:
+            List<Node> added = new ArrayList<>();
+            Node node = root;
+            for (int i = 0; i < name.length(); i++)
+            {
+                char c = name.charAt(i);
+                Node child = node.children.get(c);
+                if (child == null)
+                {
+                    child = new Node(node, c, i + 1);
+                    node.children.put(c, child);
+                    added.add(child);
+                }
+                child.names++;
+                node = child;
+            }
+            node.output = name;
+
+            //link the new nodes, shortest first (each one's parent, and any
+            //shorter node it could be linked to, is linked already):
+            for (Node child : added)
+                link(child);
+
+            //nodes linked to the name's node now have it as their output:
+            for (Set<Node> linked : node.failedBy.values())
+            {
+                for (Node n : linked)
+                    relink(n);
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a username, pruning any part of the trie no other name uses.
+     *
+     * @param name the username
+     */
+    public void remove(String name)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            Node node = find(name);
+            if (node == null || !name.equals(node.output))
+                return;
+
+            node.output = null;
+            for (Set<Node> linked : node.failedBy.values())
+            {
+                for (Node n : linked)
+                    relink(n);
+            }
+
+            List<Node> pruned = new ArrayList<>();
+            for (Node n = node; n != root; n = n.parent)
+            {
+                if (--n.names == 0)
+                {
+                    n.parent.children.remove(n.c);
+                    n.pruned = true;
+                    pruned.add(n);
+                }
+            }
+
+            //link whatever was linked to a pruned node to the next node 
+            //along its failure links that is still there:
+            for (Node p : pruned)
+            {
+                p.fail.unlinked(p);
+                Node to = p.fail;
+                while (to.pruned)
+                    to = to.fail;
+                for (Set<Node> linked : p.failedBy.values())
+                {
+                    for (Node n : linked)
+                    {
+                        if (n.pruned)
+                            continue;
+                        n.fail = to;
+                        to.linked(n);
+                        relink(n);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Scans a message for mentions of any of the usernames.
+     *
+     * @param text the message
+     * @return every username mentioned in the message (empty if none)
+     */
+    public Set<String> match(String text)
+    {
+        Set<String> mentioned = new HashSet<>();
+
+        lock.readLock().lock();
+        try
+        {
+            Node state = root;
+            for (int i = 0; i < text.length(); i++)
+            {
+                char c = text.charAt(i);
+                while (state != root && !state.children.containsKey(c))
+                    state = state.fail;
+                state = state.children.getOrDefault(c, root);
+
+                //check every name ending here:
+                Node out = state.output != null ? state : state.outputLink;
+                for (; out != null; out = out.outputLink)
+                {
+                    int start = i - out.depth + 1;
+                    if (isBoundary(text, start - 1) && isBoundary(text, i + 1))
+                        mentioned.add(out.output);
+                }
+            }
+            return mentioned;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Helper method which sets a new node's failure link (to the longest
+     * proper suffix of its string in the trie), and moves any node whose
+     * longest suffix it now is over to it.
+     *
+     * @param node the new node
+     */
+    private void link(Node node)
+    {
+        Node f = node.parent.fail;
+        while (f != root && !f.children.containsKey(node.c))
+            f = f.fail;
+        Node next = node.parent == root ? null : f.children.get(node.c);
+        node.fail = next != null && next != node ? next : root;
+        node.fail.linked(node);
+        relink(node);
+
+        //nodes ending in this node's string, that were linked to a shorter 
+        //suffix of it, are linked to the same node it is (and end with the
+        //same character):
+        Set<Node> candidates = node.fail.failedBy.get(node.c);
+        if (candidates == null)
+            return;
+        List<Node> moved = new ArrayList<>();
+        for (Node n : candidates)
+        {
+            if (n != node && n.depth > node.depth && endsWith(n, node))
+                moved.add(n);
+        }
+        for (Node n : moved)
+        {
+            node.fail.unlinked(n);
+            n.fail = node;
+            node.linked(n);
+            relink(n);
+        }
+    }
+
+    /**
+     * Helper method which updates a node's output link from its failure
+     * link, and the output links of the nodes linked to it that went
+     * through it.
+     *
+     * @param node the node
+     */
+    private static void relink(Node node)
+    {
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty())
+        {
+            Node n = stack.pop();
+            n.outputLink = n.fail.output != null ? n.fail : n.fail.outputLink;
+            //(nodes linked to one ending a name output that name instead):
+            if (n.output == null)
+            {
+                for (Set<Node> linked : n.failedBy.values())
+                {
+                    for (Node m : linked)
+                        stack.push(m);
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method which checks if one node's string ends with another's.
+     *
+     * @param node the longer node
+     * @param suffix the shorter node
+     * @return whether it does
+     */
+    private static boolean endsWith(Node node, Node suffix)
+    {
+        for (Node n = node, s = suffix; s.parent != null; n = n.parent, s = s.parent)
+        {
+            if (n.c != s.c)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Helper method which finds the trie node for a whole name.
+     *
+     * @param name the name
+     * @return its node, or null if it isn't in the trie
+     */
+    private Node find(String name)
+    {
+        Node node = root;
+        for (int i = 0; i < name.length() && node != null; i++)
+            node = node.children.get(name.charAt(i));
+        return node;
+    }
+
+    /**
+     * Helper method which checks if a position in the text is the edge of a
+     * word (i.e. outside the text, or not a letter or digit).
+     *
+     * @param text the text
+     * @param index the position to check
+     * @return whether a name may start after / end before this position
+     */
+    private static boolean isBoundary(String text, int index)
+    {
+        return index < 0 || index >= text.length()
+            || !Character.isLetterOrDigit(text.charAt(index));
+    }
+
+    /**
+     * Inner class for a single trie node.
+     */
+    private static class Node
+    {
+        private final Node parent;
+        private final char c;       //character on the edge from the parent
+        private final int depth;    //length of the string this node spells
+        private final Map<Character, Node> children = new HashMap<>();
+        //nodes whose failure link is this one, by their last character:
+        private final Map<Character, Set<Node>> failedBy = new HashMap<>();
+
+        private int names = 0;      //number of names passing through here
+        private String output;      //name ending here (if any)
+        private Node fail;          //failure link
+        private Node outputLink;    //next node on the fail chain with a name
+        private boolean pruned = false;     //whether it has been removed
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param parent the parent node (null for the root)
+         * @param c the character on the edge from the parent
+         * @param depth the length of the string this node spells
+         */
+        public Node(Node parent, char c, int depth)
+        {
+            this.parent = parent;
+            this.c = c;
+            this.depth = depth;
+            this.fail = parent == null ? this : parent;
+        }
+
+        /**
+         * Notes that a node's failure link is now this one.
+         *
+         * @param node the node
+         */
+        private void linked(Node node)
+        {
+            failedBy.computeIfAbsent(node.c, k -> new HashSet<>()).add(node);
+        }
+
+        /**
+         * Notes that a node's failure link is no longer this one.
+         *
+         * @param node the node
+         */
+        private void unlinked(Node node)
+        {
+            Set<Node> linked = failedBy.get(node.c);
+            if (linked != null && linked.remove(node) && linked.isEmpty())
+                failedBy.remove(node.c);
+        }
+    }
+}
\ No newline at end of file
@@ -11,7 +11,14 @@ import java.io.Serializable;
  * clients
  * 2) StringMessage - send a string message (received from the client, or from 
  * the server) to the intended clients, and from the client to the server
- * 3) ImageMessage - send an ImageIcon from the server to all clients
+ * 3) ImageMessage - send an image's file bytes from the server to all 
+ * clients
+ * 4) HelloMessage - agree on a protocol version when a client connects
+ * 5) TransferMessage - stream a big image from one client to the others in 
+ * chunks
+ * 6) SearchMessage - search the chat history, and send back the results
+ * 7) RoomMessage - move a client from one room to another
+ * 8) PeerMessage - keep the servers of a cluster up to date with each other
  * 
  * @author Ryan Herkt (ID: 18022861)
  */
@@ -0,0 +1,970 @@
+package assignment;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Class Description: Encodes and decodes Message objects for the socket, so
+ * that both the blocking server (one thread per client) and the non-blocking
+ * NIO server can tell where one message ends and the next one begins, without
+ * the overhead of Java serialization (class descriptors, object graphs and
+ * handle tables) for what is usually a short line of text.
+ *
+ * Every frame is the payload length as a varint, followed by the payload:
+ * a one byte type tag and then the message's fields.
+ *
+ * 1) HelloMessage - tag, varint version, varint min version, varint features
+ * 2) StringMessage - tag, flags (bit 0: has sender, bit 1: traced), [varint
+ * length, UTF-8 sender], [8 byte trace id, sent, received and dispatched
+ * times], UTF-8 text
+ * 3) ListMessage - tag, kind (0 removed, 1 added, 2 snapshot, 3 resync),
+ * varint version, then for added/removed the UTF-8 member, or for a snapshot
+ * a varint count and each member as a varint length and UTF-8 name
+ * 4) ImageMessage - tag, varint width, varint height, varint length and
+ * UTF-8 media type, then the image file's bytes
+ * 5) ImageMessage (offer, request or reference) - image reference tag, kind
+ * (1 offer, 2 request, 3 reference), 32 byte SHA-256 hash
+ * 6) TransferMessage (start, chunk or cancel) - transfer tag, kind
+ * (0 start, 1 chunk, 3 cancel), varint id, then for a start the varint
+ * length, 32 byte hash, varint width, varint height, varint length and
+ * UTF-8 media type and (from an uploader) a 16 byte resume key, or for a
+ * chunk the varint offset and the chunk's bytes
+ * 7) TransferMessage (ack) - transfer ack tag, kind (2 ack), varint id,
+ * varint offset, varint credit. Acks have their own tag so they can be
+ * sent ahead of queued chunks (see OutboundQueue)
+ * 8) SearchMessage - tag, kind (0 query, 1 results), varint cursor, then for
+ * a query the varint limit and UTF-8 query, or for results a varint count
+ * and each result as a varint id, 8 byte time, varint length and UTF-8
+ * sender, and varint length and UTF-8 text
+ * 9) RoomMessage - tag, kind (0 join, 1 leave, 2 joined), UTF-8 room name
+ * 10) PeerMessage (between the servers of a cluster only) - tag, kind
+ * (0 hello, 1 enter, 2 exit, 3 room, 4 user, 5 image, 6 proof), varint node,
+ * varint length and UTF-8 user, varint length and UTF-8 room, then the frame
+ * being passed on (or a hello's nonce or a proof, if any)
+ * 11) Compressed frame - tag, then another frame's payload (tag and fields)
+ * compressed with raw deflate, using DICTIONARY as the preset dictionary. 
+ * Only text, roster, search and room frames are compressed, each on its 
+ * own, so a broadcast is compressed once and the same bytes are sent to 
+ * everyone who agreed to FEATURE_COMPRESSION (see Frame.compressed)
+ * 12) TraceMessage - tag, varint count, then each span as an 8 byte trace
+ * id, received time and shown time
+ * 13) PingMessage - tag, kind (0 ping, 1 pong), 8 byte value
+ *
+ * Varints are unsigned LEB128: seven bits per byte, low bits first, with the
+ * top bit set on every byte except the last.
+ *
+ * The first frame each way is a HelloMessage, which is used to agree on a
+ * protocol version and on which optional features to use (see
+ * Server.ChatServer and ClientGUI).
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public final class MessageCodec
+{
+    //protocol versions this side can speak:
+    public static final int PROTOCOL_VERSION = 1;
+    public static final int MIN_PROTOCOL_VERSION = 1;
+
+    //optional features (bits of HelloMessage's features). With the image
+    //cache, images are offered by hash and only sent whole to clients that
+    //don't already have them:
+    public static final int FEATURE_IMAGE_CACHE = 1;
+    //with transfers, big images are streamed in chunks (TransferMessage):
+    public static final int FEATURE_TRANSFER = 2;
+    //with search, clients can search the chat history (SearchMessage):
+    public static final int FEATURE_SEARCH = 4;
+    //with rooms, clients can move between rooms (RoomMessage):
+    public static final int FEATURE_ROOMS = 8;
+    //with compression, either side may send compressed frames (TAG_DEFLATE):
+    public static final int FEATURE_COMPRESSION = 16;
+    //with tracing, a sample of text messages carry a TraceContext, and
+    //clients report when they showed them (TraceMessage):
+    public static final int FEATURE_TRACING = 32;
+    //with heartbeats, the server pings quiet clients (PingMessage), and
+    //disconnects them if they stay quiet:
+    public static final int FEATURE_HEARTBEAT = 64;
+    public static final int SUPPORTED_FEATURES = FEATURE_IMAGE_CACHE
+        | FEATURE_TRANSFER | FEATURE_SEARCH | FEATURE_ROOMS
+        | FEATURE_COMPRESSION | FEATURE_TRACING | FEATURE_HEARTBEAT;
+
+    //number of images a caching client keeps (least recently used are
+    //forgotten first), which the server assumes when deciding whether to
+    //send a client an image or a reference to it:
+    public static final int CACHED_IMAGES = 64;
+
+    //bytes in an image's SHA-256 hash, and in a transfer's resume key:
+    public static final int HASH_LENGTH = 32;
+    public static final int RESUME_KEY_LENGTH = 16;
+
+    //images bigger than this are streamed as a transfer (if the server
+    //supports it), in chunks of up to CHUNK_SIZE bytes, with a receiver
+    //letting its sender get up to TRANSFER_WINDOW bytes ahead of it:
+    public static final int STREAM_THRESHOLD = 512 * 1024;
+    public static final int CHUNK_SIZE = 32 * 1024;
+    public static final int TRANSFER_WINDOW = 256 * 1024;
+
+    //largest payload either side will accept (images can be big):
+    public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+    //most of a payload read before more of its bytes have arrived:
+    private static final int READ_CHUNK = 64 * 1024;
+
+    //payloads shorter than this aren't worth compressing:
+    public static final int MIN_COMPRESS_LENGTH = 24;
+    //text both sides start every compressed frame with, so even a short
+    //frame can refer back to what the server says most often (the most
+    //common text goes last, where it is cheapest to refer to). Changing it
+    //means changing the protocol version:
+    private static final byte[] DICTIONARY = utf8("lobby room image message "
+        + "Server - Room names are 1 to 32 lowercase letters, digits, '-' or '_'"
+        + "Server: is sending an image has sent an image"
+        + "Server - Type /join followed by a room's name to move to another "
+        + "room, and /leave to go back to the lobby."
+        + "Server - To send a message to a specific client, type their name "
+        + "(e.g. CLIENT2) somewhere in the message."
+        + "Server - New User: You have successfully joined"
+        + "Server - Departing User: CLIENT has left #lobby"
+        + "Server - New User: CLIENT has joined #CLIENT");
+    //one deflater and inflater per thread, as they are costly to create:
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(
+        () -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(
+        () -> new Inflater(true));
+
+    //flags for the optional fields of a StringMessage:
+    private static final int FLAG_SENDER = 1;
+    private static final int FLAG_TRACE = 2;
+    //bytes in a StringMessage's trace (four longs) and a TraceMessage's span
+    //(three longs):
+    private static final int TRACE_LENGTH = 4 * 8;
+    private static final int SPAN_LENGTH = 3 * 8;
+
+    //type tags, the first byte of every payload:
+    public static final byte TAG_HELLO = 0;
+    public static final byte TAG_STRING = 1;
+    public static final byte TAG_LIST = 2;
+    public static final byte TAG_IMAGE = 3;
+    public static final byte TAG_IMAGE_REF = 4;
+    public static final byte TAG_TRANSFER = 5;
+    public static final byte TAG_TRANSFER_ACK = 6;
+    public static final byte TAG_SEARCH = 7;
+    public static final byte TAG_ROOM = 8;
+    public static final byte TAG_PEER = 9;
+    public static final byte TAG_DEFLATE = 10;
+    public static final byte TAG_TRACE = 11;
+    public static final byte TAG_PING = 12;
+
+    /**
+     * Private constructor, this class only has static helper methods.
+     */
+    private MessageCodec()
+    {
+
+    }
+
+    /**
+     * Encodes a message into a complete frame (length prefix and payload),
+     * ready to be written to a socket.
+     *
+     * @param m the message to encode
+     * @return the frame's bytes
+     * @throws IOException if the message can't be encoded
+     */
+    public static byte[] encode(Message m) throws IOException
+    {
+        if (m instanceof StringMessage)
+        {
+            StringMessage sm = (StringMessage) m;
+            byte[] text = utf8(sm.getMessage());
+            byte[] sender = sm.getSender() == null ? null : utf8(sm.getSender());
+
+            TraceContext trace = sm.getTrace();
+
+            int senderLength = sender == null ? 0
+                : varintSize(sender.length) + sender.length;
+            FrameWriter f = new FrameWriter(TAG_STRING, 1 + senderLength
+                + (trace == null ? 0 : TRACE_LENGTH) + text.length);
+            f.put((byte) ((sender == null ? 0 : FLAG_SENDER)
+                | (trace == null ? 0 : FLAG_TRACE)));
+            if (sender != null)
+            {
+                f.putVarint(sender.length);
+                f.put(sender);
+            }
+            if (trace != null)
+            {
+                f.putLong(trace.getId());
+                f.putLong(trace.getSent());
+                f.putLong(trace.getReceived());
+                f.putLong(trace.getDispatched());
+            }
+            f.put(text);
+            return f.bytes;
+        }
+        else if (m instanceof ListMessage)
+        {
+            ListMessage lm = (ListMessage) m;
+            int length = 1 + varintSize(lm.getVersion());
+
+            byte[] member = null;
+            byte[][] members = null;
+            switch (lm.getKind())
+            {
+                case ADDED:
+                case REMOVED:
+                    member = utf8(lm.getMember());
+                    length += member.length;
+                    break;
+                case SNAPSHOT:
+                    members = new byte[lm.getMembers().size()][];
+                    length += varintSize(members.length);
+                    for (int i = 0; i < members.length; i++)
+                    {
+                        members[i] = utf8(lm.getMembers().get(i));
+                        length += varintSize(members[i].length) + members[i].length;
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            FrameWriter f = new FrameWriter(TAG_LIST, length);
+            f.put((byte) lm.getKind().ordinal());
+            f.putVarint(lm.getVersion());
+            if (member != null)
+                f.put(member);
+            if (members != null)
+            {
+                f.putVarint(members.length);
+                for (byte[] name : members)
+                {
+                    f.putVarint(name.length);
+                    f.put(name);
+                }
+            }
+            return f.bytes;
+        }
+        else if (m instanceof ImageMessage
+            && ((ImageMessage) m).getKind() != ImageMessage.Kind.FULL)
+        {
+            ImageMessage im = (ImageMessage) m;
+            FrameWriter f = new FrameWriter(TAG_IMAGE_REF, 1 + HASH_LENGTH);
+            f.put((byte) im.getKind().ordinal());
+            f.put(im.getHash());
+            return f.bytes;
+        }
+        else if (m instanceof ImageMessage)
+        {
+            ImageMessage im = (ImageMessage) m;
+            byte[] mediaType = utf8(im.getMediaType());
+            FrameWriter f = new FrameWriter(TAG_IMAGE, varintSize(im.getWidth())
+                + varintSize(im.getHeight()) + varintSize(mediaType.length)
+                + mediaType.length + im.getData().length);
+            f.putVarint(im.getWidth());
+            f.putVarint(im.getHeight());
+            f.putVarint(mediaType.length);
+            f.put(mediaType);
+            f.put(im.getData());
+            return f.bytes;
+        }
+        else if (m instanceof TransferMessage)
+        {
+            TransferMessage tm = (TransferMessage) m;
+            int length = 1 + varintSize(tm.getId());
+            byte[] mediaType = null;
+            switch (tm.getKind())
+            {
+                case START:
+                    mediaType = utf8(tm.getMediaType());
+                    length += varintSize(tm.getLength()) + HASH_LENGTH
+                        + varintSize(tm.getWidth()) + varintSize(tm.getHeight())
+                        + varintSize(mediaType.length) + mediaType.length
+                        + (tm.getKey() == null ? 0 : RESUME_KEY_LENGTH);
+                    break;
+                case CHUNK:
+                    length += varintSize(tm.getOffset()) + tm.getData().length;
+                    break;
+                case ACK:
+                    length += varintSize(tm.getOffset())
+                        + varintSize(tm.getCredit());
+                    break;
+                default:
+                    break;
+            }
+
+            FrameWriter f = new FrameWriter(tm.getKind() == TransferMessage.Kind.ACK
+                ? TAG_TRANSFER_ACK : TAG_TRANSFER, length);
+            f.put((byte) tm.getKind().ordinal());
+            f.putVarint(tm.getId());
+            switch (tm.getKind())
+            {
+                case START:
+                    f.putVarint(tm.getLength());
+                    f.put(tm.getHash());
+                    f.putVarint(tm.getWidth());
+                    f.putVarint(tm.getHeight());
+                    f.putVarint(mediaType.length);
+                    f.put(mediaType);
+                    if (tm.getKey() != null)
+                        f.put(tm.getKey());
+                    break;
+                case CHUNK:
+                    f.putVarint(tm.getOffset());
+                    f.put(tm.getData());
+                    break;
+                case ACK:
+                    f.putVarint(tm.getOffset());
+                    f.putVarint(tm.getCredit());
+                    break;
+                default:
+                    break;
+            }
+            return f.bytes;
+        }
+        else if (m instanceof SearchMessage)
+        {
+            SearchMessage sm = (SearchMessage) m;
+            int length = 1 + varintSize(sm.getCursor());
+
+            byte[] query = null;
+            byte[][] fields = null;     //sender and text of each result
+            if (sm.getKind() == SearchMessage.Kind.QUERY)
+            {
+                query = utf8(sm.getQuery());
+                length += varintSize(sm.getLimit()) + query.length;
+            }
+            else
+            {
+                List<SearchMessage.Hit> hits = sm.getHits();
+                fields = new byte[hits.size() * 2][];
+                length += varintSize(hits.size());
+                for (int i = 0; i < hits.size(); i++)
+                {
+                    fields[2 * i] = utf8(hits.get(i).getSender());
+                    fields[2 * i + 1] = utf8(hits.get(i).getText());
+                    length += varintSize(hits.get(i).getId()) + 8
+                        + varintSize(fields[2 * i].length) + fields[2 * i].length
+                        + varintSize(fields[2 * i + 1].length)
+                        + fields[2 * i + 1].length;
+                }
+            }
+
+            FrameWriter f = new FrameWriter(TAG_SEARCH, length);
+            f.put((byte) sm.getKind().ordinal());
+            f.putVarint(sm.getCursor());
+            if (query != null)
+            {
+                f.putVarint(sm.getLimit());
+                f.put(query);
+            }
+            else
+            {
+                List<SearchMessage.Hit> hits = sm.getHits();
+                f.putVarint(hits.size());
+                for (int i = 0; i < hits.size(); i++)
+                {
+                    f.putVarint(hits.get(i).getId());
+                    f.putLong(hits.get(i).getTime());
+                    f.putVarint(fields[2 * i].length);
+                    f.put(fields[2 * i]);
+                    f.putVarint(fields[2 * i + 1].length);
+                    f.put(fields[2 * i + 1]);
+                }
+            }
+            return f.bytes;
+        }
+        else if (m instanceof RoomMessage)
+        {
+            RoomMessage rm = (RoomMessage) m;
+            byte[] room = utf8(rm.getRoom());
+            FrameWriter f = new FrameWriter(TAG_ROOM, 1 + room.length);
+            f.put((byte) rm.getKind().ordinal());
+            f.put(room);
+            return f.bytes;
+        }
+        else if (m instanceof PeerMessage)
+        {
+            PeerMessage pm = (PeerMessage) m;
+            byte[] user = utf8(pm.getUser());
+            byte[] room = utf8(pm.getRoom());
+            byte[] frame = pm.getFrame() == null ? new byte[0] : pm.getFrame();
+            FrameWriter f = new FrameWriter(TAG_PEER, 1 + varintSize(pm.getNode())
+                + varintSize(user.length) + user.length
+                + varintSize(room.length) + room.length + frame.length);
+            f.put((byte) pm.getKind().ordinal());
+            f.putVarint(pm.getNode());
+            f.putVarint(user.length);
+            f.put(user);
+            f.putVarint(room.length);
+            f.put(room);
+            f.put(frame);
+            return f.bytes;
+        }
+        else if (m instanceof TraceMessage)
+        {
+            List<TraceMessage.Span> spans = ((TraceMessage) m).getSpans();
+            FrameWriter f = new FrameWriter(TAG_TRACE, varintSize(spans.size())
+                + spans.size() * SPAN_LENGTH);
+            f.putVarint(spans.size());
+            for (TraceMessage.Span span : spans)
+            {
+                f.putLong(span.getId());
+                f.putLong(span.getReceived());
+                f.putLong(span.getShown());
+            }
+            return f.bytes;
+        }
+        else if (m instanceof PingMessage)
+        {
+            PingMessage pm = (PingMessage) m;
+            FrameWriter f = new FrameWriter(TAG_PING, 1 + 8);
+            f.put((byte) pm.getKind().ordinal());
+            f.putLong(pm.getValue());
+            return f.bytes;
+        }
+        else if (m instanceof HelloMessage)
+        {
+            HelloMessage hm = (HelloMessage) m;
+            FrameWriter f = new FrameWriter(TAG_HELLO, varintSize(hm.getVersion())
+                + varintSize(hm.getMinVersion()) + varintSize(hm.getFeatures()));
+            f.putVarint(hm.getVersion());
+            f.putVarint(hm.getMinVersion());
+            f.putVarint(hm.getFeatures());
+            return f.bytes;
+        }
+        throw new IOException("Can't encode message: " + m);
+    }
+
+    /**
+     * Decodes the payload of a single frame (without its length prefix) back
+     * into a message.
+     *
+     * @param payload array holding the payload
+     * @param offset where the payload starts
+     * @param length number of payload bytes
+     * @return the decoded message
+     * @throws IOException if the payload isn't a valid message
+     */
+    public static Message decode(byte[] payload, int offset, int length)
+        throws IOException
+    {
+        if (length < 1)
+            throw new IOException("Empty frame");
+
+        int end = offset + length;
+        int pos = offset + 1;   //skip the tag
+
+        switch (payload[offset])
+        {
+            case TAG_STRING:
+                ByteBuffer text = ByteBuffer.wrap(payload, pos, end - pos);
+                if (!text.hasRemaining())
+                    throw new IOException("Truncated string frame");
+
+                int flags = text.get();
+                String sender = null;
+                if ((flags & FLAG_SENDER) != 0)
+                    sender = getString(text, getVarint(text));
+                TraceContext trace = null;
+                if ((flags & FLAG_TRACE) != 0)
+                {
+                    if (text.remaining() < TRACE_LENGTH)
+                        throw new IOException("Truncated string frame");
+                    trace = new TraceContext(text.getLong(), text.getLong(),
+                        text.getLong(), text.getLong());
+                }
+                return new StringMessage(sender,
+                    getString(text, text.remaining()), trace);
+            case TAG_LIST:
+                ByteBuffer list = ByteBuffer.wrap(payload, pos, end - pos);
+                if (!list.hasRemaining())
+                    throw new IOException("Truncated list frame");
+
+                int kind = list.get();
+                int version = getVarint(list);
+                switch (kind)
+                {
+                    case 0:
+                    case 1:
+                        return new ListMessage(getString(list, list.remaining()),
+                            kind == 1, version);
+                    case 2:
+                        //(each name takes at least a byte for its length):
+                        int count = getVarint(list);
+                        if (count > list.remaining())
+                            throw new IOException("Truncated list frame");
+                        List<String> members = new ArrayList<>(count);
+                        for (int i = 0; i < count; i++)
+                            members.add(getString(list, getVarint(list)));
+                        return new ListMessage(members, version);
+                    case 3:
+                        return new ListMessage(version);
+                    default:
+                        throw new IOException("Unknown list kind: " + kind);
+                }
+            case TAG_IMAGE:
+                ByteBuffer image = ByteBuffer.wrap(payload, pos, end - pos);
+                int width = getVarint(image);
+                int height = getVarint(image);
+                String mediaType = getString(image, getVarint(image));
+                byte[] data = new byte[image.remaining()];
+                image.get(data);
+                return new ImageMessage(data, mediaType, width, height);
+            case TAG_IMAGE_REF:
+                if (length != 2 + HASH_LENGTH)
+                    throw new IOException("Invalid image reference frame");
+
+                ImageMessage.Kind[] kinds = ImageMessage.Kind.values();
+                int ref = payload[pos];
+                if (ref <= 0 || ref >= kinds.length)
+                    throw new IOException("Unknown image kind: " + ref);
+                return new ImageMessage(kinds[ref],
+                    Arrays.copyOfRange(payload, pos + 1, end));
+            case TAG_TRANSFER:
+            case TAG_TRANSFER_ACK:
+                ByteBuffer transfer = ByteBuffer.wrap(payload, pos, end - pos);
+                if (!transfer.hasRemaining())
+                    throw new IOException("Truncated transfer frame");
+
+                int kindOrdinal = transfer.get();
+                int id = getVarint(transfer);
+                switch (kindOrdinal)
+                {
+                    case 0:
+                        int fileLength = getVarint(transfer);
+                        if (transfer.remaining() < HASH_LENGTH)
+                            throw new IOException("Truncated transfer frame");
+                        byte[] hash = new byte[HASH_LENGTH];
+                        transfer.get(hash);
+                        int w = getVarint(transfer);
+                        int h = getVarint(transfer);
+                        String type = getString(transfer, getVarint(transfer));
+                        byte[] key = null;
+                        if (transfer.hasRemaining())
+                        {
+                            if (transfer.remaining() != RESUME_KEY_LENGTH)
+                                throw new IOException("Invalid resume key");
+                            key = new byte[RESUME_KEY_LENGTH];
+                            transfer.get(key);
+                        }
+                        return TransferMessage.start(id, fileLength, hash,
+                            type, w, h, key);
+                    case 1:
+                        int chunkOffset = getVarint(transfer);
+                        byte[] chunk = new byte[transfer.remaining()];
+                        transfer.get(chunk);
+                        return TransferMessage.chunk(id, chunkOffset, chunk);
+                    case 2:
+                        return TransferMessage.ack(id, getVarint(transfer),
+                            getVarint(transfer));
+                    case 3:
+                        return TransferMessage.cancel(id);
+                    default:
+                        throw new IOException("Unknown transfer kind: " + kindOrdinal);
+                }
+            case TAG_SEARCH:
+                ByteBuffer search = ByteBuffer.wrap(payload, pos, end - pos);
+                if (!search.hasRemaining())
+                    throw new IOException("Truncated search frame");
+
+                int searchKind = search.get();
+                int cursor = getVarint(search);
+                switch (searchKind)
+                {
+                    case 0:
+                        int limit = getVarint(search);
+                        return SearchMessage.query(getString(search, 
+                            search.remaining()), limit, cursor);
+                    case 1:
+                        //(each hit takes at least its id, time and two 
+                        //lengths):
+                        int hitCount = getVarint(search);
+                        if (hitCount > search.remaining() / (8 + 3))
+                            throw new IOException("Truncated search frame");
+                        List<SearchMessage.Hit> hits = new ArrayList<>(hitCount);
+                        for (int i = 0; i < hitCount; i++)
+                        {
+                            int hitId = getVarint(search);
+                            if (search.remaining() < 8)
+                                throw new IOException("Truncated search frame");
+                            long time = search.getLong();
+                            String hitSender = getString(search, getVarint(search));
+                            hits.add(new SearchMessage.Hit(hitId, time, hitSender,
+                                getString(search, getVarint(search))));
+                        }
+                        return SearchMessage.results(hits, cursor);
+                    default:
+                        throw new IOException("Unknown search kind: " + searchKind);
+                }
+            case TAG_ROOM:
+                RoomMessage.Kind[] roomKinds = RoomMessage.Kind.values();
+                if (length < 2 || payload[pos] < 0 || payload[pos] >= roomKinds.length)
+                    throw new IOException("Invalid room frame");
+                return new RoomMessage(roomKinds[payload[pos]], new String(payload, 
+                    pos + 1, end - pos - 1, StandardCharsets.UTF_8));
+            case TAG_PEER:
+                ByteBuffer peer = ByteBuffer.wrap(payload, pos, end - pos);
+                PeerMessage.Kind[] peerKinds = PeerMessage.Kind.values();
+                if (!peer.hasRemaining())
+                    throw new IOException("Truncated peer frame");
+                int peerKind = peer.get();
+                if (peerKind < 0 || peerKind >= peerKinds.length)
+                    throw new IOException("Unknown peer kind: " + peerKind);
+
+                int node = getVarint(peer);
+                String user = getString(peer, getVarint(peer));
+                String room = getString(peer, getVarint(peer));
+                byte[] frame = null;
+                if (peer.hasRemaining())
+                {
+                    frame = new byte[peer.remaining()];
+                    peer.get(frame);
+                }
+                return new PeerMessage(peerKinds[peerKind], node, user, room, frame);
+            case TAG_DEFLATE:
+                byte[] inner = inflate(payload, pos, end - pos);
+                if (inner.length > 0 && inner[0] == TAG_DEFLATE)
+                    throw new IOException("Nested compressed frame");
+                return decode(inner, 0, inner.length);
+            case TAG_TRACE:
+                ByteBuffer traces = ByteBuffer.wrap(payload, pos, end - pos);
+                int spanCount = getVarint(traces);
+                if (spanCount < 0 || spanCount > traces.remaining() / SPAN_LENGTH)
+                    throw new IOException("Truncated trace frame");
+                List<TraceMessage.Span> spans = new ArrayList<>(spanCount);
+                for (int i = 0; i < spanCount; i++)
+                    spans.add(new TraceMessage.Span(traces.getLong(),
+                        traces.getLong(), traces.getLong()));
+                return new TraceMessage(spans);
+            case TAG_PING:
+                PingMessage.Kind[] pingKinds = PingMessage.Kind.values();
+                if (length != 1 + 1 + 8 || payload[pos] < 0 
+                    || payload[pos] >= pingKinds.length)
+                    throw new IOException("Invalid ping frame");
+                return new PingMessage(pingKinds[payload[pos]], 
+                    ByteBuffer.wrap(payload, pos + 1, 8).getLong());
+            case TAG_HELLO:
+                ByteBuffer fields = ByteBuffer.wrap(payload, pos, end - pos);
+                return new HelloMessage(getVarint(fields), getVarint(fields),
+                    getVarint(fields));
+            default:
+                throw new IOException("Unknown message type: " + payload[offset]);
+        }
+    }
+
+    /**
+     * Writes a message as one frame to an output stream and flushes it.
+     *
+     * @param out the stream to write to
+     * @param m the message to send
+     * @throws IOException if the stream can't be written to
+     */
+    public static void write(OutputStream out, Message m) throws IOException
+    {
+        out.write(encode(m));
+        out.flush();
+    }
+
+    /**
+     * Compresses a text, roster, search or room frame (see TAG_DEFLATE).
+     *
+     * @param frame a complete frame (length prefix and payload)
+     * @return the compressed frame, or null if the frame isn't one that is
+     * compressed, or compressing it wouldn't make it any smaller
+     */
+    public static byte[] compress(byte[] frame)
+    {
+        int start = 0;
+        while ((frame[start] & 0x80) != 0)
+            start++;
+        start++;
+        int length = frame.length - start;
+
+        switch (frame[start])
+        {
+            case TAG_STRING:
+            case TAG_LIST:
+            case TAG_SEARCH:
+            case TAG_ROOM:
+                break;
+            default:    //hellos, and images and transfers (compressed already)
+                return null;
+        }
+        if (length < MIN_COMPRESS_LENGTH)
+            return null;
+
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(frame, start, length);
+        deflater.finish();
+
+        //only worth it if it comes out smaller than the frame:
+        byte[] out = new byte[length];
+        int compressed = 0;
+        while (!deflater.finished() && compressed < out.length)
+            compressed += deflater.deflate(out, compressed, out.length - compressed);
+        if (!deflater.finished())
+            return null;
+
+        FrameWriter f = new FrameWriter(TAG_DEFLATE, compressed);
+        if (f.bytes.length >= frame.length)
+            return null;
+        System.arraycopy(out, 0, f.bytes, f.bytes.length - compressed, compressed);
+        return f.bytes;
+    }
+
+    /**
+     * Helper method which decompresses a compressed frame's payload.
+     *
+     * @param payload array holding the compressed bytes
+     * @param offset where they start
+     * @param length number of compressed bytes
+     * @return the original payload
+     * @throws IOException if the bytes aren't valid, or decompress to more
+     * than MAX_FRAME_LENGTH
+     */
+    private static byte[] inflate(byte[] payload, int offset, int length)
+        throws IOException
+    {
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY);
+        inflater.setInput(payload, offset, length);
+
+        try
+        {
+            byte[] out = new byte[Math.max(64, length * 4)];
+            int size = 0;
+            while (!inflater.finished())
+            {
+                if (size == out.length)
+                {
+                    if (out.length >= MAX_FRAME_LENGTH)
+                        throw new IOException("Compressed frame is too big");
+                    out = Arrays.copyOf(out, Math.min(MAX_FRAME_LENGTH, out.length * 2));
+                }
+
+                int n = inflater.inflate(out, size, out.length - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Truncated compressed frame");
+                size += n;
+            }
+            return Arrays.copyOf(out, size);
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException("Invalid compressed frame", e);
+        }
+    }
+
+    /**
+     * Blocks until a whole frame has been read from the input stream, then
+     * decodes it.
+     *
+     * @param in the stream to read from
+     * @return the next message on the stream
+     * @throws IOException if the stream ends or the frame is invalid
+     */
+    public static Message read(DataInputStream in) throws IOException
+    {
+        int length = 0;
+        for (int shift = 0; ; shift += 7)
+        {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException();
+            if (shift > 28)
+                throw new IOException("Invalid frame length");
+
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                break;
+        }
+
+        //read the payload into an array that grows as its bytes arrive, 
+        //rather than one as big as the length claims (up to 
+        //MAX_FRAME_LENGTH) before any have:
+        checkLength(length);
+        byte[] payload = new byte[Math.min(length, READ_CHUNK)];
+        int read = 0;
+        while (read < length)
+        {
+            if (read == payload.length)
+                payload = Arrays.copyOf(payload, 
+                    (int) Math.min(length, 2L * payload.length));
+            int n = in.read(payload, read, payload.length - read);
+            if (n < 0)
+                throw new EOFException();
+            read += n;
+        }
+
+        return decode(payload, 0, length);
+    }
+
+    /**
+     * Reads the payload length at the start of a buffer (between its position
+     * and limit) without moving the position, for readers which get bytes a
+     * few at a time (i.e. the NIO server).
+     *
+     * @param buffer the buffer, ready for reading
+     * @return the payload length, or -1 if the whole length prefix hasn't
+     * arrived yet
+     * @throws IOException if the length is invalid
+     */
+    public static int peekLength(ByteBuffer buffer) throws IOException
+    {
+        int length = 0;
+        int pos = buffer.position();
+        for (int shift = 0; pos < buffer.limit(); shift += 7)
+        {
+            if (shift > 28)
+                throw new IOException("Invalid frame length");
+
+            int b = buffer.get(pos++);
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return checkLength(length);
+        }
+        return -1;
+    }
+
+    /**
+     * Checks that a frame length read off the wire is sensible.
+     *
+     * @param length the length from the frame's prefix
+     * @return the same length
+     * @throws IOException if the length is negative or too big
+     */
+    public static int checkLength(int length) throws IOException
+    {
+        if (length < 0 || length > MAX_FRAME_LENGTH)
+            throw new IOException("Invalid frame length: " + length);
+        return length;
+    }
+
+    /**
+     * @param value a non-negative int
+     * @return the number of bytes the value takes up as a varint
+     */
+    public static int varintSize(int value)
+    {
+        int size = 1;
+        while ((value >>>= 7) != 0)
+            size++;
+        return size;
+    }
+
+    /**
+     * Reads a varint from a buffer, moving its position past it.
+     *
+     * @param buffer the buffer to read from
+     * @return the value (never negative)
+     * @throws IOException if the varint is cut off, too long or bigger than
+     * Integer.MAX_VALUE
+     */
+    public static int getVarint(ByteBuffer buffer) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift <= 28; shift += 7)
+        {
+            if (!buffer.hasRemaining())
+                throw new IOException("Truncated varint");
+
+            int b = buffer.get();
+            //(the fifth byte only has room for the top three bits):
+            if (shift == 28 && (b & 0xF8) != 0)
+                throw new IOException("Invalid varint");
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Invalid varint");
+    }
+
+    /**
+     * Reads a UTF-8 string from a buffer, moving its position past it.
+     *
+     * @param buffer the buffer to read from
+     * @param length number of bytes in the string
+     * @return the string
+     * @throws IOException if the length is negative, or the buffer doesn't
+     * have that many bytes left
+     */
+    private static String getString(ByteBuffer buffer, int length)
+        throws IOException
+    {
+        if (length < 0 || length > buffer.remaining())
+            throw new IOException("Truncated string");
+
+        String s = new String(buffer.array(), buffer.arrayOffset()
+            + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+
+    /**
+     * Helper method to encode a string as UTF-8 (null counts as empty).
+     *
+     * @param s the string
+     * @return its UTF-8 bytes
+     */
+    private static byte[] utf8(String s)
+    {
+        return s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Inner class used while encoding: an exactly sized frame array, with
+     * the length prefix and tag already written, that fields are put into
+     * one after the other.
+     */
+    private static class FrameWriter
+    {
+        private final byte[] bytes;
+        private int pos = 0;
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param tag the message's type tag
+         * @param bodyLength number of bytes in the fields after the tag
+         */
+        public FrameWriter(byte tag, int bodyLength)
+        {
+            int length = 1 + bodyLength;
+            bytes = new byte[varintSize(length) + length];
+            putVarint(length);
+            put(tag);
+        }
+
+        public void put(byte b)
+        {
+            bytes[pos++] = b;
+        }
+
+        public void put(byte[] b)
+        {
+            System.arraycopy(b, 0, bytes, pos, b.length);
+            pos += b.length;
+        }
+
+        public void putLong(long value)
+        {
+            for (int shift = 56; shift >= 0; shift -= 8)
+                bytes[pos++] = (byte) (value >>> shift);
+        }
+
+        public void putVarint(int value)
+        {
+            while ((value & ~0x7F) != 0)
+            {
+                bytes[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[pos++] = (byte) value;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,597 @@
+package assignment;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.*;
+import java.util.zip.CRC32;
+
+/**
+ * Class Description: The server's history of messages, kept on disk so it
+ * survives the server closing, and replayed to each client as it joins.
+ *
+ * Messages are logged as the frames they were broadcast as, so replaying
+ * them needs no encoding. The log is append-only, split into segment files
+ * (named after the number of the first record in them) of up to
+ * chat.log.segmentBytes each; the oldest segments are deleted once there are
+ * more than chat.log.segments of them. Each record is:
+ * 1) the frame's length (4 bytes)
+ * 2) a CRC32 of the frame (4 bytes)
+ * 3) the frame
+ *
+ * Appending never waits for the disk: records are queued for the log's own
+ * writer thread, which writes everything queued in one go and then forces
+ * it to disk once for the whole batch (group commit), so a record is on disk
+ * at most one write and one fsync after it was appended, however many are
+ * appended at once. If the writer falls more than MAX_PENDING records
+ * behind, new records are dropped (and counted) rather than holding up
+ * broadcasts.
+ *
+ * The last chat.log.replay records are remembered (as their place on disk
+ * once written and forced, or as their frame until then, or if the write
+ * failed) and read back through memory-mapped segments when a client
+ * joins. When the server starts, the newest segment is checked record by
+ * record, and a torn tail (a record only partly written, or with the wrong
+ * CRC, when the server last stopped) is cut off.
+ *
+ * The log is kept in the chat.log.dir directory ("chat-log" by default);
+ * set it to an empty string to keep no history. The highest client number
+ * handed out (see ClientRegistry) is kept next to it, so clients connecting
+ * after a restart aren't given the names of users in the history.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class MessageLog
+{
+    public static final String DIR = System.getProperty("chat.log.dir", "chat-log");
+    public static final long SEGMENT_BYTES =
+        Long.getLong("chat.log.segmentBytes", 16L * 1024 * 1024);
+    public static final int SEGMENTS = Integer.getInteger("chat.log.segments", 16);
+    public static final int REPLAY = Integer.getInteger("chat.log.replay", 50);
+
+    //records allowed to wait for the writer before new ones are dropped:
+    private static final int MAX_PENDING = 65536;
+    private static final int HEADER = 8;    //length and CRC
+    private static final String SUFFIX = ".log";
+    //file the client number mark is kept in:
+    private static final String ID_MARK = "clients";
+
+    private final Path dir;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final ArrayDeque<Entry> pending = new ArrayDeque<>();
+    //the newest records, oldest first (at most REPLAY):
+    private final ArrayDeque<Entry> recent = new ArrayDeque<>();
+    //read-only maps of segments, by first record number:
+    private final Map<Long, MappedByteBuffer> maps = new HashMap<>();
+    private final LongAdder dropped = new LongAdder();
+    private boolean writing = false;    //whether the writer has a batch
+    private boolean closed = false;
+
+    //only used by the writer thread (and the constructor):
+    private FileChannel segment;    //segment being appended to
+    private long segmentBase;       //number of its first record
+    private long nextRecord;        //number of the next record
+
+    /**
+     * Constructor for this class, which recovers the log from its directory
+     * (cutting off any torn tail) and starts its writer thread.
+     *
+     * @param dir the directory the segments are kept in
+     * @throws IOException if the log can't be opened
+     */
+    public MessageLog(String dir) throws IOException
+    {
+        this.dir = Paths.get(dir);
+        Files.createDirectories(this.dir);
+
+        List<Long> bases = segments();
+        for (int i = 0; i < bases.size(); i++)
+            recover(bases.get(i), i == bases.size() - 1);
+
+        if (bases.isEmpty())
+            roll();
+        else
+        {
+            segmentBase = bases.get(bases.size() - 1);
+            segment = FileChannel.open(segmentPath(segmentBase),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        Thread writer = new Thread(this::write, "chat-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Opens the log in the chat.log.dir directory.
+     *
+     * @return the log, or null if history is turned off (or the log can't be
+     * opened)
+     */
+    public static MessageLog open()
+    {
+        if (DIR.isEmpty())
+            return null;
+
+        try
+        {
+            return new MessageLog(DIR);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Couldn't open message log: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Queues a broadcast frame to be logged. Never waits for the disk.
+     *
+     * @param frame the frame
+     */
+    public void append(Frame frame)
+    {
+        lock.lock();
+        try
+        {
+            if (closed || pending.size() >= MAX_PENDING)
+            {
+                dropped.increment();
+                return;
+            }
+
+            Entry entry = new Entry(frame);
+            pending.addLast(entry);
+            recent.addLast(entry);
+            if (recent.size() > REPLAY)
+                recent.removeFirst();
+            notEmpty.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the newest logged frames, oldest first, to send to a client
+     * that has just joined
+     */
+    public List<Frame> replay()
+    {
+        List<Entry> entries;
+        lock.lock();
+        try
+        {
+            entries = new ArrayList<>(recent);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        List<Frame> frames = new ArrayList<>(entries.size());
+        for (Entry entry : entries)
+        {
+            try
+            {
+                Frame frame = read(entry);
+                if (frame != null)
+                    frames.add(frame);
+            }
+            catch (IOException e)
+            {
+                System.out.println("Error: " + e);
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Waits for every queued record to be written and forced to disk, then
+     * stops the writer.
+     */
+    public void close()
+    {
+        lock.lock();
+        try
+        {
+            closed = true;
+            notEmpty.signalAll();
+            while (!pending.isEmpty() || writing)
+                drained.awaitUninterruptibly();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the client number mark saved with the log (0 if there isn't
+     * one)
+     */
+    public int getIdMark()
+    {
+        try
+        {
+            Path path = dir.resolve(ID_MARK);
+            if (Files.exists(path))
+                return Integer.parseInt(new String(Files.readAllBytes(path),
+                    StandardCharsets.US_ASCII).trim());
+        }
+        catch (IOException | NumberFormatException e)
+        {
+            System.out.println("Couldn't read client numbers: " + e);
+        }
+        return 0;
+    }
+
+    /**
+     * Saves the client number mark, replacing the last one only once the new
+     * one is on disk.
+     *
+     * @param mark the mark
+     * @throws IOException if it can't be saved
+     */
+    public void saveIdMark(int mark) throws IOException
+    {
+        Path path = dir.resolve(ID_MARK);
+        Path temp = dir.resolve(ID_MARK + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer bytes = ByteBuffer.wrap(Integer.toString(mark).getBytes(
+                StandardCharsets.US_ASCII));
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the number of records dropped because the writer was too far
+     * behind
+     */
+    public long getDropped()
+    {
+        return dropped.sum();
+    }
+
+    /**
+     * The writer thread, which writes queued records in batches, forcing
+     * each batch to disk once.
+     */
+    private void write()
+    {
+        List<Entry> batch = new ArrayList<>();
+        while (true)
+        {
+            lock.lock();
+            try
+            {
+                writing = false;
+                drained.signalAll();
+                while (pending.isEmpty() && !closed)
+                    notEmpty.awaitUninterruptibly();
+                if (pending.isEmpty())
+                    return;
+
+                batch.clear();
+                batch.addAll(pending);
+                pending.clear();
+                writing = true;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            try
+            {
+                writeBatch(batch);
+            }
+            catch (IOException e)
+            {
+                System.out.println("Couldn't write message log: " + e);
+                dropped.add(batch.size());
+            }
+        }
+    }
+
+    /**
+     * Helper method which writes a batch of records with one gathering write
+     * per segment, and forces each segment written to. Records are only
+     * read back from disk once their segment has been forced.
+     *
+     * @param batch the records
+     * @throws IOException if the log can't be written
+     */
+    private void writeBatch(List<Entry> batch) throws IOException
+    {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        //records in the buffers, and where each frame will start:
+        List<Entry> entries = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        long position = segment.size();
+
+        for (Entry entry : batch)
+        {
+            ByteBuffer frame = entry.frame.buffer();
+            int length = frame.remaining();
+
+            if (position + HEADER + length > SEGMENT_BYTES && position > 0)
+            {
+                flush(buffers, entries, offsets);
+                roll();
+                position = 0;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(frame.duplicate());
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(length).putInt((int) crc.getValue()).flip();
+            buffers.add(header);
+            buffers.add(frame);
+
+            entries.add(entry);
+            offsets.add(position + HEADER);
+            position += HEADER + length;
+        }
+        flush(buffers, entries, offsets);
+    }
+
+    /**
+     * Helper method which writes buffers to the current segment, forces them
+     * to disk, and only then records where their records are. If the write
+     * fails, the segment is cut back to where it started (so later records
+     * don't follow a torn one), and the records keep their frames.
+     *
+     * @param buffers the buffers (emptied afterwards)
+     * @param entries the records in the buffers (emptied afterwards)
+     * @param offsets where each record's frame starts (emptied afterwards)
+     * @throws IOException if the segment can't be written
+     */
+    private void flush(List<ByteBuffer> buffers, List<Entry> entries,
+        List<Long> offsets) throws IOException
+    {
+        if (buffers.isEmpty())
+            return;
+
+        ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+        long remaining = 0;
+        for (ByteBuffer b : array)
+            remaining += b.remaining();
+        long start = segment.size();
+        try
+        {
+            while (remaining > 0)
+                remaining -= segment.write(array);
+            segment.force(false);
+        }
+        catch (IOException e)
+        {
+            try
+            {
+                segment.truncate(start);
+            }
+            catch (IOException ignored)
+            {}
+            buffers.clear();
+            entries.clear();
+            offsets.clear();
+            throw e;
+        }
+
+        for (int i = 0; i < entries.size(); i++)
+        {
+            Entry entry = entries.get(i);
+            entry.place(segmentBase, offsets.get(i), entry.frame.length());
+        }
+        nextRecord += entries.size();
+        buffers.clear();
+        entries.clear();
+        offsets.clear();
+    }
+
+    /**
+     * Helper method which starts a new segment, deleting the oldest ones if
+     * there are now too many.
+     *
+     * @throws IOException if the segment can't be created
+     */
+    private void roll() throws IOException
+    {
+        if (segment != null)
+            segment.close();
+
+        segmentBase = nextRecord;
+        segment = FileChannel.open(segmentPath(segmentBase),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+
+        List<Long> bases = segments();
+        for (int i = 0; i < bases.size() - SEGMENTS; i++)
+        {
+            Files.deleteIfExists(segmentPath(bases.get(i)));
+            synchronized (maps)
+            {
+                maps.remove(bases.get(i));
+            }
+        }
+    }
+
+    /**
+     * Helper method which scans a segment when the server starts, remembering
+     * its records as the newest ones and, for the newest segment, cutting
+     * off a torn tail.
+     *
+     * @param base the segment's first record number
+     * @param newest whether it is the newest segment
+     * @throws IOException if the segment can't be read
+     */
+    private void recover(long base, boolean newest) throws IOException
+    {
+        Path path = segmentPath(base);
+        long valid = 0;
+        nextRecord = base;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                channel.size());
+            while (map.remaining() >= HEADER)
+            {
+                int length = map.getInt();
+                int crc = map.getInt();
+                if (length < 0 || length > map.remaining())
+                    break;
+
+                ByteBuffer frame = map.slice();
+                frame.limit(length);
+                CRC32 check = new CRC32();
+                check.update(frame);
+                if ((int) check.getValue() != crc)
+                    break;
+
+                Entry entry = new Entry(null);
+                entry.place(base, map.position(), length);
+                recent.addLast(entry);
+                if (recent.size() > REPLAY)
+                    recent.removeFirst();
+
+                map.position(map.position() + length);
+                valid = map.position();
+                nextRecord++;
+            }
+        }
+
+        if (newest && valid < Files.size(path))
+        {
+            System.out.println("Message log: cutting torn tail off " + path);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE))
+            {
+                channel.truncate(valid);
+                channel.force(true);
+            }
+        }
+    }
+
+    /**
+     * Helper method which reads a record back, from memory if it hasn't been
+     * written yet or through the segment's memory map if it has.
+     *
+     * @param entry the record
+     * @return the record's frame, or null if its segment has been deleted
+     * @throws IOException if the segment can't be mapped
+     */
+    private Frame read(Entry entry) throws IOException
+    {
+        Frame frame = entry.frame;
+        if (frame != null)
+            return frame;
+
+        MappedByteBuffer map;
+        synchronized (maps)
+        {
+            map = maps.get(entry.base);
+            if (map == null || map.capacity() < entry.offset + entry.length)
+            {
+                Path path = segmentPath(entry.base);
+                if (!Files.exists(path))
+                    return null;
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+                {
+                    map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                maps.put(entry.base, map);
+            }
+        }
+
+        byte[] bytes = new byte[entry.length];
+        ByteBuffer record = map.duplicate();
+        record.position((int) entry.offset);
+        record.get(bytes);
+        return new Frame(bytes);
+    }
+
+    /**
+     * @return the first record numbers of every segment, oldest first
+     * @throws IOException if the directory can't be listed
+     */
+    private List<Long> segments() throws IOException
+    {
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX))
+        {
+            for (Path file : files)
+            {
+                String name = file.getFileName().toString();
+                try
+                {
+                    bases.add(Long.parseLong(name.substring(0,
+                        name.length() - SUFFIX.length())));
+                }
+                catch (NumberFormatException e)
+                {}
+            }
+        }
+        Collections.sort(bases);
+        return bases;
+    }
+
+    /**
+     * @param base a segment's first record number
+     * @return the segment's file
+     */
+    private Path segmentPath(long base)
+    {
+        return dir.resolve(String.format("%020d%s", base, SUFFIX));
+    }
+
+    /**
+     * Inner class for one record: its frame until it has been written, then
+     * its place on disk.
+     */
+    private static class Entry
+    {
+        private volatile Frame frame;   //null once written
+        private volatile long base;     //segment's first record number
+        private volatile long offset;   //where the frame starts in the segment
+        private volatile int length;
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param frame the record's frame (null if it's already on disk)
+         */
+        public Entry(Frame frame)
+        {
+            this.frame = frame;
+        }
+
+        /**
+         * Records where the frame has been written, and lets go of it.
+         *
+         * @param base the segment's first record number
+         * @param offset where the frame starts in the segment
+         * @param length the frame's length
+         */
+        public void place(long base, long offset, int length)
+        {
+            this.base = base;
+            this.offset = offset;
+            this.length = length;
+            this.frame = null;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,643 @@
+package assignment;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Class Description: The non-blocking version of the server's accept loop.
+ * Instead of starting a thread for every client that connects, one acceptor
+ * and a small, fixed number of event loops share all of the connections
+ * between them. Each event loop owns a Selector, and only does work for a
+ * connection when it is ready to be read from or written to, so thousands of
+ * mostly idle clients cost a SelectionKey and a buffer each rather than a
+ * whole thread stack.
+ *
+ * The ChatServer sessions are the same as in the blocking server (so joining,
+ * leaving and broadcasting all behave the same); they just send their frames
+ * through a NioConnection, which queues them (in a bounded OutboundQueue) for
+ * the event loop to write.
+ *
+ * A connection's queued frames are written together, with one gathering
+ * write, once OutboundQueue.BATCH_BYTES are waiting or the first of them has
+ * waited OutboundQueue.MAX_DELAY_NANOS (each loop keeps its connections
+ * waiting to be written in the order their time runs out).
+ *
+ * The loops never run a session's own work (joining replays the history,
+ * searching, handing messages to a room's shard, which waits if the shard
+ * is a whole ring behind), as one slow call would hold up every other
+ * connection on the loop. Decoded messages are passed to a pool of
+ * workers instead, which handle each connection's messages one at a time,
+ * in order. A connection isn't read from while MAX_PENDING of its
+ * messages are waiting for a worker.
+ *
+ * Threads:
+ * 1) Thread calling start() - accepts new client connections
+ * 2-n) Event loop threads - read, decode and write frames for their clients
+ * n+1-m) Worker threads - handle decoded messages (chat.nio.workers,
+ *    default two per processor)
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class NioServer
+{
+    private static final int READ_BUFFER_SIZE = 8192;   //initial read buffer
+    private static final int MAX_GATHER = 64;   //most frames in one write
+    //messages a connection can have waiting for a worker before it stops
+    //being read from:
+    private static final int MAX_PENDING = 64;
+    private static final int WORKERS = Math.max(1, Integer.getInteger(
+        "chat.nio.workers", 2 * Runtime.getRuntime().availableProcessors()));
+
+    private final Server server;    //server which creates the sessions
+    private final int port;         //port to listen on
+    private final EventLoop[] loops;    //event loops sharing the clients
+    private int nextLoop = 0;       //used to hand out clients round-robin
+    //run sessions' work, off the event loops:
+    private final ExecutorService workers = Executors.newFixedThreadPool(
+        WORKERS, r ->
+        {
+            Thread thread = new Thread(r, "chat-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /**
+     * Constructor for this class
+     *
+     * @param server the server which creates each client's ChatServer
+     * @param port the port to listen on
+     * @param eventLoops number of event loop threads to use
+     */
+    public NioServer(Server server, int port, int eventLoops)
+    {
+        this.server = server;
+        this.port = port;
+        this.loops = new EventLoop[Math.max(1, eventLoops)];
+    }
+
+    /**
+     * Opens the server channel, starts the event loops and then accepts
+     * client connections on the calling thread until the channel is closed.
+     *
+     * @throws IOException if the server channel can't be opened
+     */
+    public void start() throws IOException
+    {
+        for (int i = 0; i < loops.length; i++)
+        {
+            loops[i] = new EventLoop(Selector.open());
+            Thread thread = new Thread(loops[i], "chat-loop-" + i);
+            thread.start();
+        }
+
+        try (ServerSocketChannel ssc = ServerSocketChannel.open();
+            Selector acceptSelector = Selector.open())
+        {
+            ssc.bind(new InetSocketAddress(port), 1024);
+            ssc.configureBlocking(false);
+            ssc.register(acceptSelector, SelectionKey.OP_ACCEPT);
+            System.out.println("Server is ready to accept client connections "
+                + "(" + loops.length + " event loops)...");
+
+            while (ssc.isOpen())
+            {
+                acceptSelector.select();
+                acceptSelector.selectedKeys().clear();
+
+                //accept every connection that is waiting:
+                SocketChannel channel;
+                while ((channel = ssc.accept()) != null)
+                {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    ServerMetrics.accepted();
+
+                    //hand the client to the next event loop:
+                    loops[nextLoop].register(channel);
+                    nextLoop = (nextLoop + 1) % loops.length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Inner class for a single event loop, which owns a Selector and every
+     * connection registered with it. Other threads never touch the selector
+     * directly, they pass the loop a task (see execute) instead.
+     */
+    private class EventLoop implements Runnable
+    {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        //connections with frames waiting to be written, in the order their
+        //deadlines come up (only used on the loop's thread):
+        private final ArrayDeque<NioConnection> delayed = new ArrayDeque<>();
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param selector the selector this loop owns
+         */
+        public EventLoop(Selector selector)
+        {
+            this.selector = selector;
+        }
+
+        /**
+         * Runs a task on this event loop's thread, waking the loop up if it is
+         * waiting in select().
+         *
+         * @param task the task to run
+         */
+        public void execute(Runnable task)
+        {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Writes a connection's queued frames once its first one has waited
+         * for OutboundQueue.MAX_DELAY_NANOS, unless it is already waiting. 
+         * Called on the event loop thread.
+         *
+         * @param connection the connection
+         */
+        public void delay(NioConnection connection)
+        {
+            if (OutboundQueue.MAX_DELAY_NANOS <= 0)
+            {
+                connection.flush();
+                return;
+            }
+            if (connection.delayed)
+                return;
+
+            connection.delayed = true;
+            connection.deadline = System.nanoTime() + OutboundQueue.MAX_DELAY_NANOS;
+            delayed.addLast(connection);
+        }
+
+        /**
+         * Registers a newly accepted client with this loop, and creates its
+         * ChatServer session.
+         *
+         * @param channel the client's channel
+         */
+        public void register(SocketChannel channel)
+        {
+            execute(() -> {
+                NioConnection connection = new NioConnection(channel, this);
+                try
+                {
+                    connection.key = channel.register(selector,
+                        SelectionKey.OP_READ, connection);
+                    //the session joins once the client's hello arrives:
+                    connection.session = server.newSession(connection);
+                }
+                catch (IOException e)
+                {
+                    System.out.println("Couldn't register client: " + e);
+                    connection.close();
+                }
+            });
+        }
+
+        /**
+         * The event loop itself: waits for connections to become readable or
+         * writable, and runs any tasks passed to it from other threads.
+         */
+        @Override
+        public void run()
+        {
+            while (selector.isOpen())
+            {
+                try
+                {
+                    //wait until the next delayed write is due, at most:
+                    NioConnection next = delayed.peekFirst();
+                    if (next == null)
+                        selector.select();
+                    else
+                    {
+                        long wait = next.deadline - System.nanoTime();
+                        if (wait > 0)
+                            selector.select(Math.max(1, wait / 1000000));
+                        else
+                            selector.selectNow();
+                    }
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null)
+                        task.run();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext())
+                    {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (key.isValid() && key.isReadable())
+                            connection.read();
+                        if (key.isValid() && key.isWritable())
+                            connection.flush();
+                    }
+
+                    //write for connections whose frames have waited long 
+                    //enough:
+                    long now = System.nanoTime();
+                    while ((next = delayed.peekFirst()) != null
+                        && next.deadline - now <= 0)
+                    {
+                        delayed.removeFirst();
+                        next.delayed = false;
+                        next.flush();
+                    }
+                }
+                catch (Exception e) //catch-all, so one bad client can't kill the loop
+                {
+                    System.out.println("Event loop error: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Inner class which implements Connection for a non-blocking channel.
+     * Frames sent to it are queued, and written by its event loop whenever
+     * the channel can take more bytes. Incoming bytes are collected in a
+     * buffer until a whole frame has arrived, which is then decoded and passed
+     * to the client's ChatServer.
+     */
+    private class NioConnection implements Connection
+    {
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private SelectionKey key;
+        private Server.ChatServer session;
+
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        //the session's work, waiting for (or being run by) a worker, and 
+        //whether a worker is running it:
+        private final ArrayDeque<Runnable> work = new ArrayDeque<>();
+        private boolean working = false;
+        //whether reading has stopped until the worker catches up:
+        private volatile boolean paused = false;
+        private final OutboundQueue queue = new OutboundQueue();
+        //frames being written (from start to end, if any):
+        private final ByteBuffer[] out = new ByteBuffer[MAX_GATHER];
+        private int outStart = 0;
+        private int outEnd = 0;
+
+        //whether a write has been asked for but not yet done by the loop, 
+        //and whether it has been asked to happen straight away:
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        private final AtomicBoolean writeNow = new AtomicBoolean();
+        //whether the loop is waiting to write, and until when (only used on
+        //the loop's thread):
+        private boolean delayed = false;
+        private long deadline;
+        private volatile boolean compressing = false;
+        private volatile boolean tracing = false;
+        private volatile boolean closeAfterFlush = false;
+        private volatile boolean closed = false;
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param channel the client's channel
+         * @param loop the event loop which owns the channel
+         */
+        public NioConnection(SocketChannel channel, EventLoop loop)
+        {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        /**
+         * Queues a frame, and asks the event loop to write it out (straight
+         * away if a batch's worth is waiting, otherwise once it has waited
+         * for the longest delay).
+         *
+         * @param frame the frame to send
+         */
+        @Override
+        public void send(Frame frame) throws IOException
+        {
+            if (!tracing)
+                frame = frame.untraced();
+            if (compressing)
+                frame = frame.compressed();
+            if (!queue.offer(frame))
+            {
+                //too far behind (or already closed), so disconnect:
+                queue.clear();
+                loop.execute(this::closeNow);
+                throw new IOException("Connection is closed");
+            }
+            scheduleWrite(queue.getBytes() >= OutboundQueue.BATCH_BYTES);
+        }
+
+        /**
+         * Asks the event loop to write queued frames, unless it has been
+         * asked already.
+         *
+         * @param now whether to write straight away rather than after the
+         * longest delay
+         */
+        private void scheduleWrite(boolean now)
+        {
+            if (writeScheduled.compareAndSet(false, true))
+                loop.execute(now ? this::flush : () -> loop.delay(this));
+            else if (now && writeNow.compareAndSet(false, true))
+                loop.execute(this::flush);
+        }
+
+        /**
+         * Compresses frames sent from now on, if they are worth compressing.
+         */
+        @Override
+        public void setCompressing(boolean compressing)
+        {
+            this.compressing = compressing;
+        }
+
+        /**
+         * Sends traced messages with their traces from now on.
+         */
+        @Override
+        public void setTracing(boolean tracing)
+        {
+            this.tracing = tracing;
+        }
+
+        /**
+         * Closes the connection once every queued frame has been written.
+         */
+        @Override
+        public void close()
+        {
+            queue.close();
+            closeAfterFlush = true;
+            scheduleWrite(true);
+        }
+
+        /**
+         * Throws away any queued frames, and asks the event loop to close the
+         * channel straight away.
+         */
+        @Override
+        public void abort()
+        {
+            queue.clear();
+            loop.execute(this::closeNow);
+        }
+
+        /**
+         * @return the client's outbound queue
+         */
+        @Override
+        public OutboundQueue getQueue()
+        {
+            return queue;
+        }
+
+        /**
+         * Reads whatever bytes are available, and passes each complete frame
+         * to the ChatServer. Called on the event loop thread.
+         */
+        private void read()
+        {
+            try
+            {
+                int n = channel.read(in);
+                if (n < 0)   //client has gone
+                {
+                    closeNow();
+                    return;
+                }
+                ServerMetrics.read(n);
+
+                in.flip();
+                int length;
+                while (!closed && (length = MessageCodec.peekLength(in)) >= 0)
+                {
+                    int headerLength = MessageCodec.varintSize(length);
+                    int frameLength = headerLength + length;
+
+                    if (in.remaining() < frameLength)  //wait for the rest
+                    {
+                        //grow the buffer (twice as big each time it fills, 
+                        //rather than to the length the frame claims before
+                        //its bytes have arrived) if the frame won't fit:
+                        if (frameLength > in.capacity() 
+                            && in.remaining() == in.capacity())
+                        {
+                            ByteBuffer bigger = ByteBuffer.allocate(
+                                (int) Math.min(frameLength, 2L * in.capacity()));
+                            bigger.put(in);
+                            in = bigger;
+                            return;
+                        }
+                        break;
+                    }
+
+                    Message m = MessageCodec.decode(in.array(),
+                        in.position() + headerLength, length);
+                    in.position(in.position() + frameLength);
+                    submit(() -> handle(m));
+                }
+                in.compact();
+
+                //go back to a small buffer once a big frame has been read:
+                if (in.capacity() > READ_BUFFER_SIZE 
+                    && in.position() <= READ_BUFFER_SIZE)
+                {
+                    in.flip();
+                    in = ByteBuffer.allocate(READ_BUFFER_SIZE).put(in);
+                }
+
+                //stop reading until the worker has caught up:
+                synchronized (work)
+                {
+                    if (work.size() >= MAX_PENDING && !paused)
+                    {
+                        paused = true;
+                        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    }
+                }
+            }
+            //(a frame the codec didn't catch is still a broken client, and 
+            //its buffer can't be trusted any more):
+            catch (IOException | RuntimeException e)
+            {
+                System.out.println("Disconnection error: " + e);
+                closeNow();
+            }
+        }
+
+        /**
+         * Passes a decoded message to the session. Called on a worker.
+         *
+         * @param m the message
+         */
+        private void handle(Message m)
+        {
+            if (closed)
+                return;
+            try
+            {
+                //the client wants to quit, so close once the goodbye
+                //message has gone out:
+                if (session.receive(m))
+                    close();
+            }
+            catch (IOException | RuntimeException e)
+            {
+                System.out.println("Disconnection error: " + e);
+                abort();
+            }
+        }
+
+        /**
+         * Adds to the session's work, and has a worker run it if one isn't
+         * already.
+         *
+         * @param task the work
+         */
+        private void submit(Runnable task)
+        {
+            synchronized (work)
+            {
+                work.addLast(task);
+                if (working)
+                    return;
+                working = true;
+            }
+            workers.execute(this::work);
+        }
+
+        /**
+         * Runs the session's work, in order, until there is none left, then
+         * starts reading again if reading had stopped. Called on a worker.
+         */
+        private void work()
+        {
+            while (true)
+            {
+                Runnable task;
+                synchronized (work)
+                {
+                    task = work.pollFirst();
+                    if (task == null)
+                    {
+                        working = false;
+                        if (paused)
+                            loop.execute(this::resume);
+                        return;
+                    }
+                }
+                task.run();
+            }
+        }
+
+        /**
+         * Starts reading again, once the worker has caught up. Called on the
+         * event loop thread.
+         */
+        private void resume()
+        {
+            synchronized (work)
+            {
+                if (!paused || closed)
+                    return;
+                paused = false;
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Writes as many queued frames as the channel will take, up to 
+         * MAX_GATHER at a time with one gathering write. If some are left 
+         * over, the loop is told to call this again when the channel is
+         * writable. Called on the event loop thread.
+         */
+        private void flush()
+        {
+            if (closed)
+                return;
+
+            try
+            {
+                writeScheduled.set(false);
+                writeNow.set(false);
+
+                while (outStart < outEnd || nextBuffers())
+                {
+                    OutboundQueue.countWrite(
+                        channel.write(out, outStart, outEnd - outStart));
+                    while (outStart < outEnd && !out[outStart].hasRemaining())
+                        out[outStart++] = null;
+
+                    if (outStart < outEnd)  //socket buffer is full
+                    {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+
+                if (closeAfterFlush)
+                    closeNow();
+            }
+            catch (IOException e)
+            {
+                closeNow();
+            }
+        }
+
+        /**
+         * Helper method which takes the next frames to write off the queue.
+         *
+         * @return false if there weren't any
+         */
+        private boolean nextBuffers()
+        {
+            outStart = 0;
+            outEnd = queue.drainTo(out, OutboundQueue.BATCH_BYTES);
+            return outEnd > 0;
+        }
+
+        /**
+         * Closes the channel straight away, and lets the ChatServer know its
+         * client has left (once the worker has run the work before it). 
+         * Called on the event loop thread.
+         */
+        private void closeNow()
+        {
+            if (closed)
+                return;
+            closed = true;
+
+            queue.clear();
+            if (key != null)
+                key.cancel();
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {}
+
+            if (session != null)
+                submit(session::leave);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,540 @@
+package assignment;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.*;
+
+/**
+ * Class Description: A bounded queue of frames waiting to be written to one
+ * client. Senders only ever add to the queue (which never blocks), and the
+ * connection's own writer takes frames off it, so a client that is slow to
+ * read can't hold up messages to everyone else.
+ *
+ * Frames wait in one of three lanes, and the writer always takes the next
+ * frame from the highest priority lane that has one:
+ * 1) CONTROL - roster updates, room changes, the hello and transfer acks
+ * (and everything on a link between cluster nodes, which must stay in
+ * order)
+ * 2) INTERACTIVE - text messages and search results
+ * 3) BULK - images and transfer chunks
+ * Frames in the same lane are written in the order they were queued. Big
+ * images are streamed as chunks (see TransferMessage), so a text message
+ * only ever waits for the one bulk frame already being written, rather than
+ * for every image queued before it.
+ *
+ * When the frames waiting for a client go over the high-water mark (in
+ * bytes), the slow-consumer policy decides what happens:
+ * 1) DROP_OLDEST - the oldest waiting frames are thrown away, lowest
+ * priority lane first
+ * 2) DROP_NON_CONTROL - text and image frames are thrown away (images
+ * first), but control frames are always kept
+ * 3) DISCONNECT - the client is disconnected
+ * Frames on a link between cluster nodes are never dropped, whatever the
+ * policy, as the other node would then be wrong about who is in which room
+ * until the link reopened. The link is closed instead, and is sent
+ * everything again when it reopens (see Cluster).
+ *
+ * The high-water mark and policy are set with the chat.outbound.highWater and
+ * chat.outbound.policy system properties. A frame is always accepted into an
+ * empty queue, however big it is.
+ *
+ * Writers don't write each frame as soon as it is queued. They wait until
+ * BATCH_BYTES are waiting, or until the first one has waited MAX_DELAY_NANOS
+ * (chat.outbound.batchBytes, default 16 KB, and chat.outbound.maxDelayMicros,
+ * default 1000), then write everything waiting with as few writes to the
+ * socket as they can. A burst of messages to a client then costs a few
+ * system calls (and TCP segments) rather than one each. The totals of frames
+ * written and socket writes are kept, to see how well this is working.
+ *
+ * A ReentrantLock is used rather than synchronized so that writers on virtual
+ * threads don't pin their carrier threads while waiting.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class OutboundQueue
+{
+    /**
+     * What to do with a client whose queue is over the high-water mark.
+     */
+    public enum Policy
+    {
+        DROP_OLDEST, DROP_NON_CONTROL, DISCONNECT
+    }
+
+    /**
+     * Which lane a frame waits in, highest priority first.
+     */
+    public enum Lane
+    {
+        CONTROL, INTERACTIVE, BULK
+    }
+
+    //bytes allowed to wait for one client before the policy kicks in:
+    public static final long HIGH_WATER_MARK =
+        Long.getLong("chat.outbound.highWater", 8L * 1024 * 1024);
+    public static final Policy POLICY = Policy.valueOf(
+        System.getProperty("chat.outbound.policy", "DROP_NON_CONTROL").toUpperCase());
+
+    //bytes worth writing straight away, and the longest a queued frame 
+    //waits for more to go with it (0 to write every frame straight away):
+    public static final int BATCH_BYTES =
+        Integer.getInteger("chat.outbound.batchBytes", 16 * 1024);
+    public static final long MAX_DELAY_NANOS = TimeUnit.MICROSECONDS.toNanos(
+        Long.getLong("chat.outbound.maxDelayMicros", 1000));
+
+    //totals across every client's queue:
+    private static final LongAdder TOTAL_DEPTH = new LongAdder();
+    private static final LongAdder TOTAL_DROPS = new LongAdder();
+    private static final LongAdder TOTAL_TAKEN = new LongAdder();
+    private static final LongAdder TOTAL_WRITES = new LongAdder();
+    private static final LongAdder TOTAL_WRITTEN = new LongAdder();
+
+    //frames waiting in each lane, indexed by Lane ordinal:
+    private final List<ArrayDeque<Frame>> lanes = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private int depth = 0;      //frames currently waiting
+    private long bytes = 0;     //bytes currently waiting
+    private long drops = 0;     //frames dropped for this client
+    private long taken = 0;     //frames ever taken off the queue
+    private boolean closed = false;
+
+    /**
+     * Constructor for this class
+     */
+    public OutboundQueue()
+    {
+        for (int i = 0; i < Lane.values().length; i++)
+            lanes.add(new ArrayDeque<>());
+    }
+
+    /**
+     * Adds a frame to the queue, applying the slow-consumer policy if the
+     * queue is over its high-water mark.
+     *
+     * @param frame the frame to add
+     * @return false if the client should be disconnected (or the queue has
+     * been closed), true otherwise
+     */
+    public boolean offer(Frame frame)
+    {
+        lock.lock();
+        try
+        {
+            if (closed)
+                return false;
+
+            if (depth > 0 && bytes + frame.length() > HIGH_WATER_MARK)
+            {
+                //(a link between cluster nodes is closed, not dropped from):
+                if (frame.getTag() == MessageCodec.TAG_PEER)
+                    return false;
+
+                switch (POLICY)
+                {
+                    case DISCONNECT:
+                        return false;
+                    case DROP_OLDEST:
+                        makeRoom(frame, Lane.CONTROL);
+                        break;
+                    case DROP_NON_CONTROL:
+                        if (!isControl(frame))
+                        {
+                            countDrop();
+                            return true;
+                        }
+                        //make room for the control frame if possible:
+                        makeRoom(frame, Lane.INTERACTIVE);
+                        break;
+                }
+            }
+
+            lanes.get(laneOf(frame).ordinal()).addLast(frame);
+            depth++;
+            bytes += frame.length();
+            TOTAL_DEPTH.increment();
+            notEmpty.signal();
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next frame off the queue without waiting.
+     *
+     * @return the next frame, or null if the queue is empty
+     */
+    public Frame poll()
+    {
+        lock.lock();
+        try
+        {
+            return removeFirst();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next frame off the queue, waiting for one if it is empty.
+     *
+     * @return the next frame, or null once the queue is closed and empty
+     * @throws InterruptedException if the writer is interrupted
+     */
+    public Frame take() throws InterruptedException
+    {
+        lock.lock();
+        try
+        {
+            while (depth == 0 && !closed)
+                notEmpty.await();
+            return removeFirst();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes as many frames as will fit off the queue without waiting, for a
+     * gathering write. The first frame is always taken, however big it is.
+     *
+     * @param into array to put buffers over the frames in
+     * @param maxBytes the most bytes to take (unless the first frame is 
+     * bigger)
+     * @return the number of frames taken (0 if the queue is empty)
+     */
+    public int drainTo(ByteBuffer[] into, long maxBytes)
+    {
+        lock.lock();
+        try
+        {
+            int count = 0;
+            long taken = 0;
+            Frame frame;
+            while (count < into.length && (frame = peekFirst()) != null
+                && (count == 0 || taken + frame.length() <= maxBytes))
+            {
+                removeFirst();
+                taken += frame.length();
+                into[count++] = frame.buffer();
+            }
+            return count;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until at least some number of bytes are queued, the queue is
+     * closed, or a time limit is up, whichever comes first.
+     *
+     * @param minBytes the bytes to wait for
+     * @param nanos the longest to wait
+     * @throws InterruptedException if the writer is interrupted
+     */
+    public void awaitBytes(long minBytes, long nanos) throws InterruptedException
+    {
+        lock.lock();
+        try
+        {
+            while (bytes < minBytes && !closed && nanos > 0)
+                nanos = notEmpty.awaitNanos(nanos);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the queue accepting frames. Frames already in it can still be
+     * taken, after which take() returns null.
+     */
+    public void close()
+    {
+        lock.lock();
+        try
+        {
+            closed = true;
+            notEmpty.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the queue and throws away every frame still in it (i.e. when the
+     * client is being disconnected).
+     */
+    public void clear()
+    {
+        lock.lock();
+        try
+        {
+            closed = true;
+            TOTAL_DEPTH.add(-depth);
+            for (ArrayDeque<Frame> lane : lanes)
+                lane.clear();
+            depth = 0;
+            bytes = 0;
+            notEmpty.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of frames waiting
+     */
+    public int getDepth()
+    {
+        lock.lock();
+        try
+        {
+            return depth;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes waiting
+     */
+    public long getBytes()
+    {
+        lock.lock();
+        try
+        {
+            return bytes;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of frames dropped for this client
+     */
+    public long getDrops()
+    {
+        lock.lock();
+        try
+        {
+            return drops;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of frames ever taken off the queue to be written,
+     * which stops going up while the client isn't reading (see
+     * Server.ChatServer.check)
+     */
+    public long getTaken()
+    {
+        lock.lock();
+        try
+        {
+            return taken;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of frames waiting across every client's queue
+     */
+    public static long getTotalDepth()
+    {
+        return TOTAL_DEPTH.sum();
+    }
+
+    /**
+     * @return the number of frames dropped across every client's queue
+     */
+    public static long getTotalDrops()
+    {
+        return TOTAL_DROPS.sum();
+    }
+
+    /**
+     * Counts one write to a client's socket (i.e. one system call), so it
+     * can be compared with the number of frames written.
+     *
+     * @param bytes the number of bytes written
+     */
+    public static void countWrite(long bytes)
+    {
+        TOTAL_WRITES.increment();
+        TOTAL_WRITTEN.add(bytes);
+    }
+
+    /**
+     * @return the number of frames taken off every client's queue to be 
+     * written
+     */
+    public static long getTotalTaken()
+    {
+        return TOTAL_TAKEN.sum();
+    }
+
+    /**
+     * @return the number of writes to every client's socket
+     */
+    public static long getTotalWrites()
+    {
+        return TOTAL_WRITES.sum();
+    }
+
+    /**
+     * @return the number of bytes written to every client's socket
+     */
+    public static long getTotalWritten()
+    {
+        return TOTAL_WRITTEN.sum();
+    }
+
+    /**
+     * Checks if a frame is a control frame, which the DROP_NON_CONTROL policy
+     * never drops.
+     *
+     * @param frame the frame
+     * @return whether it is a roster update, a hello, a transfer ack or a
+     * ping
+     */
+    public static boolean isControl(Frame frame)
+    {
+        return laneOf(frame) == Lane.CONTROL;
+    }
+
+    /**
+     * Works out which lane a frame waits in, from its type tag.
+     *
+     * @param frame the frame
+     * @return the frame's lane
+     */
+    public static Lane laneOf(Frame frame)
+    {
+        switch (frame.getTag())
+        {
+            case MessageCodec.TAG_LIST:
+            case MessageCodec.TAG_HELLO:
+            case MessageCodec.TAG_TRANSFER_ACK:
+            case MessageCodec.TAG_ROOM:
+            case MessageCodec.TAG_PEER:
+            case MessageCodec.TAG_PING:
+                return Lane.CONTROL;
+            case MessageCodec.TAG_STRING:
+            case MessageCodec.TAG_SEARCH:
+                return Lane.INTERACTIVE;
+            default:    //images (and references to them), transfers
+                return Lane.BULK;
+        }
+    }
+
+    /**
+     * Helper method which removes the next frame to write: the first frame 
+     * in the highest priority lane that has one (lock must be held).
+     *
+     * @return the next frame, or null if there isn't one
+     */
+    private Frame removeFirst()
+    {
+        for (ArrayDeque<Frame> lane : lanes)
+        {
+            Frame frame = lane.pollFirst();
+            if (frame != null)
+            {
+                depth--;
+                bytes -= frame.length();
+                taken++;
+                TOTAL_DEPTH.decrement();
+                TOTAL_TAKEN.increment();
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Helper method which finds the next frame to write without removing it
+     * (lock must be held).
+     *
+     * @return the next frame, or null if there isn't one
+     */
+    private Frame peekFirst()
+    {
+        for (ArrayDeque<Frame> lane : lanes)
+        {
+            Frame frame = lane.peekFirst();
+            if (frame != null)
+                return frame;
+        }
+        return null;
+    }
+
+    /**
+     * Helper method which drops the oldest frames, lowest priority lane
+     * first, until a new frame fits under the high-water mark or there is
+     * nothing more that may be dropped (lock must be held).
+     *
+     * @param frame the new frame
+     * @param highest the highest priority lane that may be dropped from
+     */
+    private void makeRoom(Frame frame, Lane highest)
+    {
+        for (int i = lanes.size() - 1; i >= highest.ordinal(); i--)
+        {
+            ArrayDeque<Frame> lane = lanes.get(i);
+            while (!lane.isEmpty() && bytes + frame.length() > HIGH_WATER_MARK)
+                drop(lane.pollFirst());
+        }
+    }
+
+    /**
+     * Helper method which accounts for a queued frame being dropped (lock
+     * must be held).
+     *
+     * @param frame the dropped frame
+     */
+    private void drop(Frame frame)
+    {
+        depth--;
+        bytes -= frame.length();
+        TOTAL_DEPTH.decrement();
+        countDrop();
+    }
+
+    /**
+     * Helper method which counts one dropped frame (lock must be held).
+     */
+    private void countDrop()
+    {
+        drops++;
+        TOTAL_DROPS.increment();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,111 @@
+package assignment;
+
+import java.io.Serializable;
+
+/**
+ * A class which extends Message, and is only sent between the servers of a
+ * cluster (see Cluster), never to or from a client:
+ * 1) HELLO - the first message each way on a link: which node this is, and a
+ * random nonce (in place of a frame). The receiver forgets everything it
+ * knew about the node's users once the link is up, as the node then sends
+ * an ENTER for each of them
+ * 2) ENTER - a user on the sending node is in a room (which replaces the
+ * room they were in before, if any)
+ * 3) EXIT - a user on the sending node has left the server
+ * 4) ROOM - a frame to send to everyone in a room on the receiving node
+ * 5) USER - a frame to send to one user on the receiving node
+ * 6) IMAGE - an image frame to send to everyone in a room on the receiving
+ * node (see Server.ChatServer.sendImage and relayTransfer)
+ * 7) PROOF - the answer to the other end's HELLO: the HMAC-SHA256 of its
+ * nonce and the sending node, keyed with the cluster's secret (in place of
+ * a frame), which shows the sender knows the secret without sending it
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class PeerMessage extends Message implements Serializable
+{
+    /**
+     * What this message does.
+     */
+    public enum Kind
+    {
+        HELLO, ENTER, EXIT, ROOM, USER, IMAGE, PROOF
+    }
+
+    private Kind kind;
+    private int node;       //the sending node (HELLO and PROOF)
+    private String user;    //ENTER, EXIT and USER
+    private String room;    //ENTER, ROOM and IMAGE
+    //a complete frame (ROOM, USER and IMAGE), a nonce (HELLO) or a proof
+    //(PROOF):
+    private byte[] frame;
+
+    /**
+     * Constructor for this class
+     *
+     * @param kind what this message does
+     * @param node the sending node (HELLO and PROOF)
+     * @param user the user, or null
+     * @param room the room, or null
+     * @param frame the frame to pass on, or null
+     */
+    public PeerMessage(Kind kind, int node, String user, String room, byte[] frame)
+    {
+        super();
+        this.kind = kind;
+        this.node = node;
+        this.user = user;
+        this.room = room;
+        this.frame = frame;
+    }
+
+    /**
+     * Set the toSend object as the frame being passed on (null for
+     * membership changes).
+     */
+    @Override
+    public void messageType()
+    {
+        toSend = getFrame();
+    }
+
+    /**
+     * @return the kind
+     */
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    /**
+     * @return the sending node
+     */
+    public int getNode()
+    {
+        return node;
+    }
+
+    /**
+     * @return the user
+     */
+    public String getUser()
+    {
+        return user;
+    }
+
+    /**
+     * @return the room
+     */
+    public String getRoom()
+    {
+        return room;
+    }
+
+    /**
+     * @return the frame being passed on (or a HELLO's nonce, or a PROOF)
+     */
+    public byte[] getFrame()
+    {
+        return frame;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,65 @@
+package assignment;
+
+import java.io.Serializable;
+
+/**
+ * A class which extends Message, and checks that the other side of a
+ * connection is still there (see Server.ChatServer.check):
+ * 1) PING - either side: reply if you're there
+ * 2) PONG - the reply, with the ping's value
+ *
+ * Only sent to clients that agreed to MessageCodec.FEATURE_HEARTBEAT.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class PingMessage extends Message implements Serializable
+{
+    /**
+     * What this message does.
+     */
+    public enum Kind
+    {
+        PING, PONG
+    }
+
+    private Kind kind;
+    private long value;     //chosen by the pinging side, sent back in the pong
+
+    /**
+     * Constructor for this class
+     *
+     * @param kind what this message does
+     * @param value the ping's value
+     */
+    public PingMessage(Kind kind, long value)
+    {
+        super();
+        this.kind = kind;
+        this.value = value;
+    }
+
+    /**
+     * Set the toSend object as the ping's value.
+     */
+    @Override
+    public void messageType()
+    {
+        toSend = getValue();
+    }
+
+    /**
+     * @return the kind
+     */
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    /**
+     * @return the ping's value
+     */
+    public long getValue()
+    {
+        return value;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,178 @@
+package assignment;
+
+import java.io.IOException;
+
+/**
+ * Class Description: One named room, with its own members and its own
+ * Roster, so a message sent in a room is only looked at by the room's
+ * members, and each room's list of members is versioned separately.
+ *
+ * Every room belongs to one of the server's shards (see Rooms), and
+ * everything sent to the room's members is sent from its shard's thread, in
+ * the order it was asked for (see Dispatcher). Busy rooms on different
+ * shards never wait for each other, and a client's own thread (or NIO event
+ * loop) doesn't wait while a message goes out to everyone in a big room.
+ * Broadcasts to very big rooms are split between several threads as well
+ * (see FanOut).
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class Room
+{
+    private final String name;
+    private final Dispatcher shard; //thread everything is sent to members on
+    private final FanOut fanOut;
+    private final ClientRegistry members = new ClientRegistry();
+    private final Roster roster;
+    //the members, split by their FanOut part, and the snapshot of members
+    //they were split from (only used by the shard's thread):
+    private Server.ChatServer[][] parts;
+    private Server.ChatServer[] partsOf;
+
+    /**
+     * Constructor for this class
+     *
+     * @param name the room's name
+     * @param shard the shard the room's messages are sent from
+     * @param fanOut splits broadcasts to big rooms between threads
+     */
+    public Room(String name, Dispatcher shard, FanOut fanOut)
+    {
+        this.name = name;
+        this.shard = shard;
+        this.fanOut = fanOut;
+        roster = new Roster(shard);
+    }
+
+    /**
+     * Sends a frame to every member, from the room's shard.
+     *
+     * @param frame the frame
+     * @param sender the member sending it
+     * @param ownFrame the frame the sender gets instead
+     */
+    public void broadcast(Frame frame, Server.ChatServer sender, Frame ownFrame)
+    {
+        broadcast(frame, sender, ownFrame, ServerMetrics.now());
+    }
+
+    /**
+     * Sends a frame to every member, from the room's shard, and times how
+     * long it took to reach the last of them (see ServerMetrics).
+     *
+     * @param frame the frame
+     * @param sender the member sending it
+     * @param ownFrame the frame the sender gets instead
+     * @param since when the message was received (see ServerMetrics.now)
+     */
+    public void broadcast(Frame frame, Server.ChatServer sender, Frame ownFrame,
+        long since)
+    {
+        shard.broadcast(this, frame, sender, ownFrame, since);
+    }
+
+    /**
+     * Sends a frame to every member (run on the room's shard, see 
+     * broadcast).
+     *
+     * @param frame the frame
+     * @param sender the member sending it
+     * @param ownFrame the frame the sender gets instead
+     * @param since when the message was received (see ServerMetrics.now)
+     */
+    void fanOut(Frame frame, Server.ChatServer sender, Frame ownFrame, long since)
+    {
+        Server.ChatServer[] all = members.array();
+        if (fanOut.splits(all.length))
+            fanOut.send(split(all), frame, sender, ownFrame);
+        else
+        {
+            for (Server.ChatServer cs : all)
+                send(cs, cs == sender ? ownFrame : frame);
+        }
+        ServerMetrics.delivered(since, all.length);
+    }
+
+    /**
+     * Runs something that sends to the room's members (or to anyone, if it
+     * must stay in order with the room's messages) on the room's shard.
+     *
+     * @param task the task
+     */
+    public void execute(Runnable task)
+    {
+        shard.execute(task);
+    }
+
+    /**
+     * @return the room's name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the room's members
+     */
+    public ClientRegistry getMembers()
+    {
+        return members;
+    }
+
+    /**
+     * @return the room's list of members shown by its clients
+     */
+    public Roster getRoster()
+    {
+        return roster;
+    }
+
+    /**
+     * Helper method which splits the members by their FanOut part, only 
+     * splitting them again once they have changed.
+     *
+     * @param all a snapshot of the members
+     * @return each part's members
+     */
+    private Server.ChatServer[][] split(Server.ChatServer[] all)
+    {
+        if (all == partsOf)
+            return parts;
+
+        int count = fanOut.getParts();
+        int[] sizes = new int[count];
+        for (Server.ChatServer cs : all)
+            sizes[cs.getPart()]++;
+
+        Server.ChatServer[][] split = new Server.ChatServer[count][];
+        for (int i = 0; i < count; i++)
+            split[i] = new Server.ChatServer[sizes[i]];
+        for (Server.ChatServer cs : all)
+        {
+            int part = cs.getPart();
+            split[part][--sizes[part]] = cs;
+        }
+
+        parts = split;
+        partsOf = all;
+        return split;
+    }
+
+    /**
+     * Sends a frame to one client, ignoring clients that have gone (they'll 
+     * be removed when their ChatServer leaves).
+     *
+     * @param client the client
+     * @param frame the frame
+     */
+    static void send(Server.ChatServer client, Frame frame)
+    {
+        try
+        {
+            client.getConnection().send(frame);
+        }
+        catch (IOException e)
+        {}
+    }
+}
\ No newline at end of file
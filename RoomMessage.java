@@ -0,0 +1,65 @@
+package assignment;
+
+import java.io.Serializable;
+
+/**
+ * A class which extends Message, and moves a client between rooms (see
+ * Rooms):
+ * 1) JOIN - from a client: move me to the named room (it is created if
+ * nobody is in it)
+ * 2) LEAVE - from a client: move me back to the lobby
+ * 3) JOINED - from the server: you are now in the named room
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class RoomMessage extends Message implements Serializable
+{
+    /**
+     * What this message does.
+     */
+    public enum Kind
+    {
+        JOIN, LEAVE, JOINED
+    }
+
+    private Kind kind;
+    private String room;    //the room's name (empty for LEAVE)
+
+    /**
+     * Constructor for this class
+     *
+     * @param kind what this message does
+     * @param room the room's name (empty for LEAVE)
+     */
+    public RoomMessage(Kind kind, String room)
+    {
+        super();
+        this.kind = kind;
+        this.room = room;
+    }
+
+    /**
+     * Set the toSend object as the room's name.
+     */
+    @Override
+    public void messageType()
+    {
+        toSend = getRoom();
+    }
+
+    /**
+     * @return the kind
+     */
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    /**
+     * @return the room's name
+     */
+    public String getRoom()
+    {
+        return room;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,232 @@
+package assignment;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class Description: The server's rooms, by name. Every client starts in the
+ * lobby (which always exists), and can move to any other room, which is
+ * created when its first member joins and removed when its last one leaves.
+ * In a cluster, members on other servers (see Cluster) count too, so a room
+ * can exist on a server with none of its own clients in it.
+ *
+ * Rooms are spread over a fixed number of shards (chat.rooms.shards, by
+ * default one per processor), each a ring buffer with a single thread which
+ * sends everything for its rooms (see Dispatcher). New rooms go to the shard
+ * with the fewest rooms, so busy rooms are unlikely to share a thread.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class Rooms
+{
+    public static final String LOBBY = "lobby";
+    public static final int SHARDS = Integer.getInteger("chat.rooms.shards",
+        Runtime.getRuntime().availableProcessors());
+    //longest room name:
+    public static final int MAX_NAME_LENGTH = 32;
+
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Dispatcher[] shards = new Dispatcher[SHARDS];
+    private final FanOut fanOut;
+    private final int[] shardRooms = new int[SHARDS];   //rooms on each shard
+    private final Map<Room, Integer> shardOf = new HashMap<>();
+    //members of each room on other servers of the cluster:
+    private final Map<Room, Integer> remote = new HashMap<>();
+
+    /**
+     * Constructor for this class, which starts the shards' threads and
+     * creates the lobby.
+     *
+     * @param fanOut splits broadcasts to big rooms between threads
+     */
+    public Rooms(FanOut fanOut)
+    {
+        this.fanOut = fanOut;
+        for (int i = 0; i < SHARDS; i++)
+            shards[i] = new Dispatcher("chat-room-shard-" + i);
+        rooms.put(LOBBY, create(LOBBY));
+    }
+
+    /**
+     * Adds a client to a room, creating the room if it doesn't exist.
+     *
+     * @param client the client
+     * @param name the room's name (see isValidName)
+     * @return the room
+     */
+    public Room join(Server.ChatServer client, String name)
+    {
+        lock.lock();
+        try
+        {
+            Room room = rooms.computeIfAbsent(name, this::create);
+            room.getMembers().add(client);
+            return room;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a client from a room, removing the room if nobody is left in
+     * it (unless it is the lobby).
+     *
+     * @param client the client
+     * @param room the room
+     */
+    public void leave(Server.ChatServer client, Room room)
+    {
+        lock.lock();
+        try
+        {
+            room.getMembers().remove(client);
+            removeIfEmpty(room);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts a member on another server of the cluster as being in a room,
+     * creating the room if it doesn't exist.
+     *
+     * @param name the room's name
+     * @return the room
+     */
+    public Room joinRemote(String name)
+    {
+        lock.lock();
+        try
+        {
+            Room room = rooms.computeIfAbsent(name, this::create);
+            remote.merge(room, 1, Integer::sum);
+            return room;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops counting a member on another server of the cluster as being in
+     * a room, removing the room if nobody is left in it.
+     *
+     * @param name the room's name
+     * @return the room, or null if it doesn't exist
+     */
+    public Room leaveRemote(String name)
+    {
+        lock.lock();
+        try
+        {
+            Room room = rooms.get(name);
+            if (room != null && remote.containsKey(room))
+            {
+                remote.merge(room, -1, Integer::sum);
+                if (remote.get(room) == 0)
+                    remote.remove(room);
+                removeIfEmpty(room);
+            }
+            return room;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param name a room's name
+     * @return the room, or null if nobody is in it
+     */
+    public Room get(String name)
+    {
+        return rooms.get(name);
+    }
+
+    /**
+     * @return the lobby
+     */
+    public Room getLobby()
+    {
+        return rooms.get(LOBBY);
+    }
+
+    /**
+     * @return the number of rooms
+     */
+    public int size()
+    {
+        return rooms.size();
+    }
+
+    /**
+     * @return the shards, for their metrics
+     */
+    public Dispatcher[] getShards()
+    {
+        return shards.clone();
+    }
+
+    /**
+     * @param name a room name asked for by a client
+     * @return whether it can be used: 1 to MAX_NAME_LENGTH lowercase
+     * letters, digits, '-' or '_'
+     */
+    public static boolean isValidName(String name)
+    {
+        if (name == null || name.isEmpty() || name.length() > MAX_NAME_LENGTH)
+            return false;
+
+        for (int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9')
+                && c != '-' && c != '_')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Helper method which removes a room nobody is in any more, unless it is 
+     * the lobby (lock must be held).
+     *
+     * @param room the room
+     */
+    private void removeIfEmpty(Room room)
+    {
+        if (room.getMembers().isEmpty() && !remote.containsKey(room)
+            && !room.getName().equals(LOBBY) && rooms.remove(room.getName(), room))
+            shardRooms[shardOf.remove(room)]--;
+    }
+
+    /**
+     * Helper method which creates a room on the shard with the fewest rooms
+     * (lock must be held, or called from the constructor).
+     *
+     * @param name the room's name
+     * @return the room
+     */
+    private Room create(String name)
+    {
+        int shard = 0;
+        for (int i = 1; i < SHARDS; i++)
+        {
+            if (shardRooms[i] < shardRooms[shard])
+                shard = i;
+        }
+        shardRooms[shard]++;
+
+        Room room = new Room(name, shards[shard], fanOut);
+        shardOf.put(room, shard);
+        return room;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,201 @@
+package assignment;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class Description: One room's list of members (see Room), which is what
+ * the room's clients show as their list of active clients. Each change to
+ * the list bumps its version number.
+ *
+ * Instead of sending every member to every client whenever someone joins
+ * (which grows with the square of the number of clients), a joining client
+ * is sent one snapshot of the whole list, and everyone else is sent a single
+ * added/removed delta with the new version. The snapshot is encoded once and
+ * kept until the list next changes, so clients asking to resync (because they
+ * noticed a missing version) don't cost a new encode each.
+ *
+ * Changes are made under one lock, and each delta is handed (in version
+ * order) to the room's shard, which sends it to the members. The thread
+ * making the change (a client's own, or an NIO event loop) only sends the
+ * joiner its snapshot, and the deltas go out in order with the room's
+ * messages.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class Roster
+{
+    private final LinkedHashSet<String> members = new LinkedHashSet<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Executor sender;  //runs tasks in order (the room's shard)
+    private int version = 0;
+    private Frame snapshot;     //encoded snapshot (null once out of date)
+
+    /**
+     * Constructor for this class
+     *
+     * @param sender runs the deltas' sends, in the order they're given it
+     */
+    public Roster(Executor sender)
+    {
+        this.sender = sender;
+    }
+
+    /**
+     * Adds a member, sending the joining client a snapshot and everyone else
+     * a delta.
+     *
+     * @param member the member's username
+     * @param joiner the member's own client (null if they're on another 
+     * server of the cluster)
+     * @param clients every connected client, when the delta is sent (the 
+     * joiner is skipped)
+     */
+    public void add(String member, Server.ChatServer joiner,
+        Iterable<Server.ChatServer> clients)
+    {
+        lock.lock();
+        try
+        {
+            if (!members.add(member))
+                return;
+
+            version++;
+            snapshot = null;
+            broadcast(Frame.of(new ListMessage(member, true, version)), joiner, clients);
+            if (joiner != null)
+                send(joiner, snapshot());
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a member, sending everyone else a delta.
+     *
+     * @param member the member's username
+     * @param leaver the member's own client (skipped, null if they're on 
+     * another server of the cluster)
+     * @param clients every connected client, when the delta is sent
+     */
+    public void remove(String member, Server.ChatServer leaver,
+        Iterable<Server.ChatServer> clients)
+    {
+        lock.lock();
+        try
+        {
+            if (!members.remove(member))
+                return;
+
+            version++;
+            snapshot = null;
+            broadcast(Frame.of(new ListMessage(member, false, version)), leaver, clients);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends a client the current snapshot (i.e. when it asks to resync).
+     *
+     * @param client the client
+     */
+    public void resync(Server.ChatServer client)
+    {
+        lock.lock();
+        try
+        {
+            send(client, snapshot());
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the current version
+     */
+    public int getVersion()
+    {
+        lock.lock();
+        try
+        {
+            return version;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Helper method which returns the encoded snapshot, encoding it first if
+     * the list has changed (lock must be held).
+     *
+     * @return the snapshot frame
+     * @throws IOException if it can't be encoded
+     */
+    private Frame snapshot() throws IOException
+    {
+        if (snapshot == null)
+            snapshot = Frame.of(new ListMessage(new ArrayList<>(members), version));
+        return snapshot;
+    }
+
+    /**
+     * Helper method which has the sender send a frame to every client but 
+     * one (lock must be held, so the frames are sent in version order).
+     *
+     * @param frame the frame
+     * @param skip the client not to send it to
+     * @param clients every connected client
+     */
+    private void broadcast(Frame frame, Server.ChatServer skip,
+        Iterable<Server.ChatServer> clients)
+    {
+        sender.execute(() ->
+        {
+            for (Server.ChatServer cs : clients)
+            {
+                if (cs != skip)
+                    send(cs, frame);
+            }
+        });
+    }
+
+    /**
+     * Helper method which sends a frame to one client, ignoring clients that
+     * have gone (they'll be removed when their ChatServer leaves).
+     *
+     * @param client the client
+     * @param frame the frame
+     */
+    private static void send(Server.ChatServer client, Frame frame)
+    {
+        try
+        {
+            client.getConnection().send(frame);
+        }
+        catch (IOException e)
+        {}
+    }
+}
\ No newline at end of file
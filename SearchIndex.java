@@ -0,0 +1,845 @@
+package assignment;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class Description: The server's full-text index of the chat history, so
+ * users can search it (see SearchMessage). Every message that everyone could
+ * see is added as it is sent, and given the next id, so ids (and the times
+ * messages were sent) always go up.
+ *
+ * The index is an inverted index: for each word (and each sender and room,
+ * as the terms "from:name" and "in:room") it keeps the ids of the messages
+ * containing it, in order.
+ * New messages go into a small buffer. Once FLUSH_DOCS messages have been
+ * added the buffer is full, and is never changed again: the index's own
+ * thread then turns it into an immutable segment (sorted terms, with an
+ * array of ids for each), and merges every MERGE_FACTOR segments of the same
+ * size into one, so there are only ever a few segments to search, however
+ * many messages there are. Searches never wait for this - they use whichever
+ * segments there were when they started, and only take the lock to search
+ * the current buffer.
+ *
+ * A query is a list of words, all of which must be in a message, plus
+ * optionally "from:name" (who sent it) and "after:YYYY-MM-DD" or
+ * "before:YYYY-MM-DD" (when). Users only search the room they are in.
+ * Results are newest first, a page at a time: the search starts with the
+ * newest segment and stops as soon as the page is full, and each message is
+ * found by walking the ids of its rarest term and binary searching the
+ * others, so a query takes time proportional to the rarest term's ids (at
+ * most) rather than the number of messages.
+ *
+ * Messages are kept in memory only, so the index starts empty each time the
+ * server starts, and only up to chat.search.maxBytes of them (by default as
+ * much as the MessageLog keeps on disk): once the segments add up to more
+ * than that, the oldest are dropped. Segments are never merged into one
+ * bigger than a MERGE_FACTOR'th of that, so dropping one only loses a small
+ * part of the history.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class SearchIndex
+{
+    //messages in the buffer before it becomes a segment:
+    public static final int FLUSH_DOCS = Integer.getInteger("chat.search.flushDocs", 4096);
+    //number of same-sized segments merged into one:
+    public static final int MERGE_FACTOR = 10;
+    //most results in one page:
+    public static final int MAX_RESULTS = 100;
+    //most memory (roughly) the segments can take up:
+    public static final long MAX_BYTES = Long.getLong("chat.search.maxBytes",
+        MessageLog.SEGMENT_BYTES * MessageLog.SEGMENTS);
+
+    private static final String FROM = "from:";
+    private static final String IN = "in:";
+    private static final String AFTER = "after:";
+    private static final String BEFORE = "before:";
+    //rough size of an object (e.g. a String or an array) besides its 
+    //contents:
+    private static final int OVERHEAD = 48;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private Buffer buffer = new Buffer(1);  //newest messages (lock held)
+    private long lastTime = 0;              //time of the newest message
+    //full buffers and segments, oldest first. The list is replaced, never
+    //changed, so a search can use it without the lock:
+    private volatile List<Part> parts = Collections.emptyList();
+    //thread which turns full buffers into segments, and merges them:
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(r ->
+    {
+        Thread t = new Thread(r, "chat-search-merger");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Adds a message to the index.
+     *
+     * @param sender who sent it
+     * @param room the room it was sent in
+     * @param text the message
+     */
+    public void add(String sender, String room, String text)
+    {
+        //split the message into terms without holding up other users:
+        Set<String> terms = new LinkedHashSet<>(tokens(text));
+        terms.add(FROM + sender.toLowerCase(Locale.ROOT));
+        terms.add(IN + room);
+
+        lock.lock();
+        try
+        {
+            //never let time go backwards, so ids stay in time order:
+            lastTime = Math.max(lastTime, System.currentTimeMillis());
+            buffer.add(lastTime, sender, text, terms);
+
+            if (buffer.count() >= FLUSH_DOCS)
+            {
+                List<Part> next = new ArrayList<>(parts);
+                next.add(buffer);
+                parts = Collections.unmodifiableList(next);
+                buffer = new Buffer(buffer.base() + buffer.count());
+                merger.execute(this::maintain);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Searches the index.
+     *
+     * @param query the query, e.g. "from:CLIENT3 deploy"
+     * @param room the room to search
+     * @param limit the number of results wanted (at most MAX_RESULTS)
+     * @param cursor 0 for the newest results, or the cursor returned with
+     * the previous page
+     * @return one page of results, newest first
+     */
+    public SearchMessage search(String query, String room, int limit, int cursor)
+    {
+        limit = Math.max(1, Math.min(limit, MAX_RESULTS));
+        Query q = new Query(query, cursor);
+        q.terms.add(IN + room);
+        List<SearchMessage.Hit> hits = new ArrayList<>();
+
+        //one more than wanted, to know if there's another page:
+        List<Part> snapshot;
+        lock.lock();
+        try
+        {
+            snapshot = parts;
+            q.search(buffer, hits, limit + 1);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        for (int i = snapshot.size() - 1; i >= 0 && hits.size() <= limit; i--)
+            q.search(snapshot.get(i), hits, limit + 1);
+
+        int next = 0;
+        if (hits.size() > limit)
+        {
+            hits.remove(limit);
+            next = hits.get(limit - 1).getId();
+        }
+        return SearchMessage.results(hits, next);
+    }
+
+    /**
+     * @return the number of messages added to the index (including any that
+     * have since been dropped)
+     */
+    public int size()
+    {
+        lock.lock();
+        try
+        {
+            return buffer.base() + buffer.count() - 1;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Splits text into the terms it is indexed (and searched) by: runs of
+     * letters and digits, in lowercase.
+     *
+     * @param text the text
+     * @return its terms, in order
+     */
+    public static List<String> tokens(String text)
+    {
+        List<String> tokens = new ArrayList<>();
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++)
+        {
+            boolean word = i < lower.length()
+                && Character.isLetterOrDigit(lower.charAt(i));
+            if (word && start < 0)
+                start = i;
+            else if (!word && start >= 0)
+            {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Runs on the merger thread: turns full buffers into segments, merges
+     * the newest segments while there are MERGE_FACTOR of the same size, 
+     * then drops the oldest while there are more than MAX_BYTES of them.
+     */
+    private void maintain()
+    {
+        //full buffers (there's normally just one):
+        for (Part part : parts)
+        {
+            if (part instanceof Buffer)
+                replace(Collections.singletonList(part), ((Buffer) part).seal());
+        }
+
+        while (true)
+        {
+            List<Part> snapshot = parts;
+            int end = 0;    //segments come before any full buffers
+            while (end < snapshot.size() && snapshot.get(end) instanceof Segment)
+                end++;
+            if (end < MERGE_FACTOR)
+                return;
+
+            List<Part> newest = snapshot.subList(end - MERGE_FACTOR, end);
+            int level = level(newest.get(0));
+            boolean same = true;
+            long bytes = 0;
+            for (Part part : newest)
+            {
+                same &= level(part) == level;
+                bytes += part.bytes();
+            }
+            //(not into a segment too big to drop without losing much):
+            if (!same || bytes > MAX_BYTES / MERGE_FACTOR)
+                break;
+            replace(newest, Segment.merge(newest));
+        }
+
+        trim();
+    }
+
+    /**
+     * Helper method which drops the oldest parts of the index while they add
+     * up to more than MAX_BYTES (keeping the newest one, however big).
+     */
+    private void trim()
+    {
+        long bytes = 0;
+        for (Part part : parts)
+            bytes += part.bytes();
+
+        while (bytes > MAX_BYTES && parts.size() > 1)
+        {
+            lock.lock();
+            try
+            {
+                List<Part> next = new ArrayList<>(parts);
+                bytes -= next.remove(0).bytes();
+                parts = Collections.unmodifiableList(next);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Helper method which replaces parts of the index with the segment made
+     * from them (only the merger thread removes parts, so they're still
+     * there, in the same place).
+     *
+     * @param old the parts, oldest first
+     * @param segment the segment
+     */
+    private void replace(List<Part> old, Segment segment)
+    {
+        lock.lock();
+        try
+        {
+            List<Part> next = new ArrayList<>(parts);
+            int index = next.indexOf(old.get(0));
+            next.subList(index, index + old.size()).clear();
+            next.add(index, segment);
+            parts = Collections.unmodifiableList(next);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param part a segment
+     * @return its size as a power of MERGE_FACTOR (0 for a segment made from
+     * one buffer)
+     */
+    private static int level(Part part)
+    {
+        int level = 0;
+        for (int n = part.count() / FLUSH_DOCS; n >= MERGE_FACTOR; n /= MERGE_FACTOR)
+            level++;
+        return level;
+    }
+
+    /**
+     * Inner class for a parsed query, which finds its matches in one part
+     * of the index at a time.
+     */
+    private static class Query
+    {
+        private final List<String> terms = new ArrayList<>();
+        private long after = Long.MIN_VALUE;    //earliest time (inclusive)
+        private long before = Long.MAX_VALUE;   //latest time (exclusive)
+        private int below;      //ids must be below this (the cursor)
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param query the query
+         * @param cursor the cursor (0 for the newest results)
+         */
+        public Query(String query, int cursor)
+        {
+            this.below = cursor <= 0 ? Integer.MAX_VALUE : cursor;
+
+            for (String word : query.trim().split("\\s+"))
+            {
+                String lower = word.toLowerCase(Locale.ROOT);
+                if (lower.startsWith(FROM) && lower.length() > FROM.length())
+                    terms.add(lower);
+                else if (lower.startsWith(AFTER) && date(lower, AFTER) != null)
+                    after = date(lower, AFTER);
+                else if (lower.startsWith(BEFORE) && date(lower, BEFORE) != null)
+                    before = date(lower, BEFORE);
+                else
+                    terms.addAll(tokens(word));
+            }
+        }
+
+        /**
+         * Adds the matches in one part of the index to the results, newest
+         * first, until there are enough.
+         *
+         * @param part the part
+         * @param hits the results so far
+         * @param limit the number of results wanted
+         */
+        public void search(Part part, List<SearchMessage.Hit> hits, int limit)
+        {
+            //the range of local ids (0 is the part's first message) allowed
+            //by the cursor and dates:
+            int from = Math.min(firstAtOrAfter(part, before),
+                (int) Math.min(part.count(), (long) below - part.base()));
+            int to = firstAtOrAfter(part, after);
+            if (from <= to)
+                return;
+
+            if (terms.isEmpty())
+            {
+                for (int d = from - 1; d >= to && hits.size() < limit; d--)
+                    hits.add(part.hit(d));
+                return;
+            }
+
+            //walk the rarest term's ids, checking the others have them too:
+            int[][] lists = new int[terms.size()][];
+            for (int i = 0; i < lists.length; i++)
+            {
+                lists[i] = part.postings(terms.get(i));
+                if (lists[i] == null)
+                    return;
+            }
+            Arrays.sort(lists, Comparator.comparingInt(list -> list.length));
+
+            int[] rarest = lists[0];
+            int i = Arrays.binarySearch(rarest, from);
+            i = (i < 0 ? -i - 1 : i) - 1;   //last id below from
+            for (; i >= 0 && rarest[i] >= to && hits.size() < limit; i--)
+            {
+                int d = rarest[i];
+                boolean all = true;
+                for (int j = 1; j < lists.length && all; j++)
+                    all = Arrays.binarySearch(lists[j], d) >= 0;
+                if (all)
+                    hits.add(part.hit(d));
+            }
+        }
+
+        /**
+         * @param part a part of the index
+         * @param time a time
+         * @return the local id of the part's first message sent at or after
+         * the time (count() if there isn't one)
+         */
+        private static int firstAtOrAfter(Part part, long time)
+        {
+            int low = 0;
+            int high = part.count();
+            while (low < high)
+            {
+                int mid = (low + high) >>> 1;
+                if (part.time(mid) < time)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+
+        /**
+         * @param word e.g. "after:2020-08-31"
+         * @param prefix the word's prefix
+         * @return the start of the date in the server's time zone, or null
+         * if it isn't a date
+         */
+        private static Long date(String word, String prefix)
+        {
+            try
+            {
+                return LocalDate.parse(word.substring(prefix.length()))
+                    .atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            }
+            catch (DateTimeParseException e)
+            {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Inner class for a part of the index: a run of messages with
+     * consecutive ids, from base() to base() + count() - 1.
+     */
+    private abstract static class Part
+    {
+        /**
+         * @return the id of the part's first message
+         */
+        public abstract int base();
+
+        /**
+         * @return the number of messages in the part
+         */
+        public abstract int count();
+
+        /**
+         * @param d a local id (0 is the part's first message)
+         * @return when the message was sent
+         */
+        public abstract long time(int d);
+
+        /**
+         * @param d a local id
+         * @return the message as a search result
+         */
+        public abstract SearchMessage.Hit hit(int d);
+
+        /**
+         * @param term a term
+         * @return the local ids of the messages with the term, in order (or
+         * null if there aren't any)
+         */
+        public abstract int[] postings(String term);
+
+        /**
+         * @return roughly how much memory the part takes up, in bytes
+         */
+        public abstract long bytes();
+    }
+
+    /**
+     * Inner class for the newest messages, which are added one at a time
+     * (while the index's lock is held) until the buffer is full. A full
+     * buffer is never changed again.
+     */
+    private static class Buffer extends Part
+    {
+        private final int base;
+        private long[] times = new long[16];
+        private final List<String> senders = new ArrayList<>();
+        private final List<String> texts = new ArrayList<>();
+        private final Map<String, Ints> postings = new HashMap<>();
+        private long bytes = 0;
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param base the id of the buffer's first message
+         */
+        public Buffer(int base)
+        {
+            this.base = base;
+        }
+
+        /**
+         * Adds a message.
+         *
+         * @param time when it was sent
+         * @param sender who sent it
+         * @param text the message
+         * @param terms its terms (each only once)
+         */
+        public void add(long time, String sender, String text, Set<String> terms)
+        {
+            int d = texts.size();
+            if (d == times.length)
+                times = Arrays.copyOf(times, d * 2);
+            times[d] = time;
+            senders.add(sender);
+            texts.add(text);
+            bytes += 8 + OVERHEAD + 2L * text.length();
+            for (String term : terms)
+            {
+                Ints ids = postings.get(term);
+                if (ids == null)
+                {
+                    ids = new Ints();
+                    postings.put(term, ids);
+                    bytes += 3 * OVERHEAD + 2L * term.length();
+                }
+                ids.add(d);
+                bytes += 4;
+            }
+        }
+
+        @Override
+        public int base()
+        {
+            return base;
+        }
+
+        @Override
+        public int count()
+        {
+            return texts.size();
+        }
+
+        @Override
+        public long time(int d)
+        {
+            return times[d];
+        }
+
+        @Override
+        public SearchMessage.Hit hit(int d)
+        {
+            return new SearchMessage.Hit(base + d, time(d), senders.get(d), texts.get(d));
+        }
+
+        @Override
+        public int[] postings(String term)
+        {
+            Ints ids = postings.get(term);
+            return ids == null ? null : ids.toArray();
+        }
+
+        @Override
+        public long bytes()
+        {
+            return bytes;
+        }
+
+        /**
+         * @return an immutable segment with the buffer's messages
+         */
+        public Segment seal()
+        {
+            int n = count();
+            long[] segmentTimes = Arrays.copyOf(times, n);
+
+            String[] terms = postings.keySet().toArray(new String[0]);
+            Arrays.sort(terms);
+            int[][] lists = new int[terms.length][];
+            for (int i = 0; i < terms.length; i++)
+                lists[i] = postings.get(terms[i]).toArray();
+
+            Segment.Texts text = new Segment.Texts(n);
+            for (int d = 0; d < n; d++)
+            {
+                byte[] utf8 = texts.get(d).getBytes(StandardCharsets.UTF_8);
+                text.add(senders.get(d), utf8, 0, utf8.length);
+            }
+            return new Segment(base, segmentTimes, text, terms, lists);
+        }
+    }
+
+    /**
+     * Inner class for an immutable run of messages. Terms are kept sorted,
+     * each with an array of local ids, and message text is kept as one UTF-8
+     * array (and senders as numbers into a list of names), so a segment is
+     * only a few objects however many messages it has.
+     */
+    private static class Segment extends Part
+    {
+        private final int base;
+        private final long[] times;
+        private final Texts text;
+        private final String[] terms;   //sorted
+        private final int[][] postings; //local ids of each term
+        private final long bytes;
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param base the id of the segment's first message
+         * @param times when each message was sent
+         * @param text the messages and their senders
+         * @param terms the terms, sorted
+         * @param postings the local ids of each term's messages
+         */
+        public Segment(int base, long[] times, Texts text, String[] terms,
+            int[][] postings)
+        {
+            this.base = base;
+            this.times = times;
+            this.text = text;
+            this.terms = terms;
+            this.postings = postings;
+
+            long size = 8L * times.length + text.bytes();
+            for (int i = 0; i < terms.length; i++)
+                size += 2 * OVERHEAD + 2L * terms[i].length() + 4L * postings[i].length;
+            this.bytes = size;
+        }
+
+        /**
+         * Merges consecutive segments into one.
+         *
+         * @param parts the segments, oldest first
+         * @return the merged segment
+         */
+        public static Segment merge(List<Part> parts)
+        {
+            Segment[] segments = parts.toArray(new Segment[0]);
+            int[] offsets = new int[segments.length];
+            int n = 0;
+            for (int s = 0; s < segments.length; s++)
+            {
+                offsets[s] = n;
+                n += segments[s].count();
+            }
+
+            long[] times = new long[n];
+            Texts text = new Texts(n);
+            for (int s = 0; s < segments.length; s++)
+            {
+                Segment seg = segments[s];
+                System.arraycopy(seg.times, 0, times, offsets[s], seg.count());
+                for (int d = 0; d < seg.count(); d++)
+                    seg.text.copyTo(d, text);
+            }
+
+            //merge the sorted term lists, joining each term's ids in order:
+            List<String> terms = new ArrayList<>();
+            List<int[]> lists = new ArrayList<>();
+            int[] next = new int[segments.length];  //next term in each
+            while (true)
+            {
+                String term = null;
+                for (int s = 0; s < segments.length; s++)
+                {
+                    if (next[s] < segments[s].terms.length && (term == null
+                        || segments[s].terms[next[s]].compareTo(term) < 0))
+                        term = segments[s].terms[next[s]];
+                }
+                if (term == null)
+                    break;
+
+                Ints ids = new Ints();
+                for (int s = 0; s < segments.length; s++)
+                {
+                    if (next[s] < segments[s].terms.length
+                        && segments[s].terms[next[s]].equals(term))
+                    {
+                        for (int d : segments[s].postings[next[s]])
+                            ids.add(offsets[s] + d);
+                        next[s]++;
+                    }
+                }
+                terms.add(term);
+                lists.add(ids.toArray());
+            }
+
+            return new Segment(segments[0].base, times, text,
+                terms.toArray(new String[0]), lists.toArray(new int[0][]));
+        }
+
+        @Override
+        public int base()
+        {
+            return base;
+        }
+
+        @Override
+        public int count()
+        {
+            return times.length;
+        }
+
+        @Override
+        public long time(int d)
+        {
+            return times[d];
+        }
+
+        @Override
+        public SearchMessage.Hit hit(int d)
+        {
+            return new SearchMessage.Hit(base + d, times[d], text.sender(d),
+                text.text(d));
+        }
+
+        @Override
+        public int[] postings(String term)
+        {
+            int i = Arrays.binarySearch(terms, term);
+            return i < 0 ? null : postings[i];
+        }
+
+        @Override
+        public long bytes()
+        {
+            return bytes;
+        }
+
+        /**
+         * Inner class for a segment's messages and senders, stored compactly.
+         * Messages are added in order while the segment is built, and only
+         * read afterwards.
+         */
+        private static class Texts
+        {
+            private final int[] starts;     //where each message starts
+            private final int[] senders;    //index of each sender's name
+            private final List<String> names = new ArrayList<>();
+            private final Map<String, Integer> nameIndex = new HashMap<>();
+            private byte[] bytes = new byte[1024];
+            private int n = 0;
+
+            /**
+             * Constructor for this inner class
+             *
+             * @param count the number of messages that will be added
+             */
+            public Texts(int count)
+            {
+                starts = new int[count + 1];
+                senders = new int[count];
+            }
+
+            /**
+             * Adds the next message.
+             *
+             * @param sender who sent it
+             * @param utf8 array holding the message as UTF-8
+             * @param offset where the message starts in the array
+             * @param length the message's length in bytes
+             */
+            public void add(String sender, byte[] utf8, int offset, int length)
+            {
+                Integer name = nameIndex.get(sender);
+                if (name == null)
+                {
+                    name = names.size();
+                    names.add(sender);
+                    nameIndex.put(sender, name);
+                }
+                senders[n] = name;
+
+                int start = starts[n];
+                if (start + length > bytes.length)
+                    bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2,
+                        start + length));
+                System.arraycopy(utf8, offset, bytes, start, length);
+                starts[++n] = start + length;
+            }
+            
+            /**
+             * Adds one of these messages to another segment's, without 
+             * decoding it.
+             *
+             * @param d a local id
+             * @param to the other segment's messages
+             */
+            public void copyTo(int d, Texts to)
+            {
+                to.add(sender(d), bytes, starts[d], starts[d + 1] - starts[d]);
+            }
+
+            /**
+             * @param d a local id
+             * @return who sent the message
+             */
+            public String sender(int d)
+            {
+                return names.get(senders[d]);
+            }
+
+            /**
+             * @param d a local id
+             * @return the message
+             */
+            public String text(int d)
+            {
+                return new String(bytes, starts[d], starts[d + 1] - starts[d],
+                    StandardCharsets.UTF_8);
+            }
+
+            /**
+             * @return roughly how much memory the messages take up, in bytes
+             */
+            public long bytes()
+            {
+                long size = bytes.length + 4L * starts.length + 4L * senders.length;
+                for (String name : names)
+                    size += 2 * OVERHEAD + 2L * name.length();
+                return size;
+            }
+        }
+    }
+
+    /**
+     * Inner class for a growable array of ints.
+     */
+    private static class Ints
+    {
+        private int[] values = new int[4];
+        private int size = 0;
+
+        public void add(int value)
+        {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        public int[] toArray()
+        {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,180 @@
+package assignment;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A class which extends Message, and searches the chat history kept by the
+ * server (see SearchIndex):
+ * 1) QUERY - from a client: the query (e.g. "from:CLIENT3 deploy"), the
+ * number of results wanted and a cursor (0 for the newest results, or the
+ * next cursor from the previous page)
+ * 2) RESULTS - from the server: one page of matching messages, newest first,
+ * and the cursor for the next page (0 if there are no more)
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class SearchMessage extends Message implements Serializable
+{
+    /**
+     * Whether this message is a query or its results.
+     */
+    public enum Kind
+    {
+        QUERY, RESULTS
+    }
+
+    private Kind kind;
+    private String query;   //the query (QUERY only)
+    private int limit;      //results wanted (QUERY only)
+    private int cursor;     //where the page starts / where the next one does
+    private List<Hit> hits; //matching messages (RESULTS only)
+
+    /**
+     * Private constructor, use the static factory methods below.
+     *
+     * @param kind whether this is a query or its results
+     * @param cursor where the page starts (QUERY) or the next page's cursor
+     * (RESULTS)
+     */
+    private SearchMessage(Kind kind, int cursor)
+    {
+        super();
+        this.kind = kind;
+        this.cursor = cursor;
+    }
+
+    /**
+     * @param query the query
+     * @param limit the number of results wanted
+     * @param cursor 0 for the first page, or the previous page's next cursor
+     * @return a message asking the server to search
+     */
+    public static SearchMessage query(String query, int limit, int cursor)
+    {
+        SearchMessage m = new SearchMessage(Kind.QUERY, cursor);
+        m.query = query;
+        m.limit = limit;
+        return m;
+    }
+
+    /**
+     * @param hits the matching messages, newest first
+     * @param next the cursor for the next page (0 if there are no more)
+     * @return a message with one page of results
+     */
+    public static SearchMessage results(List<Hit> hits, int next)
+    {
+        SearchMessage m = new SearchMessage(Kind.RESULTS, next);
+        m.hits = hits;
+        return m;
+    }
+
+    /**
+     * Set the toSend object as the query, or the results.
+     */
+    @Override
+    public void messageType()
+    {
+        toSend = kind == Kind.QUERY ? getQuery() : getHits();
+    }
+
+    /**
+     * @return the kind
+     */
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    /**
+     * @return the query
+     */
+    public String getQuery()
+    {
+        return query;
+    }
+
+    /**
+     * @return the number of results wanted
+     */
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * @return the cursor
+     */
+    public int getCursor()
+    {
+        return cursor;
+    }
+
+    /**
+     * @return the matching messages, newest first
+     */
+    public List<Hit> getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Inner class for one matching message.
+     */
+    public static class Hit implements Serializable
+    {
+        private final int id;       //position in the history
+        private final long time;    //when it was sent (ms since 1970)
+        private final String sender;
+        private final String text;
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param id the message's position in the history
+         * @param time when it was sent, in milliseconds since 1970
+         * @param sender who sent it
+         * @param text the message
+         */
+        public Hit(int id, long time, String sender, String text)
+        {
+            this.id = id;
+            this.time = time;
+            this.sender = sender;
+            this.text = text;
+        }
+
+        /**
+         * @return the message's position in the history
+         */
+        public int getId()
+        {
+            return id;
+        }
+
+        /**
+         * @return when it was sent, in milliseconds since 1970
+         */
+        public long getTime()
+        {
+            return time;
+        }
+
+        /**
+         * @return who sent it
+         */
+        public String getSender()
+        {
+            return sender;
+        }
+
+        /**
+         * @return the message
+         */
+        public String getText()
+        {
+            return text;
+        }
+    }
+}
\ No newline at end of file
@@ -1,9 +1,13 @@
 package assignment;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.net.*;
-import javax.swing.ImageIcon;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Class Description: The server class for this assignment, which maintains a 
@@ -21,27 +25,107 @@ import javax.swing.ImageIcon;
  * 3-n [where n >= 4]) Inner class thread/run method - send message(s) 
  * to client(s)
  * 
+ * In VIRTUAL mode, threads 3-n are virtual threads (Java 21+), and in NIO 
+ * mode they are replaced by a fixed number of event loop threads which share 
+ * every client between them (see NioServer).
+ * 
  * @author Ryan Herkt (ID: 18022861)
  */
 public class Server implements Runnable
 {
+    //links to the other servers of the cluster (null if not clustered):
+    private final Cluster CLUSTER = Cluster.open(this);
+    //history of broadcast messages, replayed to users as they join (null if 
+    //history is turned off):
+    private final MessageLog LOG = MessageLog.open();
     //keep list of usernames (incase a user wants to send a message privately to 
-    //someone), and one of the clients currently connected to the server:
-    private final ArrayList<ChatServer> ALL_CLIENTS = new ArrayList<>();
+    //someone), and one of the clients currently connected to the server. 
+    //Safe to iterate from any thread while clients join and leave (client 
+    //numbers carry on after the history's):
+    private final ClientRegistry ALL_CLIENTS = CLUSTER == null 
+        ? new ClientRegistry(1, 1, LOG) 
+        : new ClientRegistry(CLUSTER.getNode() + 1, CLUSTER.size(), LOG);
+    //finds which connected users a message mentions:
+    private final MentionMatcher MENTIONS = new MentionMatcher();
+    //threads big rooms' broadcasts are split between:
+    private final FanOut FAN_OUT = new FanOut();
+    //rooms clients can move between, each with its own members and roster:
+    private final Rooms ROOMS = new Rooms(FAN_OUT);
+    //images that have been sent, by hash, so each is only uploaded once:
+    private final BlobStore BLOBS = new BlobStore(BlobStore.MAX_BYTES, 
+        BlobStore.SPILL_DIR);
+    //index of the chat history, which users can search:
+    private final SearchIndex SEARCH = new SearchIndex();
+    //sampled messages' journeys from sender to recipients' screens:
+    private final Traces TRACES = new Traces();
+    //counters and latencies, published over JMX and by the stats command:
+    private final ServerMetrics METRICS = new ServerMetrics(ALL_CLIENTS, ROOMS, 
+        TRACES);
+    //every client's heartbeats and timeouts (see ChatServer.check):
+    private final TimingWheel TIMERS = new TimingWheel("chat-timers");
+    //big images being streamed from one client to the others:
+    private final Transfers TRANSFERS = new Transfers(TIMERS);
+    
+    //how long a client has to say hello and join, how long a client can go 
+    //without sending anything before it is pinged, and then dropped, and 
+    //how long its queued frames can wait without any being written before 
+    //it is dropped (all in milliseconds), and how often each is checked:
+    private static final long HANDSHAKE_TIMEOUT = Long.getLong(
+        "chat.timeout.handshake", 10000);
+    private static final long PING_INTERVAL = Long.getLong(
+        "chat.heartbeat.interval", 15000);
+    private static final long IDLE_TIMEOUT = Long.getLong(
+        "chat.timeout.idle", 45000);
+    private static final long WRITE_STALL_TIMEOUT = Long.getLong(
+        "chat.timeout.writeStall", 30000);
+    private static final long CHECK_INTERVAL = Long.getLong(
+        "chat.heartbeat.check", 5000);
     
-    private static final int PORT = 2207;   //random host port number
+    //random host port number (can be changed, i.e. to run several servers 
+    //of a cluster on one machine):
+    private static final int PORT = Integer.getInteger("chat.port", 2207);
     private final String NAME = "CLIENT";  //prefix of unique client name
+    //typed by an admin (followed by the admin token) to see the server's 
+    //metrics; only works if a token is set:
+    private static final String STATS_COMMAND = "/stats";
+    private static final String ADMIN_TOKEN = System.getProperty("chat.admin.token");
+    
+    /**
+     * How the server runs each client's ChatServer: THREAD starts a new thread 
+     * per client, VIRTUAL starts a new virtual thread per client, and NIO 
+     * shares the clients between a few event loops.
+     */
+    public enum Mode
+    {
+        THREAD, VIRTUAL, NIO
+    }
     
-    //used to assign a unique client number to new clients:
-    private int totalClients = 0;
+    //Thread.startVirtualThread only exists from Java 21, so it is looked up 
+    //at runtime to keep the server building on older versions (null if it 
+    //isn't there):
+    private static final Method START_VIRTUAL_THREAD = findStartVirtualThread();
+    
+    private final Mode mode;    //how clients are served
+    private final int eventLoops;   //number of event loops for NIO mode
     
     /**
-     * Default constructor, has nothing in it; could initialize above attributes 
-     * in here though.
+     * Default constructor, runs the server with a thread per client.
      */
     public Server()
     {
-        
+        this(Mode.THREAD, 1);
+    }
+    
+    /**
+     * Constructor which chooses how clients are served.
+     * 
+     * @param mode thread or virtual thread per client, or NIO event loops
+     * @param eventLoops number of event loop threads (NIO mode only)
+     */
+    public Server(Mode mode, int eventLoops)
+    {
+        this.mode = mode;
+        this.eventLoops = eventLoops;
     }
     
     /**
@@ -71,24 +155,55 @@ public class Server implements Runnable
      */
     public void startServer()
     {
+        METRICS.register(CLUSTER == null ? -1 : CLUSTER.getNode());
+        
+        if (CLUSTER != null)
+        {
+            try
+            {
+                CLUSTER.start();
+            }
+            catch (IOException e)
+            {
+                System.out.println("Couldn't start cluster: " + e);
+                return;
+            }
+        }
+        
+        if (mode == Mode.NIO)
+        {
+            try
+            {
+                new NioServer(this, PORT, eventLoops).start();
+            }
+            catch (IOException e)
+            {
+                System.out.println("Couldn't connect to server: " + e);
+            }
+            System.out.println("Server is no longer accepting client connections.");
+            return;
+        }
+        
         ServerSocket ss = null;
         try
         {
-            ss = new ServerSocket(PORT);
+            //(with room for as many waiting connections as the NIO 
+            //server's, so a burst of clients isn't turned away while the 
+            //threads of the ones before them are started):
+            ss = new ServerSocket(PORT, 1024);
             System.out.println("Server is ready to accept client connections...");
             
             //accept connections while the boolean is set to true:
             while (true)
             {
                 Socket socket = ss.accept();
+                ServerMetrics.accepted();
                 
-                //increments and then pass in totalClients as a parameter 
+                //get a unique client number and pass it in as a parameter 
                 //for the server subclass:
-                totalClients++;
-                ChatServer cs = new ChatServer(socket, totalClients);
+                ChatServer cs = new ChatServer(socket, ALL_CLIENTS.nextId());
                 
-                Thread thread = new Thread(cs);
-                thread.start();
+                startThread(cs);
             }
         }
         catch (Exception e) //catch-all
@@ -108,16 +223,298 @@ public class Server implements Runnable
         }
     }
     
+    /**
+     * Runs a client's ChatServer (or its connection's writer) on its own 
+     * thread, which is a virtual thread in VIRTUAL mode.
+     * 
+     * @param cs the ChatServer or writer to run
+     */
+    private void startThread(Runnable cs)
+    {
+        if (mode == Mode.VIRTUAL && START_VIRTUAL_THREAD != null)
+        {
+            try
+            {
+                START_VIRTUAL_THREAD.invoke(null, cs);
+                return;
+            }
+            catch (ReflectiveOperationException e)
+            {
+                System.out.println("Couldn't start virtual thread: " + e);
+            }
+        }
+        Thread thread = new Thread(cs);
+        thread.start();
+    }
+    
+    /**
+     * Helper method which finds Thread.startVirtualThread, if this version of 
+     * Java has it.
+     * 
+     * @return the method, or null if virtual threads aren't available
+     */
+    private static Method findStartVirtualThread()
+    {
+        try
+        {
+            return Thread.class.getMethod("startVirtualThread", Runnable.class);
+        }
+        catch (NoSuchMethodException e)
+        {
+            return null;
+        }
+    }
+    
+    /**
+     * Creates the ChatServer for a client accepted by the NIO server, giving 
+     * it the next unique client number.
+     * 
+     * @param connection the client's connection
+     * @return the client's ChatServer
+     */
+    ChatServer newSession(Connection connection)
+    {
+        ChatServer cs = new ChatServer(connection, ALL_CLIENTS.nextId());
+        cs.watch();
+        return cs;
+    }
+    
+    /**
+     * @return the username and room of every client on this server, for 
+     * another server of the cluster
+     */
+    List<String[]> localMembers()
+    {
+        List<String[]> members = new ArrayList<>();
+        for (ChatServer cs : ALL_CLIENTS)
+        {
+            Room room = cs.room;
+            if (room != null)
+                members.add(new String[] {cs.username, room.getName()});
+        }
+        return members;
+    }
+    
+    /**
+     * Adds a user on another server of the cluster to a room (and to the 
+     * users that can be mentioned, if they're new), updating the lists of 
+     * members of the room (and of the room they were in before).
+     * 
+     * @param user the username
+     * @param room the room's name
+     * @param from the room they were in before, or null if they're new
+     */
+    void remoteEnter(String user, String room, String from)
+    {
+        if (from == null)
+            MENTIONS.add(user);
+        else
+            remoteLeave(user, from);
+        
+        Room r = ROOMS.joinRemote(room);
+        r.getRoster().add(user, null, r.getMembers());
+    }
+    
+    /**
+     * Removes a user on another server of the cluster, who has left (or 
+     * whose server can no longer be reached).
+     * 
+     * @param user the username
+     * @param room the room they were in
+     */
+    void remoteExit(String user, String room)
+    {
+        MENTIONS.remove(user);
+        remoteLeave(user, room);
+    }
+    
+    /**
+     * Helper method which removes a user on another server of the cluster 
+     * from a room's list of members.
+     * 
+     * @param user the username
+     * @param room the room's name
+     */
+    private void remoteLeave(String user, String room)
+    {
+        Room r = ROOMS.leaveRemote(room);
+        if (r != null)
+            r.getRoster().remove(user, null, r.getMembers());
+    }
+    
+    /**
+     * Sends a message from another server of the cluster to everyone in a 
+     * room on this server, adding it to this server's history and search 
+     * index as if it had been sent here.
+     * 
+     * @param name the room's name
+     * @param frame the message's frame
+     */
+    void remoteRoom(String name, Frame frame)
+    {
+        Room room = ROOMS.get(name);
+        if (room == null)
+            return;
+        
+        room.broadcast(frame, null, frame);
+        if (LOG != null && room == ROOMS.getLobby())
+            LOG.append(frame);
+        
+        if (frame.getTag() == MessageCodec.TAG_STRING)
+        {
+            Message m = decode(frame);
+            if (m != null && ((StringMessage) m).getSender() != null)
+                SEARCH.add(((StringMessage) m).getSender(), name, 
+                    ((StringMessage) m).getMessage());
+        }
+    }
+    
+    /**
+     * Sends an image from another server of the cluster to everyone in a 
+     * room on this server, storing it here too.
+     * 
+     * @param name the room's name
+     * @param frame the image's frame
+     */
+    void remoteImage(String name, Frame frame)
+    {
+        Room room = ROOMS.get(name);
+        Message m = decode(frame);
+        if (room == null || !(m instanceof ImageMessage) 
+            || ((ImageMessage) m).getKind() != ImageMessage.Kind.FULL)
+            return;
+        
+        //(checked as a client's image is, see ChatServer.receiveImage):
+        ImageMessage image = (ImageMessage) m;
+        String mediaType = ImageMessage.detectMediaType(image.getData());
+        if (mediaType == null || !mediaType.equals(image.getMediaType()))
+            return;
+        
+        byte[] hash = image.getHash();
+        String key = BlobStore.key(hash);
+        BLOBS.put(key, frame);
+        try
+        {
+            Frame reference = Frame.of(new ImageMessage(
+                ImageMessage.Kind.REFERENCE, hash));
+            if (LOG != null && room == ROOMS.getLobby())
+                LOG.append(reference);
+            fanOutImage(room, key, frame, reference, ServerMetrics.now());
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e);
+        }
+    }
+    
+    /**
+     * Sends a message from another server of the cluster to one user on this 
+     * server (i.e. one who was mentioned in it).
+     * 
+     * @param user the username
+     * @param frame the message's frame
+     */
+    void remoteUser(String user, Frame frame)
+    {
+        ChatServer cs = ALL_CLIENTS.get(user);
+        Room room = cs == null ? null : cs.room;
+        if (room == null)   //(not there, or not in the lobby yet)
+            return;
+        
+        //(from the user's room's shard, to stay in order with the room):
+        room.execute(() ->
+        {
+            try
+            {
+                cs.connection.send(frame);
+            }
+            catch (IOException e)
+            {}
+        });
+    }
+    
+    /**
+     * Sends an image to everyone in a room. Users whose client already has 
+     * the image are only sent a reference to it.
+     * 
+     * @param room the room
+     * @param key the image's hash (see BlobStore.key)
+     * @param frame the image's encoded ImageMessage
+     * @param reference the encoded reference to the image
+     * @param since when the image was received (see ServerMetrics.now)
+     */
+    private void fanOutImage(Room room, String key, Frame frame, Frame reference, 
+        long since)
+    {
+        room.execute(() ->
+        {
+            int sent = 0;
+            for (ChatServer cs : room.getMembers())
+            {
+                sent++;
+                try
+                {
+                    if (cs.holdsImage(key))
+                    {
+                        cs.connection.send(reference);
+                        BLOBS.saved(frame.length() - reference.length());
+                    }
+                    else
+                    {
+                        cs.connection.send(frame);
+                        cs.holdImage(key);
+                    }
+                }
+                catch (IOException e)
+                {}
+            }
+            ServerMetrics.imageForwarded(since, sent);
+        });
+    }
+    
+    /**
+     * Helper method which decodes a frame passed on by another server.
+     * 
+     * @param frame the frame
+     * @return its message, or null if it isn't valid
+     */
+    private static Message decode(Frame frame)
+    {
+        try
+        {
+            byte[] bytes = new byte[frame.length()];
+            frame.buffer().get(bytes);
+            int length = MessageCodec.peekLength(ByteBuffer.wrap(bytes));
+            return MessageCodec.decode(bytes, bytes.length - length, length);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+    
     /**
      * Driver main method which implements advanced feature #1 (sending e-mails 
      * to a list of addresses) via a second thread (multi-threading), then 
      * starts the server.
      * 
-     * @param args
+     * @param args optional mode ("thread", "virtual" or "nio") and, for NIO 
+     * mode, the number of event loops (defaults to the number of processors)
      */
     public static void main(String[] args)
     {
-        Server server = new Server();
+        Mode mode = Mode.THREAD;
+        int eventLoops = Runtime.getRuntime().availableProcessors();
+        
+        if (args.length > 0)
+            mode = Mode.valueOf(args[0].toUpperCase());
+        if (args.length > 1)
+            eventLoops = Integer.parseInt(args[1]);
+        if (mode == Mode.VIRTUAL && START_VIRTUAL_THREAD == null)
+            System.out.println("Virtual threads need Java 21 or newer, "
+                + "using platform threads instead.");
+        
+        Server server = new Server(mode, eventLoops);
         Thread thread = new Thread(server);
         
         thread.start(); //start thread which sends emails to addresses
@@ -133,8 +530,46 @@ public class Server implements Runnable
     {
         private Socket socket;  //socket for client/server communication
         private String username;    //unique username
-        private ObjectOutputStream oos; //output stream to server
-        private ObjectInputStream ois;   //input stream from server
+        private Connection connection;  //sends frames to the client
+        private DataInputStream in;  //input stream from client
+        //whether leave() has been run:
+        private final AtomicBoolean hasLeft = new AtomicBoolean();
+        //protocol version agreed with the client (0 until it says hello):
+        private int protocolVersion = 0;
+        private int features = 0;   //optional features agreed with the client
+        private volatile Room room; //room the client is in (null until joined)
+        //hashes of the images this client has cached, least recently used 
+        //first (the same images, in the same order, as the client keeps):
+        private final LinkedHashMap<String, Boolean> heldImages = 
+            new LinkedHashMap<String, Boolean>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> e)
+            {
+                return size() > MessageCodec.CACHED_IMAGES;
+            }
+        };
+        //this client's uploads in progress, by the client's transfer id:
+        private final Map<Integer, Transfer> uploads = new HashMap<>();
+        private volatile boolean joined = false;  //whether join() has been run
+        //when the message being handled was received (see ServerMetrics):
+        private long receivedAt;
+        //this client's part of big rooms' fan-outs (see FanOut):
+        private volatile int part = 0;
+        //times (see TimingWheel.now) the client connected and last sent 
+        //anything, and it was last pinged:
+        private long connectedAt;
+        private volatile long lastRead;
+        private long pingedAt;
+        //frames taken off the client's queue as of the last check, when 
+        //that last went up (or the queue was empty), and when a frame was 
+        //last taken (only used by check, on the timers' thread):
+        private long lastTaken;
+        private long takenAt;
+        private long writtenAt;
+        //whether the client answers pings (see MessageCodec.FEATURE_HEARTBEAT):
+        private volatile boolean heartbeats = false;
+        private volatile TimingWheel.Timeout checker;  //next check
         
         /**
          * A constructor for the chat service across a socket for client/server 
@@ -151,236 +586,883 @@ public class Server implements Runnable
         }
         
         /**
-         * A method that sends messages to clients
+         * A constructor for a client whose connection is already open (i.e. 
+         * one accepted by the NIO server). Initializes the connection and the 
+         * username of the client
+         * 
+         * @param connection the client's connection
+         * @param clientID ID of newly connected client
+         */
+        public ChatServer(Connection connection, int clientID)
+        {
+            this.connection = connection;
+            this.username = NAME + clientID;
+        }
+        
+        /**
+         * Helper method which encodes a message and sends it to this 
+         * ChatServer's client.
+         * 
+         * @param m the message to send
+         * @throws IOException if the client's connection is closed
+         */
+        private void deliver(Message m) throws IOException
+        {
+            connection.send(Frame.of(m));
+        }
+        
+        /**
+         * @return the connection to this ChatServer's client
+         */
+        public Connection getConnection()
+        {
+            return connection;
+        }
+        
+        /**
+         * @return this client's part of big rooms' fan-outs (see FanOut)
+         */
+        public int getPart()
+        {
+            return part;
+        }
+        
+        /**
+         * @return the username
+         */
+        public String getUsername()
+        {
+            return username;
+        }
+        
+        /**
+         * @param feature one of MessageCodec's FEATURE constants
+         * @return whether this client has agreed to use the feature
+         */
+        public boolean supports(int feature)
+        {
+            return (features & feature) != 0;
+        }
+        
+        /**
+         * A method that sends messages to clients in this client's room. The 
+         * message is encoded once, and the same frame is sent to every 
+         * recipient; user messages carry the sender's username so each 
+         * client can show them as either "You: ..." or "CLIENTx: ..." itself.
+         * 
+         * Messages are sent from the room's shard, which only has to look at 
+         * the room's members, not everyone on the server.
          * 
          * @param message the message to send
          */
         public void sendMessage(String message)
         {
-            Message m;
+            sendMessage(message, ServerMetrics.now(), null);
+        }
+        
+        /**
+         * Sends a message to clients in this client's room, timing how long 
+         * it takes to reach the last of them (see ServerMetrics), and 
+         * tracing it if the client sent it with a trace (see Traces).
+         * 
+         * @param message the message to send
+         * @param since when the message was received (see ServerMetrics.now)
+         * @param trace the message's trace (see Traces.received), or null
+         */
+        private void sendMessage(String message, long since, TraceContext trace)
+        {
+            Room room = this.room;
             
             //Check if any users on the server have been mentioned in a 
-            //user-sent message with a foreach loop. Flag as true if there is 
-            //a mention and store every mentioned name in an ArrayList.
-            boolean mentions = false;
-            ArrayList<String> allMentioned = new ArrayList<>();
-            for (ChatServer cs : ALL_CLIENTS)
+            //user-sent message, with one pass over the message. Flag as true 
+            //if there is a mention, and keep every mentioned name in a set.
+            Set<String> allMentioned = MENTIONS.match(message);
+            boolean mentions = !allMentioned.isEmpty();
+            
+            //check if message is from server:
+            boolean fromServer = message.contains("Server");
+            boolean isPublic = fromServer || !mentions;
+            
+            //encode the message once for everyone, plus a personalized join 
+            //message for the user joining the server:
+            Frame frame;
+            Frame ownFrame;
+            Traces.Trace record = trace == null || fromServer ? null 
+                : TRACES.dispatch(trace);
+            try
             {
-                if (message.contains(cs.username))
-                {
-                    mentions = true;
-                    allMentioned.add(cs.username);
-                }
+                if (fromServer)
+                    frame = Frame.of(new StringMessage(message));
+                else if (record != null)
+                    frame = Frame.traced(new StringMessage(username, message, 
+                        record.getContext()));
+                else
+                    frame = Frame.of(new StringMessage(username, message));
+                
+                ownFrame = frame;
+                if (message.equals("Server - New User: " + username))
+                    ownFrame = Frame.of(new StringMessage(
+                        "Server - New User: You have successfully joined"));
             }
+            catch (IOException e)
+            {
+                System.out.println("Error: " + e);
+                return;
+            }
+            
+            //add messages everyone can see to the search index (for the 
+            //room they were sent in), and the lobby's to the history 
+            //(private ones are never logged or searchable):
+            if (LOG != null && isPublic && room == ROOMS.getLobby())
+                LOG.append(frame.untraced());
+            if (isPublic && !fromServer)
+                SEARCH.add(username, room.getName(), message);
             
             //Sending the message. If it's not a server message, the 
             //algorithm uses the mentions flag to check if a user wants to 
-            //send a message to anyone in particular - if so, it will check if 
-            //the current ChatServer's username matches any of the names in 
-            //the ArrayList and send the message to that person (plus the 
-            //user themselves). If not the message is sent to everyone as 
-            //normal
-            for (ChatServer cs : ALL_CLIENTS)
-            {
-                //personalize join message for user joining the server:
-                if (message.equals("Server - New User: " + username) && cs == this)
-                    message = "Server - New User: You have successfully joined";
-
-                try
+            //send a message to anyone in particular - if so, it looks up 
+            //each mentioned user (in whichever room they're in) and sends 
+            //the message to them (plus the user themselves). If not the 
+            //message is sent to everyone in the room as normal
+            //(a traced message is timed from the shard too, just before and 
+            //after it, as the shard runs its tasks in order; the rest of the 
+            //cluster is sent it without its trace, as the trace id is only 
+            //known here):
+            if (isPublic)
+            {
+                if (record != null)
+                    room.execute(record::started);
+                room.broadcast(frame, this, ownFrame, since);
+                if (record != null)
+                    room.execute(record::finished);
+                if (CLUSTER != null)
+                    CLUSTER.forwardRoom(room.getName(), frame.untraced());
+                return;
+            }
+            
+            //(sent from the room's shard too, to stay in order with the 
+            //user's other messages):
+            room.execute(() ->
+            {
+                if (record != null)
+                    record.started();
+                //(each recipient on its own, so one that has gone doesn't 
+                //stop the rest getting it):
+                Room.send(this, frame);
+                for (String name : allMentioned)
                 {
-                    m = new StringMessage(message);
-                    
-                    //check if message is from server:
-                    if (message.contains("Server"))
-                        cs.oos.writeObject(m);
-                    else
-                    {
-                        //if the mentions flag is true, restrict sending (and 
-                        //displaying) the message to only the sender and all their 
-                        //intended recipients. Otherwise send the message to 
-                        //everyone and show who sent the message:
-                        if (!mentions || (mentions && 
-                                (allMentioned.contains(cs.username) || cs == this)))
-                        {
-                            //personalize output:
-                            if (cs != this)
-                                m = new StringMessage(username + ": " + message);
-                            else
-                                m = new StringMessage("You: " + message);
-                            cs.oos.writeObject(m);
-                        }
-                    }
-                    cs.oos.flush();
+                    ChatServer cs = ALL_CLIENTS.get(name);
+                    if (cs != null && cs != this)
+                        Room.send(cs, frame);
+                    //user on another server of the cluster:
+                    else if (cs == null && CLUSTER != null)
+                        CLUSTER.forwardUser(name, frame.untraced());
                 }
-                catch (IOException e)
-                {}
-            }
+                ServerMetrics.delivered(since, allMentioned.size() + 1);
+                if (record != null)
+                    record.finished();
+            });
         }
         
         /**
-         * Method which allows clients to obtain a list of the other connected 
-         * clients, by sending them each member of the list through a 
-         * ListMessage object (and two for loops). The ListMessage object 
-         * extends Message, and contains the user's name and if they are being 
-         * added or removed.
+         * Method which keeps the list of clients shown by everyone in this 
+         * client's room up to date, through the room's versioned Roster. The 
+         * ListMessage object extends Message, and contains the roster's 
+         * version plus either one user being added or removed, or (for the 
+         * user joining) the whole list.
          * 
-         * If the boolean add is true, all the active users in the list are 
-         * sent to every client, who only adds them to the list if they are 
-         * a new user. If it's false, all active clients are sent the name of 
-         * the client who is leaving.
+         * If the boolean add is true, the joining client is sent a snapshot 
+         * of all the users in the room, and every other member is sent just 
+         * the new user. If it's false, all remaining members are sent the 
+         * name of the client who is leaving.
          * 
          * @param client the client to add/remove
          * @param add whether the client is being added to / removed from 
-         * the server
+         * the room
          */
         public void updateList(String client, boolean add)
+        {
+            long start = ServerMetrics.now();
+            if (add)    //is true
+                room.getRoster().add(client, this, room.getMembers());
+            else
+                room.getRoster().remove(client, this, room.getMembers());
+            ServerMetrics.rosterUpdated(start);
+        }
+        
+        /**
+         * Moves this client to another room: the old room's members are told 
+         * they have left, and the new room's that they have joined. The 
+         * client is sent the new room's name, then its list of members.
+         * 
+         * @param name the room's name (the lobby if null)
+         * @throws IOException if the client's connection is closed
+         */
+        private void switchRoom(String name) throws IOException
+        {
+            if (name == null)
+                name = Rooms.LOBBY;
+            if (!Rooms.isValidName(name))
+            {
+                deliver(new StringMessage("Server - Room names are 1 to " 
+                    + Rooms.MAX_NAME_LENGTH + " lowercase letters, digits, " 
+                    + "'-' or '_'"));
+                return;
+            }
+            if (name.equals(room.getName()))
+                return;
+            
+            ROOMS.leave(this, room);
+            updateList(username, false);
+            sendMessage("Server - " + username + " has left #" + room.getName());
+            
+            room = ROOMS.join(this, name);
+            deliver(new RoomMessage(RoomMessage.Kind.JOINED, name));
+            updateList(username, true);
+            if (CLUSTER != null)
+                CLUSTER.enter(username, name);
+            sendMessage("Server - " + username + " has joined #" + name);
+        }
+        
+        /**
+         * Adds this client to the server: sends them their username, the 
+         * latest messages from the history and the instructions, then 
+         * notifies all users of the new user joining.
+         *
+         * @throws IOException if the client's connection is closed
+         */
+        public void join() throws IOException
         {
             Message m;
-            for (ChatServer cs : ALL_CLIENTS)   //update list for all clients
+
+            //Pass client's username to their chat window (before they can be 
+            //sent anything else), followed by the chat so far:
+            m = new StringMessage(username);
+            deliver(m);
+            replay();
+
+            //add this instance of subclass to current clients list, and 
+            //to the lobby (with a part of the big rooms' fan-outs):
+            part = FAN_OUT.assign();
+            ALL_CLIENTS.add(this);
+            MENTIONS.add(username);
+            room = ROOMS.join(this, Rooms.LOBBY);
+            joined = true;
+
+            //console printout on server side:
+            System.out.println(username + " has joined!");
+
+            //Notify new users of how to send messages to specified clients:
+            m = new StringMessage("Server - To send a message to a specific client, "
+                    + "type their name (e.g. CLIENT2) somewhere in the "
+                    + "message.");
+            deliver(m);
+            if (supports(MessageCodec.FEATURE_ROOMS))
+                deliver(new StringMessage("Server - Type /join followed by a " 
+                    + "room's name to move to another room, and /leave to go " 
+                    + "back to the lobby."));
+
+            //Server notifies all users of currently connected users, and
+            //the new user joining:
+            updateList(username, true);
+            if (CLUSTER != null)
+                CLUSTER.enter(username, room.getName());
+            sendMessage("Server - New User: " + username);
+        }
+        
+        /**
+         * Helper method which sends this client the latest messages from the 
+         * history, one after another. Images are logged as references, so a 
+         * client that doesn't cache images is sent the stored image instead 
+         * (or nothing, if it is no longer stored).
+         *
+         * @throws IOException if the client's connection is closed
+         */
+        private void replay() throws IOException
+        {
+            if (LOG == null)
+                return;
+            
+            for (Frame frame : LOG.replay())
             {
-                //go through list of connected clients' usernames:
-                for (ChatServer cs2 : ALL_CLIENTS)
+                if (frame.getTag() == MessageCodec.TAG_IMAGE_REF 
+                    && !supports(MessageCodec.FEATURE_IMAGE_CACHE))
                 {
-                    try
-                    {
-                        //send each client all active users:
-                        if (add)    //is true
-                            m = new ListMessage(cs2.username, add);
-                        //send each client only the removed user:
-                        else
-                            m = new ListMessage(client, add);
-                        
-                        cs.oos.writeObject(m);
-                        cs.oos.flush();
-                    }
-                    catch (Exception e) //catch-all
-                    {
-                        System.out.println("Error: " + e);
-                    }
+                    byte[] bytes = new byte[frame.length()];
+                    frame.buffer().get(bytes);
+                    int length = MessageCodec.peekLength(ByteBuffer.wrap(bytes));
+                    Message ref = MessageCodec.decode(bytes, 
+                        bytes.length - length, length);
+                    
+                    frame = BLOBS.get(BlobStore.key(((ImageMessage) ref).getHash()));
+                    if (frame == null)
+                        continue;
                 }
+                connection.send(frame);
             }
         }
-        
+
         /**
-         * The run method, which passes messages from one client to another (or 
-         * all clients) and sends its own messages to clients as well. It is 
-         * also responsible for updating the ArrayList of clients.
+         * Helper method which checks the admin token typed after the stats 
+         * command (compared in constant time, so it can't be guessed a 
+         * character at a time).
+         * 
+         * @param command the stats command
+         * @return whether the token is right (always false if no token is set)
          */
-        @Override
-        public void run() 
+        private boolean isAdmin(String command)
+        {
+            if (ADMIN_TOKEN == null || ADMIN_TOKEN.isEmpty())
+                return false;
+            
+            String token = command.substring(STATS_COMMAND.length()).trim();
+            return MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), 
+                ADMIN_TOKEN.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Agrees on a protocol version with the client, using the hello 
+         * message it sent when it connected. The newest version both sides 
+         * speak is chosen and sent back; if there isn't one, 0 is sent back 
+         * instead.
+         *
+         * @param input the first message received from the client
+         * @return whether a version was agreed on
+         * @throws IOException if the client's connection is closed
+         */
+        private boolean handshake(Message input) throws IOException
+        {
+            if (!(input instanceof HelloMessage))
+                return false;
+            
+            HelloMessage hello = (HelloMessage) input;
+            int version = Math.min(hello.getVersion(), 
+                MessageCodec.PROTOCOL_VERSION);
+            
+            if (version < hello.getMinVersion() 
+                || version < MessageCodec.MIN_PROTOCOL_VERSION)
+            {
+                System.out.println(username + " has no common protocol version");
+                deliver(new HelloMessage(0, 0, 0));
+                return false;
+            }
+            
+            protocolVersion = version;
+            features = hello.getFeatures() & MessageCodec.SUPPORTED_FEATURES;
+            deliver(new HelloMessage(version, version, features));
+            //(after the hello, which the client needs to read first):
+            connection.setCompressing(supports(MessageCodec.FEATURE_COMPRESSION));
+            connection.setTracing(supports(MessageCodec.FEATURE_TRACING));
+            heartbeats = supports(MessageCodec.FEATURE_HEARTBEAT);
+            return true;
+        }
+
+        /**
+         * Passes a message received from this client on to one or more
+         * clients. The first message must be the client's hello, after 
+         * which the client joins the server.
+         *
+         * @param input the message received from the client
+         * @return true if the client has asked to quit (or must be 
+         * disconnected)
+         * @throws IOException if the client's connection is closed
+         */
+        public boolean receive(Message input) throws IOException
         {
             Message m;
-            try 
+            
+            ServerMetrics.received();
+            receivedAt = ServerMetrics.now();
+            lastRead = TIMERS.now();
+            
+            if (protocolVersion == 0)   //client hasn't said hello yet
             {
-                //create an autoflush output stream for the socket, to the 
-                //server:
-                oos = new ObjectOutputStream(socket.getOutputStream());
-                //create a buffered input stream for this socket:
-                ois = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
-                            
-                //add this instance of subclass to current clients list:
-                ALL_CLIENTS.add(this);
-                
-                //console printout on server side:
-                System.out.println(username + " has joined!");
+                if (!handshake(input))
+                    return true;
                 
-                //Pass client's username to their chat window:
-                m = new StringMessage(username);
-                oos.writeObject(m);
-                oos.flush();
-                
-                //Notify new users of how to send messages to specified clients:
-                m = new StringMessage("Server - To send a message to a specific client, "
-                        + "type their name (e.g. CLIENT2) somewhere in the "
-                        + "message.");
-                oos.writeObject(m);
-                oos.flush();
+                join();
+                return false;
+            }
 
-                //Server notifies all users of currently connected users, and 
-                //the new user joining:
-                updateList(username, true);
-                sendMessage("Server - New User: " + username);
-                
-                //Send messages if: a) the message isn't empty and b) the 
-                //user doesn't want to quit
-                boolean hasQuit = false;
-                while (!hasQuit) 
+            if (input instanceof StringMessage)
+            {
+                String message = ((StringMessage) input).getMessage();
+                TraceContext trace = ((StringMessage) input).getTrace();
+
+                if (message.equals("quit"))   //end messages
                 {
-                    Object input = ois.readObject();
+                    //Tell user they're about to be disconnected from
+                    //the server (if they haven't already closed the
+                    //window):
+                    m = new StringMessage("You're disconnected "
+                            + "from the server. The window will "
+                            + "close in 5 seconds.");
+                    deliver(m);
+                    return true;
+                }
+                //admin wants the server's metrics (never sent on, as it 
+                //has the admin token in it):
+                else if (message.equals(STATS_COMMAND) 
+                    || message.startsWith(STATS_COMMAND + " "))
+                    deliver(new StringMessage(isAdmin(message) 
+                        ? METRICS.getReport() 
+                        : "Server - Stats are only available to admins"));
+                //send the message, giving it a trace id if it's traced 
+                //(clients that didn't agree to tracing shouldn't send 
+                //traces, so theirs are ignored):
+                else if (!message.isEmpty())
+                    sendMessage(message, receivedAt, trace == null 
+                        || !supports(MessageCodec.FEATURE_TRACING) ? null 
+                        : TRACES.received(trace));
+            }
+            //client is checking the server is still there, or answering 
+            //the server's ping (which it already has, by sending anything):
+            else if (input instanceof PingMessage)
+            {
+                if (((PingMessage) input).getKind() == PingMessage.Kind.PING)
+                    deliver(new PingMessage(PingMessage.Kind.PONG, 
+                        ((PingMessage) input).getValue()));
+            }
+            //client is reporting when traced messages were shown:
+            else if (input instanceof TraceMessage 
+                && supports(MessageCodec.FEATURE_TRACING))
+                TRACES.report(((TraceMessage) input).getSpans());
+            else if (input instanceof ListMessage)
+            {
+                //client has missed a roster version, send it the whole list:
+                if (((ListMessage) input).getKind() == ListMessage.Kind.RESYNC)
+                    room.getRoster().resync(this);
+            }
+            //client is moving to another room:
+            else if (input instanceof RoomMessage 
+                && supports(MessageCodec.FEATURE_ROOMS))
+            {
+                RoomMessage rm = (RoomMessage) input;
+                if (rm.getKind() == RoomMessage.Kind.JOIN)
+                    switchRoom(rm.getRoom());
+                else if (rm.getKind() == RoomMessage.Kind.LEAVE)
+                    switchRoom(null);
+            }
+            else if (input instanceof ImageMessage)
+                receiveImage((ImageMessage) input);
+            else if (input instanceof TransferMessage)
+                receiveTransfer((TransferMessage) input);
+            //client is searching the chat history (of the room it's in), 
+            //send back one page:
+            else if (input instanceof SearchMessage 
+                && supports(MessageCodec.FEATURE_SEARCH))
+            {
+                SearchMessage query = (SearchMessage) input;
+                if (query.getKind() == SearchMessage.Kind.QUERY)
+                    deliver(SEARCH.search(query.getQuery(), room.getName(), 
+                        query.getLimit(), query.getCursor()));
+            }
+            return false;
+        }
+        
+        /**
+         * Handles a message about a transfer: the START of, or a CHUNK from, 
+         * a file this client is uploading, or an ACK or CANCEL for a file it 
+         * is being sent. Chunks for an upload the server doesn't know about 
+         * (i.e. one that has been cancelled) are ignored.
+         * 
+         * @param tm the transfer message received from the client
+         * @throws IOException if the client's connection is closed, or it 
+         * has sent more of a file than it was allowed to
+         */
+        private void receiveTransfer(TransferMessage tm) throws IOException
+        {
+            Transfer transfer;
+            
+            switch (tm.getKind())
+            {
+                case START:
+                    if (!supports(MessageCodec.FEATURE_TRANSFER) 
+                        || tm.getLength() <= 0 || uploads.containsKey(tm.getId()))
+                        return;
                     
-                    if (input instanceof StringMessage)
+                    //carry on from where an interrupted upload of the same 
+                    //file got to, otherwise start streaming it to everyone:
+                    transfer = TRANSFERS.resume(this, tm);
+                    if (transfer == null)
                     {
-                        String message = ((StringMessage) input).getMessage();
-                        
-                        if (message.equals("quit"))   //end messages 
-                        {
-                            //Tell user they're about to be disconnected from 
-                            //the server (if they haven't already closed the 
-                            //window):
-                            m = new StringMessage("You're disconnected "
-                                    + "from the server. The window will "
-                                    + "close in 5 seconds.");
-                            oos.writeObject(m);
-                            oos.flush();
-                            hasQuit = true;
-                        }
-                        else if (!message.isEmpty())  //send the message
-                            sendMessage(message);
+                        sendMessage("Server: " + username + " is sending an image");
+                        transfer = TRANSFERS.start(this, tm, room.getMembers());
+                        if (CLUSTER != null && CLUSTER.isShared(room.getName()))
+                            transfer.relayTo(room.getName());
                     }
-                    else if (input instanceof ImageMessage)
+                    uploads.put(tm.getId(), transfer);
+                    break;
+                case CHUNK:
+                    transfer = uploads.get(tm.getId());
+                    if (transfer == null)
+                        return;
+                    
+                    //(if the client broke the protocol, the transfer is 
+                    //cancelled and the client disconnected):
+                    boolean finished = true;
+                    try
+                    {
+                        finished = transfer.chunk(tm);
+                    }
+                    finally
                     {
-                        //get ImageIcon:
-                        ImageIcon image = ((ImageMessage) input).getImage();
-                        
-                        //set Message as an ImageMessage instance:
-                        m = new ImageMessage(image);
-                        
-                        //notify users of the user sending the image:
-                        sendMessage("Server: " + username + " has sent an image");
-                        
-                        for (ChatServer cs : ALL_CLIENTS)
+                        if (finished)   //whole file received
                         {
-                            cs.oos.writeObject(m);
-                            cs.oos.flush();
+                            uploads.remove(tm.getId());
+                            TRANSFERS.finish(transfer);
                         }
                     }
+                    if (finished)
+                        relayTransfer(transfer);
+                    break;
+                case ACK:
+                    transfer = TRANSFERS.get(tm.getId());
+                    if (transfer != null)
+                        transfer.ack(this, tm.getOffset());
+                    break;
+                case CANCEL:
+                    transfer = TRANSFERS.get(tm.getId());
+                    if (transfer != null)
+                    {
+                        transfer.removeRecipient(this);
+                        if (transfer.isAbandoned())
+                            TRANSFERS.finish(transfer);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        
+        /**
+         * Handles an image (or an offer of, or request for, one) from this 
+         * client. Images are kept in the server's BlobStore by hash, so an 
+         * offered image that is already stored is sent on without the client 
+         * uploading it again.
+         * 
+         * @param image the image message received from the client
+         * @throws IOException if the client's connection is closed
+         */
+        private void receiveImage(ImageMessage image) throws IOException
+        {
+            String key = BlobStore.key(image.getHash());
+            Frame frame;
+            
+            switch (image.getKind())
+            {
+                case FULL:
+                    //only pass on PNG, JPEG or GIF files (checked from their 
+                    //first few bytes; the image itself is never decoded here):
+                    String mediaType = ImageMessage.detectMediaType(image.getData());
+                    if (mediaType == null || !mediaType.equals(image.getMediaType()))
+                        return;
+                    
+                    //encode the image once for all users, and store it:
+                    frame = Frame.of(image);
+                    BLOBS.put(key, frame);
+                    holdImage(key);
+                    sendImage(image.getHash(), frame);
+                    break;
+                case OFFER:
+                    //ask for the image if it isn't stored, otherwise the 
+                    //client doesn't need to upload it:
+                    frame = BLOBS.lookup(key);
+                    if (frame == null)
+                    {
+                        deliver(new ImageMessage(ImageMessage.Kind.REQUEST, 
+                            image.getHash()));
+                        return;
+                    }
+                    BLOBS.saved(frame.length());
+                    holdImage(key);
+                    sendImage(image.getHash(), frame);
+                    break;
+                case REQUEST:
+                    //client was sent a reference to an image it no longer 
+                    //has, send it the whole image (if still stored):
+                    frame = BLOBS.get(key);
+                    if (frame != null)
+                    {
+                        connection.send(frame);
+                        holdImage(key);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        
+        /**
+         * Sends an image to every user in this client's room. Users whose 
+         * client already has the image are only sent a reference to it.
+         * 
+         * @param hash the image's hash
+         * @param frame the image's encoded ImageMessage
+         * @throws IOException if the reference can't be encoded
+         */
+        private void sendImage(byte[] hash, Frame frame) throws IOException
+        {
+            String key = BlobStore.key(hash);
+            Frame reference = Frame.of(new ImageMessage(
+                ImageMessage.Kind.REFERENCE, hash));
+            
+            //notify users of the user sending the image, and log the image 
+            //(as a reference to the stored one) after the notice:
+            Room room = this.room;
+            sendMessage("Server: " + username + " has sent an image");
+            if (LOG != null && room == ROOMS.getLobby())
+                LOG.append(reference);
+            
+            fanOutImage(room, key, frame, reference, receivedAt);
+            if (CLUSTER != null)
+                CLUSTER.forwardImage(room.getName(), frame);
+        }
+        
+        /**
+         * Passes a file streamed from this client on to the users in its 
+         * room on the other nodes of the cluster, as a whole ImageMessage, 
+         * if it was kept for that (see Transfer.relayTo).
+         * 
+         * @param transfer the finished transfer
+         */
+        private void relayTransfer(Transfer transfer)
+        {
+            byte[] data = transfer.getRelayData();
+            if (data == null)
+                return;
+            
+            //(only PNG, JPEG or GIF files, as in receiveImage):
+            TransferMessage start = transfer.getStart();
+            String mediaType = ImageMessage.detectMediaType(data);
+            if (mediaType == null || !mediaType.equals(start.getMediaType()))
+                return;
+            try
+            {
+                CLUSTER.forwardImage(transfer.getRelayRoom(), Frame.of(
+                    new ImageMessage(data, start.getMediaType(), 
+                    start.getWidth(), start.getHeight())));
+            }
+            catch (IOException e)
+            {
+                System.out.println("Error: " + e);
+            }
+        }
+        
+        /**
+         * Helper method which checks if this client has an image cached, 
+         * marking it as the most recently used if so.
+         * 
+         * @param key the image's hash
+         * @return whether the client has it (always false if the client 
+         * doesn't cache images)
+         */
+        private boolean holdsImage(String key)
+        {
+            synchronized (heldImages)
+            {
+                return heldImages.get(key) != null;
+            }
+        }
+        
+        /**
+         * Helper method which notes that this client has cached an image (if 
+         * it caches images).
+         * 
+         * @param key the image's hash
+         */
+        private void holdImage(String key)
+        {
+            if ((features & MessageCodec.FEATURE_IMAGE_CACHE) == 0)
+                return;
+            
+            synchronized (heldImages)
+            {
+                heldImages.put(key, Boolean.TRUE);
+            }
+        }
+
+        /**
+         * Starts checking on this client (once its connection is open), 
+         * every CHECK_INTERVAL on the server's timing wheel.
+         */
+        void watch()
+        {
+            long now = TIMERS.now();
+            connectedAt = now;
+            lastRead = now;
+            pingedAt = now;
+            takenAt = now;
+            writtenAt = now;
+            checker = TIMERS.schedule(this::check, CHECK_INTERVAL);
+        }
+        
+        /**
+         * Checks that this client is still there, as a half-open connection 
+         * (i.e. to a machine that has crashed or lost its network) is 
+         * otherwise never noticed: reads just wait, and writes fill the 
+         * socket's buffer and then the client's queue. The client is 
+         * dropped if:
+         * 1) it hasn't said hello and joined within HANDSHAKE_TIMEOUT
+         * 2) frames have been waiting in its queue for WRITE_STALL_TIMEOUT 
+         *    without any being written
+         * 3) it answers pings, but hasn't sent anything for IDLE_TIMEOUT
+         * 
+         * Otherwise, a client that answers pings is pinged if nothing has 
+         * been read from it, or written to it, for PING_INTERVAL (and it 
+         * hasn't been pinged since), which it answers with a pong; so an 
+         * idle client that is still there is never dropped, and an idle 
+         * connection is never closed by a firewall in between.
+         * 
+         * Run on the timing wheel's thread, so it only looks at a few fields 
+         * and never blocks (closing the connection is left to its own 
+         * thread or event loop).
+         */
+        private void check()
+        {
+            if (hasLeft.get())
+                return;
+            
+            long now = TIMERS.now();
+            OutboundQueue queue = connection.getQueue();
+            long taken = queue.getTaken();
+            if (taken != lastTaken)
+            {
+                lastTaken = taken;
+                writtenAt = now;
+                takenAt = now;
+            }
+            else if (queue.getDepth() == 0)
+                takenAt = now;
+            
+            String reason = null;
+            if (!joined && now - connectedAt >= HANDSHAKE_TIMEOUT)
+                reason = "no handshake";
+            else if (now - takenAt >= WRITE_STALL_TIMEOUT)
+                reason = "not reading";
+            else if (heartbeats && now - lastRead >= IDLE_TIMEOUT)
+                reason = "no reply";
+            if (reason != null)
+            {
+                System.out.println(username + " timed out (" + reason + ")");
+                connection.abort();
+                return;
+            }
+            
+            if (heartbeats && now - pingedAt >= PING_INTERVAL 
+                && (now - lastRead >= PING_INTERVAL 
+                || now - writtenAt >= PING_INTERVAL))
+            {
+                pingedAt = now;
+                try
+                {
+                    deliver(new PingMessage(PingMessage.Kind.PING, now));
                 }
-            } 
+                catch (IOException e)
+                {}
+            }
+            checker = TIMERS.schedule(this::check, CHECK_INTERVAL);
+        }
+        
+        /**
+         * Removes this client from the server, and notifies all users of the
+         * user leaving. Only does anything the first time it is called.
+         */
+        public void leave()
+        {
+            if (!hasLeft.compareAndSet(false, true))
+                return;
+            ServerMetrics.disconnected();
+            TimingWheel.Timeout checker = this.checker;
+            if (checker != null)
+                checker.cancel();
+
+            if (joined)
+            {
+                //console printout on server side:
+                System.out.println(username + " has left");
+
+                //Remove this ChatServer instance from the list of
+                //all ChatServer instances:
+                ALL_CLIENTS.remove(this);
+                MENTIONS.remove(username);
+                ROOMS.leave(this, room);
+                FAN_OUT.release(part);
+                //pause this client's uploads, and stop sending it others':
+                TRANSFERS.leave(this);
+
+                //Server notifies all users of user leaving, and updates
+                //list on client side:
+                updateList(username, false);
+                if (CLUSTER != null)
+                    CLUSTER.exit(username);
+                sendMessage("Server - Departing User: " + username);
+            }
+
+            connection.close();
+
+            //close the server (unless it's part of a cluster):
+            if (joined && ALL_CLIENTS.isEmpty() && CLUSTER == null)
+            {
+                System.out.println(BLOBS);
+                long frames = OutboundQueue.getTotalTaken();
+                long writes = OutboundQueue.getTotalWrites();
+                System.out.printf("Socket writes: %d frames (%d bytes) in %d "
+                    + "writes (%.3f writes per frame)%n", frames, 
+                    OutboundQueue.getTotalWritten(), writes, 
+                    frames == 0 ? 0.0 : (double) writes / frames);
+                //make sure the history is on disk before closing:
+                if (LOG != null)
+                    LOG.close();
+                System.out.println("Server is closing!");
+                System.exit(0);
+            }
+        }
+
+        /**
+         * The run method, which passes messages from one client to another (or
+         * all clients) and sends its own messages to clients as well. It is
+         * also responsible for updating the list of clients. Only used
+         * when the server has a thread per client.
+         */
+        @Override
+        public void run()
+        {
+            try
+            {
+                //create the connection used to send frames to the client:
+                connection = new SocketConnection(socket, Server.this::startThread);
+                watch();
+                //create a buffered input stream for this socket:
+                in = new DataInputStream(new BufferedInputStream(
+                    new ServerMetrics.CountingInputStream(socket.getInputStream())));
+
+                //Say hello and join (first message), then send messages 
+                //if: a) the message isn't empty and b) the user doesn't 
+                //want to quit
+                boolean hasQuit = false;
+                while (!hasQuit)
+                    hasQuit = receive(MessageCodec.read(in));
+            }
             catch (Exception e) //catch-all
             {
                 System.out.println("Disconnection error: " + e);
-            } 
-            finally 
+            }
+            finally
             {
-                if (username != null) 
+                if (connection != null)
+                    leave();
+                else
                 {
-                    //console printout on server side:
-                    System.out.println(username + " has left");
-
-                    //Remove this ChatServer instance from the list of 
-                    //all ChatServer instances:
-                    ALL_CLIENTS.remove(this);
-                    
-                    //Server notifies all users of user leaving, and updates 
-                    //list on client side:
-                    updateList(username, false);
-                    sendMessage("Server - Departing User: " + username);
-                }
-                try 
-                {
-                    ois.close();
-                    oos.close();
-                    socket.close(); //close the socket
-                    
-                    if (ALL_CLIENTS.isEmpty())  //close the server
+                    ServerMetrics.disconnected();
+                    try
                     {
-                        System.out.println("Server is closing!");
-                        System.exit(0);
+                        socket.close(); //close the socket
+                    }
+                    catch (IOException e)
+                    {
+                        System.err.println("Server error with chat service: " + e);
                     }
-                } 
-                catch (IOException e) 
-                {
-                    System.err.println("Server error with chat service: " + e);
                 }
             }
         }
@@ -0,0 +1,440 @@
+package assignment;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+/**
+ * Class Description: Counters and latency histograms for the server's hot
+ * paths, published as a JMX MBean (see ServerMetricsMBean) and shown to
+ * admins by the /stats command.
+ *
+ * The hot paths only add to LongAdders and LatencyHistograms, which never
+ * lock: accepting a connection, reading from a client, receiving a message,
+ * fanning a message or image out to a room, and updating a room's roster.
+ * Every message is counted, but only one in chat.metrics.sample (default 8)
+ * is timed, chosen at random, as reading the clock twice costs more than
+ * everything else put together; percentiles of a random sample are just as
+ * good once there are a few thousand of them. A fan-out is timed once (from
+ * the message being received to it being queued for the room's last member)
+ * rather than once per recipient, and bytes are counted once per socket read
+ * rather than once per frame. Outbound backlogs are only added up when the
+ * metrics are read, so they cost nothing until then.
+ *
+ * Set -Dchat.metrics.sample=1 to time every message, or 0 to time none (the
+ * counters are still kept).
+ *
+ * The report ends with the traces' breakdown (see Traces), for which clients
+ * choose their own sample (see ChatClient).
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class ServerMetrics implements ServerMetricsMBean
+{
+    //one in this many messages is timed (0 for none):
+    public static final int SAMPLE = Integer.getInteger("chat.metrics.sample", 8);
+
+    private static final LongAdder ACCEPTED = new LongAdder();
+    private static final LongAdder DISCONNECTED = new LongAdder();
+    private static final LongAdder MESSAGES_IN = new LongAdder();
+    private static final LongAdder BYTES_IN = new LongAdder();
+    private static final LongAdder DELIVERIES = new LongAdder();
+    private static final LongAdder ROSTER_UPDATES = new LongAdder();
+    private static final LongAdder IMAGES_FORWARDED = new LongAdder();
+    //latencies in nanoseconds:
+    private static final LatencyHistogram DELIVERY = new LatencyHistogram();
+    private static final LatencyHistogram ROSTER = new LatencyHistogram();
+    private static final LatencyHistogram IMAGE = new LatencyHistogram();
+
+    private final ClientRegistry clients;   //every joined client
+    private final Rooms rooms;
+    private final Traces traces;
+
+    /**
+     * Constructor for this class
+     *
+     * @param clients the server's joined clients
+     * @param rooms the server's rooms
+     * @param traces the server's traces
+     */
+    public ServerMetrics(ClientRegistry clients, Rooms rooms, Traces traces)
+    {
+        this.clients = clients;
+        this.rooms = rooms;
+        this.traces = traces;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, as
+     * assignment:type=ServerMetrics (plus the node's number in a cluster).
+     *
+     * @param node the server's node in its cluster, or -1 if not clustered
+     */
+    public void register(int node)
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName("assignment:type=ServerMetrics"
+                + (node < 0 ? "" : ",node=" + node)));
+        }
+        catch (JMException e)
+        {
+            System.out.println("Couldn't register metrics: " + e);
+        }
+    }
+
+    /**
+     * @return the time now, for timing a hot path, or 0 if this one isn't 
+     * part of the sample (it is then counted, but not timed)
+     */
+    public static long now()
+    {
+        if (SAMPLE <= 0 || (SAMPLE > 1 
+            && ThreadLocalRandom.current().nextInt(SAMPLE) != 0))
+            return 0;
+        return System.nanoTime();
+    }
+
+    /**
+     * Counts a connection being accepted.
+     */
+    public static void accepted()
+    {
+        ACCEPTED.increment();
+    }
+
+    /**
+     * Counts a connection being closed.
+     */
+    public static void disconnected()
+    {
+        DISCONNECTED.increment();
+    }
+
+    /**
+     * Counts bytes read from a client.
+     *
+     * @param bytes the number of bytes
+     */
+    public static void read(long bytes)
+    {
+        BYTES_IN.add(bytes);
+    }
+
+    /**
+     * Counts a message received from a client.
+     */
+    public static void received()
+    {
+        MESSAGES_IN.increment();
+    }
+
+    /**
+     * Counts a message fanned out to a room, and times it.
+     *
+     * @param since when the message was received (see now)
+     * @param recipients the number of members it was queued for
+     */
+    public static void delivered(long since, int recipients)
+    {
+        DELIVERIES.add(recipients);
+        if (since != 0)
+            DELIVERY.record(System.nanoTime() - since);
+    }
+
+    /**
+     * Counts a roster update, and times it.
+     *
+     * @param since when the update started (see now)
+     */
+    public static void rosterUpdated(long since)
+    {
+        ROSTER_UPDATES.increment();
+        if (since != 0)
+            ROSTER.record(System.nanoTime() - since);
+    }
+
+    /**
+     * Counts an image sent on to a room, and times it.
+     *
+     * @param since when the image was received (see now)
+     * @param recipients the number of members it was queued for
+     */
+    public static void imageForwarded(long since, int recipients)
+    {
+        IMAGES_FORWARDED.increment();
+        DELIVERIES.add(recipients);
+        if (since != 0)
+            IMAGE.record(System.nanoTime() - since);
+    }
+
+    @Override
+    public long getAccepted()
+    {
+        return ACCEPTED.sum();
+    }
+
+    @Override
+    public long getActiveConnections()
+    {
+        return ACCEPTED.sum() - DISCONNECTED.sum();
+    }
+
+    @Override
+    public int getActiveUsers()
+    {
+        return clients.size();
+    }
+
+    @Override
+    public int getRooms()
+    {
+        return rooms.size();
+    }
+
+    @Override
+    public long getMessagesReceived()
+    {
+        return MESSAGES_IN.sum();
+    }
+
+    @Override
+    public long getBytesIn()
+    {
+        return BYTES_IN.sum();
+    }
+
+    @Override
+    public long getBytesOut()
+    {
+        return OutboundQueue.getTotalWritten();
+    }
+
+    @Override
+    public long getFramesOut()
+    {
+        return OutboundQueue.getTotalTaken();
+    }
+
+    @Override
+    public long getSocketWrites()
+    {
+        return OutboundQueue.getTotalWrites();
+    }
+
+    @Override
+    public long getDeliveries()
+    {
+        return DELIVERIES.sum();
+    }
+
+    @Override
+    public long getRosterUpdates()
+    {
+        return ROSTER_UPDATES.sum();
+    }
+
+    @Override
+    public long getImagesForwarded()
+    {
+        return IMAGES_FORWARDED.sum();
+    }
+
+    @Override
+    public long getBacklogFrames()
+    {
+        return OutboundQueue.getTotalDepth();
+    }
+
+    @Override
+    public long getBacklogBytes()
+    {
+        long total = 0;
+        for (Server.ChatServer cs : clients)
+            total += cs.getConnection().getQueue().getBytes();
+        return total;
+    }
+
+    @Override
+    public long getMaxBacklogBytes()
+    {
+        long max = 0;
+        for (Server.ChatServer cs : clients)
+            max = Math.max(max, cs.getConnection().getQueue().getBytes());
+        return max;
+    }
+
+    @Override
+    public long getOutboundDrops()
+    {
+        return OutboundQueue.getTotalDrops();
+    }
+
+    @Override
+    public long getDispatched()
+    {
+        long total = 0;
+        for (Dispatcher shard : rooms.getShards())
+            total += shard.getDispatched();
+        return total;
+    }
+
+    @Override
+    public long getDispatchBatches()
+    {
+        long total = 0;
+        for (Dispatcher shard : rooms.getShards())
+            total += shard.getBatches();
+        return total;
+    }
+
+    @Override
+    public long getDispatchBacklog()
+    {
+        long total = 0;
+        for (Dispatcher shard : rooms.getShards())
+            total += shard.getBacklog();
+        return total;
+    }
+
+    @Override
+    public long getDeliveryP50Micros()
+    {
+        return micros(DELIVERY.snapshot(), 0.5);
+    }
+
+    @Override
+    public long getDeliveryP99Micros()
+    {
+        return micros(DELIVERY.snapshot(), 0.99);
+    }
+
+    @Override
+    public long getDeliveryP999Micros()
+    {
+        return micros(DELIVERY.snapshot(), 0.999);
+    }
+
+    @Override
+    public long getDeliveryMaxMicros()
+    {
+        return micros(DELIVERY.snapshot(), 1.0);
+    }
+
+    @Override
+    public long getRosterUpdateP99Micros()
+    {
+        return micros(ROSTER.snapshot(), 0.99);
+    }
+
+    @Override
+    public long getImageForwardP99Micros()
+    {
+        return micros(IMAGE.snapshot(), 0.99);
+    }
+
+    @Override
+    public void resetLatencies()
+    {
+        DELIVERY.take();
+        ROSTER.take();
+        IMAGE.take();
+        traces.reset();
+    }
+
+    @Override
+    public String getTraceReport()
+    {
+        return traces.toString();
+    }
+
+    /**
+     * @return every metric, one group per line, as shown by the stats
+     * command
+     */
+    @Override
+    public String getReport()
+    {
+        long[] delivery = DELIVERY.snapshot();
+        long[] roster = ROSTER.snapshot();
+        long[] image = IMAGE.snapshot();
+
+        return String.format("Server - Stats:%n"
+            + "  connections: %d open (%d accepted), %d users in %d rooms%n"
+            + "  in: %d messages, %d bytes%n"
+            + "  out: %d frames, %d bytes in %d writes%n"
+            + "  fan-out: %d deliveries, receive to last delivery p50=%dus "
+            + "p99=%dus p999=%dus max=%dus%n"
+            + "  dispatch: %d events in %d batches, %d waiting%n"
+            + "  roster: %d updates, p50=%dus p99=%dus%n"
+            + "  images: %d forwarded, p50=%dus p99=%dus%n"
+            + "  backlog: %d frames, %d bytes (at most %d bytes for one client), "
+            + "%d dropped%n%s",
+            getActiveConnections(), getAccepted(), getActiveUsers(), getRooms(),
+            getMessagesReceived(), getBytesIn(),
+            getFramesOut(), getBytesOut(), getSocketWrites(),
+            getDeliveries(), micros(delivery, 0.5), micros(delivery, 0.99),
+            micros(delivery, 0.999), micros(delivery, 1.0),
+            getDispatched(), getDispatchBatches(), getDispatchBacklog(),
+            getRosterUpdates(), micros(roster, 0.5), micros(roster, 0.99),
+            getImagesForwarded(), micros(image, 0.5), micros(image, 0.99),
+            getBacklogFrames(), getBacklogBytes(), getMaxBacklogBytes(),
+            getOutboundDrops(), getTraceReport());
+    }
+
+    /**
+     * Helper method which reads a percentile in microseconds.
+     *
+     * @param nanos a histogram's counts, in nanoseconds
+     * @param fraction a fraction from 0 to 1
+     * @return the percentile, in microseconds
+     */
+    private static long micros(long[] nanos, double fraction)
+    {
+        return LatencyHistogram.percentile(nanos, fraction) / 1000;
+    }
+
+    /**
+     * Inner class which counts every read from a client's socket, for the
+     * blocking server (the NIO server counts its reads itself).
+     */
+    public static class CountingInputStream extends FilterInputStream
+    {
+        /**
+         * Constructor for this inner class
+         *
+         * @param in the socket's stream
+         */
+        public CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        /**
+         * Reads one byte from the socket, counting it.
+         */
+        @Override
+        public int read() throws IOException
+        {
+            int b = in.read();
+            if (b >= 0)
+                BYTES_IN.increment();
+            return b;
+        }
+
+        /**
+         * Reads part of an array from the socket, counting the bytes read.
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int n = in.read(b, off, len);
+            if (n > 0)
+                BYTES_IN.add(n);
+            return n;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,158 @@
+package assignment;
+
+/**
+ * Interface for the server's metrics as a JMX MBean (see ServerMetrics), so
+ * they can be watched from JConsole or any other JMX client. Counts are since
+ * the server started; latencies are in microseconds, of a sample of what has
+ * happened since the server started or resetLatencies was last called.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public interface ServerMetricsMBean
+{
+    /**
+     * @return the number of connections accepted
+     */
+    long getAccepted();
+
+    /**
+     * @return the number of connections open
+     */
+    long getActiveConnections();
+
+    /**
+     * @return the number of users who have joined and not left
+     */
+    int getActiveUsers();
+
+    /**
+     * @return the number of rooms
+     */
+    int getRooms();
+
+    /**
+     * @return the number of messages received from clients
+     */
+    long getMessagesReceived();
+
+    /**
+     * @return the number of bytes read from clients
+     */
+    long getBytesIn();
+
+    /**
+     * @return the number of bytes written to clients
+     */
+    long getBytesOut();
+
+    /**
+     * @return the number of frames written to clients
+     */
+    long getFramesOut();
+
+    /**
+     * @return the number of writes to clients' sockets
+     */
+    long getSocketWrites();
+
+    /**
+     * @return the number of frames queued for room members by message
+     * fan-outs
+     */
+    long getDeliveries();
+
+    /**
+     * @return the number of roster updates (members added or removed)
+     */
+    long getRosterUpdates();
+
+    /**
+     * @return the number of images sent on to a room
+     */
+    long getImagesForwarded();
+
+    /**
+     * @return the number of frames waiting in every client's outbound queue
+     */
+    long getBacklogFrames();
+
+    /**
+     * @return the number of bytes waiting in every client's outbound queue
+     */
+    long getBacklogBytes();
+
+    /**
+     * @return the most bytes waiting in any one client's outbound queue
+     */
+    long getMaxBacklogBytes();
+
+    /**
+     * @return the number of frames thrown away for clients too far behind
+     */
+    long getOutboundDrops();
+
+    /**
+     * @return the number of fan-outs and other tasks the room shards have
+     * run
+     */
+    long getDispatched();
+
+    /**
+     * @return the number of batches the room shards have run them in
+     */
+    long getDispatchBatches();
+
+    /**
+     * @return the number of fan-outs and other tasks waiting for the room
+     * shards
+     */
+    long getDispatchBacklog();
+
+    /**
+     * @return the median time from a message being received to it being
+     * queued for the last member of its room
+     */
+    long getDeliveryP50Micros();
+
+    /**
+     * @return the 99th percentile of the same
+     */
+    long getDeliveryP99Micros();
+
+    /**
+     * @return the 99.9th percentile of the same
+     */
+    long getDeliveryP999Micros();
+
+    /**
+     * @return the longest of the same
+     */
+    long getDeliveryMaxMicros();
+
+    /**
+     * @return the 99th percentile time taken to update a room's roster
+     */
+    long getRosterUpdateP99Micros();
+
+    /**
+     * @return the 99th percentile time from an image being received to it
+     * being queued for the last member of its room
+     */
+    long getImageForwardP99Micros();
+
+    /**
+     * @return every metric, as shown by the stats command
+     */
+    String getReport();
+
+    /**
+     * @return where the time went for a sample of messages, from being sent
+     * to being shown by each recipient (see Traces)
+     */
+    String getTraceReport();
+
+    /**
+     * Empties the latency histograms (the traces' too).
+     */
+    void resetLatencies();
+}
\ No newline at end of file
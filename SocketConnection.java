@@ -0,0 +1,194 @@
+package assignment;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+
+/**
+ * A class which implements Connection for the blocking (thread or virtual
+ * thread per client) server. Frames sent to the client are put in a bounded
+ * OutboundQueue and written by the connection's own writer thread, so a
+ * sender never waits on a client that is slow to read, and two senders can't
+ * mix up each other's bytes.
+ *
+ * After taking a frame, the writer waits (for at most 
+ * OutboundQueue.MAX_DELAY_NANOS) for a batch's worth to be queued behind it,
+ * then writes everything waiting and flushes once, so frames that arrive 
+ * together go out in as few socket writes as possible.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class SocketConnection implements Connection, Runnable
+{
+    private final Socket socket;    //socket for client/server communication
+    private final OutputStream out; //output stream to the client
+    private final OutboundQueue queue = new OutboundQueue();  //frames to write
+    private volatile boolean compressing = false;
+    private volatile boolean tracing = false;
+
+    /**
+     * Constructor for this class, which starts the connection's writer.
+     *
+     * @param socket the client's socket
+     * @param threads starts the writer thread (a platform or virtual thread)
+     * @throws IOException if the socket's output stream can't be opened
+     */
+    public SocketConnection(Socket socket, Executor threads) throws IOException
+    {
+        this.socket = socket;
+        this.out = new BufferedOutputStream(new CountingOutputStream(
+            socket.getOutputStream()), Math.max(1, OutboundQueue.BATCH_BYTES));
+        threads.execute(this);
+    }
+
+    /**
+     * Queues a frame for the writer. If the client is so far behind that the
+     * slow-consumer policy says to disconnect it, the connection is closed.
+     *
+     * @param frame the frame to send
+     */
+    @Override
+    public void send(Frame frame) throws IOException
+    {
+        if (!tracing)
+            frame = frame.untraced();
+        if (compressing)
+            frame = frame.compressed();
+        if (!queue.offer(frame))
+        {
+            disconnect();
+            throw new IOException("Connection is closed");
+        }
+    }
+
+    /**
+     * Compresses frames sent from now on, if they are worth compressing.
+     */
+    @Override
+    public void setCompressing(boolean compressing)
+    {
+        this.compressing = compressing;
+    }
+
+    /**
+     * Sends traced messages with their traces from now on.
+     */
+    @Override
+    public void setTracing(boolean tracing)
+    {
+        this.tracing = tracing;
+    }
+
+    /**
+     * Closes the connection once the writer has written every queued frame.
+     */
+    @Override
+    public void close()
+    {
+        queue.close();
+    }
+
+    /**
+     * Closes the socket straight away, which ends the writer and the reader.
+     */
+    @Override
+    public void abort()
+    {
+        disconnect();
+    }
+
+    /**
+     * @return the client's outbound queue
+     */
+    @Override
+    public OutboundQueue getQueue()
+    {
+        return queue;
+    }
+
+    /**
+     * The writer thread, which writes queued frames to the socket until the
+     * connection is closed, then closes the socket.
+     */
+    @Override
+    public void run()
+    {
+        try
+        {
+            Frame frame;
+            while ((frame = queue.take()) != null)
+            {
+                //give more frames a chance to go with this one:
+                queue.awaitBytes(OutboundQueue.BATCH_BYTES - frame.length(), 
+                    OutboundQueue.MAX_DELAY_NANOS);
+                
+                //write everything waiting, then flush once:
+                do
+                {
+                    frame.writeTo(out);
+                }
+                while ((frame = queue.poll()) != null);
+                out.flush();
+            }
+            out.flush();
+        }
+        catch (IOException | InterruptedException e)
+        {}
+        finally
+        {
+            disconnect();
+        }
+    }
+
+    /**
+     * Throws away any queued frames and closes the socket (and with it, both
+     * of its streams), which also ends the client's reader.
+     */
+    private void disconnect()
+    {
+        queue.clear();
+        try
+        {
+            socket.close();
+        }
+        catch (IOException e)
+        {}
+    }
+
+    /**
+     * Inner class which counts every write to the socket's stream (each one
+     * a system call), see OutboundQueue.countWrite.
+     */
+    private static class CountingOutputStream extends FilterOutputStream
+    {
+        /**
+         * Constructor for this inner class
+         *
+         * @param out the socket's stream
+         */
+        public CountingOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        /**
+         * Writes one byte to the socket, counting the write.
+         */
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+            OutboundQueue.countWrite(1);
+        }
+
+        /**
+         * Writes part of an array to the socket, counting the write.
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+            OutboundQueue.countWrite(len);
+        }
+    }
+}
\ No newline at end of file
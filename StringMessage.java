@@ -4,13 +4,18 @@ import java.io.Serializable;
 
 /**
  * A class which extends Message, and sends a primitive String message to the 
- * client, who unpacks it for display on their end.
+ * client, who unpacks it for display on their end. Messages sent on behalf of 
+ * a user also carry the sender's username, so that the server can send the 
+ * same message to everyone and each client shows it as either "You: ..." or 
+ * "CLIENTx: ...". A sample of them also carry a trace (see TraceContext).
  * 
  * @author Ryan Herkt (ID: 18022861)
  */
 public class StringMessage extends Message implements Serializable
 {
     private String message;
+    private String sender;  //username of the sending user (null if none)
+    private TraceContext trace; //(null if not traced)
 
     /**
      * Constructor for this class
@@ -18,9 +23,34 @@ public class StringMessage extends Message implements Serializable
      * @param send the message to send
      */
     public StringMessage(String send)
+    {
+        this(null, send);
+    }
+    
+    /**
+     * Constructor for a message sent by a user
+     * 
+     * @param sender the username of the user sending the message
+     * @param send the message to send
+     */
+    public StringMessage(String sender, String send)
+    {
+        this(sender, send, null);
+    }
+
+    /**
+     * Constructor for a traced message
+     * 
+     * @param sender the username of the user sending the message (or null)
+     * @param send the message to send
+     * @param trace the message's trace (or null if not traced)
+     */
+    public StringMessage(String sender, String send, TraceContext trace)
     {
         super();
+        this.sender = sender;
         this.message = send;
+        this.trace = trace;
     }
 
     /**
@@ -39,4 +69,20 @@ public class StringMessage extends Message implements Serializable
     {
         return message;
     }
+    
+    /**
+     * @return the sender
+     */
+    public String getSender() 
+    {
+        return sender;
+    }
+
+    /**
+     * @return the trace, or null if the message isn't traced
+     */
+    public TraceContext getTrace()
+    {
+        return trace;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,249 @@
+package assignment;
+
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import javax.management.remote.*;
+
+/**
+ * Class Description: Compares what each client costs the server when it
+ * runs a platform thread per client (thread mode) and a virtual thread per
+ * client (virtual mode, which needs Java 21 or newer - run this with the
+ * Java the server should use). For each mode and each number of clients in
+ * bench.counts, it starts a Server process on loopback (no history log),
+ * connects that many clients that stay connected without saying hello (so
+ * each one holds its session's threads, but nobody joins the lobby and is
+ * sent everyone else's notices), then:
+ * 1) times bench.samples more clients from connecting to being told their
+ *    username, one after another, while the others are connected
+ * 2) asks the server for a full GC, and reads its heap in use (over JMX)
+ *    and its resident memory and threads (from /proc, so only on Linux)
+ *
+ * and prints one line per run:
+ *
+ *     mode=virtual clients=5000 accept_s=... join_p50_us=... join_p99_us=...
+ *     heap_mb=... rss_mb=... threads=...
+ *
+ * accept_s is how long it took to connect every client and have the first
+ * sample joined, i.e. for the server to accept them all and start their
+ * threads. Thread mode starts two platform threads per client (the reader
+ * and its writer), so 20,000 clients may need a higher limit on processes
+ * (ulimit -u) as well as on open files (ulimit -n) for both processes.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class ThreadModeBenchmark
+{
+    private static final String[] MODES = System.getProperty("bench.modes",
+        "thread,virtual").split(",");
+    private static final String[] COUNTS = System.getProperty("bench.counts",
+        "1000,5000,20000").split(",");
+    private static final int SAMPLES = Integer.getInteger("bench.samples", 100);
+    private static final int PORT = 4307;
+    private static final int JMX_PORT = 4308;
+
+    /**
+     * Driver main method
+     *
+     * @param args unused
+     * @throws Exception if the server can't be started
+     */
+    public static void main(String[] args) throws Exception
+    {
+        System.out.println("java " + System.getProperty("java.version") + ", "
+            + Runtime.getRuntime().availableProcessors() + " processors");
+        for (String mode : MODES)
+        {
+            for (String count : COUNTS)
+            {
+                Process server = start(mode.trim());
+                try
+                {
+                    run(server, mode.trim(), Integer.parseInt(count.trim()));
+                }
+                catch (IOException e)
+                {
+                    System.out.println("mode=" + mode + " clients=" + count
+                        + " failed: " + e);
+                }
+                finally
+                {
+                    server.destroyForcibly().waitFor();
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method which starts a server and waits until it accepts
+     * clients.
+     *
+     * @param mode the server's mode
+     * @return the server's process
+     * @throws Exception if the server doesn't start
+     */
+    private static Process start(String mode) throws Exception
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin"
+            + File.separator + "java";
+        ProcessBuilder pb = new ProcessBuilder(java,
+            "-cp", System.getProperty("java.class.path"),
+            "-Dchat.port=" + PORT,
+            "-Dchat.log.dir=",
+            "-Dchat.timeout.handshake=" + TimeUnit.HOURS.toMillis(1),
+            "-Dcom.sun.management.jmxremote.port=" + JMX_PORT,
+            "-Dcom.sun.management.jmxremote.host=localhost",
+            "-Dcom.sun.management.jmxremote.authenticate=false",
+            "-Dcom.sun.management.jmxremote.ssl=false",
+            "assignment.Server", mode);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        Process server = pb.start();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true)
+        {
+            //(the probe leaves without joining, which the server ignores):
+            Socket probe = null;
+            try
+            {
+                probe = new Socket("localhost", PORT);
+                break;
+            }
+            catch (IOException e)
+            {
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+                Thread.sleep(100);
+            }
+            finally
+            {
+                if (probe != null)
+                    probe.close();
+            }
+        }
+        return server;
+    }
+
+    /**
+     * Helper method which runs one measurement against a started server.
+     *
+     * @param server the server's process
+     * @param mode the server's mode
+     * @param clients the number of idle clients
+     * @throws Exception if a client can't connect
+     */
+    private static void run(Process server, String mode, int clients)
+        throws Exception
+    {
+        List<Socket> sockets = new ArrayList<>();
+        try
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < clients; i++)
+                sockets.add(new Socket("localhost", PORT));
+
+            //(sessions are started in the order they connect, so once a 
+            //later client has joined, every earlier one's threads are 
+            //running):
+            long[] joins = new long[SAMPLES];
+            for (int i = 0; i < SAMPLES; i++)
+            {
+                long begin = System.nanoTime();
+                Socket socket = new Socket("localhost", PORT);
+                sockets.add(socket);
+                join(socket);
+                joins[i] = (System.nanoTime() - begin) / 1000;
+                if (i == 0)
+                    start = System.nanoTime() - start;
+            }
+            Arrays.sort(joins);
+
+            Thread.sleep(1000);
+            long heap = heapUsed();
+            Map<String, String> status = status(server.pid());
+
+            System.out.printf("mode=%s clients=%d accept_s=%.2f join_p50_us=%d "
+                + "join_p99_us=%d heap_mb=%.1f rss_mb=%s threads=%s%n", mode, 
+                clients, start / 1e9, joins[SAMPLES / 2], 
+                joins[Math.min(SAMPLES - 1, SAMPLES * 99 / 100)], heap / (1024.0 * 1024),
+                status.containsKey("VmRSS") ? String.format("%.1f", 
+                Long.parseLong(status.get("VmRSS").split("\\s+")[0]) / 1024.0) 
+                : "?", status.getOrDefault("Threads", "?"));
+        }
+        finally
+        {
+            for (Socket s : sockets)
+                s.close();
+        }
+    }
+
+    /**
+     * Helper method which says hello, and waits to be told the username.
+     *
+     * @param socket the client's socket
+     * @throws IOException if the server closes the connection
+     */
+    private static void join(Socket socket) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            socket.getInputStream()));
+        MessageCodec.write(socket.getOutputStream(), new HelloMessage(
+            MessageCodec.PROTOCOL_VERSION, MessageCodec.MIN_PROTOCOL_VERSION,
+            MessageCodec.SUPPORTED_FEATURES & ~MessageCodec.FEATURE_HEARTBEAT));
+
+        Message m;
+        do
+        {
+            m = MessageCodec.read(in);
+        }
+        while (!(m instanceof StringMessage));
+    }
+
+    /**
+     * Helper method which has the server run a full GC, then reads the heap
+     * it is using over JMX.
+     *
+     * @return the heap in use, in bytes
+     * @throws IOException if the server's JMX port can't be reached
+     */
+    private static long heapUsed() throws IOException
+    {
+        JMXServiceURL url = new JMXServiceURL(
+            "service:jmx:rmi:///jndi/rmi://localhost:" + JMX_PORT + "/jmxrmi");
+        try (JMXConnector connector = JMXConnectorFactory.connect(url))
+        {
+            MemoryMXBean memory = ManagementFactory.newPlatformMXBeanProxy(
+                connector.getMBeanServerConnection(),
+                ManagementFactory.MEMORY_MXBEAN_NAME, MemoryMXBean.class);
+            memory.gc();
+            return memory.getHeapMemoryUsage().getUsed();
+        }
+    }
+
+    /**
+     * Helper method which reads the server's /proc status.
+     *
+     * @param pid the server's process id
+     * @return each field by name (empty if there is no /proc)
+     * @throws IOException if the status can't be read
+     */
+    private static Map<String, String> status(long pid) throws IOException
+    {
+        Map<String, String> fields = new HashMap<>();
+        Path path = Paths.get("/proc", String.valueOf(pid), "status");
+        if (!Files.exists(path))
+            return fields;
+        for (String line : Files.readAllLines(path))
+        {
+            int colon = line.indexOf(':');
+            if (colon > 0)
+                fields.put(line.substring(0, colon), 
+                    line.substring(colon + 1).trim());
+        }
+        return fields;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,202 @@
+package assignment;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class Description: A hashed timing wheel, which runs every timeout of
+ * every connection (see Server.ChatServer.check) from one thread, rather
+ * than a timer or a sleeping thread per connection.
+ *
+ * The wheel is a ring of SLOTS buckets, and its thread moves on one bucket
+ * every TICK_MILLIS. A timeout due in d ticks goes in the bucket d ticks
+ * ahead of the current one (going round the wheel d / SLOTS more times
+ * first, if it is that far off), so:
+ * 1) scheduling one is O(1) - it is put on a queue, which the wheel's thread
+ *    empties into the right buckets at the start of each tick
+ * 2) cancelling one is O(1) - it is only marked, and thrown away when its
+ *    bucket comes round
+ * 3) a tick only looks at the one bucket it has reached, so however many
+ *    timeouts are waiting, a tick only costs as much as the timeouts that
+ *    are due (plus any still going round)
+ *
+ * Timeouts run on the wheel's thread, so they must be quick. Times are
+ * rounded up to whole ticks, and a timeout can run up to a tick late.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class TimingWheel
+{
+    public static final long TICK_MILLIS = Math.max(1,
+        Long.getLong("chat.wheel.tickMillis", 100));
+    //buckets in the wheel (with 100ms ticks, timeouts of up to 51 seconds
+    //never go round more than once):
+    public static final int SLOTS = 512;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+
+    private final Timeout[] buckets = new Timeout[SLOTS];  //each a list
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final long start = System.nanoTime();
+    private volatile long tick = 0;     //ticks done so far
+    private final Thread thread;
+
+    /**
+     * Constructor for this class, which starts the wheel's thread.
+     *
+     * @param name the thread's name
+     */
+    public TimingWheel(String name)
+    {
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs a task once some time has passed.
+     *
+     * @param task the task (run on the wheel's thread)
+     * @param delayMillis how long to wait
+     * @return the timeout, which can be cancelled
+     */
+    public Timeout schedule(Runnable task, long delayMillis)
+    {
+        long ticks = Math.max(1, (delayMillis + TICK_MILLIS - 1) / TICK_MILLIS);
+        //(counted from the tick under way by the clock, not the last one
+        //done, so it doesn't run early if the wheel's thread is behind):
+        long current = (System.nanoTime() - start) / TICK_NANOS;
+        Timeout timeout = new Timeout(task, current + ticks);
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return the time now by the wheel, in milliseconds since it started
+     * (only as accurate as a tick, but costs no more than reading a field)
+     */
+    public long now()
+    {
+        return tick * TICK_MILLIS;
+    }
+
+    /**
+     * The wheel's thread: waits for each tick, then runs the timeouts in its
+     * bucket.
+     */
+    private void run()
+    {
+        while (true)
+        {
+            long next = start + (tick + 1) * TICK_NANOS;
+            long wait;
+            while ((wait = next - System.nanoTime()) > 0)
+                LockSupport.parkNanos(this, wait);
+
+            long current = tick;
+            Timeout timeout;
+            while ((timeout = added.poll()) != null)
+            {
+                if (!timeout.cancelled)
+                    insert(timeout, current);
+            }
+            expire(current);
+            tick = current + 1;
+        }
+    }
+
+    /**
+     * Helper method which puts a timeout in its bucket.
+     *
+     * @param timeout the timeout
+     * @param current the tick being run
+     */
+    private void insert(Timeout timeout, long current)
+    {
+        long due = Math.max(timeout.due, current);
+        timeout.rounds = (due - current) / SLOTS;
+        int bucket = (int) (due % SLOTS);
+        timeout.next = buckets[bucket];
+        if (timeout.next != null)
+            timeout.next.prev = timeout;
+        timeout.prev = null;
+        buckets[bucket] = timeout;
+    }
+
+    /**
+     * Helper method which runs the timeouts in a tick's bucket that are due,
+     * and throws away cancelled ones.
+     *
+     * @param current the tick being run
+     */
+    private void expire(long current)
+    {
+        int bucket = (int) (current % SLOTS);
+        Timeout timeout = buckets[bucket];
+        while (timeout != null)
+        {
+            Timeout next = timeout.next;
+            if (timeout.cancelled || timeout.rounds == 0)
+            {
+                //unlink it:
+                if (timeout.prev != null)
+                    timeout.prev.next = next;
+                else
+                    buckets[bucket] = next;
+                if (next != null)
+                    next.prev = timeout.prev;
+                timeout.next = null;
+                timeout.prev = null;
+
+                if (!timeout.cancelled)
+                {
+                    try
+                    {
+                        timeout.task.run();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        System.out.println("Error: " + e);
+                    }
+                }
+            }
+            else
+                timeout.rounds--;
+            timeout = next;
+        }
+    }
+
+    /**
+     * Inner class for a task waiting on the wheel.
+     */
+    public static class Timeout
+    {
+        private final Runnable task;
+        private final long due;     //tick it is due on
+        //only used by the wheel's thread:
+        private long rounds;        //times round the wheel still to go
+        private Timeout prev;
+        private Timeout next;
+        private volatile boolean cancelled = false;
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param task the task
+         * @param due the tick it is due on
+         */
+        private Timeout(Runnable task, long due)
+        {
+            this.task = task;
+            this.due = due;
+        }
+
+        /**
+         * Stops the task being run, if it hasn't been already.
+         */
+        public void cancel()
+        {
+            cancelled = true;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,87 @@
+package assignment;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * A class for the trace carried by a sampled text message (see
+ * StringMessage), so the time between a user sending it and everyone else
+ * seeing it can be broken down (see Traces):
+ * 1) sent - when the sending client sent it
+ * 2) received - when the server received it
+ * 3) dispatched - when the server encoded it for its room's shard
+ *
+ * The server gives every trace a new id, one more than the last, which the
+ * recipients quote when they report when the message arrived and when it
+ * was shown (see TraceMessage). A client sends its traces with id 0 and only
+ * the sent time.
+ *
+ * Times are microseconds since 1970 by each machine's own clock, so times
+ * taken on different machines are only as close as their clocks.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class TraceContext implements Serializable
+{
+    private final long id;
+    private final long sent;
+    private final long received;
+    private final long dispatched;
+
+    /**
+     * Constructor for this class
+     *
+     * @param id the trace id (0 until the server gives it one)
+     * @param sent when the client sent the message
+     * @param received when the server received it (0 if not yet)
+     * @param dispatched when the server encoded it (0 if not yet)
+     */
+    public TraceContext(long id, long sent, long received, long dispatched)
+    {
+        this.id = id;
+        this.sent = sent;
+        this.received = received;
+        this.dispatched = dispatched;
+    }
+
+    /**
+     * @return the time now, in microseconds since 1970
+     */
+    public static long now()
+    {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1000000 + now.getNano() / 1000;
+    }
+
+    /**
+     * @return the trace id
+     */
+    public long getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return when the client sent the message
+     */
+    public long getSent()
+    {
+        return sent;
+    }
+
+    /**
+     * @return when the server received it
+     */
+    public long getReceived()
+    {
+        return received;
+    }
+
+    /**
+     * @return when the server encoded it
+     */
+    public long getDispatched()
+    {
+        return dispatched;
+    }
+}
\ No newline at end of file
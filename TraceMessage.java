@@ -0,0 +1,93 @@
+package assignment;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A class which extends Message, and is sent by a client to report when
+ * traced messages (see TraceContext) arrived and when they were shown, a
+ * batch at a time. Only sent to servers that agreed to
+ * MessageCodec.FEATURE_TRACING.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class TraceMessage extends Message implements Serializable
+{
+    private List<Span> spans;
+
+    /**
+     * Constructor for this class
+     *
+     * @param spans the traced messages being reported
+     */
+    public TraceMessage(List<Span> spans)
+    {
+        super();
+        this.spans = spans;
+    }
+
+    /**
+     * Set the toSend object as the reported spans.
+     */
+    @Override
+    public void messageType()
+    {
+        toSend = getSpans();
+    }
+
+    /**
+     * @return the traced messages being reported
+     */
+    public List<Span> getSpans()
+    {
+        return spans;
+    }
+
+    /**
+     * Inner class for one traced message, as seen by one recipient.
+     */
+    public static class Span implements Serializable
+    {
+        private final long id;          //the trace id
+        private final long received;    //when it arrived
+        private final long shown;       //when it was shown
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param id the trace id
+         * @param received when the message arrived, in microseconds since 1970
+         * @param shown when it was shown, in microseconds since 1970
+         */
+        public Span(long id, long received, long shown)
+        {
+            this.id = id;
+            this.received = received;
+            this.shown = shown;
+        }
+
+        /**
+         * @return the trace id
+         */
+        public long getId()
+        {
+            return id;
+        }
+
+        /**
+         * @return when the message arrived
+         */
+        public long getReceived()
+        {
+            return received;
+        }
+
+        /**
+         * @return when it was shown
+         */
+        public long getShown()
+        {
+            return shown;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,234 @@
+package assignment;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class Description: The server's side of tracing (see TraceContext). When a
+ * traced message arrives, it is given the next trace id and the times it
+ * was received and encoded for its room's shard, and the server remembers
+ * when the shard started and finished sending it. Recipients report when it
+ * arrived and when it was shown (see TraceMessage), and each report (one
+ * per recipient) is broken down into histograms of where the time went:
+ *
+ * 1) network in - from the sender sending it to the server receiving it
+ * 2) server - from being received to being encoded (checking it for
+ *    commands and mentions)
+ * 3) shard queue - from being encoded to the room's shard starting to send
+ *    it (adding it to the history and search index, and waiting behind the
+ *    shard's other tasks)
+ * 4) fan-out and delivery - from the shard starting to send it to it
+ *    arriving at the recipient (its turn in the fan-out, its wait in the
+ *    recipient's outbound queue and the network)
+ * 5) render - from arriving to being shown (on the Swing thread, for
+ *    ClientGUI)
+ *
+ * Every segment is recorded once per report, so for each recipient the five
+ * add up to the total (and the percentiles of each are over the same
+ * deliveries). How long the whole fan-out took is kept too, once per
+ * message.
+ *
+ * Network in, and fan-out and delivery, are each timed with two machines'
+ * clocks (the sender's and the server's, and the server's and the
+ * recipient's), so they assume those clocks are in sync: an offset between
+ * them moves time from one segment to the other. A report in which either
+ * comes out negative (clocks far enough apart to show it) is counted as
+ * out of sync, and the negative segment is counted as 0.
+ *
+ * Only the last KEPT traces are remembered, so a report that comes too late
+ * is ignored. Messages passed on to the rest of a cluster go without their
+ * traces, as only this server knows their ids.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class Traces
+{
+    public static final int KEPT = Integer.getInteger("chat.trace.kept", 4096);
+    private static final String[] SEGMENTS = {"network in", "server",
+        "shard queue", "fan-out and delivery", "render", "total",
+        "whole fan-out"};
+    private static final int NETWORK_IN = 0;
+    private static final int SERVER = 1;
+    private static final int SHARD_QUEUE = 2;
+    private static final int DELIVERY = 3;
+    private static final int RENDER = 4;
+    private static final int TOTAL = 5;
+    private static final int FAN_OUT = 6;
+
+    private final AtomicLong lastId = new AtomicLong();
+    //remembered traces, oldest first:
+    private final LinkedHashMap<Long, Trace> traces = new LinkedHashMap<Long, Trace>()
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Trace> e)
+        {
+            return size() > KEPT;
+        }
+    };
+    //latencies in microseconds, one histogram per segment:
+    private final LatencyHistogram[] histograms = new LatencyHistogram[SEGMENTS.length];
+    private final AtomicLong reported = new AtomicLong();  //spans reported
+    //spans reported with the clocks visibly out of sync:
+    private final AtomicLong outOfSync = new AtomicLong();
+
+    /**
+     * Constructor for this class
+     */
+    public Traces()
+    {
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Gives a traced message that has just been received its trace id.
+     *
+     * @param fromClient the trace sent by the client
+     * @return the trace to send on with the message, once dispatched
+     */
+    public TraceContext received(TraceContext fromClient)
+    {
+        return new TraceContext(lastId.incrementAndGet(), fromClient.getSent(),
+            TraceContext.now(), 0);
+    }
+
+    /**
+     * Notes that a traced message is being encoded for its room's shard, and
+     * remembers it until it is reported.
+     *
+     * @param trace the trace from received
+     * @return the trace to send on with the message, and the server's record
+     * of it (see Trace.started and Trace.finished)
+     */
+    public Trace dispatch(TraceContext trace)
+    {
+        Trace t = new Trace(new TraceContext(trace.getId(), trace.getSent(),
+            trace.getReceived(), TraceContext.now()));
+        synchronized (traces)
+        {
+            traces.put(trace.getId(), t);
+        }
+        return t;
+    }
+
+    /**
+     * Breaks down the time each reported message took to reach the client
+     * reporting it.
+     *
+     * @param spans the reported messages
+     */
+    public void report(List<TraceMessage.Span> spans)
+    {
+        for (TraceMessage.Span span : spans)
+        {
+            Trace t;
+            synchronized (traces)
+            {
+                t = traces.get(span.getId());
+            }
+            //(not remembered, or the shard hasn't started sending it yet):
+            if (t == null || t.started == 0)
+                continue;
+
+            TraceContext c = t.context;
+            long networkIn = c.getReceived() - c.getSent();
+            long delivery = span.getReceived() - t.started;
+            histograms[NETWORK_IN].record(networkIn);
+            histograms[SERVER].record(c.getDispatched() - c.getReceived());
+            histograms[SHARD_QUEUE].record(t.started - c.getDispatched());
+            histograms[DELIVERY].record(delivery);
+            histograms[RENDER].record(span.getShown() - span.getReceived());
+            histograms[TOTAL].record(span.getShown() - c.getSent());
+            reported.incrementAndGet();
+            if (networkIn < 0 || delivery < 0)
+                outOfSync.incrementAndGet();
+        }
+    }
+
+    /**
+     * Empties the histograms.
+     */
+    public void reset()
+    {
+        for (LatencyHistogram histogram : histograms)
+            histogram.take();
+    }
+
+    /**
+     * @return how many traced messages there have been
+     */
+    public long getTraced()
+    {
+        return lastId.get();
+    }
+
+    /**
+     * @return a breakdown of where the time went, as shown by the stats
+     * command
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Server - Traces: %d messages traced, %d "
+            + "deliveries reported (%d with clocks out of sync)", getTraced(),
+            reported.get(), outOfSync.get()));
+        for (int i = 0; i < SEGMENTS.length; i++)
+        {
+            long[] counts = histograms[i].snapshot();
+            sb.append(String.format("%n  %s: p50=%dus p99=%dus", SEGMENTS[i],
+                LatencyHistogram.percentile(counts, 0.5),
+                LatencyHistogram.percentile(counts, 0.99)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Inner class for the server's record of one traced message.
+     */
+    public class Trace
+    {
+        private final TraceContext context;
+        //when the room's shard started and finished sending it (0 if not
+        //yet):
+        private volatile long started = 0;
+        private volatile long finished = 0;
+
+        /**
+         * Constructor for this inner class
+         *
+         * @param context the trace sent on with the message
+         */
+        public Trace(TraceContext context)
+        {
+            this.context = context;
+        }
+
+        /**
+         * @return the trace to send on with the message
+         */
+        public TraceContext getContext()
+        {
+            return context;
+        }
+
+        /**
+         * Notes that the room's shard has started sending the message (run on
+         * the shard, just before it).
+         */
+        public void started()
+        {
+            started = TraceContext.now();
+        }
+
+        /**
+         * Notes that the room's shard has sent the message to everyone (run
+         * on the shard, just after it).
+         */
+        public void finished()
+        {
+            finished = TraceContext.now();
+            histograms[FAN_OUT].record(finished - started);
+        }
+    }
+}
\ No newline at end of file
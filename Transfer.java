@@ -0,0 +1,516 @@
+package assignment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class Description: One file (usually a big image) being streamed from a
+ * client to everyone else through the server, as a TransferMessage.
+ *
+ * The server doesn't wait for the whole file: each chunk is sent on to every
+ * recipient as soon as it arrives, and isn't kept afterwards. To stop the
+ * uploader getting further ahead than the server can pass on, flow control
+ * is credit based - the uploader may only send up to a window past the
+ * fastest recipient's last ack, and no more than a few windows past the
+ * slowest. Memory used for a transfer is therefore a few windows per
+ * recipient's queue at most, however big the file is. A recipient that falls
+ * that far behind the fastest one stops holding back the uploader (so a
+ * client that has stopped reading can't stall everyone else); chunks for it
+ * wait in its own OutboundQueue, where the slow-consumer policy deals with
+ * them like any other frames.
+ *
+ * If the uploader disconnects part way through, the transfer is paused
+ * rather than cancelled. If the same client (i.e. one with the same resume
+ * key, see TransferMessage) later starts a transfer of the same file, it
+ * takes it over, and is told to carry on from the offset the server had got
+ * up to, so recipients get the rest of the file as if nothing had happened.
+ * A transfer left paused for too long is cancelled (see Transfers).
+ *
+ * The chunks are hashed as they pass through, and the last one is only sent
+ * on if the file's hash is the one its START gave (otherwise the transfer
+ * is cancelled, and recipients throw away what they have). Likewise the
+ * first is only sent on if the file starts the way a file of the START's
+ * media type does (see ImageMessage.detectMediaType).
+ *
+ * In a cluster, the file is also kept as it passes through if users in the
+ * uploader's room are on other nodes, so that once it has all arrived it can
+ * be passed on to them as one ImageMessage (see relayTo). Links between
+ * nodes have no credit of their own to stream it with.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class Transfer
+{
+    //how far a recipient can fall behind the fastest one before it stops
+    //holding back the uploader:
+    private static final int MAX_LAG = 4 * MessageCodec.TRANSFER_WINDOW;
+    //biggest file that can be relayed (leaving room in its frame for the
+    //rest of the image's and peer message's fields):
+    private static final int MAX_RELAYED = MessageCodec.MAX_FRAME_LENGTH
+        - 64 * 1024;
+
+    private final int id;       //id the recipients know the transfer by
+    private final TransferMessage start;    //the uploader's START
+    private final Frame startFrame; //START as sent to the recipients
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private Server.ChatServer uploader; //null while paused
+    private int uploadId;       //id the uploader knows the transfer by
+    private int received = 0;   //bytes received from the uploader
+    private int granted = 0;    //offset the uploader may send up to
+    private int pauses = 0;     //times the uploader has left
+    private final MessageDigest digest; //hash of the bytes received so far
+    private String relayRoom;   //room to relay the file to (null if none)
+    private ByteArrayOutputStream relayed;  //bytes received, if relaying
+    //bytes each recipient has acked:
+    private final Map<Server.ChatServer, Integer> acked = new HashMap<>();
+
+    /**
+     * Constructor for this class
+     *
+     * @param id the id the recipients know the transfer by
+     * @param start the uploader's START message
+     * @throws IOException if the START can't be encoded for the recipients
+     */
+    public Transfer(int id, TransferMessage start) throws IOException
+    {
+        this.id = id;
+        this.start = start;
+        try
+        {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) //every JVM has SHA-256
+        {
+            throw new IllegalStateException(e);
+        }
+        this.startFrame = Frame.of(TransferMessage.start(id, start.getLength(),
+            start.getHash(), start.getMediaType(), start.getWidth(),
+            start.getHeight()));
+    }
+
+    /**
+     * Starts streaming to every client that supports transfers (other than
+     * the uploader), and gives the uploader its first credit.
+     *
+     * @param uploader the uploading client
+     * @param clients every connected client
+     */
+    public void begin(Server.ChatServer uploader, Iterable<Server.ChatServer> clients)
+    {
+        lock.lock();
+        try
+        {
+            for (Server.ChatServer cs : clients)
+            {
+                if (cs != uploader && cs.supports(MessageCodec.FEATURE_TRANSFER)
+                    && send(cs, startFrame))
+                    acked.put(cs, 0);
+            }
+            attach(uploader, start.getId());
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands the transfer to a client that has started a transfer of the
+     * same file, if the last uploader has gone.
+     *
+     * @param uploader the new uploading client
+     * @param uploadId the id the new uploader knows the transfer by
+     * @return false if another client is still uploading it
+     */
+    public boolean resume(Server.ChatServer uploader, int uploadId)
+    {
+        lock.lock();
+        try
+        {
+            if (this.uploader != null)
+                return false;
+
+            attach(uploader, uploadId);
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Passes a chunk from the uploader on to every recipient.
+     *
+     * @param chunk the chunk
+     * @return true once the whole file has been received
+     * @throws IOException if the uploader has sent more than it was allowed
+     * to, or a file with the wrong media type or hash (the transfer is
+     * cancelled)
+     */
+    public boolean chunk(TransferMessage chunk) throws IOException
+    {
+        lock.lock();
+        try
+        {
+            byte[] data = chunk.getData();
+
+            //a chunk already received (i.e. sent again after resuming):
+            if (chunk.getOffset() != received)
+                return false;
+
+            //more than the uploader was allowed to send:
+            if (data.length > MessageCodec.CHUNK_SIZE
+                || received + data.length > granted)
+            {
+                cancel();
+                throw new IOException("Transfer credit exceeded");
+            }
+
+            //check the file is the type it claims to be before recipients
+            //get any of it:
+            if (received == 0)
+            {
+                String mediaType = ImageMessage.detectMediaType(data);
+                if (mediaType == null || !mediaType.equals(start.getMediaType()))
+                {
+                    cancel();
+                    throw new IOException("Transfer media type mismatch");
+                }
+            }
+
+            //check the whole file before recipients get the end of it:
+            digest.update(data);
+            if (received + data.length == start.getLength()
+                && !MessageDigest.isEqual(digest.digest(), start.getHash()))
+            {
+                cancel();
+                throw new IOException("Transfer hash mismatch");
+            }
+
+            Frame frame = Frame.of(TransferMessage.chunk(id, received, data));
+            if (relayed != null)
+                relayed.write(data, 0, data.length);
+
+            Iterator<Server.ChatServer> it = acked.keySet().iterator();
+            while (it.hasNext())
+            {
+                if (!send(it.next(), frame))
+                    it.remove();
+            }
+            received += data.length;
+
+            //the last ack tells the uploader the whole file has arrived:
+            if (!grant() && received == start.getLength())
+                sendAck();
+            return received == start.getLength();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Keeps the file as it arrives, so it can be relayed to a room's users
+     * on the other nodes of the cluster once it has all arrived. Ignored if
+     * any of the file has arrived already, or it is too big for one frame.
+     *
+     * @param room the room's name
+     */
+    public void relayTo(String room)
+    {
+        lock.lock();
+        try
+        {
+            if (received == 0 && start.getLength() <= MAX_RELAYED)
+            {
+                relayRoom = room;
+                relayed = new ByteArrayOutputStream();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the room to relay the file to, or null if it isn't relayed
+     */
+    public String getRelayRoom()
+    {
+        lock.lock();
+        try
+        {
+            return relayed == null ? null : relayRoom;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the whole file, or null if it isn't being relayed or hasn't
+     * all arrived
+     */
+    public byte[] getRelayData()
+    {
+        lock.lock();
+        try
+        {
+            if (relayed == null || received != start.getLength())
+                return null;
+            return relayed.toByteArray();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records an ack from a recipient, which may let the uploader send more.
+     *
+     * @param recipient the recipient
+     * @param offset the number of bytes the recipient has received
+     */
+    public void ack(Server.ChatServer recipient, int offset)
+    {
+        lock.lock();
+        try
+        {
+            Integer last = acked.get(recipient);
+            if (last != null && offset > last && offset <= received)
+            {
+                acked.put(recipient, offset);
+                grant();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops sending to a recipient, which has cancelled the transfer or left
+     * the server.
+     *
+     * @param recipient the recipient
+     */
+    public void removeRecipient(Server.ChatServer recipient)
+    {
+        lock.lock();
+        try
+        {
+            if (acked.remove(recipient) != null)
+                grant();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pauses the transfer, because the uploader has left the server.
+     *
+     * @param uploader the client leaving (ignored if it isn't the uploader)
+     * @return the pause's number (counting from 1), or 0 if the client isn't
+     * the uploader
+     */
+    public int pause(Server.ChatServer uploader)
+    {
+        lock.lock();
+        try
+        {
+            if (this.uploader != uploader)
+                return 0;
+
+            this.uploader = null;
+            return ++pauses;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cancels the transfer if it hasn't been resumed since it was paused.
+     *
+     * @param pause the pause's number (see pause)
+     * @return whether it was cancelled
+     */
+    public boolean expire(int pause)
+    {
+        lock.lock();
+        try
+        {
+            if (uploader != null || pauses != pause)
+                return false;
+
+            cancel();
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Abandons the transfer, telling the recipients.
+     */
+    public void cancel()
+    {
+        lock.lock();
+        try
+        {
+            Frame frame = Frame.of(TransferMessage.cancel(id));
+            for (Server.ChatServer cs : acked.keySet())
+                send(cs, frame);
+            acked.clear();
+            relayed = null;
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return whether the transfer is paused with no recipients left
+     */
+    public boolean isAbandoned()
+    {
+        lock.lock();
+        try
+        {
+            return uploader == null && acked.isEmpty();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the id the recipients know the transfer by
+     */
+    public int getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return the uploader's START message
+     */
+    public TransferMessage getStart()
+    {
+        return start;
+    }
+
+    /**
+     * Helper method which makes a client the uploader, and tells it where
+     * to carry on from (lock must be held).
+     *
+     * @param uploader the uploading client
+     * @param uploadId the id the uploader knows the transfer by
+     */
+    private void attach(Server.ChatServer uploader, int uploadId)
+    {
+        this.uploader = uploader;
+        this.uploadId = uploadId;
+        this.granted = received;
+        if (!grant())
+            sendAck();
+    }
+
+    /**
+     * Helper method which lets the uploader send up to a window past the
+     * fastest recipient, as long as that isn't more than MAX_LAG past the
+     * slowest one still keeping up, telling it if that is further than it
+     * could before (lock must be held). Recipients MAX_LAG or more behind
+     * the fastest aren't counted.
+     *
+     * @return whether the uploader was sent an ack
+     */
+    private boolean grant()
+    {
+        int fastest = acked.isEmpty() ? received : 0;
+        for (int offset : acked.values())
+            fastest = Math.max(fastest, offset);
+
+        //don't let a recipient that has stopped acking hold everyone up:
+        int slowest = fastest;
+        for (int offset : acked.values())
+        {
+            if (fastest - offset < MAX_LAG)
+                slowest = Math.min(slowest, offset);
+        }
+
+        long limit = Math.min((long) slowest + MAX_LAG,
+            (long) fastest + MessageCodec.TRANSFER_WINDOW);
+        limit = Math.min(limit, start.getLength());
+
+        if (limit > granted)
+        {
+            granted = (int) limit;
+            sendAck();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Helper method which sends the uploader an ack with the bytes received
+     * so far and its credit (lock must be held).
+     */
+    private void sendAck()
+    {
+        if (uploader == null)
+            return;
+
+        try
+        {
+            send(uploader, Frame.of(TransferMessage.ack(uploadId, received,
+                granted - received)));
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e);
+        }
+    }
+
+    /**
+     * Helper method which sends a frame to a client.
+     *
+     * @param client the client
+     * @param frame the frame
+     * @return false if the client's connection is closed
+     */
+    private static boolean send(Server.ChatServer client, Frame frame)
+    {
+        try
+        {
+            client.getConnection().send(frame);
+            return true;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,237 @@
+package assignment;
+
+import java.io.Serializable;
+
+/**
+ * A class which extends Message, and streams a large image (or any file)
+ * from one client to the others in fixed-size chunks, rather than as one
+ * ImageMessage. Neither side needs to hold the whole file in memory, other
+ * messages can go out between the chunks, and the server passes each chunk
+ * on as soon as it arrives.
+ *
+ * Each transfer has an id, chosen by whoever starts it (the uploading
+ * client, or the server for the copies it streams to everyone else):
+ * 1) START - the file's length, hash, media type and (for images) size
+ * 2) CHUNK - up to MessageCodec.CHUNK_SIZE bytes, starting at an offset
+ * 3) ACK - from the receiving side: every byte before the offset has
+ * arrived, and the sender may send up to credit bytes past it (so a sender
+ * can never get more than a window ahead of its receiver)
+ * 4) CANCEL - the transfer has been abandoned, by the server (sent to the
+ * recipients) or by a recipient (sent to the server)
+ *
+ * A client which starts a transfer the server already has part of (the same
+ * hash, whose uploader has gone) is sent an ACK with the offset the server
+ * got up to, and resumes from there - as long as its START has the same
+ * resume key (a random one each client picks for itself) as the first one,
+ * so only the client that started a transfer can carry it on.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class TransferMessage extends Message implements Serializable
+{
+    /**
+     * What this message does to the transfer.
+     */
+    public enum Kind
+    {
+        START, CHUNK, ACK, CANCEL
+    }
+
+    private Kind kind;
+    private int id;         //transfer id
+    private int offset;     //first byte of a chunk / bytes acknowledged
+    private int length;     //file length (START) / credit (ACK)
+    private byte[] hash;    //SHA-256 of the file (START only)
+    private String mediaType;   //e.g. image/png (START only)
+    private int width;      //image size (START only, 0 if not an image)
+    private int height;
+    private byte[] data;    //the chunk's bytes (CHUNK only)
+    private byte[] key;     //uploader's resume key (START only, may be null)
+
+    /**
+     * Private constructor, use the static factory methods below.
+     *
+     * @param kind what this message does
+     * @param id the transfer id
+     */
+    private TransferMessage(Kind kind, int id)
+    {
+        super();
+        this.kind = kind;
+        this.id = id;
+    }
+
+    /**
+     * @param id the transfer id
+     * @param length the file's length in bytes
+     * @param hash the SHA-256 hash of the file
+     * @param mediaType the file's media type
+     * @param width the image's width in pixels (0 if not an image)
+     * @param height the image's height in pixels (0 if not an image)
+     * @return a message starting a transfer
+     */
+    public static TransferMessage start(int id, int length, byte[] hash,
+        String mediaType, int width, int height)
+    {
+        TransferMessage m = new TransferMessage(Kind.START, id);
+        m.length = length;
+        m.hash = hash;
+        m.mediaType = mediaType;
+        m.width = width;
+        m.height = height;
+        return m;
+    }
+
+    /**
+     * @param id the transfer id
+     * @param length the file's length in bytes
+     * @param hash the SHA-256 hash of the file
+     * @param mediaType the file's media type
+     * @param width the image's width in pixels (0 if not an image)
+     * @param height the image's height in pixels (0 if not an image)
+     * @param key the uploader's resume key (MessageCodec.RESUME_KEY_LENGTH 
+     * bytes)
+     * @return a message starting a transfer the uploader can resume
+     */
+    public static TransferMessage start(int id, int length, byte[] hash,
+        String mediaType, int width, int height, byte[] key)
+    {
+        TransferMessage m = start(id, length, hash, mediaType, width, height);
+        m.key = key;
+        return m;
+    }
+
+    /**
+     * @param id the transfer id
+     * @param offset where the chunk starts in the file
+     * @param data the chunk's bytes
+     * @return a message carrying one chunk
+     */
+    public static TransferMessage chunk(int id, int offset, byte[] data)
+    {
+        TransferMessage m = new TransferMessage(Kind.CHUNK, id);
+        m.offset = offset;
+        m.data = data;
+        return m;
+    }
+
+    /**
+     * @param id the transfer id
+     * @param offset number of bytes received so far
+     * @param credit number of bytes the sender may send past the offset
+     * @return a message acknowledging chunks
+     */
+    public static TransferMessage ack(int id, int offset, int credit)
+    {
+        TransferMessage m = new TransferMessage(Kind.ACK, id);
+        m.offset = offset;
+        m.length = credit;
+        return m;
+    }
+
+    /**
+     * @param id the transfer id
+     * @return a message abandoning a transfer
+     */
+    public static TransferMessage cancel(int id)
+    {
+        return new TransferMessage(Kind.CANCEL, id);
+    }
+
+    /**
+     * Set the toSend object as the chunk's bytes (or null for other kinds).
+     */
+    @Override
+    public void messageType()
+    {
+        toSend = getData();
+    }
+
+    /**
+     * @return the kind
+     */
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    /**
+     * @return the id
+     */
+    public int getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return the offset
+     */
+    public int getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * @return the file's length (START only)
+     */
+    public int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * @return the credit (ACK only)
+     */
+    public int getCredit()
+    {
+        return length;
+    }
+
+    /**
+     * @return the hash
+     */
+    public byte[] getHash()
+    {
+        return hash;
+    }
+
+    /**
+     * @return the uploader's resume key (null if it didn't send one)
+     */
+    public byte[] getKey()
+    {
+        return key;
+    }
+
+    /**
+     * @return the mediaType
+     */
+    public String getMediaType()
+    {
+        return mediaType;
+    }
+
+    /**
+     * @return the width
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * @return the height
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * @return the chunk's bytes
+     */
+    public byte[] getData()
+    {
+        return data;
+    }
+}
\ No newline at end of file
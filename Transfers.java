@@ -0,0 +1,151 @@
+package assignment;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class Description: The server's list of transfers in progress, by the id
+ * their recipients know them by and by the hash of the file being sent (so
+ * an interrupted transfer can be found again and resumed).
+ *
+ * A transfer whose uploader has left stays here, paused, for as long as any
+ * of its recipients are still waiting for the rest of it, but no longer than
+ * chat.transfer.pausedMillis (a minute by default) - then it is cancelled.
+ * Only the client that started it (see TransferMessage.getKey) can resume
+ * it.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class Transfers
+{
+    //longest a transfer can stay paused:
+    public static final long PAUSED_MILLIS = Long.getLong(
+        "chat.transfer.pausedMillis", 60000);
+
+    private final Map<Integer, Transfer> byId = new ConcurrentHashMap<>();
+    private final Map<String, Transfer> byHash = new ConcurrentHashMap<>();
+    private final AtomicInteger lastId = new AtomicInteger();
+    private final TimingWheel timers;   //expires paused transfers
+
+    /**
+     * Constructor for this class
+     *
+     * @param timers the timers paused transfers are expired on
+     */
+    public Transfers(TimingWheel timers)
+    {
+        this.timers = timers;
+    }
+
+    /**
+     * Starts a new transfer, streaming it to every other client.
+     *
+     * @param uploader the uploading client
+     * @param start the uploader's START message
+     * @param clients every connected client
+     * @return the transfer
+     * @throws IOException if the START can't be encoded
+     */
+    public Transfer start(Server.ChatServer uploader, TransferMessage start,
+        Iterable<Server.ChatServer> clients) throws IOException
+    {
+        Transfer transfer = new Transfer(lastId.incrementAndGet(), start);
+        byId.put(transfer.getId(), transfer);
+        byHash.putIfAbsent(BlobStore.key(start.getHash()), transfer);
+        transfer.begin(uploader, clients);
+        return transfer;
+    }
+
+    /**
+     * Hands a paused transfer of the same file to a client starting a
+     * transfer, so it carries on where the last uploader stopped, if it is
+     * the client that started it (i.e. it has the same resume key).
+     *
+     * @param uploader the uploading client
+     * @param start the uploader's START message
+     * @return the transfer, or null if there isn't a paused one it can
+     * resume
+     */
+    public Transfer resume(Server.ChatServer uploader, TransferMessage start)
+    {
+        Transfer transfer = byHash.get(BlobStore.key(start.getHash()));
+        if (transfer == null
+            || transfer.getStart().getLength() != start.getLength()
+            || !sameKey(transfer.getStart().getKey(), start.getKey())
+            || !transfer.resume(uploader, start.getId()))
+            return null;
+        return transfer;
+    }
+
+    /**
+     * Finds a transfer by the id its recipients know it by.
+     *
+     * @param id the transfer id
+     * @return the transfer, or null if it has finished (or never existed)
+     */
+    public Transfer get(int id)
+    {
+        return byId.get(id);
+    }
+
+    /**
+     * Removes a transfer that has finished or been cancelled.
+     *
+     * @param transfer the transfer
+     */
+    public void finish(Transfer transfer)
+    {
+        byId.remove(transfer.getId());
+        byHash.remove(BlobStore.key(transfer.getStart().getHash()), transfer);
+    }
+
+    /**
+     * Removes a client that is leaving the server from every transfer: its
+     * own uploads are paused (until PAUSED_MILLIS have passed), and it stops
+     * being sent anyone else's. Paused transfers nobody is waiting for any
+     * more are removed.
+     *
+     * @param client the client leaving
+     */
+    public void leave(Server.ChatServer client)
+    {
+        for (Transfer transfer : byId.values())
+        {
+            int pause = transfer.pause(client);
+            if (pause > 0)
+                timers.schedule(() -> expire(transfer, pause), PAUSED_MILLIS);
+            transfer.removeRecipient(client);
+            if (transfer.isAbandoned())
+                finish(transfer);
+        }
+    }
+
+    /**
+     * Helper method which cancels a transfer that is still paused (run on
+     * the timers' thread).
+     *
+     * @param transfer the transfer
+     * @param pause the pause's number (see Transfer.pause)
+     */
+    private void expire(Transfer transfer, int pause)
+    {
+        if (transfer.expire(pause))
+            finish(transfer);
+    }
+
+    /**
+     * Helper method which checks a client's resume key against the one the
+     * transfer was started with, taking as long whatever bytes differ.
+     *
+     * @param key the transfer's key
+     * @param given the client's key
+     * @return whether they match (never if either is missing)
+     */
+    private static boolean sameKey(byte[] key, byte[] given)
+    {
+        return key != null && given != null && MessageDigest.isEqual(key, given);
+    }
+}
\ No newline at end of file
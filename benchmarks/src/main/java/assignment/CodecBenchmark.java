@@ -0,0 +1,115 @@
+package assignment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Class Description: Measures encoding and decoding each kind of Message 
+ * (see MessageCodec), with typical contents.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark
+{
+    @Param({"hello", "string", "list", "image", "imageRef", "transfer", 
+        "transferAck", "search", "room", "peer"})
+    public String kind;
+
+    private Message message;
+    private byte[] frame;
+    private int offset;     //where the payload starts in the frame
+
+    /**
+     * Builds the message, and its frame to decode.
+     *
+     * @throws IOException if the message can't be encoded
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        message = create(kind);
+        frame = MessageCodec.encode(message);
+        offset = frame.length - MessageCodec.peekLength(ByteBuffer.wrap(frame));
+    }
+
+    /**
+     * @return the encoded message
+     * @throws IOException if the message can't be encoded
+     */
+    @Benchmark
+    public byte[] encode() throws IOException
+    {
+        return MessageCodec.encode(message);
+    }
+
+    /**
+     * @return the decoded message
+     * @throws IOException if the frame isn't valid
+     */
+    @Benchmark
+    public Message decode() throws IOException
+    {
+        return MessageCodec.decode(frame, offset, frame.length - offset);
+    }
+
+    /**
+     * Helper method which creates a typical message of a kind.
+     *
+     * @param kind the kind
+     * @return the message
+     */
+    private static Message create(String kind)
+    {
+        byte[] hash = new byte[32];
+        new Random(1).nextBytes(hash);
+
+        switch (kind)
+        {
+            case "hello":
+                return new HelloMessage(MessageCodec.PROTOCOL_VERSION,
+                    MessageCodec.MIN_PROTOCOL_VERSION, MessageCodec.SUPPORTED_FEATURES);
+            case "string":
+                return new StringMessage("CLIENT3", 
+                    "has anyone seen the build logs from this morning?");
+            case "list":
+                List<String> members = new ArrayList<>();
+                for (int i = 1; i <= 100; i++)
+                    members.add("CLIENT" + i);
+                return new ListMessage(members, 100);
+            case "image":
+                byte[] data = new byte[64 * 1024];
+                new Random(2).nextBytes(data);
+                return new ImageMessage(data, "image/png", 640, 480);
+            case "imageRef":
+                return new ImageMessage(ImageMessage.Kind.REFERENCE, hash);
+            case "transfer":
+                byte[] chunk = new byte[MessageCodec.CHUNK_SIZE];
+                new Random(3).nextBytes(chunk);
+                return TransferMessage.chunk(1, 65536, chunk);
+            case "transferAck":
+                return TransferMessage.ack(1, 65536, MessageCodec.TRANSFER_WINDOW);
+            case "search":
+                List<SearchMessage.Hit> hits = new ArrayList<>();
+                for (int i = 0; i < 20; i++)
+                    hits.add(new SearchMessage.Hit(1000 - i, 1600000000000L + i,
+                        "CLIENT" + i, "the build logs are in the usual place"));
+                return SearchMessage.results(hits, 980);
+            case "room":
+                return new RoomMessage(RoomMessage.Kind.JOIN, "dev");
+            case "peer":
+                return new PeerMessage(PeerMessage.Kind.ROOM, 1, null, "dev",
+                    new byte[64]);
+            default:
+                throw new IllegalArgumentException("Unknown message kind: " + kind);
+        }
+    }
+}
\ No newline at end of file
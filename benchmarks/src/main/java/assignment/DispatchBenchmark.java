@@ -0,0 +1,65 @@
+package assignment;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Class Description: Measures handing tasks to a room's shard, from the
+ * publisher's call until the shard has run them: through a Dispatcher's
+ * ring buffer, or through the single thread executor it replaced. Each
+ * operation publishes a batch of BATCH tasks and waits for the last one,
+ * so the time per task includes the shard's side. Run with more threads
+ * (-t) to see several clients' threads publishing at once.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark
+{
+    private static final int BATCH = 100;
+
+    @Param({"ring", "executor"})
+    public String shard;
+
+    private final AtomicLong ran = new AtomicLong();
+    private final Runnable task = ran::incrementAndGet;
+    private Executor executor;
+
+    /**
+     * Starts the shard.
+     */
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        if (shard.equals("ring"))
+            executor = new Dispatcher("bench-shard");
+        else
+            executor = Executors.newSingleThreadExecutor(r ->
+            {
+                Thread t = new Thread(r, "bench-shard");
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    /**
+     * Publishes a batch of tasks, and waits for the shard to run them.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void publish()
+    {
+        long target = ran.get() + BATCH;
+        for (int i = 0; i < BATCH; i++)
+            executor.execute(task);
+        //(yielding, as spinning would keep the shard off a single processor):
+        while (ran.get() < target)
+            Thread.yield();
+    }
+}
\ No newline at end of file
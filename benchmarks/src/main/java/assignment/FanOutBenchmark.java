@@ -0,0 +1,54 @@
+package assignment;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Class Description: Measures ChatServer.sendMessage broadcasting a message
+ * to everyone in the lobby, from the sender's call until every recipient's
+ * connection has been handed the frame (on the room's shard).
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dchat.log.dir="})
+public class FanOutBenchmark
+{
+    @Param({"10", "100", "1000", "10000"})
+    public int recipients;
+
+    private final LongAdder frames = new LongAdder();
+    private Server.ChatServer sender;
+
+    /**
+     * Connects the recipients (the sender is one of them).
+     *
+     * @throws IOException if a client can't join
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        List<Server.ChatServer> sessions = Sessions.join(new Server(), 
+            recipients, frames);
+        sender = sessions.get(0);
+    }
+
+    /**
+     * Sends one message to the lobby, and waits for it to reach everyone.
+     */
+    @Benchmark
+    public void broadcast()
+    {
+        long target = frames.sum() + recipients;
+        sender.sendMessage("has anyone seen the build logs from this morning?");
+        while (frames.sum() < target)
+            Thread.onSpinWait();
+    }
+}
\ No newline at end of file
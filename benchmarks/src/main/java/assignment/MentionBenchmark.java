@@ -0,0 +1,53 @@
+package assignment;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Class Description: Measures finding which connected users a message 
+ * mentions (MentionMatcher) as the number of users grows.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MentionBenchmark
+{
+    @Param({"10", "1000", "10000"})
+    public int users;
+
+    private final MentionMatcher matcher = new MentionMatcher();
+
+    /**
+     * Adds the users.
+     */
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        for (int i = 1; i <= users; i++)
+            matcher.add("CLIENT" + i);
+    }
+
+    /**
+     * @return the mentions in a message without any
+     */
+    @Benchmark
+    public Set<String> noMention()
+    {
+        return matcher.match("has anyone seen the build logs from this morning?");
+    }
+
+    /**
+     * @return the mentions in a message with one
+     */
+    @Benchmark
+    public Set<String> oneMention()
+    {
+        return matcher.match("CLIENT7 have you seen the build logs from this morning?");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,36 @@
+package assignment;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Class Description: Measures what ServerMetrics adds to each message the 
+ * server handles: counting it and the bytes it was read in, and timing its 
+ * fan-out. At 100,000 messages a second, every 100ns here is 1% of one 
+ * processor. Run with -jvmArgsAppend -Dchat.metrics.sample=1 to see the 
+ * cost of timing every message, and with more threads (-t) to see the cost 
+ * when the shards record at the same time.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsBenchmark
+{
+    /**
+     * Records one text message, as the server does for each one it 
+     * receives and fans out to a room.
+     */
+    @Benchmark
+    public void perMessage()
+    {
+        ServerMetrics.read(64);
+        ServerMetrics.received();
+        long since = ServerMetrics.now();
+        ServerMetrics.delivered(since, 50);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,68 @@
+package assignment;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Class Description: Measures keeping the list of clients up to date (what
+ * ChatServer.updateList does) as the roster grows: one user joining (a delta
+ * to everyone, and a fresh snapshot for the joiner) and leaving again.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dchat.log.dir="})
+public class RosterBenchmark
+{
+    @Param({"10", "100", "1000", "10000"})
+    public int members;
+
+    private final LongAdder frames = new LongAdder();
+    //(deltas sent on the calling thread, rather than a room's shard):
+    private final Roster roster = new Roster(Runnable::run);
+    private final ClientRegistry clients = new ClientRegistry();
+    private Server.ChatServer joiner;
+
+    /**
+     * Fills the roster (its clients don't join a room, so only this roster
+     * sends them anything).
+     */
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        Server server = new Server();
+        for (int i = 0; i < members; i++)
+        {
+            Server.ChatServer client = server.newSession(new SinkConnection(frames));
+            clients.add(client);
+            roster.add(client.getUsername(), null, clients);
+        }
+        joiner = server.newSession(new SinkConnection(frames));
+    }
+
+    /**
+     * A user joins, then leaves.
+     */
+    @Benchmark
+    public void joinAndLeave()
+    {
+        roster.add(joiner.getUsername(), joiner, clients);
+        roster.remove(joiner.getUsername(), joiner, clients);
+    }
+
+    /**
+     * A client asks for the whole list again (the snapshot is cached until 
+     * the roster next changes).
+     */
+    @Benchmark
+    public void resync()
+    {
+        roster.resync(joiner);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,88 @@
+package assignment;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class Description: Helper for the benchmarks, which connects any number of
+ * clients to a Server through SinkConnections and has them join the lobby,
+ * the same way a real client's hello does.
+ *
+ * Sessions are never made to leave: the server closes itself once its last
+ * client has gone.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public final class Sessions
+{
+    /**
+     * Private constructor, this class only has static helper methods.
+     */
+    private Sessions()
+    {
+
+    }
+
+    /**
+     * Creates clients and has each of them say hello (and so join the 
+     * lobby, without heartbeats, as a sink can't answer a ping), then waits for everything they were sent on joining to have
+     * been sent.
+     *
+     * @param server the server
+     * @param count the number of clients
+     * @param frames counter of the frames sent to them
+     * @return the clients' ChatServers
+     * @throws IOException if a client can't join
+     */
+    public static List<Server.ChatServer> join(Server server, int count,
+        LongAdder frames) throws IOException
+    {
+        //(every join is printed by the server, which would swamp the
+        //benchmark's output):
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try
+        {
+            List<Server.ChatServer> sessions = new ArrayList<>();
+            for (int i = 0; i < count; i++)
+            {
+                Server.ChatServer session = server.newSession(new SinkConnection(frames));
+                session.receive(new HelloMessage(MessageCodec.PROTOCOL_VERSION,
+                    MessageCodec.MIN_PROTOCOL_VERSION, MessageCodec.SUPPORTED_FEATURES
+                    & ~MessageCodec.FEATURE_HEARTBEAT));
+                sessions.add(session);
+            }
+            quiesce(frames);
+            return sessions;
+        }
+        finally
+        {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Waits until nothing more is being sent (i.e. the room shards have 
+     * finished sending what they were asked to).
+     *
+     * @param frames counter of the frames sent
+     */
+    public static void quiesce(LongAdder frames)
+    {
+        long last = -1;
+        while (frames.sum() != last)
+        {
+            last = frames.sum();
+            try
+            {
+                Thread.sleep(200);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,66 @@
+package assignment;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Class Description: Measures how long a broadcast to a big room takes to
+ * reach everyone as its fan-out is split between more threads (see FanOut),
+ * from the sender's call until every recipient's connection has been handed
+ * the frame. With one thread the room's shard sends to everyone itself.
+ * Each thread count is run in its own JVM (chat.fanout.threads is read once,
+ * when the server starts), and can only help if the machine has at least
+ * that many processors.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dchat.log.dir="})
+public class ShardedFanOutBenchmark
+{
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    @Param({"20000"})
+    public int recipients;
+
+    private final LongAdder frames = new LongAdder();
+    private Server.ChatServer sender;
+
+    /**
+     * Sets the number of fan-out threads, then connects the recipients (the
+     * sender is one of them).
+     *
+     * @throws IOException if a client can't join
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        System.setProperty("chat.fanout.threads", String.valueOf(threads));
+        System.setProperty("chat.fanout.splitAt", "1");
+        List<Server.ChatServer> sessions = Sessions.join(new Server(),
+            recipients, frames);
+        sender = sessions.get(0);
+    }
+
+    /**
+     * Sends one message to the lobby, and waits for it to reach everyone.
+     */
+    @Benchmark
+    public void broadcast()
+    {
+        long target = frames.sum() + recipients;
+        sender.sendMessage("has anyone seen the build logs from this morning?");
+        //(yielding, as spinning would keep the fan-out threads off the 
+        //processors):
+        while (frames.sum() < target)
+            Thread.yield();
+    }
+}
\ No newline at end of file
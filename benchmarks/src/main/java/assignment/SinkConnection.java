@@ -0,0 +1,82 @@
+package assignment;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A class which implements Connection for the benchmarks: frames sent to it
+ * are only counted, so a benchmark measures the server's work and not a
+ * socket's.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class SinkConnection implements Connection
+{
+    private final LongAdder frames;     //shared by every sink of a benchmark
+    private final OutboundQueue queue = new OutboundQueue();  //always empty
+
+    /**
+     * Constructor for this class
+     *
+     * @param frames counter of the frames sent to it
+     */
+    public SinkConnection(LongAdder frames)
+    {
+        this.frames = frames;
+    }
+
+    /**
+     * Counts the frame.
+     *
+     * @param frame the frame to send
+     */
+    @Override
+    public void send(Frame frame)
+    {
+        frames.increment();
+    }
+
+    /**
+     * Does nothing, frames are never written anywhere.
+     */
+    @Override
+    public void setCompressing(boolean compressing)
+    {
+
+    }
+
+    /**
+     * Does nothing, frames are never decoded.
+     */
+    @Override
+    public void setTracing(boolean tracing)
+    {
+
+    }
+
+    /**
+     * Does nothing, there is nothing to close.
+     */
+    @Override
+    public void close()
+    {
+
+    }
+
+    /**
+     * Does nothing, there is nothing to close.
+     */
+    @Override
+    public void abort()
+    {
+
+    }
+
+    /**
+     * @return an empty queue
+     */
+    @Override
+    public OutboundQueue getQueue()
+    {
+        return queue;
+    }
+}
\ No newline at end of file
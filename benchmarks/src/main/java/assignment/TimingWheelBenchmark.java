@@ -0,0 +1,78 @@
+package assignment;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Class Description: Measures scheduling a timeout and cancelling it (as
+ * a client's check is, see Server.ChatServer.check) while many others are
+ * waiting: on a TimingWheel, or on a ScheduledThreadPoolExecutor, whose
+ * queue is a heap, so each one costs O(log n) in the number waiting rather
+ * than O(1).
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class TimingWheelBenchmark
+{
+    private static final long DELAY_MILLIS = 60 * 60 * 1000;
+
+    @Param({"wheel", "executor"})
+    public String timers;
+
+    @Param({"1000", "1000000"})
+    public int pending;
+
+    private final Runnable task = () -> {};
+    private TimingWheel wheel;
+    private ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Starts the timers, and schedules the timeouts left waiting (an hour
+     * off, so none of them run).
+     */
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        if (timers.equals("wheel"))
+        {
+            wheel = new TimingWheel("bench-timers");
+            for (int i = 0; i < pending; i++)
+                wheel.schedule(task, DELAY_MILLIS + i);
+        }
+        else
+        {
+            executor = new ScheduledThreadPoolExecutor(1);
+            executor.setRemoveOnCancelPolicy(true);
+            for (int i = 0; i < pending; i++)
+                executor.schedule(task, DELAY_MILLIS + i, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the executor.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    /**
+     * Schedules a timeout a few seconds off, then cancels it.
+     */
+    @Benchmark
+    public void scheduleAndCancel()
+    {
+        if (wheel != null)
+            wheel.schedule(task, 5000).cancel();
+        else
+            executor.schedule(task, 5000, TimeUnit.MILLISECONDS).cancel(false);
+    }
+}
\ No newline at end of file
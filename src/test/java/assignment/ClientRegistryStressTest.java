@@ -0,0 +1,102 @@
+package assignment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Class Description: Has hundreds of clients join and leave a server at
+ * once while its clients keep broadcasting, and checks the ClientRegistry
+ * comes out the other side with unique ids, nothing left behind and no
+ * exceptions.
+ *
+ * One client stays joined throughout, as the server closes itself once its
+ * last client leaves.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class ClientRegistryStressTest
+{
+    private static final int THREADS = 32;
+    private static final int CLIENTS = 800;
+
+    /**
+     * Joins and leaves CLIENTS clients from THREADS threads, each one
+     * sending a message while it's there, while another thread broadcasts
+     * and looks everyone up.
+     *
+     * @throws Exception if a client fails
+     */
+    @Test
+    public void joinsAndLeavesWhileBroadcasting() throws Exception
+    {
+        Server server = new Server();
+        Server.ChatServer anchor = join(server);
+        Set<String> usernames = ConcurrentHashMap.newKeySet();
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        Future<?> broadcaster;
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS + 1);
+        try
+        {
+            broadcaster = threads.submit(() ->
+            {
+                int sent = 0;
+                while (running.get())
+                {
+                    anchor.sendMessage("broadcast " + sent++);
+                    for (String[] member : server.localMembers())
+                        assertNotNull(member[0]);
+                }
+                return null;
+            });
+
+            List<Future<?>> clients = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++)
+                clients.add(threads.submit(() ->
+                {
+                    Server.ChatServer cs = join(server);
+                    assertTrue(usernames.add(cs.getUsername()),
+                        "duplicate username " + cs.getUsername());
+                    cs.sendMessage("hello from " + cs.getUsername());
+                    cs.leave();
+                    return null;
+                }));
+            for (Future<?> client : clients)
+                client.get(60, TimeUnit.SECONDS);
+
+            running.set(false);
+            broadcaster.get(60, TimeUnit.SECONDS);
+        }
+        finally
+        {
+            running.set(false);
+            threads.shutdownNow();
+        }
+
+        assertEquals(CLIENTS, usernames.size());
+        List<String[]> left = server.localMembers();
+        assertEquals(1, left.size());
+        assertEquals(anchor.getUsername(), left.get(0)[0]);
+    }
+
+    /**
+     * Helper method which connects a client and has it say hello (and so
+     * join the lobby).
+     *
+     * @param server the server
+     * @return the client's ChatServer
+     * @throws Exception if the client can't join
+     */
+    private static Server.ChatServer join(Server server) throws Exception
+    {
+        Server.ChatServer cs = server.newSession(new TestConnection());
+        assertFalse(cs.receive(new HelloMessage(MessageCodec.PROTOCOL_VERSION,
+            MessageCodec.MIN_PROTOCOL_VERSION, MessageCodec.SUPPORTED_FEATURES
+            & ~MessageCodec.FEATURE_HEARTBEAT)));
+        return cs;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,315 @@
+package assignment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Class Description: Starts a cluster of two Server processes on loopback,
+ * and checks that only a node that knows the cluster's secret is linked to,
+ * and that an image streamed to one node reaches users on the other.
+ *
+ * Every node is a separate process (as each reads its place in the cluster
+ * from system properties), started on free ports with no history log, and
+ * is killed after each test.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class ClusterTest
+{
+    private static final String SECRET = "cluster-test";
+    private static final int TIMEOUT_MS = 10000;
+
+    private final List<Process> servers = new ArrayList<>();
+    private int[] clientPorts;
+    private int[] linkPorts;
+
+    /**
+     * Kills every node started by the test.
+     *
+     * @throws InterruptedException if interrupted while waiting for one
+     */
+    @AfterEach
+    public void stop() throws InterruptedException
+    {
+        for (Process p : servers)
+            p.destroyForcibly().waitFor();
+    }
+
+    /**
+     * A node proves it knows the secret by answering a nonce, and a link
+     * from a host that can't do the same is closed, while one that can is
+     * sent the node's users.
+     *
+     * @throws Exception if a node can't be started
+     */
+    @Test
+    public void onlyNodesWithTheSecretAreLinked() throws Exception
+    {
+        start(2);
+        Socket client = join(clientPorts[1]);
+
+        //(node 1 accepts links from node 0, so pretend to be it):
+        try (Socket socket = link(linkPorts[1], "wrong"))
+        {
+            assertThrows(EOFException.class, () -> MessageCodec.read(
+                new DataInputStream(socket.getInputStream())));
+        }
+
+        try (Socket socket = link(linkPorts[1], SECRET))
+        {
+            Message m = MessageCodec.read(new DataInputStream(
+                socket.getInputStream()));
+            assertTrue(m instanceof PeerMessage);
+            assertEquals(PeerMessage.Kind.ENTER, ((PeerMessage) m).getKind());
+        }
+        client.close();
+    }
+
+    /**
+     * An image streamed by a client on node 1 (as clients stream big ones)
+     * is passed on whole to a client in the same room on node 0.
+     *
+     * @throws Exception if a node can't be started
+     */
+    @Test
+    public void streamedImagesReachOtherNodes() throws Exception
+    {
+        start(2);
+        Socket receiver = join(clientPorts[0]);
+        Socket uploader = join(clientPorts[1]);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            receiver.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            uploader.getOutputStream()));
+
+        //say something until it reaches node 0, by which time the link is
+        //up and node 1 knows someone is in the room there:
+        AtomicBoolean linked = new AtomicBoolean();
+        Thread pinger = new Thread(() ->
+        {
+            try
+            {
+                while (!linked.get())
+                {
+                    MessageCodec.write(out, new StringMessage("ping"));
+                    out.flush();
+                    Thread.sleep(200);
+                }
+            }
+            catch (IOException | InterruptedException e)
+            {}
+        });
+        pinger.start();
+        Message m;
+        do
+        {
+            m = MessageCodec.read(in);
+        }
+        while (!(m instanceof StringMessage)
+            || ((StringMessage) m).getSender() == null);
+        linked.set(true);
+        pinger.join();
+
+        byte[] data = image(400, 300);
+        assertTrue(data.length > 2 * MessageCodec.CHUNK_SIZE);
+        byte[] key = new byte[MessageCodec.RESUME_KEY_LENGTH];
+        ThreadLocalRandom.current().nextBytes(key);
+        MessageCodec.write(out, TransferMessage.start(1, data.length,
+            ImageMessage.hash(data), "image/png", 400, 300, key));
+        //(with nobody to stream to on node 1, the credit keeps a window
+        //ahead of the chunks received):
+        for (int offset = 0; offset < data.length; offset += MessageCodec.CHUNK_SIZE)
+            MessageCodec.write(out, TransferMessage.chunk(1, offset, Arrays.copyOfRange(
+                data, offset, Math.min(data.length, offset + MessageCodec.CHUNK_SIZE))));
+        out.flush();
+
+        do
+        {
+            m = MessageCodec.read(in);
+        }
+        while (!(m instanceof ImageMessage));
+        assertEquals("image/png", ((ImageMessage) m).getMediaType());
+        assertArrayEquals(data, ((ImageMessage) m).getData());
+
+        receiver.close();
+        uploader.close();
+    }
+
+    /**
+     * Helper method which connects a client to a node, which puts it in the
+     * lobby.
+     *
+     * @param port the node's client port
+     * @return the client's socket
+     * @throws IOException if the client can't connect
+     */
+    private static Socket join(int port) throws IOException
+    {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(TIMEOUT_MS);
+        MessageCodec.write(new DataOutputStream(socket.getOutputStream()),
+            new HelloMessage(MessageCodec.PROTOCOL_VERSION,
+            MessageCodec.MIN_PROTOCOL_VERSION, MessageCodec.SUPPORTED_FEATURES
+            & ~MessageCodec.FEATURE_HEARTBEAT));
+        return socket;
+    }
+
+    /**
+     * Helper method which makes a PNG of random pixels (which doesn't
+     * compress, so it is about 3 bytes per pixel).
+     *
+     * @param width the image's width
+     * @param height the image's height
+     * @return the PNG file's bytes
+     * @throws IOException if it can't be written
+     */
+    private static byte[] image(int width, int height) throws IOException
+    {
+        BufferedImage image = new BufferedImage(width, height,
+            BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+                image.setRGB(x, y, ThreadLocalRandom.current().nextInt());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Helper method which opens a link to a node as node 0, checks the
+     * node's proof that it knows the secret, then answers its nonce as if
+     * it knew the given secret.
+     *
+     * @param port the node's link port
+     * @param secret the secret to answer with
+     * @return the link's socket
+     * @throws Exception if the link can't be opened
+     */
+    private static Socket link(int port, String secret) throws Exception
+    {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(TIMEOUT_MS);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] nonce = new byte[32];
+        ThreadLocalRandom.current().nextBytes(nonce);
+        MessageCodec.write(out, new PeerMessage(PeerMessage.Kind.HELLO, 0,
+            null, null, nonce));
+
+        PeerMessage hello = (PeerMessage) MessageCodec.read(in);
+        PeerMessage proof = (PeerMessage) MessageCodec.read(in);
+        assertEquals(PeerMessage.Kind.HELLO, hello.getKind());
+        assertEquals(PeerMessage.Kind.PROOF, proof.getKind());
+        assertArrayEquals(proof(SECRET, nonce, 1), proof.getFrame());
+
+        MessageCodec.write(out, new PeerMessage(PeerMessage.Kind.PROOF, 0,
+            null, null, proof(secret, hello.getFrame(), 0)));
+        return socket;
+    }
+
+    /**
+     * @param secret the secret
+     * @param nonce a nonce
+     * @param node the node proving it knows the secret
+     * @return the node's proof for the nonce (see Cluster)
+     * @throws Exception if there's no HmacSHA256
+     */
+    private static byte[] proof(String secret, byte[] nonce, int node)
+        throws Exception
+    {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8),
+            "HmacSHA256"));
+        mac.update(nonce);
+        return mac.doFinal(ByteBuffer.allocate(4).putInt(node).array());
+    }
+
+    /**
+     * Helper method which starts a cluster and waits until its nodes accept
+     * clients.
+     *
+     * @param nodes the number of nodes
+     * @throws Exception if a node doesn't start
+     */
+    private void start(int nodes) throws Exception
+    {
+        clientPorts = new int[nodes];
+        linkPorts = new int[nodes];
+        StringBuilder peers = new StringBuilder();
+        for (int i = 0; i < nodes; i++)
+        {
+            clientPorts[i] = freePort();
+            linkPorts[i] = freePort();
+            peers.append(i == 0 ? "" : ",").append("localhost:").append(linkPorts[i]);
+        }
+
+        String java = System.getProperty("java.home") + File.separator + "bin"
+            + File.separator + "java";
+        for (int i = 0; i < nodes; i++)
+        {
+            ProcessBuilder pb = new ProcessBuilder(java,
+                "-cp", System.getProperty("java.class.path"),
+                "-Dchat.port=" + clientPorts[i],
+                "-Dchat.log.dir=",
+                "-Dchat.cluster.node=" + i,
+                "-Dchat.cluster.peers=" + peers,
+                "-Dchat.cluster.secret=" + SECRET,
+                "assignment.Server", "nio");
+            pb.redirectErrorStream(true);
+            pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            servers.add(pb.start());
+        }
+
+        for (int i = 0; i < nodes; i++)
+        {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (true)
+            {
+                Socket probe = null;
+                try
+                {
+                    probe = new Socket("localhost", clientPorts[i]);
+                    break;
+                }
+                catch (IOException e)
+                {
+                    if (System.currentTimeMillis() > deadline)
+                        throw e;
+                    Thread.sleep(100);
+                }
+                finally
+                {
+                    if (probe != null)
+                        probe.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a port nothing is listening on
+     * @throws IOException if no port is free
+     */
+    private static int freePort() throws IOException
+    {
+        try (ServerSocket ss = new ServerSocket(0))
+        {
+            return ss.getLocalPort();
+        }
+    }
+}
\ No newline at end of file
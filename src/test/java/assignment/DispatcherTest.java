@@ -0,0 +1,92 @@
+package assignment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Class Description: Unit tests for Dispatcher: tasks run in the order they
+ * were published, from any number of threads, and a task that throws (even
+ * an Error) doesn't stop the shard.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class DispatcherTest
+{
+    /**
+     * Each publisher's tasks run in the order it published them, and every
+     * task runs once, with the ring going round many times.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void runsEveryTaskInOrder() throws InterruptedException
+    {
+        Dispatcher shard = new Dispatcher("test-shard");
+        int publishers = 4;
+        int tasks = 4 * Dispatcher.RING_SIZE;
+        int[] last = new int[publishers];   //only used by the shard
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(publishers * tasks);
+
+        Thread[] threads = new Thread[publishers];
+        for (int p = 0; p < publishers; p++)
+        {
+            int publisher = p;
+            threads[p] = new Thread(() ->
+            {
+                for (int i = 1; i <= tasks; i++)
+                {
+                    int n = i;
+                    shard.execute(() ->
+                    {
+                        if (last[publisher] != n - 1)
+                            errors.add(publisher + ": " + n + " after " + last[publisher]);
+                        last[publisher] = n;
+                        done.countDown();
+                    });
+                }
+            });
+            threads[p].start();
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS), done.getCount() + " left");
+        assertEquals(Collections.emptyList(), errors);
+    }
+
+    /**
+     * Tasks after one that throws an exception or an Error still run, as do
+     * tasks a failing task published to the shard first.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void keepsRunningAfterATaskFails() throws InterruptedException
+    {
+        Dispatcher shard = new Dispatcher("test-shard");
+        CountDownLatch ran = new CountDownLatch(3);
+
+        //(published from another thread, which would wait forever on a dead
+        //shard once the ring is full):
+        Thread publisher = new Thread(() ->
+        {
+            shard.execute(() -> { throw new IllegalStateException("test"); });
+            shard.execute(() ->
+            {
+                shard.execute(ran::countDown);
+                throw new AssertionError("test");
+            });
+            shard.execute(ran::countDown);
+            for (int i = 0; i < 2 * Dispatcher.RING_SIZE; i++)
+                shard.execute(() -> {});
+            shard.execute(ran::countDown);
+        });
+        publisher.setDaemon(true);
+        publisher.start();
+
+        assertTrue(ran.await(10, TimeUnit.SECONDS), ran.getCount() + " left");
+    }
+}
\ No newline at end of file
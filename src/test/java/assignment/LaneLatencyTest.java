@@ -0,0 +1,114 @@
+package assignment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Class Description: Checks that text sent to a client doesn't wait behind
+ * an image being sent to it (see OutboundQueue's lanes). A writer takes
+ * frames off a client's queue as a 10 MB/s socket would, and text is
+ * queued every few milliseconds, first on its own, then while a 20 MB
+ * image is streamed in 32 KB chunks (with the transfer window's worth
+ * queued at most, as Transfer does). The text's p99 wait should only go up
+ * by about the one chunk being written when it arrives, rather than by the
+ * whole window queued ahead of it.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class LaneLatencyTest
+{
+    private static final long NANOS_PER_BYTE = 100;     //10 MB/s
+    private static final int IMAGE_BYTES = 20 * 1024 * 1024;
+    private static final int TEXTS = 300;
+    private static final long TEXT_INTERVAL_MILLIS = 3;
+
+    /**
+     * Compares the text's p99 wait with and without the image.
+     *
+     * @throws Exception if a frame can't be encoded
+     */
+    @Test
+    public void textStaysFlatWhileAnImageIsStreamed() throws Exception
+    {
+        long quiet = textP99(false);
+        long busy = textP99(true);
+
+        //(one chunk takes about 3.3ms to write, the window 26ms):
+        long chunkNanos = MessageCodec.CHUNK_SIZE * NANOS_PER_BYTE;
+        assertTrue(busy <= quiet + 2 * chunkNanos + TimeUnit.MILLISECONDS.toNanos(5),
+            "text p99 went from " + quiet / 1000 + "us to " + busy / 1000 + "us");
+    }
+
+    /**
+     * Helper method which sends the text (and the image, if asked to)
+     * through a queue, and measures how long each text frame waited.
+     *
+     * @param image whether to stream the image at the same time
+     * @return the text's p99 wait, in nanoseconds
+     * @throws Exception if a frame can't be encoded
+     */
+    private static long textP99(boolean image) throws Exception
+    {
+        OutboundQueue queue = new OutboundQueue();
+        Map<Frame, Long> queuedAt = new ConcurrentHashMap<>();
+        List<Long> waits = Collections.synchronizedList(new ArrayList<>());
+
+        Thread writer = new Thread(() ->
+        {
+            try
+            {
+                Frame frame;
+                while ((frame = queue.take()) != null)
+                {
+                    Long since = queuedAt.remove(frame);
+                    if (since != null)
+                        waits.add(System.nanoTime() - since);
+                    LockSupport.parkNanos(frame.length() * NANOS_PER_BYTE);
+                }
+            }
+            catch (InterruptedException e)
+            {}
+        });
+        writer.start();
+
+        Thread uploader = new Thread(() ->
+        {
+            try
+            {
+                for (int offset = 0; offset < IMAGE_BYTES; 
+                    offset += MessageCodec.CHUNK_SIZE)
+                {
+                    while (queue.getBytes() >= MessageCodec.TRANSFER_WINDOW)
+                        Thread.sleep(1);
+                    queue.offer(OutboundQueueTest.chunk(offset, 
+                        MessageCodec.CHUNK_SIZE));
+                }
+            }
+            catch (Exception e)
+            {}
+        });
+        if (image)
+            uploader.start();
+
+        for (int i = 0; i < TEXTS; i++)
+        {
+            Frame text = Frame.of(new StringMessage("CLIENT1", "text " + i));
+            queuedAt.put(text, System.nanoTime());
+            queue.offer(text);
+            Thread.sleep(TEXT_INTERVAL_MILLIS);
+        }
+
+        if (image)
+            uploader.join();
+        queue.close();
+        writer.join();
+
+        assertEquals(TEXTS, waits.size());
+        long[] sorted = waits.stream().mapToLong(Long::longValue).sorted().toArray();
+        return sorted[sorted.length * 99 / 100];
+    }
+}
\ No newline at end of file
@@ -0,0 +1,161 @@
+package assignment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Class Description: Unit tests for MentionMatcher's whole-name matching,
+ * and for its failure links staying right as names are added and removed.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class MentionMatcherTest
+{
+    /**
+     * Names only match as whole words, so a name inside a longer one isn't
+     * a mention.
+     */
+    @Test
+    public void matchesWholeNamesOnly()
+    {
+        MentionMatcher matcher = new MentionMatcher();
+        matcher.add("CLIENT1");
+        matcher.add("CLIENT12");
+
+        assertEquals(Set.of("CLIENT12"), matcher.match("hi CLIENT12!"));
+        assertEquals(Set.of("CLIENT1"), matcher.match("CLIENT1, hi"));
+        assertEquals(Set.of("CLIENT1", "CLIENT12"), matcher.match("CLIENT12 CLIENT1"));
+        assertEquals(Set.of(), matcher.match("CLIENT123 xCLIENT1 CLIENT"));
+        assertEquals(Set.of(), matcher.match(""));
+    }
+
+    /**
+     * A removed name is no longer matched, but the names sharing its path
+     * still are.
+     */
+    @Test
+    public void removedNamesAreNotMatched()
+    {
+        MentionMatcher matcher = new MentionMatcher();
+        matcher.add("CLIENT1");
+        matcher.add("CLIENT12");
+        matcher.remove("CLIENT1");
+
+        assertEquals(Set.of(), matcher.match("CLIENT1"));
+        assertEquals(Set.of("CLIENT12"), matcher.match("CLIENT12"));
+
+        matcher.remove("CLIENT12");
+        assertEquals(Set.of(), matcher.match("CLIENT12"));
+        matcher.remove("CLIENT12");     //(removing it again does nothing)
+    }
+
+    /**
+     * Adding a name twice doesn't count it twice, so one remove is enough
+     * to prune it.
+     */
+    @Test
+    public void duplicateAddIsRemovedOnce()
+    {
+        MentionMatcher matcher = new MentionMatcher();
+        matcher.add("CLIENT1");
+        matcher.add("CLIENT1");
+        matcher.remove("CLIENT1");
+
+        assertEquals(Set.of(), matcher.match("CLIENT1"));
+        matcher.add("CLIENT1");
+        assertEquals(Set.of("CLIENT1"), matcher.match("CLIENT1"));
+    }
+
+    /**
+     * Names that are suffixes of (and overlap) each other are still found
+     * when added in either order, which needs existing failure links moved
+     * to the new nodes.
+     */
+    @Test
+    public void linksExistingNodesToNewSuffixes()
+    {
+        MentionMatcher matcher = new MentionMatcher();
+        matcher.add("a-b-c");
+        matcher.add("b-c");
+        matcher.add("c");
+
+        assertEquals(Set.of("a-b-c", "b-c", "c"), matcher.match("a-b-c"));
+
+        matcher.remove("b-c");
+        assertEquals(Set.of("a-b-c", "c"), matcher.match("a-b-c"));
+        assertEquals(Set.of("c"), matcher.match("x-b-c"));
+    }
+
+    /**
+     * After random joins and leaves, matches are the same as checking every
+     * name on its own.
+     */
+    @Test
+    public void matchesAfterChurn()
+    {
+        Random random = new Random(7);
+        MentionMatcher matcher = new MentionMatcher();
+        Set<String> names = new HashSet<>();
+
+        for (int round = 0; round < 2000; round++)
+        {
+            String name = randomText(random, 1 + random.nextInt(4));
+            if (random.nextInt(3) == 0)
+            {
+                matcher.remove(name);
+                names.remove(name);
+            }
+            else
+            {
+                matcher.add(name);
+                names.add(name);
+            }
+
+            String text = randomText(random, 20);
+            assertEquals(expected(names, text), matcher.match(text), text);
+        }
+    }
+
+    /**
+     * Helper method which makes random text from a small alphabet (so names
+     * overlap often), with spaces as word edges.
+     *
+     * @param random the source of randomness
+     * @param length the length of the text
+     * @return the text
+     */
+    private static String randomText(Random random, int length)
+    {
+        String alphabet = "ab -";
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++)
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return text.toString();
+    }
+
+    /**
+     * Helper method which finds the mentions by checking every name on its
+     * own.
+     *
+     * @param names the names
+     * @param text the message
+     * @return the names mentioned
+     */
+    private static Set<String> expected(Set<String> names, String text)
+    {
+        Set<String> mentioned = new HashSet<>();
+        for (String name : names)
+        {
+            for (int i = text.indexOf(name); i >= 0; i = text.indexOf(name, i + 1))
+            {
+                int end = i + name.length();
+                if ((i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1)))
+                    && (end == text.length() || !Character.isLetterOrDigit(text.charAt(end))))
+                    mentioned.add(name);
+            }
+        }
+        return mentioned;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,240 @@
+package assignment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Class Description: Unit tests for MessageCodec: every kind of message
+ * comes back the same after being encoded and read off a stream (and after
+ * being compressed, where it can be), and broken frames are turned away
+ * with an IOException rather than anything unchecked.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class MessageCodecTest
+{
+    /**
+     * Text, with and without a sender and a trace.
+     *
+     * @throws IOException if a message can't be encoded or decoded
+     */
+    @Test
+    public void roundTripsText() throws IOException
+    {
+        StringMessage notice = (StringMessage) roundTrip(
+            new StringMessage("Server - New User: CLIENT1"));
+        assertNull(notice.getSender());
+        assertEquals("Server - New User: CLIENT1", notice.getMessage());
+
+        StringMessage text = (StringMessage) roundTrip(
+            new StringMessage("CLIENT2", "hello CLIENT1 ☃"));
+        assertEquals("CLIENT2", text.getSender());
+        assertEquals("hello CLIENT1 ☃", text.getMessage());
+        assertNull(text.getTrace());
+
+        StringMessage traced = (StringMessage) roundTrip(new StringMessage(
+            "CLIENT2", "traced", new TraceContext(7, 1, 2, 3)));
+        assertEquals(7, traced.getTrace().getId());
+        assertEquals(3, traced.getTrace().getDispatched());
+    }
+
+    /**
+     * Roster deltas, snapshots and resync requests.
+     *
+     * @throws IOException if a message can't be encoded or decoded
+     */
+    @Test
+    public void roundTripsRosters() throws IOException
+    {
+        ListMessage added = (ListMessage) roundTrip(new ListMessage("CLIENT3", true, 9));
+        assertEquals("CLIENT3", added.getMember());
+        assertTrue(added.isAdded());
+        assertEquals(9, added.getVersion());
+
+        ListMessage removed = (ListMessage) roundTrip(new ListMessage("CLIENT3", false, 10));
+        assertFalse(removed.isAdded());
+
+        List<String> members = Arrays.asList("CLIENT1", "CLIENT2", "CLIENT12");
+        ListMessage snapshot = (ListMessage) roundTrip(new ListMessage(members, 11));
+        assertEquals(members, snapshot.getMembers());
+        assertEquals(11, snapshot.getVersion());
+
+        assertEquals(ListMessage.Kind.RESYNC, 
+            ((ListMessage) roundTrip(new ListMessage(11))).getKind());
+    }
+
+    /**
+     * Images, transfers, searches, rooms, peers, hellos, traces and pings.
+     *
+     * @throws IOException if a message can't be encoded or decoded
+     */
+    @Test
+    public void roundTripsEverythingElse() throws IOException
+    {
+        byte[] data = {(byte) 0x89, 'P', 'N', 'G', 1, 2, 3};
+        ImageMessage image = (ImageMessage) roundTrip(
+            new ImageMessage(data, "image/png", 640, 480));
+        assertArrayEquals(data, image.getData());
+        assertEquals("image/png", image.getMediaType());
+        assertEquals(480, image.getHeight());
+
+        byte[] hash = ImageMessage.hash(data);
+        ImageMessage ref = (ImageMessage) roundTrip(
+            new ImageMessage(ImageMessage.Kind.REFERENCE, hash));
+        assertEquals(ImageMessage.Kind.REFERENCE, ref.getKind());
+        assertArrayEquals(hash, ref.getHash());
+
+        TransferMessage start = (TransferMessage) roundTrip(TransferMessage.start(
+            4, 1 << 20, hash, "image/jpeg", 800, 600));
+        assertEquals(1 << 20, start.getLength());
+        assertArrayEquals(hash, start.getHash());
+        assertNull(start.getKey());
+        byte[] key = Arrays.copyOf(hash, MessageCodec.RESUME_KEY_LENGTH);
+        TransferMessage keyed = (TransferMessage) roundTrip(TransferMessage.start(
+            4, 1 << 20, hash, "image/jpeg", 800, 600, key));
+        assertEquals("image/jpeg", keyed.getMediaType());
+        assertArrayEquals(key, keyed.getKey());
+        TransferMessage chunk = (TransferMessage) roundTrip(
+            TransferMessage.chunk(4, 32768, data));
+        assertEquals(32768, chunk.getOffset());
+        assertArrayEquals(data, chunk.getData());
+        TransferMessage ack = (TransferMessage) roundTrip(TransferMessage.ack(4, 65536, 262144));
+        assertEquals(262144, ack.getCredit());
+        assertEquals(TransferMessage.Kind.CANCEL, 
+            ((TransferMessage) roundTrip(TransferMessage.cancel(4))).getKind());
+
+        SearchMessage query = (SearchMessage) roundTrip(
+            SearchMessage.query("build logs from:CLIENT3", 20, 5));
+        assertEquals("build logs from:CLIENT3", query.getQuery());
+        assertEquals(20, query.getLimit());
+        SearchMessage results = (SearchMessage) roundTrip(SearchMessage.results(
+            Arrays.asList(new SearchMessage.Hit(3, 1000L, "CLIENT3", "build logs")), 2));
+        assertEquals("build logs", results.getHits().get(0).getText());
+        assertEquals(2, results.getCursor());
+
+        assertEquals("general", ((RoomMessage) roundTrip(
+            new RoomMessage(RoomMessage.Kind.JOIN, "general"))).getRoom());
+
+        PeerMessage peer = (PeerMessage) roundTrip(new PeerMessage(
+            PeerMessage.Kind.values()[0], 2, "CLIENT4", "lobby", data));
+        assertEquals(2, peer.getNode());
+        assertArrayEquals(data, peer.getFrame());
+
+        HelloMessage hello = (HelloMessage) roundTrip(new HelloMessage(1, 1, 
+            MessageCodec.SUPPORTED_FEATURES));
+        assertEquals(MessageCodec.SUPPORTED_FEATURES, hello.getFeatures());
+
+        TraceMessage trace = (TraceMessage) roundTrip(new TraceMessage(
+            Arrays.asList(new TraceMessage.Span(1, 2, 3))));
+        assertEquals(3, trace.getSpans().get(0).getShown());
+
+        PingMessage pong = (PingMessage) roundTrip(
+            new PingMessage(PingMessage.Kind.PONG, Long.MAX_VALUE));
+        assertEquals(PingMessage.Kind.PONG, pong.getKind());
+        assertEquals(Long.MAX_VALUE, pong.getValue());
+    }
+
+    /**
+     * Compressed frames decode to the same message.
+     *
+     * @throws IOException if a message can't be encoded or decoded
+     */
+    @Test
+    public void roundTripsCompressedFrames() throws IOException
+    {
+        String text = "Server - To send a message to a specific client, type "
+            + "their name (e.g. CLIENT2) somewhere in the message.";
+        byte[] compressed = MessageCodec.compress(
+            MessageCodec.encode(new StringMessage(text)));
+        assertNotNull(compressed);
+
+        StringMessage m = (StringMessage) read(compressed);
+        assertEquals(text, m.getMessage());
+    }
+
+    /**
+     * Varints too big for an int, negative lengths and counts, counts
+     * bigger than the frame, truncated frames and unknown tags all fail
+     * with an IOException.
+     */
+    @Test
+    public void rejectsBrokenFrames()
+    {
+        byte[] negative = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+        byte[][] payloads = {
+            concat(new byte[] {MessageCodec.TAG_STRING, 1}, negative, new byte[] {'a'}),
+            concat(new byte[] {MessageCodec.TAG_LIST, 2, 0}, negative),
+            {MessageCodec.TAG_LIST, 2, 0, 100, 1},
+            concat(new byte[] {MessageCodec.TAG_SEARCH, 1, 0}, negative),
+            {MessageCodec.TAG_SEARCH, 1, 0, 50, 1},
+            {MessageCodec.TAG_STRING, 1, 10, 'a'},
+            {MessageCodec.TAG_IMAGE_REF, 1},
+            {MessageCodec.TAG_PING, 0, 1},
+            {MessageCodec.TAG_HELLO, (byte) 0x80},
+            {MessageCodec.TAG_DEFLATE, 1, 2, 3},
+            {99},
+            {},
+        };
+        for (byte[] payload : payloads)
+            assertThrows(IOException.class, 
+                () -> MessageCodec.decode(payload, 0, payload.length),
+                Arrays.toString(payload));
+    }
+
+    /**
+     * A frame claiming to be as big as is allowed, that ends straight away,
+     * fails without the reader setting aside that much memory first.
+     */
+    @Test
+    public void rejectsFramesThatEndEarly()
+    {
+        //(a length of 64 MB - 1):
+        byte[] frame = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x1F, 
+            MessageCodec.TAG_STRING, 0};
+        assertThrows(EOFException.class, () -> read(frame));
+
+        byte[] tooBig = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+        assertThrows(IOException.class, () -> read(tooBig));
+    }
+
+    /**
+     * Helper method which encodes a message, then reads it back.
+     *
+     * @param m the message
+     * @return the message read back
+     * @throws IOException if it can't be encoded or decoded
+     */
+    private static Message roundTrip(Message m) throws IOException
+    {
+        return read(MessageCodec.encode(m));
+    }
+
+    /**
+     * Helper method which reads one message from a frame's bytes.
+     *
+     * @param frame the frame
+     * @return the message
+     * @throws IOException if it can't be decoded
+     */
+    private static Message read(byte[] frame) throws IOException
+    {
+        return MessageCodec.read(new DataInputStream(new ByteArrayInputStream(frame)));
+    }
+
+    /**
+     * Helper method which joins arrays.
+     *
+     * @param parts the arrays
+     * @return them one after another
+     */
+    private static byte[] concat(byte[]... parts)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts)
+            out.write(part, 0, part.length);
+        return out.toByteArray();
+    }
+}
\ No newline at end of file
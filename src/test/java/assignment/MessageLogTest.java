@@ -0,0 +1,103 @@
+package assignment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Class Description: Unit tests for MessageLog: records are replayed the same
+ * before and after they are written and after the log is reopened, and a
+ * ClientRegistry using the log carries on after the client numbers handed
+ * out before a restart.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class MessageLogTest
+{
+    /**
+     * Frames appended are replayed in order, whether or not the writer has
+     * got to them, and again once the log is reopened.
+     *
+     * @param dir a directory for the log
+     * @throws Exception if the log can't be used
+     */
+    @Test
+    public void replaysAcrossReopening(@TempDir Path dir) throws Exception
+    {
+        MessageLog log = new MessageLog(dir.toString());
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < MessageLog.REPLAY + 10; i++)
+        {
+            texts.add("message " + i);
+            log.append(Frame.of(new StringMessage("CLIENT1", "message " + i)));
+            assertEquals(texts.get(texts.size() - 1), last(log.replay()));
+        }
+        log.close();
+        List<String> expected = texts.subList(10, texts.size());
+        assertEquals(expected, texts(log.replay()));
+
+        MessageLog reopened = new MessageLog(dir.toString());
+        assertEquals(expected, texts(reopened.replay()));
+        reopened.close();
+    }
+
+    /**
+     * Client numbers carry on after a restart, rather than starting again at
+     * CLIENT1 while the history still has the old CLIENT1's messages.
+     *
+     * @param dir a directory for the log
+     * @throws Exception if the log can't be used
+     */
+    @Test
+    public void clientNumbersCarryOnAfterRestart(@TempDir Path dir) throws Exception
+    {
+        MessageLog log = new MessageLog(dir.toString());
+        ClientRegistry clients = new ClientRegistry(1, 1, log);
+        int last = 0;
+        for (int i = 0; i < ClientRegistry.ID_BLOCK + 5; i++)
+            last = clients.nextId();
+        log.close();
+
+        MessageLog reopened = new MessageLog(dir.toString());
+        int next = new ClientRegistry(1, 1, reopened).nextId();
+        assertTrue(next > last, next + " after " + last);
+        reopened.close();
+
+        //(without a history, numbers start from the first):
+        assertEquals(2, new ClientRegistry(2, 3, null).nextId());
+    }
+
+    /**
+     * @param frames frames from the log
+     * @return each frame's text
+     * @throws Exception if a frame can't be decoded
+     */
+    private static List<String> texts(List<Frame> frames) throws Exception
+    {
+        List<String> texts = new ArrayList<>();
+        for (Frame frame : frames)
+        {
+            byte[] bytes = new byte[frame.length()];
+            frame.buffer().get(bytes);
+            int length = MessageCodec.peekLength(ByteBuffer.wrap(bytes));
+            texts.add(((StringMessage) MessageCodec.decode(bytes, 
+                bytes.length - length, length)).getMessage());
+        }
+        return texts;
+    }
+
+    /**
+     * @param frames frames from the log
+     * @return the last frame's text
+     * @throws Exception if a frame can't be decoded
+     */
+    private static String last(List<Frame> frames) throws Exception
+    {
+        List<String> texts = texts(frames);
+        return texts.get(texts.size() - 1);
+    }
+}
\ No newline at end of file
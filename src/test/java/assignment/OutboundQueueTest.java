@@ -0,0 +1,139 @@
+package assignment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Class Description: Unit tests for OutboundQueue's lanes, its default
+ * slow-consumer policy (DROP_NON_CONTROL), the rule for links between
+ * cluster nodes, and its counts.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class OutboundQueueTest
+{
+    /**
+     * Control frames are taken before text, and text before images, however
+     * they were queued; frames in the same lane keep their order.
+     *
+     * @throws IOException if a frame can't be encoded
+     */
+    @Test
+    public void takesLanesInPriorityOrder() throws IOException
+    {
+        OutboundQueue queue = new OutboundQueue();
+        Frame image = chunk(0, 1024);
+        Frame text1 = Frame.of(new StringMessage("CLIENT1", "one"));
+        Frame roster = Frame.of(new ListMessage("CLIENT2", true, 2));
+        Frame text2 = Frame.of(new StringMessage("CLIENT1", "two"));
+        Frame image2 = chunk(1024, 1024);
+
+        for (Frame frame : new Frame[] {image, text1, roster, text2, image2})
+            assertTrue(queue.offer(frame));
+
+        assertSame(roster, queue.poll());
+        assertSame(text1, queue.poll());
+        assertSame(text2, queue.poll());
+        assertSame(image, queue.poll());
+        assertSame(image2, queue.poll());
+        assertNull(queue.poll());
+        assertEquals(5, queue.getTaken());
+    }
+
+    /**
+     * Over the high-water mark, images and text are dropped, but control
+     * frames are still queued.
+     *
+     * @throws IOException if a frame can't be encoded
+     */
+    @Test
+    public void dropsNonControlFramesOverTheHighWaterMark() throws IOException
+    {
+        assertEquals(OutboundQueue.Policy.DROP_NON_CONTROL, OutboundQueue.POLICY);
+
+        //fill the queue with images until one doesn't fit:
+        OutboundQueue queue = new OutboundQueue();
+        int size = 1024 * 1024;
+        for (int offset = 0; queue.getDrops() == 0; offset += size)
+            assertTrue(queue.offer(chunk(offset, size)));
+        int depth = queue.getDepth();
+        assertEquals(OutboundQueue.HIGH_WATER_MARK / size - 1, depth);
+
+        //(text as big as the image that didn't fit):
+        assertTrue(queue.offer(Frame.of(new StringMessage("CLIENT1", 
+            "x".repeat(size)))));
+        assertEquals(depth, queue.getDepth());
+        assertEquals(2, queue.getDrops());
+
+        Frame roster = Frame.of(new ListMessage("CLIENT2", true, 2));
+        assertTrue(queue.offer(roster));
+        assertSame(roster, queue.poll());
+    }
+
+    /**
+     * Over the high-water mark, a link between cluster nodes drops nothing,
+     * and is to be closed instead.
+     *
+     * @throws IOException if a frame can't be encoded
+     */
+    @Test
+    public void closesPeerLinksOverTheHighWaterMark() throws IOException
+    {
+        OutboundQueue queue = new OutboundQueue();
+        int size = 1024 * 1024;
+        Frame pm = Frame.of(new PeerMessage(PeerMessage.Kind.ROOM, 0, null,
+            "lobby", new byte[size]));
+        long queued = 0;
+        while (queued + pm.length() <= OutboundQueue.HIGH_WATER_MARK)
+        {
+            assertTrue(queue.offer(pm));
+            queued += pm.length();
+        }
+        int depth = queue.getDepth();
+
+        assertFalse(queue.offer(pm));
+        assertEquals(depth, queue.getDepth());
+        assertEquals(0, queue.getDrops());
+    }
+
+    /**
+     * Once closed, a queue takes no more frames, but the ones already in it
+     * can still be taken; once cleared, they're gone.
+     *
+     * @throws Exception if a frame can't be encoded
+     */
+    @Test
+    public void closesAndClears() throws Exception
+    {
+        OutboundQueue queue = new OutboundQueue();
+        Frame text = Frame.of(new StringMessage("CLIENT1", "bye"));
+        assertTrue(queue.offer(text));
+        queue.close();
+
+        assertFalse(queue.offer(text));
+        assertSame(text, queue.take());
+        assertNull(queue.take());
+
+        OutboundQueue cleared = new OutboundQueue();
+        assertTrue(cleared.offer(text));
+        cleared.clear();
+        assertEquals(0, cleared.getDepth());
+        assertEquals(0, cleared.getBytes());
+        assertNull(cleared.take());
+    }
+
+    /**
+     * Helper method which encodes a transfer chunk (a bulk frame).
+     *
+     * @param offset the chunk's offset
+     * @param length the chunk's length
+     * @return the frame
+     * @throws IOException if it can't be encoded
+     */
+    static Frame chunk(int offset, int length) throws IOException
+    {
+        return Frame.of(TransferMessage.chunk(1, offset, new byte[length]));
+    }
+}
\ No newline at end of file
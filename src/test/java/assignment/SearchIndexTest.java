@@ -0,0 +1,102 @@
+package assignment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Class Description: Unit tests for SearchIndex: queries find the newest
+ * matches first, a page at a time, only in the room searched, and the index
+ * drops its oldest messages once it holds more than MAX_BYTES of them.
+ *
+ * The tests run with small buffers and a small MAX_BYTES (see the pom), so
+ * segments are made, merged and dropped quickly.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class SearchIndexTest
+{
+    /**
+     * A query finds the messages with all of its words, newest first, and
+     * the cursor gets the next page.
+     */
+    @Test
+    public void findsNewestFirstAPageAtATime()
+    {
+        SearchIndex index = new SearchIndex();
+        for (int i = 0; i < 3 * SearchIndex.FLUSH_DOCS; i++)
+            index.add("CLIENT" + (i % 3 + 1), i % 2 == 0 ? "lobby" : "dev",
+                "build " + i + (i % 10 == 0 ? " deploy" : ""));
+
+        SearchMessage page = index.search("deploy build", "lobby", 5, 0);
+        List<SearchMessage.Hit> hits = page.getHits();
+        assertEquals(5, hits.size());
+        for (int i = 0; i < hits.size(); i++)
+        {
+            assertTrue(hits.get(i).getText().endsWith(" deploy"));
+            if (i > 0)
+                assertTrue(hits.get(i).getId() < hits.get(i - 1).getId());
+        }
+
+        SearchMessage next = index.search("deploy build", "lobby", 5, page.getCursor());
+        assertTrue(next.getHits().get(0).getId() < hits.get(4).getId());
+        assertTrue(index.search("deploy", "dev", 5, 0).getHits().isEmpty());
+        assertEquals(Set.of("CLIENT1"), senders(
+            index.search("from:client1 build", "lobby", 50, 0).getHits()));
+    }
+
+    /**
+     * Once the index holds more than MAX_BYTES of messages, the oldest are
+     * no longer found, while the newest still are.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void dropsTheOldestMessagesOverMaxBytes() throws InterruptedException
+    {
+        assertTrue(SearchIndex.MAX_BYTES < 64 * 1024 * 1024, "run with the pom's settings");
+        SearchIndex index = new SearchIndex();
+        String padding = "x".repeat(200);
+        int count = 0;
+        long added = 0;
+        for (; added < 4 * SearchIndex.MAX_BYTES; count++)
+        {
+            String text = "message" + count + " " + padding;
+            index.add("CLIENT1", "lobby", text);
+            added += text.length();
+        }
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!index.search("message0", "lobby", 1, 0).getHits().isEmpty()
+            && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+        assertTrue(index.search("message0", "lobby", 1, 0).getHits().isEmpty());
+        assertEquals(1, index.search("message" + (count - 1), "lobby", 1, 0)
+            .getHits().size());
+
+        //roughly MAX_BYTES of the newest messages are left:
+        int kept = 0;
+        for (int cursor = 0; ; )
+        {
+            SearchMessage page = index.search("", "lobby", SearchIndex.MAX_RESULTS, cursor);
+            kept += page.getHits().size();
+            if ((cursor = page.getCursor()) == 0)
+                break;
+        }
+        assertTrue(kept < count / 2, kept + " of " + count);
+        assertTrue(kept > count / 16, kept + " of " + count);
+    }
+
+    /**
+     * @param hits search results
+     * @return who sent them
+     */
+    private static Set<String> senders(List<SearchMessage.Hit> hits)
+    {
+        Set<String> senders = new HashSet<>();
+        for (SearchMessage.Hit hit : hits)
+            senders.add(hit.getSender());
+        return senders;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,88 @@
+package assignment;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A class which implements Connection for the tests: frames sent to it are
+ * only counted, and it can be told to act as if its client has gone.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class TestConnection implements Connection
+{
+    private final AtomicInteger frames = new AtomicInteger();
+    private final OutboundQueue queue = new OutboundQueue();  //always empty
+    private volatile boolean closed = false;
+
+    /**
+     * Counts the frame.
+     *
+     * @param frame the frame to send
+     */
+    @Override
+    public void send(Frame frame)
+    {
+        frames.incrementAndGet();
+    }
+
+    /**
+     * Does nothing, frames are never compressed.
+     */
+    @Override
+    public void setCompressing(boolean compressing)
+    {
+
+    }
+
+    /**
+     * Does nothing, frames are never decoded.
+     */
+    @Override
+    public void setTracing(boolean tracing)
+    {
+
+    }
+
+    /**
+     * Marks the connection as closed.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+    }
+
+    /**
+     * Marks the connection as closed.
+     */
+    @Override
+    public void abort()
+    {
+        closed = true;
+    }
+
+    /**
+     * @return an empty queue
+     */
+    @Override
+    public OutboundQueue getQueue()
+    {
+        return queue;
+    }
+
+    /**
+     * @return the number of frames sent to it
+     */
+    public int getFrames()
+    {
+        return frames.get();
+    }
+
+    /**
+     * @return whether it has been closed
+     */
+    public boolean isClosed()
+    {
+        return closed;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,136 @@
+package assignment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Class Description: Unit tests for TimingWheel: timeouts run once their
+ * delay has passed (including ones going round the wheel), cancelled ones
+ * don't, and a failing task doesn't stop the wheel.
+ *
+ * The tests run with 5ms ticks (see the pom), so delays are in ticks.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class TimingWheelTest
+{
+    private static final long TICK = TimingWheel.TICK_MILLIS;
+
+    /**
+     * A timeout runs no earlier than its delay, and not long after it.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void runsAfterItsDelay() throws InterruptedException
+    {
+        TimingWheel wheel = new TimingWheel("test-timers");
+        CountDownLatch ran = new CountDownLatch(1);
+        long delay = 20 * TICK;
+
+        long start = System.nanoTime();
+        wheel.schedule(ran::countDown, delay);
+        assertTrue(ran.await(delay + 5000, TimeUnit.MILLISECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsed >= delay, elapsed + "ms");
+        assertTrue(wheel.now() >= delay, wheel.now() + "ms");
+    }
+
+    /**
+     * A cancelled timeout never runs, while one due at the same time does.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void cancelledTimeoutsDontRun() throws InterruptedException
+    {
+        TimingWheel wheel = new TimingWheel("test-timers");
+        AtomicBoolean cancelledRan = new AtomicBoolean();
+        CountDownLatch ran = new CountDownLatch(1);
+
+        wheel.schedule(() -> cancelledRan.set(true), 10 * TICK).cancel();
+        wheel.schedule(ran::countDown, 10 * TICK);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        //(due on the same tick, and run before the next tick starts):
+        Thread.sleep(2 * TICK);
+
+        assertFalse(cancelledRan.get());
+    }
+
+    /**
+     * Many timeouts with mixed delays all run, each after its own delay.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void runsManyTimeouts() throws InterruptedException
+    {
+        TimingWheel wheel = new TimingWheel("test-timers");
+        int count = 10000;
+        CountDownLatch ran = new CountDownLatch(count);
+        AtomicInteger early = new AtomicInteger();
+
+        for (int i = 0; i < count; i++)
+        {
+            long delay = (1 + i % 50) * TICK;
+            long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            wheel.schedule(() ->
+            {
+                if (System.nanoTime() < due)
+                    early.incrementAndGet();
+                ran.countDown();
+            }, delay);
+        }
+
+        assertTrue(ran.await(10, TimeUnit.SECONDS), ran.getCount() + " left");
+        assertEquals(0, early.get());
+    }
+
+    /**
+     * A timeout more than SLOTS ticks away goes round the wheel instead of
+     * running when its bucket first comes round.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void goesRoundTheWheel() throws InterruptedException
+    {
+        TimingWheel wheel = new TimingWheel("test-timers");
+        CountDownLatch near = new CountDownLatch(1);
+        CountDownLatch far = new CountDownLatch(1);
+        long farDelay = (TimingWheel.SLOTS + 20) * TICK;
+
+        long start = System.nanoTime();
+        wheel.schedule(far::countDown, farDelay);
+        wheel.schedule(near::countDown, 20 * TICK);     //(in the same bucket)
+
+        assertTrue(near.await(5, TimeUnit.SECONDS));
+        assertEquals(1, far.getCount());
+        assertTrue(far.await(farDelay + 5000, TimeUnit.MILLISECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed >= farDelay, elapsed + "ms");
+    }
+
+    /**
+     * A task that throws doesn't stop the timeouts after it running.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void keepsRunningAfterATaskFails() throws InterruptedException
+    {
+        TimingWheel wheel = new TimingWheel("test-timers");
+        CountDownLatch ran = new CountDownLatch(1);
+
+        wheel.schedule(() -> { throw new IllegalStateException("test"); }, TICK);
+        wheel.schedule(ran::countDown, 5 * TICK);
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,301 @@
+package assignment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Class Description: Streams files through a server's Transfers, checking
+ * that only the client that started a paused transfer can resume it, that
+ * a file with the wrong hash never reaches its recipients whole, that one
+ * of the wrong media type never reaches them at all, and that paused
+ * transfers expire.
+ *
+ * The tests run with transfers expiring after half a second of being
+ * paused (see the pom). One client stays joined throughout, as the server
+ * closes itself once its last client leaves.
+ *
+ * @author Ryan Herkt (ID: 18022861)
+ */
+public class TransfersTest
+{
+    private static final int LENGTH = 3 * MessageCodec.CHUNK_SIZE + 100;
+
+    /**
+     * A client with a different resume key starts a new transfer of the
+     * same file, while the original uploader (after reconnecting) carries
+     * on from where it stopped.
+     *
+     * @throws Exception if a client fails
+     */
+    @Test
+    public void onlyTheUploaderCanResume() throws Exception
+    {
+        Server server = new Server();
+        join(server, new TestConnection());     //(the anchor)
+        RecordingConnection recipient = new RecordingConnection();
+        join(server, recipient);
+
+        byte[] data = randomData();
+        byte[] key = randomKey();
+        Server.ChatServer uploader = join(server, new RecordingConnection());
+        uploader.receive(start(1, data, ImageMessage.hash(data), key));
+        uploader.receive(TransferMessage.chunk(1, 0, chunk(data, 0)));
+        uploader.leave();
+
+        //anyone else gets a transfer of their own, from the start:
+        RecordingConnection otherConnection = new RecordingConnection();
+        Server.ChatServer other = join(server, otherConnection);
+        other.receive(start(1, data, ImageMessage.hash(data), randomKey()));
+        assertEquals(0, otherConnection.last(TransferMessage.Kind.ACK).getOffset());
+
+        //the uploader carries on after the chunk it sent:
+        RecordingConnection againConnection = new RecordingConnection();
+        Server.ChatServer again = join(server, againConnection);
+        again.receive(start(7, data, ImageMessage.hash(data), key));
+        TransferMessage ack = againConnection.last(TransferMessage.Kind.ACK);
+        assertEquals(7, ack.getId());
+        assertEquals(MessageCodec.CHUNK_SIZE, ack.getOffset());
+
+        for (int offset = MessageCodec.CHUNK_SIZE; offset < LENGTH; 
+            offset += MessageCodec.CHUNK_SIZE)
+            again.receive(TransferMessage.chunk(7, offset, chunk(data, offset)));
+        assertEquals(LENGTH, againConnection.last(TransferMessage.Kind.ACK).getOffset());
+
+        //the recipient got the whole file, once, from the first transfer:
+        int id = recipient.first(TransferMessage.Kind.START).getId();
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        for (TransferMessage tm : recipient.transfers)
+        {
+            if (tm.getKind() == TransferMessage.Kind.CHUNK && tm.getId() == id)
+                received.write(tm.getData());
+        }
+        assertArrayEquals(data, received.toByteArray());
+        assertNull(recipient.last(TransferMessage.Kind.CANCEL));
+    }
+
+    /**
+     * A file whose hash isn't the one its START gave is cancelled before
+     * its last chunk is sent on, and the uploader is disconnected.
+     *
+     * @throws Exception if a client fails
+     */
+    @Test
+    public void wrongHashIsCancelled() throws Exception
+    {
+        Server server = new Server();
+        join(server, new TestConnection());     //(the anchor)
+        RecordingConnection recipient = new RecordingConnection();
+        join(server, recipient);
+
+        byte[] data = randomData();
+        Server.ChatServer uploader = join(server, new RecordingConnection());
+        uploader.receive(start(1, data, ImageMessage.hash(randomData()), randomKey()));
+        int offset = 0;
+        for (; offset + MessageCodec.CHUNK_SIZE < LENGTH; offset += MessageCodec.CHUNK_SIZE)
+            uploader.receive(TransferMessage.chunk(1, offset, chunk(data, offset)));
+        int last = offset;
+        assertThrows(IOException.class, 
+            () -> uploader.receive(TransferMessage.chunk(1, last, chunk(data, last))));
+
+        assertNotNull(recipient.last(TransferMessage.Kind.CANCEL));
+        assertTrue(recipient.last(TransferMessage.Kind.CHUNK).getOffset() < last);
+    }
+
+    /**
+     * A file that doesn't start the way its START's media type does is
+     * cancelled before any of it is sent on, and the uploader is
+     * disconnected.
+     *
+     * @throws Exception if a client fails
+     */
+    @Test
+    public void wrongMediaTypeIsCancelled() throws Exception
+    {
+        Server server = new Server();
+        join(server, new TestConnection());     //(the anchor)
+        RecordingConnection recipient = new RecordingConnection();
+        join(server, recipient);
+
+        byte[] data = randomData();     //(a PNG, as far as its start goes)
+        Server.ChatServer uploader = join(server, new RecordingConnection());
+        uploader.receive(TransferMessage.start(1, data.length, 
+            ImageMessage.hash(data), "image/jpeg", 0, 0, randomKey()));
+        assertThrows(IOException.class, 
+            () -> uploader.receive(TransferMessage.chunk(1, 0, chunk(data, 0))));
+
+        assertNotNull(recipient.last(TransferMessage.Kind.CANCEL));
+        assertNull(recipient.last(TransferMessage.Kind.CHUNK));
+    }
+
+    /**
+     * A transfer left paused is cancelled, and can't be resumed afterwards.
+     *
+     * @throws Exception if a client fails
+     */
+    @Test
+    public void pausedTransfersExpire() throws Exception
+    {
+        assertTrue(Transfers.PAUSED_MILLIS < 5000, "run with the pom's settings");
+        Server server = new Server();
+        join(server, new TestConnection());     //(the anchor)
+        RecordingConnection recipient = new RecordingConnection();
+        join(server, recipient);
+
+        byte[] data = randomData();
+        byte[] key = randomKey();
+        Server.ChatServer uploader = join(server, new RecordingConnection());
+        uploader.receive(start(1, data, ImageMessage.hash(data), key));
+        uploader.receive(TransferMessage.chunk(1, 0, chunk(data, 0)));
+        uploader.leave();
+
+        long deadline = System.currentTimeMillis() + Transfers.PAUSED_MILLIS + 5000;
+        while (recipient.last(TransferMessage.Kind.CANCEL) == null
+            && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+        assertNotNull(recipient.last(TransferMessage.Kind.CANCEL));
+
+        RecordingConnection againConnection = new RecordingConnection();
+        Server.ChatServer again = join(server, againConnection);
+        again.receive(start(1, data, ImageMessage.hash(data), key));
+        assertEquals(0, againConnection.last(TransferMessage.Kind.ACK).getOffset());
+    }
+
+    /**
+     * Helper method which connects a client and has it say hello (and so
+     * join the lobby).
+     *
+     * @param server the server
+     * @param connection the client's connection
+     * @return the client's ChatServer
+     * @throws IOException if the client can't join
+     */
+    private static Server.ChatServer join(Server server, Connection connection)
+        throws IOException
+    {
+        Server.ChatServer cs = server.newSession(connection);
+        assertFalse(cs.receive(new HelloMessage(MessageCodec.PROTOCOL_VERSION,
+            MessageCodec.MIN_PROTOCOL_VERSION, MessageCodec.SUPPORTED_FEATURES
+            & ~MessageCodec.FEATURE_HEARTBEAT)));
+        return cs;
+    }
+
+    /**
+     * Helper method which makes an uploader's START.
+     *
+     * @param id the uploader's transfer id
+     * @param data the file
+     * @param hash the hash to say the file has
+     * @param key the uploader's resume key
+     * @return the START
+     */
+    private static TransferMessage start(int id, byte[] data, byte[] hash, byte[] key)
+    {
+        return TransferMessage.start(id, data.length, hash, "image/png", 0, 0, key);
+    }
+
+    /**
+     * @param data the file
+     * @param offset where the chunk starts
+     * @return the chunk of the file starting at the offset
+     */
+    private static byte[] chunk(byte[] data, int offset)
+    {
+        return Arrays.copyOfRange(data, offset,
+            Math.min(data.length, offset + MessageCodec.CHUNK_SIZE));
+    }
+
+    /**
+     * @return LENGTH random bytes, after a PNG file's signature (so it passes
+     * for one)
+     */
+    private static byte[] randomData()
+    {
+        byte[] data = new byte[LENGTH];
+        ThreadLocalRandom.current().nextBytes(data);
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+        System.arraycopy(png, 0, data, 0, png.length);
+        return data;
+    }
+
+    /**
+     * @return a random resume key
+     */
+    private static byte[] randomKey()
+    {
+        byte[] key = new byte[MessageCodec.RESUME_KEY_LENGTH];
+        ThreadLocalRandom.current().nextBytes(key);
+        return key;
+    }
+
+    /**
+     * Inner class for a connection which keeps the transfer messages sent
+     * to it.
+     */
+    private static class RecordingConnection extends TestConnection
+    {
+        private final List<TransferMessage> transfers = 
+            Collections.synchronizedList(new ArrayList<>());
+
+        /**
+         * Counts the frame, and keeps it if it is a transfer message.
+         *
+         * @param frame the frame to send
+         */
+        @Override
+        public void send(Frame frame)
+        {
+            super.send(frame);
+            try
+            {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                frame.writeTo(bytes);
+                Message m = MessageCodec.read(new DataInputStream(
+                    new ByteArrayInputStream(bytes.toByteArray())));
+                if (m instanceof TransferMessage)
+                    transfers.add((TransferMessage) m);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * @param kind the kind of message
+         * @return the first transfer message of that kind (null if none)
+         */
+        private TransferMessage first(TransferMessage.Kind kind)
+        {
+            synchronized (transfers)
+            {
+                for (TransferMessage tm : transfers)
+                {
+                    if (tm.getKind() == kind)
+                        return tm;
+                }
+                return null;
+            }
+        }
+
+        /**
+         * @param kind the kind of message
+         * @return the last transfer message of that kind (null if none)
+         */
+        private TransferMessage last(TransferMessage.Kind kind)
+        {
+            synchronized (transfers)
+            {
+                for (int i = transfers.size() - 1; i >= 0; i--)
+                {
+                    if (transfers.get(i).getKind() == kind)
+                        return transfers.get(i);
+                }
+                return null;
+            }
+        }
+    }
+}
\ No newline at end of file